@@ -7,12 +7,34 @@
  */
 package org.opendaylight.netide.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker.ProviderContext;
 import org.opendaylight.controller.sal.binding.api.BindingAwareBroker.RpcRegistration;
 import org.opendaylight.controller.sal.binding.api.BindingAwareProvider;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+import org.opendaylight.netide.shim.HandshakeScheduler;
+import org.opendaylight.netide.shim.ICoreConnector;
+import org.opendaylight.netide.shim.JfrEventSink;
+import org.opendaylight.netide.shim.MessageCapture;
+import org.opendaylight.netide.shim.PacketBufferStore;
+import org.opendaylight.netide.shim.ReplyExecutor;
+import org.opendaylight.netide.shim.ShardedCoreConnector;
+import org.opendaylight.netide.shim.ShimMetrics;
+import org.opendaylight.netide.shim.ShimStatistics;
 import org.opendaylight.netide.shim.ShimSwitchConnectionHandlerImpl;
+import org.opendaylight.netide.shim.ShimThreadModel;
+import org.opendaylight.netide.shim.StripedExecutor;
+import org.opendaylight.netide.shim.SubscriptionRegistry;
+import org.opendaylight.netide.shim.SwitchStateSnapshot;
+import org.opendaylight.netide.shim.TopologyPublisher;
 import org.opendaylight.netide.shim.ZeroMQBaseConnector;
+import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionConfiguration;
 import org.opendaylight.openflowjava.protocol.impl.core.SwitchConnectionProviderImpl;
 import org.opendaylight.openflowjava.protocol.spi.connection.SwitchConnectionProvider;
@@ -25,7 +47,44 @@ public class NetideProvider implements BindingAwareProvider, AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(NetideProvider.class);
     private RpcRegistration<NetideService> netideService;
     private SwitchConnectionProvider connectionProvider;
-    private ZeroMQBaseConnector coreConnector;
+    private ICoreConnector coreConnector;
+    private ReplyExecutor replyExecutor;
+    private ShimMetrics metrics;
+    private MessageCapture capture;
+    private TrafficLogWriter recorder;
+    private final List<String> coreEndpointAddresses = new ArrayList<>();
+    private final List<Integer> coreEndpointPorts = new ArrayList<>();
+    private long heartbeatInterval;
+    private int heartbeatMissThreshold = 3;
+    private int outageBufferSize = 1024;
+    private int fenceMaxPending;
+    private long outboundWindowNanos;
+    private int outboundMaxBatch;
+    private ScheduledExecutorService outboundScheduler;
+    private int handshakeMaxConcurrent;
+    private long handshakeIntervalNanos;
+    private long handshakeTimeoutNanos;
+    private int handshakeMaxAttempts;
+    private long handshakeBackoffNanos;
+    private ScheduledExecutorService handshakeExecutor;
+    private File snapshotFile;
+    private int topologySyncBatchSize;
+    private long topologySyncIntervalNanos;
+    private long topologySyncMaxQueueDepth;
+    private ScheduledExecutorService topologySyncExecutor;
+    private boolean topologyUpdates;
+    private boolean eventSubscriptions;
+    private int packetBufferCapacity;
+    private long packetBufferMaxBytes;
+    private long packetBufferMaxAgeNanos;
+    private int packetBufferRelayBytes;
+    private PacketBufferStore packetBuffers;
+    private int compressionThreshold;
+    private boolean mirrorEchoes;
+    private ShimSwitchConnectionHandlerImpl handler;
+    private ShimThreadModel threadModel = new ShimThreadModel();
+    private StripedExecutor dispatchExecutor;
+    private StripedExecutor notificationExecutor;
     private int corePort;
     private String coreAddress;
     ConnectionConfiguration conf;
@@ -39,19 +98,226 @@ public class NetideProvider implements BindingAwareProvider, AutoCloseable {
         notificationProviderService = _notificationProviderService;
     }
 
+    /**
+     * Adds a core besides the one given to the constructor; switches are then
+     * sharded over all the cores.
+     */
+    public void addCoreEndpoint(String address, int port) {
+        coreEndpointAddresses.add(address);
+        coreEndpointPorts.add(port);
+    }
+
+    public void setMessageCapture(MessageCapture capture) {
+        this.capture = capture;
+    }
+
+    public void setTrafficRecorder(TrafficLogWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    public void setHeartbeat(long intervalMillis, int missThreshold, int outageBufferSize) {
+        this.heartbeatInterval = intervalMillis;
+        this.heartbeatMissThreshold = missThreshold;
+        this.outageBufferSize = outageBufferSize;
+    }
+
+    /**
+     * @param maxPending
+     *            commands held per switch and module until their FENCE, 0
+     *            relays commands right away
+     */
+    public void setFenceBatching(int maxPending) {
+        this.fenceMaxPending = maxPending;
+    }
+
+    /**
+     * @param windowNanos
+     *            how long messages to a switch are held to be written
+     *            together, 0 writes every message right away
+     */
+    public void setOutboundBatching(long windowNanos, int maxBatch) {
+        this.outboundWindowNanos = windowNanos;
+        this.outboundMaxBatch = maxBatch;
+    }
+
+    /**
+     * @param maxConcurrent
+     *            switch handshakes in progress at once, 0 handshakes every
+     *            switch as soon as it connects
+     */
+    public void setHandshakePacing(int maxConcurrent, long intervalNanos, long timeoutNanos, int maxAttempts,
+            long backoffNanos) {
+        this.handshakeMaxConcurrent = maxConcurrent;
+        this.handshakeIntervalNanos = intervalNanos;
+        this.handshakeTimeoutNanos = timeoutNanos;
+        this.handshakeMaxAttempts = maxAttempts;
+        this.handshakeBackoffNanos = backoffNanos;
+    }
+
+    /**
+     * @param batchSize
+     *            switches described per batch to a core module saying hello,
+     *            0 describes all of them on the receive loop
+     * @param maxQueueDepth
+     *            messages waiting for the core above which batches are held
+     *            back, 0 for no limit
+     */
+    public void setTopologySync(int batchSize, long intervalNanos, long maxQueueDepth) {
+        this.topologySyncBatchSize = batchSize;
+        this.topologySyncIntervalNanos = intervalNanos;
+        this.topologySyncMaxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * @param mirrorEchoes
+     *            whether the echo requests of the switches, answered by the
+     *            shim, are relayed to the core too
+     */
+    public void setMirrorEchoes(boolean mirrorEchoes) {
+        this.mirrorEchoes = mirrorEchoes;
+    }
+
+    /**
+     * @param enabled
+     *            whether the changes of the topology are pushed to the cores
+     *            as TOPOLOGY_UPDATE deltas
+     */
+    public void setTopologyUpdates(boolean enabled) {
+        this.topologyUpdates = enabled;
+    }
+
+    /**
+     * @param enabled
+     *            whether switch events are only sent to the cores once a
+     *            module subscribed to them
+     */
+    public void setEventSubscriptions(boolean enabled) {
+        this.eventSubscriptions = enabled;
+    }
+
+    /**
+     * @param capacity
+     *            frames of unbuffered PACKET_INs kept at the shim, 0 relays
+     *            whole frames
+     * @param maxBytes
+     *            bytes of frames kept at most
+     * @param relayBytes
+     *            bytes of a kept frame still sent to the core
+     */
+    public void setPacketBuffers(int capacity, long maxBytes, long maxAgeNanos, int relayBytes) {
+        this.packetBufferCapacity = capacity;
+        this.packetBufferMaxBytes = maxBytes;
+        this.packetBufferMaxAgeNanos = maxAgeNanos;
+        this.packetBufferRelayBytes = relayBytes;
+    }
+
+    /**
+     * @param threshold
+     *            payload length from which messages to a core announcing
+     *            compression in its HELLO are compressed, 0 never compresses
+     */
+    public void setCompression(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * @param file
+     *            where the state of the switches is saved on close and read
+     *            back on start, null to not keep it
+     */
+    public void setSnapshotFile(File file) {
+        this.snapshotFile = file;
+    }
+
+    public void setThreadModel(ShimThreadModel threadModel) {
+        this.threadModel = threadModel;
+    }
+
     @Override
     public void onSessionInitiated(ProviderContext session) {
         LOG.info("NetideProvider Session Initiated");
+        if (JfrEventSink.install()) {
+            LOG.info("NetIDE flight recorder events registered");
+        }
         connectionProvider = new SwitchConnectionProviderImpl();
-        coreConnector = new ZeroMQBaseConnector();
+        ShardedCoreConnector shardedConnector = null;
+        if (coreEndpointAddresses.isEmpty()) {
+            ZeroMQBaseConnector connector = new ZeroMQBaseConnector();
+            connector.setAddress(coreAddress);
+            connector.setPort(corePort);
+            coreConnector = connector;
+        } else {
+            shardedConnector = new ShardedCoreConnector();
+            shardedConnector.addEndpoint(coreAddress, corePort);
+            for (int i = 0; i < coreEndpointAddresses.size(); i++) {
+                shardedConnector.addEndpoint(coreEndpointAddresses.get(i), coreEndpointPorts.get(i));
+            }
+            coreConnector = shardedConnector;
+        }
+        ShimStatistics statistics = new ShimStatistics();
+        coreConnector.setStatistics(statistics);
+        coreConnector.setMessageCapture(capture);
+        coreConnector.setTrafficRecorder(recorder);
+        coreConnector.setHeartbeat(heartbeatInterval, heartbeatMissThreshold);
+        coreConnector.setOutageBufferSize(outageBufferSize);
+        coreConnector.setCompressionThreshold(compressionThreshold);
+        LOG.info("NetIDE shim threads: {}", threadModel);
+        coreConnector.setIoThreads(threadModel.getZmqIoThreads());
+        dispatchExecutor = threadModel.createDispatchExecutor();
+        coreConnector.setDispatchExecutor(dispatchExecutor);
+        notificationExecutor = threadModel.createNotificationExecutor();
+        replyExecutor = threadModel.createReplyExecutor();
 
-        ShimSwitchConnectionHandlerImpl handler = new ShimSwitchConnectionHandlerImpl(coreConnector,
+        handler = new ShimSwitchConnectionHandlerImpl(coreConnector,
                 notificationProviderService);
+        handler.setStatistics(statistics);
+        handler.setReplyExecutor(replyExecutor);
+        handler.setNotificationExecutor(notificationExecutor);
+        handler.setMirrorEchoes(mirrorEchoes);
+        if (outboundWindowNanos > 0) {
+            outboundScheduler = Executors.newSingleThreadScheduledExecutor(threadModel.threadFactory("outbound"));
+            handler.setOutboundBatching(outboundScheduler, outboundWindowNanos, outboundMaxBatch);
+        }
+        if (fenceMaxPending > 0) {
+            handler.setFenceBatching(fenceMaxPending);
+        }
+        if (topologySyncBatchSize > 0) {
+            topologySyncExecutor = Executors.newSingleThreadScheduledExecutor(threadModel.threadFactory("topology"));
+            handler.setTopologySync(topologySyncExecutor, topologySyncBatchSize, topologySyncIntervalNanos,
+                    topologySyncMaxQueueDepth);
+        }
+        if (topologyUpdates) {
+            handler.setTopologyPublisher(new TopologyPublisher(coreConnector));
+        }
+        if (eventSubscriptions) {
+            handler.setSubscriptionRegistry(new SubscriptionRegistry());
+        }
+        if (packetBufferCapacity > 0) {
+            packetBuffers = new PacketBufferStore(packetBufferCapacity, packetBufferMaxBytes,
+                    packetBufferMaxAgeNanos, packetBufferRelayBytes);
+            handler.setPacketBufferStore(packetBuffers);
+        }
+        if (handshakeMaxConcurrent > 0) {
+            handshakeExecutor = Executors.newSingleThreadScheduledExecutor(threadModel.threadFactory("handshake"));
+            handler.setHandshakeScheduler(new HandshakeScheduler<ConnectionAdapter>(handshakeExecutor,
+                    handshakeMaxConcurrent, handshakeIntervalNanos, handshakeTimeoutNanos, handshakeMaxAttempts,
+                    handshakeBackoffNanos));
+        }
         handler.init();
+        if (snapshotFile != null) {
+            try {
+                SwitchStateSnapshot snapshot = SwitchStateSnapshot.read(snapshotFile);
+                LOG.info("Snapshot of {} switches read from {}", snapshot.size(), snapshotFile);
+                handler.setSnapshot(snapshot);
+            } catch (IOException e) {
+                LOG.warn("Ignoring the snapshot {}", snapshotFile, e);
+            }
+        }
+        if (shardedConnector != null) {
+            shardedConnector.setShardListener(handler);
+        }
 
         coreConnector.RegisterCoreListener(handler);
-        coreConnector.setAddress(coreAddress);
-        coreConnector.setPort(corePort);
 
         connectionProvider.setSwitchConnectionHandler(handler);
 
@@ -59,7 +325,10 @@ public class NetideProvider implements BindingAwareProvider, AutoCloseable {
         coreConnector.Start();
         connectionProvider.startup();
 
-        netideService = session.addRpcImplementation(NetideService.class, new StatusImpl(handler));
+        netideService = session.addRpcImplementation(NetideService.class, new StatusImpl(handler, capture));
+
+        metrics = new ShimMetrics(statistics, handler, replyExecutor);
+        metrics.register();
     }
 
     @Override
@@ -68,8 +337,41 @@ public class NetideProvider implements BindingAwareProvider, AutoCloseable {
         if (netideService != null) {
             netideService.close();
         }
+        if (metrics != null) {
+            metrics.unregister();
+        }
+        if (snapshotFile != null && handler != null) {
+            try {
+                SwitchStateSnapshot snapshot = handler.createSnapshot();
+                snapshot.write(snapshotFile);
+                LOG.info("Snapshot of {} switches written to {}", snapshot.size(), snapshotFile);
+            } catch (IOException e) {
+                LOG.warn("Cannot write the snapshot {}", snapshotFile, e);
+            }
+        }
         connectionProvider.shutdown();
         coreConnector.Stop();
+        if (dispatchExecutor != null) {
+            dispatchExecutor.shutdown();
+        }
+        if (notificationExecutor != null) {
+            notificationExecutor.shutdown();
+        }
+        if (replyExecutor != null) {
+            replyExecutor.shutdown();
+        }
+        if (outboundScheduler != null) {
+            outboundScheduler.shutdown();
+        }
+        if (handshakeExecutor != null) {
+            handshakeExecutor.shutdown();
+        }
+        if (topologySyncExecutor != null) {
+            topologySyncExecutor.shutdown();
+        }
+        if (packetBuffers != null) {
+            packetBuffers.clear();
+        }
     }
 
 }
\ No newline at end of file
@@ -7,14 +7,43 @@
  */
 package org.opendaylight.netide.impl;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Future;
 import org.opendaylight.netide.netiplib.NetIDEProtocolVersion;
+import org.opendaylight.netide.shim.FlowEntry;
+import org.opendaylight.netide.shim.FlowTableMirror;
+import org.opendaylight.netide.shim.FlowTableMirrors;
+import org.opendaylight.netide.shim.MessageCapture;
+import org.opendaylight.netide.shim.ShimStatistics;
 import org.opendaylight.netide.shim.ShimSwitchConnectionHandlerImpl;
+import org.opendaylight.netide.shim.SwitchCounters;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.CoreLinkState;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.DumpCaptureInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.DumpCaptureOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.DumpCaptureOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.GetFlowTableInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.GetFlowTableOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.GetFlowTableOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.MessageDirection;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.NetideService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.StatisticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.StatisticsOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.StatusOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.StatusOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.get.flow.table.output.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.get.flow.table.output.FlowBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.statistics.output.DatapathStatistics;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.statistics.output.DatapathStatisticsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.statistics.output.datapath.statistics.MessageStatistics;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.rev151001.statistics.output.datapath.statistics.MessageStatisticsBuilder;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * @author giuseppex.petralia@intel.com
@@ -22,10 +51,13 @@ import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
  */
 public class StatusImpl implements NetideService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(StatusImpl.class);
     private ShimSwitchConnectionHandlerImpl connectionHandler;
+    private MessageCapture capture;
 
-    public StatusImpl(ShimSwitchConnectionHandlerImpl handler) {
+    public StatusImpl(ShimSwitchConnectionHandlerImpl handler, MessageCapture capture) {
         connectionHandler = handler;
+        this.capture = capture;
     }
 
     @Override
@@ -36,4 +68,116 @@ public class StatusImpl implements NetideService {
         builder.setConnectedSwitches(connectionHandler.getNumberOfSwitches());
         return RpcResultBuilder.success(builder.build()).buildFuture();
     }
-}
\ No newline at end of file
+
+    @Override
+    public Future<RpcResult<StatisticsOutput>> statistics() {
+        ShimStatistics statistics = connectionHandler.getStatistics();
+        StatisticsOutputBuilder builder = new StatisticsOutputBuilder();
+        builder.setMessagesToCore(toUint64(statistics.getMessagesToCore()));
+        builder.setBytesToCore(toUint64(statistics.getBytesToCore()));
+        builder.setMessagesFromCore(toUint64(statistics.getMessagesFromCore()));
+        builder.setBytesFromCore(toUint64(statistics.getBytesFromCore()));
+        builder.setCoreQueueDepth(toUint64(statistics.getCoreQueueDepth()));
+        builder.setDrops(toUint64(statistics.getDrops()));
+        builder.setSerializationErrors(toUint64(statistics.getSerializationErrors()));
+        builder.setOutstandingRequests(toUint64(statistics.getOutstandingRequests()));
+        builder.setCoreLinkState(toCoreLinkState(statistics.getCoreLinkState()));
+
+        List<DatapathStatistics> datapaths = new ArrayList<>();
+        for (SwitchCounters counters : statistics.getSwitchCounters()) {
+            DatapathStatisticsBuilder datapathBuilder = new DatapathStatisticsBuilder();
+            datapathBuilder.setDatapathId(toUnsigned(counters.getDatapathId()));
+            datapathBuilder.setDrops(toUint64(counters.getDrops()));
+            datapathBuilder.setOutstandingRequests(toUint64(counters.getOutstandingRequests()));
+            List<MessageStatistics> messages = new ArrayList<>();
+            addMessageStatistics(messages, counters, SwitchCounters.TO_SWITCH, MessageDirection.ToSwitch);
+            addMessageStatistics(messages, counters, SwitchCounters.FROM_SWITCH, MessageDirection.FromSwitch);
+            datapathBuilder.setMessageStatistics(messages);
+            datapaths.add(datapathBuilder.build());
+        }
+        builder.setDatapathStatistics(datapaths);
+        return RpcResultBuilder.success(builder.build()).buildFuture();
+    }
+
+    @Override
+    public Future<RpcResult<DumpCaptureOutput>> dumpCapture(DumpCaptureInput input) {
+        if (capture == null) {
+            return RpcResultBuilder.<DumpCaptureOutput> failed()
+                    .withError(ErrorType.APPLICATION, "Message capture is disabled").buildFuture();
+        }
+        Long datapathId = input.getDatapathId() != null ? input.getDatapathId().longValue() : null;
+        try {
+            int frames = capture.dump(input.getFileName(), datapathId);
+            DumpCaptureOutputBuilder builder = new DumpCaptureOutputBuilder();
+            builder.setFrames((long) frames);
+            return RpcResultBuilder.success(builder.build()).buildFuture();
+        } catch (IllegalArgumentException e) {
+            return RpcResultBuilder.<DumpCaptureOutput> failed()
+                    .withError(ErrorType.APPLICATION, e.getMessage()).buildFuture();
+        } catch (IOException e) {
+            LOG.warn("Unable to dump message capture to {}", input.getFileName(), e);
+            return RpcResultBuilder.<DumpCaptureOutput> failed()
+                    .withError(ErrorType.APPLICATION, "Unable to write " + input.getFileName(), e).buildFuture();
+        }
+    }
+
+    @Override
+    public Future<RpcResult<GetFlowTableOutput>> getFlowTable(GetFlowTableInput input) {
+        FlowTableMirrors flowTables = connectionHandler.getFlowTableMirrors();
+        FlowTableMirror mirror = flowTables != null ? flowTables.get(input.getDatapathId().longValue()) : null;
+        List<Flow> flows = new ArrayList<>();
+        if (mirror != null) {
+            short tableId = input.getTableId() != null ? input.getTableId() : FlowTableMirror.ALL_TABLES;
+            for (FlowEntry entry : mirror.getFlows(tableId)) {
+                FlowBuilder flowBuilder = new FlowBuilder();
+                flowBuilder.setTableId(entry.getTableId());
+                flowBuilder.setPriority(entry.getPriority());
+                flowBuilder.setCookie(toUnsigned(entry.getCookie()));
+                flowBuilder.setIdleTimeout(entry.getIdleTimeout());
+                flowBuilder.setHardTimeout(entry.getHardTimeout());
+                flowBuilder.setMatch(String.valueOf(entry.getMatch()));
+                flowBuilder.setInstructions(String.valueOf(entry.getInstructions()));
+                flows.add(flowBuilder.build());
+            }
+        }
+        GetFlowTableOutputBuilder builder = new GetFlowTableOutputBuilder();
+        builder.setFlowCount((long) flows.size());
+        builder.setFlow(flows);
+        return RpcResultBuilder.success(builder.build()).buildFuture();
+    }
+
+    private static void addMessageStatistics(List<MessageStatistics> messages, SwitchCounters counters,
+            int direction, MessageDirection messageDirection) {
+        for (int ofType = 0; ofType < SwitchCounters.OF_TYPES; ofType++) {
+            long count = counters.getMessages(direction, ofType);
+            if (count > 0) {
+                MessageStatisticsBuilder builder = new MessageStatisticsBuilder();
+                builder.setDirection(messageDirection);
+                builder.setOfType((short) ofType);
+                builder.setMessages(toUint64(count));
+                builder.setBytes(toUint64(counters.getBytes(direction, ofType)));
+                messages.add(builder.build());
+            }
+        }
+    }
+
+    private static CoreLinkState toCoreLinkState(org.opendaylight.netide.shim.CoreLinkState state) {
+        switch (state) {
+        case UP:
+            return CoreLinkState.Up;
+        case DOWN:
+            return CoreLinkState.Down;
+        default:
+            return CoreLinkState.Unknown;
+        }
+    }
+
+    private static BigInteger toUnsigned(long value) {
+        BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? result.setBit(Long.SIZE - 1) : result;
+    }
+
+    private static BigInteger toUint64(long value) {
+        return BigInteger.valueOf(value < 0 ? 0 : value);
+    }
+}
@@ -3,19 +3,44 @@ package org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.
 import java.util.List;
 
 import com.google.common.base.MoreObjects;
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
 import org.opendaylight.netide.impl.NetideProvider;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+import org.opendaylight.netide.shim.MessageCapture;
 import org.opendaylight.netide.shim.ShimConnectionConfiguration;
+import org.opendaylight.netide.shim.ShimThreadModel;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionConfiguration;
 import org.opendaylight.openflowjava.protocol.api.connection.ThreadConfiguration;
 import org.opendaylight.openflowjava.protocol.api.connection.TlsConfiguration;
 import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.IpAddress;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.config.rev140630.KeystoreType;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.config.rev140630.TransportProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class NetideMainModule extends
         org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.netide.netide.impl.rev151001.AbstractNetideMainModule {
+    private static final Logger LOG = LoggerFactory.getLogger(NetideMainModule.class);
+    private static final int DEFAULT_CAPTURE_SLOT_SIZE = 2048;
+    private static final String DEFAULT_CAPTURE_DIRECTORY = "data/netide/capture";
+    private static final int DEFAULT_RECORDER_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_HEARTBEAT_MISS_THRESHOLD = 3;
+    private static final int DEFAULT_OUTAGE_BUFFER = 1024;
+    private static final int DEFAULT_FENCE_MAX_PENDING = 1024;
+    private static final int DEFAULT_OUTBOUND_MAX_BATCH = 64;
+    private static final long DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+    private static final int DEFAULT_HANDSHAKE_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_HANDSHAKE_BACKOFF = 500;
+    private static final long DEFAULT_TOPOLOGY_SYNC_INTERVAL = 10;
+    private static final long DEFAULT_PACKET_BUFFER_MAX_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_PACKET_BUFFER_MAX_AGE = 1000;
+    private static final int DEFAULT_PACKET_BUFFER_RELAY_BYTES = 128;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
     public NetideMainModule(org.opendaylight.controller.config.api.ModuleIdentifier identifier,
             org.opendaylight.controller.config.api.DependencyResolver dependencyResolver) {
         super(identifier, dependencyResolver);
@@ -42,6 +67,83 @@ public class NetideMainModule extends
             ConnectionConfiguration conf = createConnectionConfiguration();
             provider = new NetideProvider(coreAddress.getHostAddress(), corePort, conf,
                     getNotificationPublishAdapterDependency());
+            if (getCoreEndpoint() != null) {
+                for (CoreEndpoint endpoint : getCoreEndpoint()) {
+                    provider.addCoreEndpoint(extractIpAddressBin(endpoint.getAddress()).getHostAddress(),
+                            endpoint.getPort());
+                }
+            }
+            provider.setMessageCapture(createMessageCapture());
+            provider.setTrafficRecorder(createTrafficRecorder());
+            final Heartbeat heartbeat = getHeartbeat();
+            if (heartbeat != null) {
+                provider.setHeartbeat(heartbeat.getInterval() != null ? heartbeat.getInterval() : 0,
+                        heartbeat.getMissThreshold() != null ? heartbeat.getMissThreshold()
+                                : DEFAULT_HEARTBEAT_MISS_THRESHOLD,
+                        heartbeat.getOutageBuffer() != null ? heartbeat.getOutageBuffer().intValue()
+                                : DEFAULT_OUTAGE_BUFFER);
+            }
+            final Fence fence = getFence();
+            if (fence != null && fence.getBatching() != null && fence.getBatching()) {
+                provider.setFenceBatching(fence.getMaxPending() != null ? fence.getMaxPending().intValue()
+                        : DEFAULT_FENCE_MAX_PENDING);
+            }
+            final Outbound outbound = getOutbound();
+            if (outbound != null && outbound.getWindow() != null && outbound.getWindow() > 0) {
+                provider.setOutboundBatching(TimeUnit.MICROSECONDS.toNanos(outbound.getWindow()),
+                        outbound.getMaxBatch() != null ? outbound.getMaxBatch() : DEFAULT_OUTBOUND_MAX_BATCH);
+            }
+            provider.setThreadModel(createThreadModel());
+            final TopologySync topologySync = getTopologySync();
+            if (topologySync != null && topologySync.getBatchSize() != null && topologySync.getBatchSize() > 0) {
+                provider.setTopologySync(topologySync.getBatchSize(),
+                        TimeUnit.MILLISECONDS.toNanos(topologySync.getInterval() != null
+                                ? topologySync.getInterval() : DEFAULT_TOPOLOGY_SYNC_INTERVAL),
+                        topologySync.getMaxQueueDepth() != null ? topologySync.getMaxQueueDepth() : 0);
+            }
+            final Echo echo = getEcho();
+            if (echo != null && Boolean.TRUE.equals(echo.getMirrorToCore())) {
+                provider.setMirrorEchoes(true);
+            }
+            final TopologyUpdates topologyUpdates = getTopologyUpdates();
+            if (topologyUpdates != null && Boolean.TRUE.equals(topologyUpdates.getEnabled())) {
+                provider.setTopologyUpdates(true);
+            }
+            final EventSubscriptions eventSubscriptions = getEventSubscriptions();
+            if (eventSubscriptions != null && Boolean.TRUE.equals(eventSubscriptions.getEnabled())) {
+                provider.setEventSubscriptions(true);
+            }
+            final PacketBuffers packetBuffers = getPacketBuffers();
+            if (packetBuffers != null && packetBuffers.getCapacity() != null && packetBuffers.getCapacity() > 0) {
+                provider.setPacketBuffers(packetBuffers.getCapacity().intValue(),
+                        packetBuffers.getMaxBytes() != null ? packetBuffers.getMaxBytes()
+                                : DEFAULT_PACKET_BUFFER_MAX_BYTES,
+                        TimeUnit.MILLISECONDS.toNanos(packetBuffers.getMaxAge() != null ? packetBuffers.getMaxAge()
+                                : DEFAULT_PACKET_BUFFER_MAX_AGE),
+                        packetBuffers.getRelayBytes() != null ? packetBuffers.getRelayBytes()
+                                : DEFAULT_PACKET_BUFFER_RELAY_BYTES);
+            }
+            final Compression compression = getCompression();
+            if (compression != null && Boolean.TRUE.equals(compression.getEnabled())) {
+                provider.setCompression(compression.getThreshold() != null ? compression.getThreshold()
+                        : DEFAULT_COMPRESSION_THRESHOLD);
+            }
+            final WarmRestart warmRestart = getWarmRestart();
+            if (warmRestart != null && warmRestart.getSnapshotFile() != null
+                    && !warmRestart.getSnapshotFile().isEmpty()) {
+                provider.setSnapshotFile(new File(warmRestart.getSnapshotFile()));
+            }
+            final Handshake handshake = getHandshake();
+            if (handshake != null && handshake.getMaxConcurrent() != null && handshake.getMaxConcurrent() > 0) {
+                provider.setHandshakePacing(handshake.getMaxConcurrent(),
+                        TimeUnit.MILLISECONDS.toNanos(handshake.getInterval() != null ? handshake.getInterval() : 0),
+                        TimeUnit.MILLISECONDS.toNanos(handshake.getTimeout() != null ? handshake.getTimeout()
+                                : DEFAULT_HANDSHAKE_TIMEOUT),
+                        handshake.getMaxAttempts() != null ? handshake.getMaxAttempts()
+                                : DEFAULT_HANDSHAKE_MAX_ATTEMPTS,
+                        TimeUnit.MILLISECONDS.toNanos(handshake.getBackoff() != null ? handshake.getBackoff()
+                                : DEFAULT_HANDSHAKE_BACKOFF));
+            }
             getBrokerDependency().registerProvider(provider);
         } catch (UnknownHostException e) {
             e.printStackTrace();
@@ -133,6 +235,62 @@ public class NetideMainModule extends
                 transportProtocol);
     }
 
+    private ShimThreadModel createThreadModel() {
+        final ShimThreadModel threadModel = new ShimThreadModel();
+        final ThreadModel config = getThreadModel();
+        if (config == null) {
+            return threadModel;
+        }
+        if (config.getZmqIoThreads() != null) {
+            threadModel.setZmqIoThreads(config.getZmqIoThreads());
+        }
+        if (config.getDispatchWorkers() != null) {
+            threadModel.setDispatchWorkers(config.getDispatchWorkers());
+        }
+        if (config.getNotificationWorkers() != null) {
+            threadModel.setNotificationWorkers(config.getNotificationWorkers());
+        }
+        if (config.getReplyThreads() != null) {
+            threadModel.setReplyThreads(config.getReplyThreads());
+        }
+        threadModel.setVirtualReplyThreads(config.getVirtualReplyThreads() != null && config.getVirtualReplyThreads());
+        if (config.getQueueCapacity() != null) {
+            threadModel.setQueueCapacity(config.getQueueCapacity().intValue());
+        }
+        threadModel.setNamePrefix(config.getNamePrefix());
+        return threadModel;
+    }
+
+    private MessageCapture createMessageCapture() {
+        final Capture capture = getCapture();
+        if (capture == null || capture.getSlots() == null || capture.getSlots() == 0) {
+            return null;
+        }
+        int slotSize = capture.getSlotSize() != null ? capture.getSlotSize().intValue() : DEFAULT_CAPTURE_SLOT_SIZE;
+        boolean perDatapath = capture.getPerDatapath() != null && capture.getPerDatapath();
+        int maxRings = capture.getMaxRings() != null && capture.getMaxRings() > 0 ? capture.getMaxRings()
+                : MessageCapture.DEFAULT_MAX_RINGS;
+        String directory = capture.getDirectory() != null && !capture.getDirectory().isEmpty()
+                ? capture.getDirectory() : DEFAULT_CAPTURE_DIRECTORY;
+        return new MessageCapture(capture.getSlots().intValue(), slotSize, perDatapath, maxRings,
+                new File(directory));
+    }
+
+    private TrafficLogWriter createTrafficRecorder() {
+        final Recorder recorder = getRecorder();
+        if (recorder == null || recorder.getDirectory() == null || recorder.getDirectory().isEmpty()) {
+            return null;
+        }
+        int segmentSize = recorder.getSegmentSize() != null ? recorder.getSegmentSize().intValue()
+                : DEFAULT_RECORDER_SEGMENT_SIZE;
+        try {
+            return new TrafficLogWriter(new File(recorder.getDirectory()), segmentSize);
+        } catch (IOException e) {
+            LOG.warn("Traffic recording disabled, cannot open {}", recorder.getDirectory(), e);
+            return null;
+        }
+    }
+
     private static InetAddress extractIpAddressBin(final IpAddress address) throws UnknownHostException {
 
         if (address != null) {
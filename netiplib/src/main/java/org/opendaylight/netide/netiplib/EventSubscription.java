@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Interest of a module in the events of the switches, sent to the shim in the
+ * payload of a MANAGEMENT message.
+ * <p>
+ * The payload holds one subscription per line, such as
+ * {@code subscribe type=10 dpid=1,2 table=0 reason=1}. Only the OpenFlow
+ * message type is required, a missing datapath set, table id or reason matches
+ * any. A payload made of the single line {@code unsubscribe} withdraws all the
+ * subscriptions of the module. Each subscription payload replaces the previous
+ * subscriptions of its module.
+ */
+public class EventSubscription {
+
+    public static final String SUBSCRIBE = "subscribe";
+    public static final String UNSUBSCRIBE = "unsubscribe";
+    /**
+     * Table id or reason matching any.
+     */
+    public static final int ANY = -1;
+
+    private final int messageType;
+    private final Set<Long> datapathIds;
+    private final int tableId;
+    private final int reason;
+
+    /**
+     * Instantiates a new event subscription.
+     *
+     * @param messageType the OpenFlow message type
+     * @param datapathIds the switches, empty for any
+     * @param tableId the table id, {@link #ANY} for any
+     * @param reason the reason of the event, {@link #ANY} for any
+     */
+    public EventSubscription(int messageType, Set<Long> datapathIds, int tableId, int reason) {
+        this.messageType = messageType;
+        this.datapathIds = Collections.unmodifiableSet(new TreeSet<>(datapathIds));
+        this.tableId = tableId;
+        this.reason = reason;
+    }
+
+    public int getMessageType() {
+        return messageType;
+    }
+
+    public Set<Long> getDatapathIds() {
+        return datapathIds;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int getReason() {
+        return reason;
+    }
+
+    /**
+     * Checks whether an event is wanted. A table id or reason the event does
+     * not carry is given as {@link #ANY} and matches.
+     *
+     * @param datapathId the switch
+     * @param type the OpenFlow message type
+     * @param eventTableId the table id of the event
+     * @param eventReason the reason of the event
+     * @return true if the subscription covers the event
+     */
+    public boolean matches(long datapathId, int type, int eventTableId, int eventReason) {
+        return type == messageType && (datapathIds.isEmpty() || datapathIds.contains(datapathId))
+                && (tableId == ANY || eventTableId == ANY || tableId == eventTableId)
+                && (reason == ANY || eventReason == ANY || reason == eventReason);
+    }
+
+    /**
+     * Checks whether a MANAGEMENT payload is a subscription.
+     *
+     * @param payload the payload
+     * @return true if the payload subscribes or unsubscribes
+     */
+    public static boolean isSubscription(String payload) {
+        String text = payload == null ? "" : payload.trim();
+        return text.equals(UNSUBSCRIBE) || text.startsWith(SUBSCRIBE + " ");
+    }
+
+    /**
+     * Parses the subscriptions of a module.
+     *
+     * @param payload the payload of a MANAGEMENT message
+     * @return the subscriptions, empty when unsubscribing
+     * @throws IllegalArgumentException if the payload is not a valid
+     *             subscription
+     */
+    public static List<EventSubscription> parse(String payload) {
+        if (!isSubscription(payload)) {
+            throw new IllegalArgumentException("Not a subscription");
+        }
+        List<EventSubscription> subscriptions = new ArrayList<>();
+        if (payload.trim().equals(UNSUBSCRIBE)) {
+            return subscriptions;
+        }
+        for (String line : payload.trim().split("\n")) {
+            String[] words = line.trim().split("\\s+");
+            if (!words[0].equals(SUBSCRIBE)) {
+                throw new IllegalArgumentException("Not a subscription: " + line);
+            }
+            int type = ANY;
+            Set<Long> datapathIds = new TreeSet<>();
+            int table = ANY;
+            int why = ANY;
+            for (int i = 1; i < words.length; i++) {
+                int eq = words[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("Malformed subscription field: " + words[i]);
+                }
+                String key = words[i].substring(0, eq);
+                String value = words[i].substring(eq + 1);
+                try {
+                    if (key.equals("type")) {
+                        type = Integer.parseInt(value);
+                    } else if (key.equals("dpid")) {
+                        for (String dpid : value.split(",")) {
+                            datapathIds.add(Long.parseLong(dpid));
+                        }
+                    } else if (key.equals("table")) {
+                        table = Integer.parseInt(value);
+                    } else if (key.equals("reason")) {
+                        why = Integer.parseInt(value);
+                    } else {
+                        throw new IllegalArgumentException("Unknown subscription field: " + key);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed subscription field: " + words[i], e);
+                }
+            }
+            if (type < 0) {
+                throw new IllegalArgumentException("Subscription without message type: " + line);
+            }
+            subscriptions.add(new EventSubscription(type, datapathIds, table, why));
+        }
+        return subscriptions;
+    }
+
+    /**
+     * Formats subscriptions as a MANAGEMENT payload.
+     *
+     * @param subscriptions the subscriptions, none to unsubscribe
+     * @return the payload
+     */
+    public static String toPayload(List<EventSubscription> subscriptions) {
+        if (subscriptions.isEmpty()) {
+            return UNSUBSCRIBE;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (EventSubscription subscription : subscriptions) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(subscription);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(SUBSCRIBE).append(" type=").append(messageType);
+        if (!datapathIds.isEmpty()) {
+            sb.append(" dpid=");
+            String separator = "";
+            for (Long datapathId : datapathIds) {
+                sb.append(separator).append(datapathId);
+                separator = ",";
+            }
+        }
+        if (tableId != ANY) {
+            sb.append(" table=").append(tableId);
+        }
+        if (reason != ANY) {
+            sb.append(" reason=").append(reason);
+        }
+        return sb.toString();
+    }
+}
@@ -30,6 +30,23 @@ public class MessageHeader {
         this.netIDEProtocolVersion = NetIDEProtocolVersion.VERSION_1_4;
     }
 
+    /**
+     * Reads the datapath id of a message without parsing it.
+     *
+     * @param message the message
+     * @return the datapath id, 0 if the message is shorter than a header
+     */
+    public static long readDatapathId(byte[] message) {
+        if (message.length < HEADER_BYTES) {
+            return 0;
+        }
+        long value = 0;
+        for (int i = 12; i < HEADER_BYTES; i++) {
+            value = (value << 8) | (message[i] & 0xFF);
+        }
+        return value;
+    }
+
     /**
      * Gets net iDE protocol version.
      *
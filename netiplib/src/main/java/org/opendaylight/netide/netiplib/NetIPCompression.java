@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate compression of the payload of NetIP messages, used on a link once
+ * both ends announced {@link ProtocolVersions#COMPRESSION_DEFLATE} in their
+ * HELLO.
+ * <p>
+ * The header of a compressed message stays readable: the {@link #COMPRESSED}
+ * bit is set in the message type and the payload length is the one of the
+ * compressed payload, made of the original payload length on two bytes
+ * followed by the deflated payload. Payloads below the threshold, or that do
+ * not get smaller, are left as they are.
+ */
+public final class NetIPCompression {
+
+    /**
+     * Bit of the message type marking a compressed payload.
+     */
+    public static final byte COMPRESSED = (byte) 0x80;
+    private static final int LENGTH_BYTES = 2;
+
+    private NetIPCompression() {
+    }
+
+    /**
+     * @param data the message
+     * @return true if the payload of the message is compressed
+     */
+    public static boolean isCompressed(byte[] data) {
+        return data.length > MessageHeader.HEADER_BYTES && (data[1] & COMPRESSED) != 0;
+    }
+
+    /**
+     * Compresses the payload of a message.
+     *
+     * @param data the message
+     * @param threshold the payload length from which to compress
+     * @return the compressed message, the message itself if it is not worth
+     *         compressing
+     */
+    public static byte[] compress(byte[] data, int threshold) {
+        int payloadLength = data.length - MessageHeader.HEADER_BYTES;
+        if (payloadLength < threshold || payloadLength <= LENGTH_BYTES || isCompressed(data)) {
+            return data;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] deflated = new byte[payloadLength];
+        int deflatedLength;
+        try {
+            deflater.setInput(data, MessageHeader.HEADER_BYTES, payloadLength);
+            deflater.finish();
+            deflatedLength = deflater.deflate(deflated, 0, payloadLength - LENGTH_BYTES);
+            if (!deflater.finished()) {
+                return data;
+            }
+        } finally {
+            deflater.end();
+        }
+        byte[] compressed = new byte[MessageHeader.HEADER_BYTES + LENGTH_BYTES + deflatedLength];
+        System.arraycopy(data, 0, compressed, 0, MessageHeader.HEADER_BYTES);
+        compressed[1] |= COMPRESSED;
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        buffer.putShort(2, (short) (LENGTH_BYTES + deflatedLength));
+        buffer.putShort(MessageHeader.HEADER_BYTES, (short) payloadLength);
+        System.arraycopy(deflated, 0, compressed, MessageHeader.HEADER_BYTES + LENGTH_BYTES, deflatedLength);
+        return compressed;
+    }
+
+    /**
+     * Restores the payload of a compressed message.
+     *
+     * @param data the message
+     * @return the message with its original payload, the message itself if it
+     *         is not compressed
+     * @throws IllegalArgumentException if the payload cannot be inflated
+     */
+    public static byte[] decompress(byte[] data) {
+        if (!isCompressed(data)) {
+            return data;
+        }
+        if (data.length < MessageHeader.HEADER_BYTES + LENGTH_BYTES) {
+            throw new IllegalArgumentException("Compressed payload too short");
+        }
+        int payloadLength = ByteBuffer.wrap(data, MessageHeader.HEADER_BYTES, LENGTH_BYTES).getShort() & 0xFFFF;
+        byte[] message = Arrays.copyOf(data, MessageHeader.HEADER_BYTES + payloadLength);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, MessageHeader.HEADER_BYTES + LENGTH_BYTES,
+                    data.length - MessageHeader.HEADER_BYTES - LENGTH_BYTES);
+            int inflated = inflater.inflate(message, MessageHeader.HEADER_BYTES, payloadLength);
+            if (inflated != payloadLength || !inflater.finished()) {
+                throw new IllegalArgumentException("Compressed payload does not match its length");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Compressed payload could not be inflated", e);
+        } finally {
+            inflater.end();
+        }
+        message[1] &= ~COMPRESSED;
+        ByteBuffer.wrap(message).putShort(2, (short) payloadLength);
+        return message;
+    }
+}
@@ -27,12 +27,14 @@ public abstract class NetIPConverter {
 
 
     /**
-     * Parse raw message.
+     * Parse raw message. A compressed payload is inflated first, see
+     * {@link NetIPCompression}.
      *
      * @param data the data
      * @return the message
      */
     public static Message parseRawMessage(byte[] data) {
+        data = NetIPCompression.decompress(data);
         return new Message(parseHeader(Arrays.copyOfRange(data, 0, MessageHeader.HEADER_BYTES)), Arrays.copyOfRange(data, MessageHeader.HEADER_BYTES, data.length));
     }
 
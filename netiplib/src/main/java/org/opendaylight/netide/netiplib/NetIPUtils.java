@@ -235,7 +235,7 @@ public abstract class NetIPUtils {
             throw new IllegalArgumentException("Can only convert TOPOLOGY_UPDATE messages");
         TopologyUpdateMessage tum = new TopologyUpdateMessage();
         tum.setHeader(message.header);
-        tum.setTopology(new String(message.getPayload()));
+        tum.setPayload(message.getPayload());
         return tum;
     }
     
@@ -22,7 +22,11 @@ public enum Protocol {
     /**
      * The OPFLEX protocol.
      */
-    OPFLEX((byte) 0x13);
+    OPFLEX((byte) 0x13),
+    /**
+     * The compression of NetIP payloads, announced in HELLO messages.
+     */
+    COMPRESSION((byte) 0x20);
 
     private byte value;
 
@@ -38,7 +38,11 @@ public enum ProtocolVersions {
     /**
      * The OPFLEX_0_0.
      */
-    OPFLEX_0_0(Protocol.OPFLEX, (byte) 0x00);
+    OPFLEX_0_0(Protocol.OPFLEX, (byte) 0x00),
+    /**
+     * The COMPRESSION_DEFLATE, see {@link NetIPCompression}.
+     */
+    COMPRESSION_DEFLATE(Protocol.COMPRESSION, (byte) 0x01);
 
     private Protocol protocol;
     private byte value;
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Binary payload of a TOPOLOGY_UPDATE message: the changes of the topology
+ * since the previous sequence number, or a part of the full topology.
+ * <p>
+ * The payload starts with a format byte, flags (1), the sequence number (8)
+ * and the number of events (2), followed by each event as its type (1),
+ * datapath id (8) and port number (4). Consecutive deltas have consecutive
+ * sequence numbers, so a receiver noticing a gap asks for a full resync. A
+ * full topology carries the sequence number of the last delta it includes and
+ * is split in parts, all but the last flagged {@link #MORE}. A topology sent as
+ * text starts with a printable character and is never taken for a delta.
+ */
+public class TopologyDelta {
+
+    public static final byte FORMAT = 0x01;
+    public static final byte FULL = 0x01;
+    public static final byte MORE = 0x02;
+    static final int HEADER_BYTES = 12;
+    static final int EVENT_BYTES = 13;
+    /**
+     * Events fitting in the payload of one NetIP message.
+     */
+    public static final int MAX_EVENTS = (0xFFFF - HEADER_BYTES) / EVENT_BYTES;
+
+    private final long sequence;
+    private final byte flags;
+    private final List<TopologyEvent> events;
+
+    /**
+     * Instantiates a new topology delta.
+     *
+     * @param sequence the sequence number
+     * @param flags {@link #FULL} and {@link #MORE}
+     * @param events at most {@link #MAX_EVENTS} events
+     */
+    public TopologyDelta(long sequence, byte flags, List<TopologyEvent> events) {
+        if (events.size() > MAX_EVENTS) {
+            throw new IllegalArgumentException("Too many events in one delta: " + events.size());
+        }
+        this.sequence = sequence;
+        this.flags = flags;
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public byte getFlags() {
+        return flags;
+    }
+
+    public boolean isFull() {
+        return (flags & FULL) != 0;
+    }
+
+    public boolean hasMore() {
+        return (flags & MORE) != 0;
+    }
+
+    public List<TopologyEvent> getEvents() {
+        return events;
+    }
+
+    public byte[] toByteRepresentation() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + events.size() * EVENT_BYTES);
+        buffer.put(FORMAT);
+        buffer.put(flags);
+        buffer.putLong(sequence);
+        buffer.putShort((short) events.size());
+        for (TopologyEvent event : events) {
+            buffer.put(event.getType().getValue());
+            buffer.putLong(event.getDatapathId());
+            buffer.putInt((int) event.getPortNo());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Checks whether a TOPOLOGY_UPDATE payload is a delta.
+     *
+     * @param payload the payload
+     * @return true if the payload is a delta rather than a text topology
+     */
+    public static boolean isDelta(byte[] payload) {
+        return payload.length >= HEADER_BYTES && payload[0] == FORMAT;
+    }
+
+    /**
+     * Parses a delta.
+     *
+     * @param payload the payload of a TOPOLOGY_UPDATE message
+     * @return the delta
+     * @throws IllegalArgumentException if the payload is not a valid delta
+     */
+    public static TopologyDelta parse(byte[] payload) {
+        if (!isDelta(payload)) {
+            throw new IllegalArgumentException("Not a topology delta");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.get();
+        byte flags = buffer.get();
+        long sequence = buffer.getLong();
+        int count = buffer.getShort() & 0xFFFF;
+        if (buffer.remaining() != count * EVENT_BYTES) {
+            throw new IllegalArgumentException("Topology delta of " + count + " events has " + buffer.remaining()
+                    + " bytes");
+        }
+        List<TopologyEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TopologyEvent.Type type = TopologyEvent.Type.parse(buffer.get());
+            long datapathId = buffer.getLong();
+            long portNo = buffer.getInt() & 0xFFFFFFFFL;
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown topology event type");
+            }
+            events.add(new TopologyEvent(type, datapathId, portNo));
+        }
+        return new TopologyDelta(sequence, flags, events);
+    }
+
+    @Override
+    public String toString() {
+        return "TopologyDelta [sequence=" + sequence + ", flags=" + flags + ", events=" + events + "]";
+    }
+}
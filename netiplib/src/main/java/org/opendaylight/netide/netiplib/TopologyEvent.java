@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+/**
+ * One change of the topology carried by a {@link TopologyDelta}.
+ */
+public class TopologyEvent {
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        SWITCH_ADDED((byte) 1), SWITCH_REMOVED((byte) 2), PORT_UP((byte) 3), PORT_DOWN((byte) 4), PORT_REMOVED(
+                (byte) 5);
+
+        private final byte value;
+
+        Type(byte value) {
+            this.value = value;
+        }
+
+        public byte getValue() {
+            return value;
+        }
+
+        /**
+         * Parses a type.
+         *
+         * @param value the encoded type
+         * @return the type, null if unknown
+         */
+        public static Type parse(byte value) {
+            for (Type type : values()) {
+                if (type.value == value) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Type type;
+    private final long datapathId;
+    private final long portNo;
+
+    /**
+     * Instantiates a new topology event.
+     *
+     * @param type the kind of change
+     * @param datapathId the switch
+     * @param portNo the port, 0 for switch events
+     */
+    public TopologyEvent(Type type, long datapathId, long portNo) {
+        this.type = type;
+        this.datapathId = datapathId;
+        this.portNo = portNo;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getDatapathId() {
+        return datapathId;
+    }
+
+    public long getPortNo() {
+        return portNo;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof TopologyEvent)) {
+            return false;
+        }
+        TopologyEvent other = (TopologyEvent) obj;
+        return type == other.type && datapathId == other.datapathId && portNo == other.portNo;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * type.hashCode() + (datapathId ^ (datapathId >>> 32))) + portNo);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + datapathId + (portNo != 0 ? ":" + portNo : "");
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The switches and ports known to the shim, with whether each port is up.
+ * Every change returns the {@link TopologyDelta} describing it, numbered
+ * after the previous one, or null when nothing changed.
+ */
+public class TopologyModel {
+
+    private final Map<Long, Map<Long, Boolean>> switches = new LinkedHashMap<>();
+    private long sequence;
+
+    /**
+     * Adds a switch.
+     *
+     * @param datapathId the switch
+     * @return the delta, null if the switch was known
+     */
+    public synchronized TopologyDelta switchAdded(long datapathId) {
+        List<TopologyEvent> events = new ArrayList<>();
+        addSwitch(datapathId, events);
+        return delta(events);
+    }
+
+    /**
+     * Removes a switch and its ports.
+     *
+     * @param datapathId the switch
+     * @return the delta, null if the switch was unknown
+     */
+    public synchronized TopologyDelta switchRemoved(long datapathId) {
+        if (switches.remove(datapathId) == null) {
+            return null;
+        }
+        List<TopologyEvent> events = new ArrayList<>();
+        events.add(new TopologyEvent(TopologyEvent.Type.SWITCH_REMOVED, datapathId, 0));
+        return delta(events);
+    }
+
+    /**
+     * Updates the ports of a switch from a description of all of them, ports
+     * not described any more are removed.
+     *
+     * @param datapathId the switch
+     * @param ports the state of every port, true when up
+     * @return the delta, null if nothing changed
+     */
+    public synchronized TopologyDelta portsDescribed(long datapathId, Map<Long, Boolean> ports) {
+        List<TopologyEvent> events = new ArrayList<>();
+        Map<Long, Boolean> known = addSwitch(datapathId, events);
+        for (Iterator<Long> it = known.keySet().iterator(); it.hasNext();) {
+            long portNo = it.next();
+            if (!ports.containsKey(portNo)) {
+                it.remove();
+                events.add(new TopologyEvent(TopologyEvent.Type.PORT_REMOVED, datapathId, portNo));
+            }
+        }
+        for (Map.Entry<Long, Boolean> port : ports.entrySet()) {
+            setPort(datapathId, known, port.getKey(), port.getValue(), events);
+        }
+        return delta(events);
+    }
+
+    /**
+     * Updates one port.
+     *
+     * @param datapathId the switch
+     * @param portNo the port
+     * @param up whether the port is up
+     * @return the delta, null if nothing changed
+     */
+    public synchronized TopologyDelta portChanged(long datapathId, long portNo, boolean up) {
+        List<TopologyEvent> events = new ArrayList<>();
+        setPort(datapathId, addSwitch(datapathId, events), portNo, up, events);
+        return delta(events);
+    }
+
+    /**
+     * Removes one port.
+     *
+     * @param datapathId the switch
+     * @param portNo the port
+     * @return the delta, null if the port was unknown
+     */
+    public synchronized TopologyDelta portRemoved(long datapathId, long portNo) {
+        Map<Long, Boolean> ports = switches.get(datapathId);
+        if (ports == null || ports.remove(portNo) == null) {
+            return null;
+        }
+        List<TopologyEvent> events = new ArrayList<>();
+        events.add(new TopologyEvent(TopologyEvent.Type.PORT_REMOVED, datapathId, portNo));
+        return delta(events);
+    }
+
+    /**
+     * Describes the whole topology as of the last delta.
+     *
+     * @return the parts of the topology, at least one
+     */
+    public synchronized List<TopologyDelta> fullSync() {
+        List<TopologyEvent> events = new ArrayList<>();
+        for (Map.Entry<Long, Map<Long, Boolean>> entry : switches.entrySet()) {
+            events.add(new TopologyEvent(TopologyEvent.Type.SWITCH_ADDED, entry.getKey(), 0));
+            for (Map.Entry<Long, Boolean> port : entry.getValue().entrySet()) {
+                events.add(new TopologyEvent(port.getValue() ? TopologyEvent.Type.PORT_UP
+                        : TopologyEvent.Type.PORT_DOWN, entry.getKey(), port.getKey()));
+            }
+        }
+        List<TopologyDelta> parts = new ArrayList<>();
+        int start = 0;
+        do {
+            int end = Math.min(events.size(), start + TopologyDelta.MAX_EVENTS);
+            byte flags = end < events.size() ? (byte) (TopologyDelta.FULL | TopologyDelta.MORE) : TopologyDelta.FULL;
+            parts.add(new TopologyDelta(sequence, flags, events.subList(start, end)));
+            start = end;
+        } while (start < events.size());
+        return parts;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized int size() {
+        return switches.size();
+    }
+
+    private Map<Long, Boolean> addSwitch(long datapathId, List<TopologyEvent> events) {
+        Map<Long, Boolean> ports = switches.get(datapathId);
+        if (ports == null) {
+            ports = new TreeMap<>();
+            switches.put(datapathId, ports);
+            events.add(new TopologyEvent(TopologyEvent.Type.SWITCH_ADDED, datapathId, 0));
+        }
+        return ports;
+    }
+
+    private static void setPort(long datapathId, Map<Long, Boolean> ports, long portNo, boolean up,
+            List<TopologyEvent> events) {
+        Boolean previous = ports.put(portNo, up);
+        if (previous == null || previous != up) {
+            events.add(new TopologyEvent(up ? TopologyEvent.Type.PORT_UP : TopologyEvent.Type.PORT_DOWN, datapathId,
+                    portNo));
+        }
+    }
+
+    private TopologyDelta delta(List<TopologyEvent> events) {
+        if (events.isEmpty()) {
+            return null;
+        }
+        return new TopologyDelta(++sequence, (byte) 0, events);
+    }
+}
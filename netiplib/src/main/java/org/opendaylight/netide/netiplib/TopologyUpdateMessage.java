@@ -12,8 +12,6 @@ package org.opendaylight.netide.netiplib;
  */
 public class TopologyUpdateMessage extends Message {
 
-    private String topology;
-
     /**
      * Instantiates a new Topology update message.
      */
@@ -28,7 +26,7 @@ public class TopologyUpdateMessage extends Message {
      * @return the topology
      */
     public String getTopology() {
-        return topology;
+        return new String(payload);
     }
 
     /**
@@ -37,11 +35,39 @@ public class TopologyUpdateMessage extends Message {
      * @param topology the topology
      */
     public void setTopology(String topology) {
-        this.topology = topology;
+        this.payload = topology.getBytes();
+    }
+
+    /**
+     * Gets the topology delta.
+     *
+     * @return the delta, null if the topology is sent as text
+     */
+    public TopologyDelta getDelta() {
+        return TopologyDelta.isDelta(payload) ? TopologyDelta.parse(payload) : null;
+    }
+
+    /**
+     * Sets the topology delta.
+     *
+     * @param delta the delta
+     */
+    public void setDelta(TopologyDelta delta) {
+        this.payload = delta.toByteRepresentation();
+        header.setPayloadLength((short) payload.length);
+    }
+
+    /**
+     * Sets the raw payload, a text topology or a delta.
+     *
+     * @param payload the payload
+     */
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
     }
 
     @Override
     public byte[] getPayload() {
-        return topology.getBytes();
+        return payload;
     }
 }
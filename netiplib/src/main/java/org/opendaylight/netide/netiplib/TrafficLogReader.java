@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads back, in order, the frames of a log written by
+ * {@link TrafficLogWriter}.
+ */
+public class TrafficLogReader implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "netip-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File[] segments;
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+
+    /**
+     * Opens the log stored in the given directory.
+     *
+     * @param directory the directory holding the segments
+     * @throws IOException if the directory cannot be read
+     */
+    public TrafficLogReader(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("No traffic log in " + directory);
+        }
+        segments = listSegments(directory);
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the record, or null at the end of the log
+     * @throws IOException if a segment cannot be read or is corrupted
+     */
+    public TrafficRecord next() throws IOException {
+        while (true) {
+            if (segment != null && segment.remaining() >= TrafficLogWriter.RECORD_HEADER) {
+                int length = segment.getInt();
+                if (length > 0) {
+                    if (segment.remaining() < TrafficLogWriter.RECORD_HEADER - 4 + length) {
+                        throw new IOException("Truncated record in " + segments[segmentIndex]);
+                    }
+                    long timestamp = segment.getLong();
+                    byte direction = segment.get();
+                    byte[] frame = new byte[length];
+                    segment.get(frame);
+                    return new TrafficRecord(timestamp, direction, frame);
+                }
+            }
+            if (++segmentIndex >= segments.length) {
+                segment = null;
+                return null;
+            }
+            openSegment(segments[segmentIndex]);
+        }
+    }
+
+    @Override
+    public void close() {
+        segment = null;
+        segmentIndex = segments.length;
+    }
+
+    private void openSegment(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        if (segment.remaining() < TrafficLogWriter.SEGMENT_HEADER || segment.getInt() != TrafficLogWriter.MAGIC) {
+            throw new IOException("Not a traffic log segment: " + file);
+        }
+        int version = segment.getInt();
+        if (version != TrafficLogWriter.VERSION) {
+            throw new IOException("Unsupported traffic log version " + version + " in " + file);
+        }
+    }
+
+    static File[] listSegments(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    static String segmentName(int index) {
+        return String.format("%s%08d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    static int segmentIndex(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of NetIP frames, written to memory-mapped segment files.
+ * <p>
+ * A segment starts with a magic number and a version, followed by records of
+ * frame length (4), timestamp (8), direction (1) and the frame itself. The
+ * timestamps are wall-clock nanoseconds since the epoch, so that they keep
+ * increasing across the sessions appending to the same directory. The
+ * length is written last, so a reader never sees a partially written record;
+ * a zero length marks the end of the segment. When a record does not fit in
+ * the current segment the writer moves on to the next file.
+ */
+public class TrafficLogWriter implements Closeable {
+
+    static final int MAGIC = 0x4e49504c;
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER = 8;
+    static final int RECORD_HEADER = 13;
+
+    private final File directory;
+    private final int segmentSize;
+    private int segmentIndex;
+    private RandomAccessFile file;
+    private MappedByteBuffer segment;
+    // the wall clock is read once, the frames are timed by the monotonic clock
+    private final long baseEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    private final long baseNanos = System.nanoTime();
+
+    /**
+     * Opens a log. Existing segments in the directory are kept and new frames
+     * are written to the following segments.
+     *
+     * @param directory the directory holding the segments
+     * @param segmentSize the size of each segment file in bytes
+     * @throws IOException if the directory or the first segment cannot be created
+     */
+    public TrafficLogWriter(File directory, int segmentSize) throws IOException {
+        if (segmentSize < SEGMENT_HEADER + RECORD_HEADER + MessageHeader.HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        File[] segments = TrafficLogReader.listSegments(directory);
+        segmentIndex = segments.length == 0 ? 0 : TrafficLogReader.segmentIndex(segments[segments.length - 1]) + 1;
+        openSegment();
+    }
+
+    /**
+     * Appends a frame stamped with the current time.
+     *
+     * @param direction {@link TrafficRecord#TO_CORE} or {@link TrafficRecord#FROM_CORE}
+     * @param frame the NetIP header and payload
+     * @throws IOException if a new segment cannot be created
+     */
+    public void append(byte direction, byte[] frame) throws IOException {
+        append(direction, baseEpochNanos + (System.nanoTime() - baseNanos), frame);
+    }
+
+    public synchronized void append(byte direction, long timestamp, byte[] frame) throws IOException {
+        int length = RECORD_HEADER + frame.length;
+        if (frame.length == 0 || length > segmentSize - SEGMENT_HEADER) {
+            throw new IllegalArgumentException("Cannot record a frame of " + frame.length + " bytes");
+        }
+        if (segment == null) {
+            throw new IOException("Traffic log is closed");
+        }
+        if (segment.remaining() < length) {
+            closeSegment();
+            segmentIndex++;
+            openSegment();
+        }
+        int position = segment.position();
+        segment.position(position + 4);
+        segment.putLong(timestamp);
+        segment.put(direction);
+        segment.put(frame);
+        segment.putInt(position, frame.length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (segment != null) {
+            closeSegment();
+            segment = null;
+        }
+    }
+
+    private void openSegment() throws IOException {
+        file = new RandomAccessFile(new File(directory, TrafficLogReader.segmentName(segmentIndex)), "rw");
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+    }
+
+    private void closeSegment() throws IOException {
+        segment.force();
+        file.close();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib;
+
+/**
+ * A NetIP frame read back from a traffic log.
+ */
+public class TrafficRecord {
+
+    /**
+     * Frame sent by the shim to the core.
+     */
+    public static final byte TO_CORE = 0;
+
+    /**
+     * Frame received by the shim from the core.
+     */
+    public static final byte FROM_CORE = 1;
+
+    private final long timestamp;
+    private final byte direction;
+    private final byte[] frame;
+
+    public TrafficRecord(long timestamp, byte direction, byte[] frame) {
+        this.timestamp = timestamp;
+        this.direction = direction;
+        this.frame = frame;
+    }
+
+    /**
+     * Gets the timestamp.
+     *
+     * @return the wall-clock time the frame was recorded at, in nanoseconds
+     *         since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public byte getDirection() {
+        return direction;
+    }
+
+    /**
+     * Gets the raw frame, NetIP header and payload.
+     *
+     * @return the frame
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    /**
+     * Parses the frame.
+     *
+     * @return the concrete message
+     */
+    public Message getMessage() {
+        return NetIPConverter.parseConcreteMessage(frame);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib.tests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.EventSubscription;
+
+public class EventSubscriptionTest {
+
+    @Test
+    public void testParseAndFormat() {
+        String payload = "subscribe type=10 dpid=1,2 table=0 reason=1\nsubscribe type=12";
+        List<EventSubscription> subscriptions = EventSubscription.parse(payload);
+        Assert.assertEquals(2, subscriptions.size());
+        EventSubscription packetIn = subscriptions.get(0);
+        Assert.assertEquals(10, packetIn.getMessageType());
+        Assert.assertEquals(new TreeSet<>(Arrays.asList(1L, 2L)), packetIn.getDatapathIds());
+        Assert.assertEquals(0, packetIn.getTableId());
+        Assert.assertEquals(1, packetIn.getReason());
+        Assert.assertEquals(EventSubscription.ANY, subscriptions.get(1).getTableId());
+        Assert.assertEquals(payload, EventSubscription.toPayload(subscriptions));
+
+        Assert.assertTrue(EventSubscription.parse("unsubscribe").isEmpty());
+        Assert.assertEquals("unsubscribe",
+                EventSubscription.toPayload(Collections.<EventSubscription>emptyList()));
+        Assert.assertFalse(EventSubscription.isSubscription("{\"command\": \"stop\"}"));
+    }
+
+    @Test
+    public void testMatches() {
+        EventSubscription subscription = EventSubscription.parse("subscribe type=10 dpid=1 table=0").get(0);
+        Assert.assertTrue(subscription.matches(1L, 10, 0, 1));
+        Assert.assertTrue(subscription.matches(1L, 10, EventSubscription.ANY, 0));
+        Assert.assertFalse(subscription.matches(2L, 10, 0, 1));
+        Assert.assertFalse(subscription.matches(1L, 11, 0, 1));
+        Assert.assertFalse(subscription.matches(1L, 10, 1, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseWithoutType() {
+        EventSubscription.parse("subscribe dpid=1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMalformedField() {
+        EventSubscription.parse("subscribe type=ten");
+    }
+}
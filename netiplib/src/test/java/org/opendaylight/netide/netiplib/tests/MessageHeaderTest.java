@@ -52,4 +52,11 @@ public class MessageHeaderTest {
         Assert.assertEquals(header.getDatapathId(), output.getDatapathId());
     }
 
+    @Test
+    public void testReadDatapathId() {
+        header.setDatapathId(0x0102030405060708L);
+        Assert.assertEquals(0x0102030405060708L, MessageHeader.readDatapathId(header.toByteRepresentation()));
+        Assert.assertEquals(0, MessageHeader.readDatapathId(new byte[] { 1, 2, 3 }));
+    }
+
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib.tests;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.Message;
+import org.opendaylight.netide.netiplib.MessageHeader;
+import org.opendaylight.netide.netiplib.MessageType;
+import org.opendaylight.netide.netiplib.NetIPCompression;
+import org.opendaylight.netide.netiplib.NetIPConverter;
+
+public class NetIPCompressionTest {
+
+    private static byte[] managementMessage(byte[] payload) {
+        Message msg = new Message(new MessageHeader(), payload);
+        msg.getHeader().setMessageType(MessageType.MANAGEMENT);
+        msg.getHeader().setPayloadLength((short) payload.length);
+        msg.getHeader().setModuleId(3);
+        msg.getHeader().setDatapathId(42);
+        return msg.toByteRepresentation();
+    }
+
+    @Test
+    public void testCompressAndParse() {
+        byte[] payload = new byte[4000];
+        Arrays.fill(payload, (byte) 'a');
+        byte[] data = managementMessage(payload);
+
+        byte[] compressed = NetIPCompression.compress(data, 1024);
+        Assert.assertTrue(NetIPCompression.isCompressed(compressed));
+        Assert.assertTrue(compressed.length < data.length);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 4, 20), Arrays.copyOfRange(compressed, 4, 20));
+
+        Assert.assertArrayEquals(data, NetIPCompression.decompress(compressed));
+        Message msg = NetIPConverter.parseRawMessage(compressed);
+        Assert.assertEquals(MessageType.MANAGEMENT, msg.getHeader().getMessageType());
+        Assert.assertEquals(4000, msg.getHeader().getPayloadLength() & 0xFFFF);
+        Assert.assertEquals(42, msg.getHeader().getDatapathId());
+        Assert.assertArrayEquals(payload, msg.getPayload());
+    }
+
+    @Test
+    public void testLeftAsIs() {
+        byte[] small = managementMessage(new byte[100]);
+        Assert.assertSame(small, NetIPCompression.compress(small, 1024));
+
+        byte[] noise = new byte[2000];
+        new Random(1).nextBytes(noise);
+        byte[] random = managementMessage(noise);
+        Assert.assertSame(random, NetIPCompression.compress(random, 1024));
+        Assert.assertSame(random, NetIPCompression.decompress(random));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCorruptPayload() {
+        byte[] payload = new byte[2000];
+        byte[] compressed = NetIPCompression.compress(managementMessage(payload), 1024);
+        Arrays.fill(compressed, 22, compressed.length, (byte) 0xFF);
+        NetIPCompression.decompress(compressed);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.netiplib.tests;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.TopologyDelta;
+import org.opendaylight.netide.netiplib.TopologyEvent;
+import org.opendaylight.netide.netiplib.TopologyModel;
+
+public class TopologyModelTest {
+
+    TopologyModel model;
+
+    @Before
+    public void setUp() {
+        model = new TopologyModel();
+    }
+
+    @Test
+    public void testDeltasNumberedInOrder() {
+        TopologyDelta added = model.switchAdded(1L);
+        Assert.assertEquals(1, added.getSequence());
+        Assert.assertEquals(new TopologyEvent(TopologyEvent.Type.SWITCH_ADDED, 1L, 0), added.getEvents().get(0));
+        Assert.assertNull(model.switchAdded(1L));
+
+        Map<Long, Boolean> ports = new TreeMap<>();
+        ports.put(1L, true);
+        ports.put(2L, false);
+        TopologyDelta described = model.portsDescribed(1L, ports);
+        Assert.assertEquals(2, described.getSequence());
+        Assert.assertEquals(2, described.getEvents().size());
+        Assert.assertNull(model.portsDescribed(1L, ports));
+
+        Assert.assertNull(model.portChanged(1L, 1L, true));
+        TopologyDelta down = model.portChanged(1L, 1L, false);
+        Assert.assertEquals(new TopologyEvent(TopologyEvent.Type.PORT_DOWN, 1L, 1L), down.getEvents().get(0));
+
+        ports.remove(2L);
+        TopologyDelta removed = model.portsDescribed(1L, ports);
+        Assert.assertTrue(removed.getEvents().contains(new TopologyEvent(TopologyEvent.Type.PORT_REMOVED, 1L, 2L)));
+        Assert.assertTrue(removed.getEvents().contains(new TopologyEvent(TopologyEvent.Type.PORT_UP, 1L, 1L)));
+
+        Assert.assertEquals(5, model.switchRemoved(1L).getSequence());
+        Assert.assertNull(model.switchRemoved(1L));
+        Assert.assertEquals(0, model.size());
+    }
+
+    @Test
+    public void testFullSyncSplitInParts() {
+        for (long dpid = 1; dpid <= TopologyDelta.MAX_EVENTS; dpid++) {
+            model.switchAdded(dpid);
+        }
+        model.portChanged(1L, 3L, true);
+        List<TopologyDelta> parts = model.fullSync();
+        Assert.assertEquals(2, parts.size());
+        Assert.assertTrue(parts.get(0).isFull() && parts.get(0).hasMore());
+        Assert.assertTrue(parts.get(1).isFull() && !parts.get(1).hasMore());
+        Assert.assertEquals(model.getSequence(), parts.get(1).getSequence());
+        Assert.assertEquals(new TopologyEvent(TopologyEvent.Type.PORT_UP, 1L, 3L), parts.get(0).getEvents().get(1));
+        Assert.assertTrue(parts.get(0).toByteRepresentation().length <= 0xFFFF);
+
+        Assert.assertEquals(1, new TopologyModel().fullSync().size());
+    }
+
+    @Test
+    public void testEncoding() {
+        model.switchAdded(0x0102030405060708L);
+        TopologyDelta delta = model.portChanged(0x0102030405060708L, 0xFFFFFFFEL, true);
+        byte[] bytes = delta.toByteRepresentation();
+        Assert.assertTrue(TopologyDelta.isDelta(bytes));
+        Assert.assertFalse(TopologyDelta.isDelta("switch 1 added".getBytes()));
+        TopologyDelta parsed = TopologyDelta.parse(bytes);
+        Assert.assertEquals(delta.getSequence(), parsed.getSequence());
+        Assert.assertEquals(delta.getEvents(), parsed.getEvents());
+        Assert.assertFalse(parsed.isFull());
+    }
+}
@@ -15,6 +15,7 @@ import org.opendaylight.netide.netiplib.MessageHeader;
 import org.opendaylight.netide.netiplib.MessageType;
 import org.opendaylight.netide.netiplib.NetIDEProtocolVersion;
 import org.opendaylight.netide.netiplib.NetIPConverter;
+import org.opendaylight.netide.netiplib.TopologyModel;
 import org.opendaylight.netide.netiplib.TopologyUpdateMessage;
 import org.opendaylight.openflowjava.util.ByteBufUtils;
 
@@ -75,4 +76,15 @@ public class TopologyUpdateMessageTest {
         Assert.assertEquals("payload", netconfMessage.getTopology());
         Assert.assertArrayEquals(payload, netconfMessage.getPayload());
     }
+
+    @Test
+    public void testDeltaParsing() {
+        TopologyModel model = new TopologyModel();
+        TopologyUpdateMessage update = new TopologyUpdateMessage();
+        update.setDelta(model.switchAdded(42L));
+        Message testMessage = NetIPConverter.parseConcreteMessage(update.toByteRepresentation());
+        Assert.assertTrue(testMessage instanceof TopologyUpdateMessage);
+        Assert.assertEquals(1, ((TopologyUpdateMessage) testMessage).getDelta().getSequence());
+        Assert.assertNull(message.getDelta());
+    }
 }
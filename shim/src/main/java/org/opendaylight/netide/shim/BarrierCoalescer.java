@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutputBuilder;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+
+/**
+ * Merges the barriers that several modules send to the same switch. A
+ * barrier already sent is shared while its reply is outstanding and nothing
+ * else was written to the switch since, otherwise it would not cover the
+ * later messages and a new barrier is sent. Every module gets the reply with
+ * its own xid.
+ * <p>
+ * Writes are counted once handed to the switch. A barrier remembers the
+ * count it was sent at, so a write counted before it went out ahead of it,
+ * and a write counted after it, however close, keeps it from being shared.
+ */
+public class BarrierCoalescer {
+
+    private final ShimRelay relay;
+    private final ConcurrentMap<ConnectionAdapter, SwitchBarrier> switches = new ConcurrentHashMap<>();
+    private ShimStatistics statistics;
+
+    public BarrierCoalescer(ShimRelay relay) {
+        this.relay = relay;
+    }
+
+    public void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Called after any other message was handed to the switch.
+     */
+    public void messageWritten(ConnectionAdapter connectionAdapter) {
+        SwitchBarrier barrier = switches.get(connectionAdapter);
+        if (barrier != null) {
+            barrier.writes.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the reply to the barrier, carrying the xid of the input
+     */
+    public ListenableFuture<RpcResult<BarrierOutput>> barrier(ConnectionAdapter connectionAdapter,
+            BarrierInput input) {
+        SwitchBarrier barrier = switches.get(connectionAdapter);
+        if (barrier == null) {
+            barrier = new SwitchBarrier();
+            SwitchBarrier existing = switches.putIfAbsent(connectionAdapter, barrier);
+            if (existing != null) {
+                barrier = existing;
+            }
+        }
+        ListenableFuture<RpcResult<BarrierOutput>> reply;
+        synchronized (barrier) {
+            long writes = barrier.writes.get();
+            if (barrier.outstanding == null || barrier.outstanding.isDone() || barrier.outstandingWrites != writes) {
+                barrier.outstandingWrites = writes;
+                reply = relay.listenInPoolThread(connectionAdapter.barrier(input));
+                barrier.outstanding = reply;
+                return reply;
+            }
+            reply = barrier.outstanding;
+        }
+        if (statistics != null) {
+            statistics.barrierCoalesced();
+        }
+        final Long xid = input.getXid();
+        return Futures.transform(reply, new Function<RpcResult<BarrierOutput>, RpcResult<BarrierOutput>>() {
+            @Override
+            public RpcResult<BarrierOutput> apply(RpcResult<BarrierOutput> result) {
+                if (!result.isSuccessful() || result.getResult() == null) {
+                    return result;
+                }
+                return RpcResultBuilder.success(new BarrierOutputBuilder(result.getResult()).setXid(xid).build())
+                        .build();
+            }
+        });
+    }
+
+    public void removeSwitch(ConnectionAdapter connectionAdapter) {
+        switches.remove(connectionAdapter);
+    }
+
+    private static class SwitchBarrier {
+        final AtomicLong writes = new AtomicLong();
+        ListenableFuture<RpcResult<BarrierOutput>> outstanding;
+        long outstandingWrites;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size ring of the last NetIP frames, kept in a direct buffer outside
+ * of the heap. Frames longer than a slot are truncated.
+ * <p>
+ * The ring has a single writer, the ZeroMQ loop thread, and recording does not
+ * allocate. Readers take a snapshot concurrently; each slot carries the
+ * sequence number of the frame it holds so that a slot overwritten during the
+ * copy is detected and skipped.
+ */
+public class CaptureRing {
+
+    public static final int TO_CORE = 0;
+    public static final int FROM_CORE = 1;
+
+    /**
+     * timestamp (8) + datapath id (8) + direction (1) + original length (4) +
+     * captured length (4).
+     */
+    static final int SLOT_HEADER = 25;
+
+    private static final long WRITING = -1L;
+
+    private final ByteBuffer buffer;
+    private final AtomicLongArray sequences;
+    private final int slots;
+    private final int slotSize;
+    private volatile long written;
+    private long lastRecorded;
+
+    public CaptureRing(int slots, int slotSize) {
+        if (slots <= 0 || slotSize <= SLOT_HEADER) {
+            throw new IllegalArgumentException("Invalid capture ring size " + slots + "x" + slotSize);
+        }
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.buffer = ByteBuffer.allocateDirect(slots * slotSize);
+        this.sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, WRITING);
+        }
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getSnapLength() {
+        return slotSize - SLOT_HEADER;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * @return time of the last frame in milliseconds since the epoch, 0 if
+     *         none was recorded. Must only be called from the writer thread.
+     */
+    public long getLastRecorded() {
+        return lastRecorded;
+    }
+
+    /**
+     * Records a frame. Must only be called from the writer thread.
+     */
+    public void record(int direction, long datapathId, byte[] frame) {
+        long sequence = written;
+        int slot = (int) (sequence % slots);
+        int offset = slot * slotSize;
+        int captured = Math.min(frame.length, slotSize - SLOT_HEADER);
+        lastRecorded = System.currentTimeMillis();
+
+        sequences.set(slot, WRITING);
+        buffer.putLong(offset, lastRecorded);
+        buffer.putLong(offset + 8, datapathId);
+        buffer.put(offset + 16, (byte) direction);
+        buffer.putInt(offset + 17, frame.length);
+        buffer.putInt(offset + 21, captured);
+        buffer.position(offset + SLOT_HEADER);
+        buffer.put(frame, 0, captured);
+        sequences.lazySet(slot, sequence);
+        written = sequence + 1;
+    }
+
+    /**
+     * Copies the frames still held by the ring, oldest first.
+     *
+     * @param datapathId
+     *            only frames of this datapath, or null for all of them
+     */
+    public void snapshot(Long datapathId, List<CapturedFrame> frames) {
+        ByteBuffer reader = buffer.duplicate();
+        long end = written;
+        long start = Math.max(0, end - slots);
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence % slots);
+            if (sequences.get(slot) != sequence) {
+                continue;
+            }
+            int offset = slot * slotSize;
+            long timestamp = reader.getLong(offset);
+            long dpid = reader.getLong(offset + 8);
+            int direction = reader.get(offset + 16);
+            int original = reader.getInt(offset + 17);
+            int captured = reader.getInt(offset + 21);
+            if (captured < 0 || captured > slotSize - SLOT_HEADER) {
+                continue;
+            }
+            byte[] data = new byte[captured];
+            reader.position(offset + SLOT_HEADER);
+            reader.get(data);
+            if (sequences.get(slot) != sequence) {
+                continue;
+            }
+            if (datapathId == null || datapathId.longValue() == dpid) {
+                frames.add(new CapturedFrame(timestamp, dpid, direction, original, data));
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * A frame copied out of a {@link CaptureRing}.
+ */
+public class CapturedFrame {
+
+    private final long timestamp;
+    private final long datapathId;
+    private final int direction;
+    private final int originalLength;
+    private final byte[] data;
+
+    public CapturedFrame(long timestamp, long datapathId, int direction, int originalLength, byte[] data) {
+        this.timestamp = timestamp;
+        this.datapathId = datapathId;
+        this.direction = direction;
+        this.originalLength = originalLength;
+        this.data = data;
+    }
+
+    /**
+     * @return capture time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getDatapathId() {
+        return datapathId;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public int getOriginalLength() {
+        return originalLength;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
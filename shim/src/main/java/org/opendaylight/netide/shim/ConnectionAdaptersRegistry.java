@@ -66,6 +66,10 @@ public class ConnectionAdaptersRegistry {
         return connectionAdapterMap.keySet();
     }
 
+    public synchronized int size() {
+        return connectionAdapterMap.size();
+    }
+
     public synchronized boolean removeConnectionAdapter(ConnectionAdapter conn) throws NullPointerException {
         GetFeaturesOutput datapathID = connectionAdapterMap.remove(conn);
         if (datapathID != null) {
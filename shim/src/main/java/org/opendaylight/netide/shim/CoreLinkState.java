@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * State of the link between the shim and the core.
+ */
+public enum CoreLinkState {
+    /**
+     * Nothing has been received from the core yet.
+     */
+    UNKNOWN,
+    /**
+     * The core is reachable.
+     */
+    UP,
+    /**
+     * The core is not reachable or the connector is stopped.
+     */
+    DOWN
+}
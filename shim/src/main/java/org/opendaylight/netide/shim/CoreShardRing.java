@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring mapping datapath ids to core endpoints. Every live
+ * endpoint is placed on the ring many times so that switches spread evenly,
+ * and only the switches of an endpoint that joins or leaves change owner.
+ * Instances are immutable.
+ */
+public class CoreShardRing {
+
+    static final int VIRTUAL_NODES = 64;
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+
+    /**
+     * @param endpoints
+     *            names of all the endpoints, the index is the owner returned
+     * @param live
+     *            which of the endpoints take part in the ring
+     */
+    public CoreShardRing(List<String> endpoints, boolean[] live) {
+        for (int i = 0; i < endpoints.size(); i++) {
+            if (!live[i]) {
+                continue;
+            }
+            long seed = (long) endpoints.get(i).hashCode() << 32;
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                ring.put(mix(seed | node), i);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    /**
+     * @return index of the endpoint owning the datapath, or -1 if no endpoint
+     *         is live
+     */
+    public int owner(long datapathId) {
+        if (ring.isEmpty()) {
+            return -1;
+        }
+        Map.Entry<Long, Integer> entry = ring.ceilingEntry(mix(datapathId));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * MurmurHash3 finalizer, spreads consecutive datapath ids over the ring.
+     */
+    static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Commands of the core modules held back until the module closes its
+ * transaction with a FENCE. Commands are kept per datapath and module in
+ * arrival order; a batch reaching the size limit is handed back to be sent
+ * right away so that a module never sending a FENCE cannot exhaust memory.
+ */
+public class FenceBuffer<T> {
+
+    private final int maxPending;
+    private final Map<Long, Map<Integer, List<T>>> pending = new LinkedHashMap<>();
+    private int size;
+
+    public FenceBuffer(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @return the batch of the datapath and module when it reached the size
+     *         limit with this command, null if the command is held
+     */
+    public synchronized List<T> add(long datapathId, int moduleId, T command) {
+        Map<Integer, List<T>> modules = pending.get(datapathId);
+        if (modules == null) {
+            modules = new HashMap<>();
+            pending.put(datapathId, modules);
+        }
+        List<T> batch = modules.get(moduleId);
+        if (batch == null) {
+            batch = new ArrayList<>();
+            modules.put(moduleId, batch);
+        }
+        batch.add(command);
+        size++;
+        if (batch.size() < maxPending) {
+            return null;
+        }
+        removeBatch(datapathId, moduleId);
+        return batch;
+    }
+
+    /**
+     * Removes the batches of a module.
+     *
+     * @param datapathId
+     *            the datapath of the FENCE, 0 for every datapath
+     * @return the batches by datapath id, in the order the datapaths were
+     *         first buffered
+     */
+    public synchronized Map<Long, List<T>> drain(long datapathId, int moduleId) {
+        Map<Long, List<T>> batches = new LinkedHashMap<>();
+        if (datapathId != 0) {
+            List<T> batch = removeBatch(datapathId, moduleId);
+            if (batch != null) {
+                batches.put(datapathId, batch);
+            }
+            return batches;
+        }
+        for (Long datapath : new ArrayList<>(pending.keySet())) {
+            List<T> batch = removeBatch(datapath, moduleId);
+            if (batch != null) {
+                batches.put(datapath, batch);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Drops everything buffered for a switch that went away.
+     */
+    public synchronized int removeDatapath(long datapathId) {
+        Map<Integer, List<T>> modules = pending.remove(datapathId);
+        if (modules == null) {
+            return 0;
+        }
+        int dropped = 0;
+        for (List<T> batch : modules.values()) {
+            dropped += batch.size();
+        }
+        size -= dropped;
+        return dropped;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private List<T> removeBatch(long datapathId, int moduleId) {
+        Map<Integer, List<T>> modules = pending.get(datapathId);
+        if (modules == null) {
+            return null;
+        }
+        List<T> batch = modules.remove(moduleId);
+        if (modules.isEmpty()) {
+            pending.remove(datapathId);
+        }
+        if (batch != null) {
+            size -= batch.size();
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * Snapshot of one flow of a {@link FlowTableMirror}.
+ */
+public class FlowEntry {
+
+    private final short tableId;
+    private final int priority;
+    private final Object match;
+    private final long cookie;
+    private final int idleTimeout;
+    private final int hardTimeout;
+    private final long installedMillis;
+    private final Object instructions;
+
+    public FlowEntry(short tableId, int priority, Object match, long cookie, int idleTimeout, int hardTimeout,
+            long installedMillis, Object instructions) {
+        this.tableId = tableId;
+        this.priority = priority;
+        this.match = match;
+        this.cookie = cookie;
+        this.idleTimeout = idleTimeout;
+        this.hardTimeout = hardTimeout;
+        this.installedMillis = installedMillis;
+        this.instructions = instructions;
+    }
+
+    public short getTableId() {
+        return tableId;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the OXM match, or the OpenFlow 1.0 match
+     */
+    public Object getMatch() {
+        return match;
+    }
+
+    public long getCookie() {
+        return cookie;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getHardTimeout() {
+        return hardTimeout;
+    }
+
+    public long getInstalledMillis() {
+        return installedMillis;
+    }
+
+    /**
+     * @return the instructions, or the actions of an OpenFlow 1.0 flow
+     */
+    public Object getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public String toString() {
+        return "FlowEntry [table=" + tableId + ", priority=" + priority + ", cookie=" + Long.toHexString(cookie)
+                + ", match=" + match + "]";
+    }
+}
@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shadow copy of the flow table of one switch, kept from the flow mods
+ * relayed to it and the flow removed messages it sends back.
+ * <p>
+ * Flows are keyed by table, priority and match. Entries are stored densely in
+ * parallel primitive arrays, and an open addressing table of entry indexes
+ * gives O(1) lookups without a node object per flow. Strict commands act on
+ * the exact key, the others on every flow whose match is covered by the
+ * command match according to the {@link MatchFilter}.
+ * <p>
+ * The switch only reports the removal of the flows installed with
+ * OFPFF_SEND_FLOW_REM, the other flows with a timeout are aged out here at
+ * the first of their timeouts. The mirror does not see the traffic hitting
+ * a flow, so an idle timeout counts from the install.
+ * <p>
+ * The changes a command makes between {@link #beginCommand(long)} and
+ * {@link #endCommand()} are kept for the last {@link #MAX_JOURNALS} commands,
+ * for {@link #revert(long)} to undo them when the switch rejects the command.
+ */
+public class FlowTableMirror {
+
+    public static final short ALL_TABLES = 0xff;
+
+    public static final int MAX_JOURNALS = 1024;
+    public static final int MAX_JOURNAL_CHANGES = 4096;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Decides whether a flow falls under a non strict command.
+     */
+    public interface MatchFilter {
+        boolean covers(Object filter, Object match, Object instructions);
+    }
+
+    /**
+     * A flow as it was before a command changed it, or the key of a flow the
+     * command added.
+     */
+    private static final class Change {
+        final boolean added;
+        final short tableId;
+        final int priority;
+        final Object match;
+        long cookie;
+        int timeouts;
+        long installed;
+        long expiry;
+        Object instructions;
+
+        Change(boolean added, short tableId, int priority, Object match) {
+            this.added = added;
+            this.tableId = tableId;
+            this.priority = priority;
+            this.match = match;
+        }
+    }
+
+    private final long datapathId;
+    private final MatchFilter matchFilter;
+    // entry index + 1 per slot, 0 for a free slot
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private short[] tableIds = new short[INITIAL_CAPACITY];
+    private int[] priorities = new int[INITIAL_CAPACITY];
+    private long[] cookies = new long[INITIAL_CAPACITY];
+    private int[] timeouts = new int[INITIAL_CAPACITY];
+    private long[] installed = new long[INITIAL_CAPACITY];
+    // when the mirror ages the flow out, 0 for never
+    private long[] expiries = new long[INITIAL_CAPACITY];
+    private Object[] matches = new Object[INITIAL_CAPACITY];
+    private Object[] instructions = new Object[INITIAL_CAPACITY];
+    private int size;
+    private long nextExpiry = Long.MAX_VALUE;
+    private final Map<Long, List<Change>> journals = new LinkedHashMap<Long, List<Change>>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, List<Change>> eldest) {
+            return size() > MAX_JOURNALS;
+        }
+    };
+    private long journalXid;
+    private List<Change> journal;
+
+    public FlowTableMirror(long datapathId, MatchFilter matchFilter) {
+        this.datapathId = datapathId;
+        this.matchFilter = matchFilter;
+    }
+
+    public long getDatapathId() {
+        return datapathId;
+    }
+
+    /**
+     * Adds a flow whose removal the switch reports, replacing the one with the
+     * same table, priority and match.
+     */
+    public void add(short tableId, int priority, Object match, long cookie, int idleTimeout, int hardTimeout,
+            Object flowInstructions) {
+        add(tableId, priority, match, cookie, idleTimeout, hardTimeout, true, flowInstructions);
+    }
+
+    /**
+     * Adds a flow, replacing the one with the same table, priority and match.
+     *
+     * @param sendFlowRemoved
+     *            whether the switch reports the removal of the flow, if not
+     *            the flow is aged out at the first of its timeouts
+     */
+    public synchronized void add(short tableId, int priority, Object match, long cookie, int idleTimeout,
+            int hardTimeout, boolean sendFlowRemoved, Object flowInstructions) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        int entry = put(tableId, priority, match);
+        cookies[entry] = cookie;
+        timeouts[entry] = (idleTimeout & 0xFFFF) << 16 | (hardTimeout & 0xFFFF);
+        installed[entry] = now;
+        int timeout = sendFlowRemoved ? 0 : firstTimeout(idleTimeout & 0xFFFF, hardTimeout & 0xFFFF);
+        expiries[entry] = timeout == 0 ? 0 : now + timeout * 1000L;
+        if (expiries[entry] != 0 && expiries[entry] < nextExpiry) {
+            nextExpiry = expiries[entry];
+        }
+        instructions[entry] = flowInstructions;
+    }
+
+    /**
+     * @return whether the flow was found and its instructions replaced
+     */
+    public synchronized boolean modifyStrict(short tableId, int priority, Object match, long cookie,
+            long cookieMask, Object flowInstructions) {
+        expire(System.currentTimeMillis());
+        int slot = find(tableId, priority, match, hash(tableId, priority, match));
+        if (slot < 0 || !cookieMatches(slots[slot] - 1, cookie, cookieMask)) {
+            return false;
+        }
+        record(slots[slot] - 1, false);
+        instructions[slots[slot] - 1] = flowInstructions;
+        return true;
+    }
+
+    /**
+     * @return the number of flows whose instructions were replaced
+     */
+    public synchronized int modify(short tableId, Object filter, long cookie, long cookieMask,
+            Object flowInstructions) {
+        expire(System.currentTimeMillis());
+        int modified = 0;
+        for (int entry = 0; entry < size; entry++) {
+            if (selected(entry, tableId, filter, cookie, cookieMask)) {
+                record(entry, false);
+                instructions[entry] = flowInstructions;
+                modified++;
+            }
+        }
+        return modified;
+    }
+
+    public synchronized boolean removeStrict(short tableId, int priority, Object match, long cookie,
+            long cookieMask) {
+        expire(System.currentTimeMillis());
+        int slot = find(tableId, priority, match, hash(tableId, priority, match));
+        if (slot < 0 || !cookieMatches(slots[slot] - 1, cookie, cookieMask)) {
+            return false;
+        }
+        record(slots[slot] - 1, false);
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * @return the number of flows removed
+     */
+    public synchronized int remove(short tableId, Object filter, long cookie, long cookieMask) {
+        expire(System.currentTimeMillis());
+        int removed = 0;
+        // backwards, removing moves the last entry into the hole
+        for (int entry = size - 1; entry >= 0; entry--) {
+            if (selected(entry, tableId, filter, cookie, cookieMask)) {
+                record(entry, false);
+                removeSlot(slotOf(entry));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized FlowEntry get(short tableId, int priority, Object match) {
+        expire(System.currentTimeMillis());
+        int slot = find(tableId, priority, match, hash(tableId, priority, match));
+        return slot < 0 ? null : toFlowEntry(slots[slot] - 1);
+    }
+
+    /**
+     * @param tableId
+     *            the table to list, {@link #ALL_TABLES} for every table
+     */
+    public synchronized List<FlowEntry> getFlows(short tableId) {
+        expire(System.currentTimeMillis());
+        List<FlowEntry> flows = new ArrayList<>();
+        for (int entry = 0; entry < size; entry++) {
+            if (tableId == ALL_TABLES || tableIds[entry] == tableId) {
+                flows.add(toFlowEntry(entry));
+            }
+        }
+        return flows;
+    }
+
+    public synchronized int size() {
+        expire(System.currentTimeMillis());
+        return size;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(matches, 0, size, null);
+        Arrays.fill(instructions, 0, size, null);
+        size = 0;
+        nextExpiry = Long.MAX_VALUE;
+        journals.clear();
+        journal = null;
+    }
+
+    /**
+     * Keeps the changes made from now on under the xid of the command making
+     * them, until {@link #endCommand()}.
+     */
+    public synchronized void beginCommand(long xid) {
+        expire(System.currentTimeMillis());
+        journalXid = xid;
+        journal = new ArrayList<>();
+        journals.put(xid, journal);
+    }
+
+    public synchronized void endCommand() {
+        if (journal != null && journal.isEmpty()) {
+            journals.remove(journalXid);
+        }
+        journal = null;
+    }
+
+    /**
+     * Undoes the changes of a command the switch rejected. The later commands
+     * that changed the same flows are not replayed over it.
+     *
+     * @return false if the changes of the command are not known
+     */
+    public synchronized boolean revert(long xid) {
+        List<Change> changes = journals.remove(xid);
+        if (changes == null) {
+            return false;
+        }
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change change = changes.get(i);
+            int slot = find(change.tableId, change.priority, change.match,
+                    hash(change.tableId, change.priority, change.match));
+            if (change.added) {
+                if (slot >= 0) {
+                    removeSlot(slot);
+                }
+                continue;
+            }
+            int entry = put(change.tableId, change.priority, change.match);
+            cookies[entry] = change.cookie;
+            timeouts[entry] = change.timeouts;
+            installed[entry] = change.installed;
+            expiries[entry] = change.expiry;
+            if (change.expiry != 0 && change.expiry < nextExpiry) {
+                nextExpiry = change.expiry;
+            }
+            instructions[entry] = change.instructions;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the flows aged out at the given time.
+     *
+     * @return the number of flows removed
+     */
+    synchronized int expire(long now) {
+        if (now < nextExpiry) {
+            return 0;
+        }
+        int expired = 0;
+        long next = Long.MAX_VALUE;
+        for (int entry = size - 1; entry >= 0; entry--) {
+            if (expiries[entry] != 0 && expiries[entry] <= now) {
+                removeSlot(slotOf(entry));
+                expired++;
+            }
+        }
+        for (int entry = 0; entry < size; entry++) {
+            if (expiries[entry] != 0 && expiries[entry] < next) {
+                next = expiries[entry];
+            }
+        }
+        nextExpiry = next;
+        return expired;
+    }
+
+    /**
+     * @return the entry of the flow, added if absent
+     */
+    private int put(short tableId, int priority, Object match) {
+        int hash = hash(tableId, priority, match);
+        int slot = find(tableId, priority, match, hash);
+        if (slot >= 0) {
+            record(slots[slot] - 1, false);
+            return slots[slot] - 1;
+        }
+        if (size == hashes.length) {
+            grow();
+            slot = find(tableId, priority, match, hash);
+        }
+        int entry = size++;
+        slots[-slot - 1] = entry + 1;
+        hashes[entry] = hash;
+        tableIds[entry] = tableId;
+        priorities[entry] = priority;
+        matches[entry] = match;
+        record(entry, true);
+        return entry;
+    }
+
+    private void record(int entry, boolean added) {
+        if (journal == null) {
+            return;
+        }
+        if (journal.size() == MAX_JOURNAL_CHANGES) {
+            // too large to keep, the command cannot be reverted
+            journals.remove(journalXid);
+            journal = null;
+            return;
+        }
+        Change change = new Change(added, tableIds[entry], priorities[entry], matches[entry]);
+        if (!added) {
+            change.cookie = cookies[entry];
+            change.timeouts = timeouts[entry];
+            change.installed = installed[entry];
+            change.expiry = expiries[entry];
+            change.instructions = instructions[entry];
+        }
+        journal.add(change);
+    }
+
+    private static int firstTimeout(int idleTimeout, int hardTimeout) {
+        if (idleTimeout == 0 || hardTimeout == 0) {
+            return Math.max(idleTimeout, hardTimeout);
+        }
+        return Math.min(idleTimeout, hardTimeout);
+    }
+
+    private boolean selected(int entry, short tableId, Object filter, long cookie, long cookieMask) {
+        return (tableId == ALL_TABLES || tableIds[entry] == tableId) && cookieMatches(entry, cookie, cookieMask)
+                && (filter == null || matchFilter.covers(filter, matches[entry], instructions[entry]));
+    }
+
+    private boolean cookieMatches(int entry, long cookie, long cookieMask) {
+        return (cookies[entry] & cookieMask) == (cookie & cookieMask);
+    }
+
+    private FlowEntry toFlowEntry(int entry) {
+        return new FlowEntry(tableIds[entry], priorities[entry], matches[entry], cookies[entry],
+                timeouts[entry] >>> 16, timeouts[entry] & 0xFFFF, installed[entry], instructions[entry]);
+    }
+
+    private static int hash(short tableId, int priority, Object match) {
+        int hash = (match == null ? 0 : match.hashCode()) * 31 + priority;
+        hash = hash * 31 + tableId;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the slot of the flow, or -(free slot) - 1 if absent
+     */
+    private int find(short tableId, int priority, Object match, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && tableIds[entry] == tableId && priorities[entry] == priority
+                    && (match == null ? matches[entry] == null : match.equals(matches[entry]))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private int slotOf(int entry) {
+        int mask = slots.length - 1;
+        int slot = hashes[entry] & mask;
+        while (slots[slot] != entry + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void removeSlot(int slot) {
+        int entry = slots[slot] - 1;
+        int mask = slots.length - 1;
+        // backward shift deletion keeps every probe sequence unbroken
+        int hole = slot;
+        slots[hole] = 0;
+        int next = (hole + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hashes[slots[next] - 1] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                slots[next] = 0;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        int last = --size;
+        if (entry != last) {
+            slots[slotOf(last)] = entry + 1;
+            hashes[entry] = hashes[last];
+            tableIds[entry] = tableIds[last];
+            priorities[entry] = priorities[last];
+            cookies[entry] = cookies[last];
+            timeouts[entry] = timeouts[last];
+            installed[entry] = installed[last];
+            expiries[entry] = expiries[last];
+            matches[entry] = matches[last];
+            instructions[entry] = instructions[last];
+        }
+        matches[last] = null;
+        instructions[last] = null;
+    }
+
+    private void grow() {
+        int capacity = hashes.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        tableIds = Arrays.copyOf(tableIds, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        cookies = Arrays.copyOf(cookies, capacity);
+        timeouts = Arrays.copyOf(timeouts, capacity);
+        installed = Arrays.copyOf(installed, capacity);
+        expiries = Arrays.copyOf(expiries, capacity);
+        matches = Arrays.copyOf(matches, capacity);
+        instructions = Arrays.copyOf(instructions, capacity);
+        slots = new int[capacity * 2];
+        int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = hashes[entry] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+}
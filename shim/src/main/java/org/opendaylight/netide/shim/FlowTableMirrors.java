@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.ActionChoice;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.GroupCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.OutputActionCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.actions.grouping.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instruction.grouping.InstructionChoice;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instruction.grouping.instruction.choice.ApplyActionsCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instruction.grouping.instruction.choice.WriteActionsCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instructions.grouping.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.FlowWildcardsV10;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.PortNumber;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.TableId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.grouping.Match;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.v10.grouping.MatchV10;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowRemovedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link FlowTableMirror}s of all the connected switches, updated from
+ * the relayed flow mods and the flow removed messages, and reverted when the
+ * switch answers a flow mod with an error.
+ * <p>
+ * A non strict command covers a flow whose match is at least as specific:
+ * every field of the command is in the flow, with a mask that keeps at least
+ * the bits of the command mask, and equal under the command mask. OpenFlow
+ * 1.3 matches are compared on their OXM encoding, OpenFlow 1.0 matches on
+ * their wildcards and network prefixes. Deletes also honour out_port and
+ * out_group.
+ */
+public class FlowTableMirrors {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowTableMirrors.class);
+
+    private static final short OF10_VERSION = 1;
+    private static final long OF10_PORT_NONE = 0xffffL;
+    private static final long OF13_PORT_ANY = 0xffffffffL;
+    private static final long OF13_GROUP_ANY = 0xffffffffL;
+    private static final int OXM_EXPERIMENTER_CLASS = 0xffff;
+    // error types a switch rejects a flow mod with
+    private static final int ERROR_BAD_ACTION = 2;
+    private static final int OF10_ERROR_FLOW_MOD_FAILED = 3;
+    private static final int OF13_ERROR_BAD_INSTRUCTION = 3;
+    private static final int OF13_ERROR_FLOW_MOD_FAILED = 5;
+
+    /**
+     * What a non strict command selects, null fields for no restriction.
+     */
+    private static final class Selection {
+        final Object match;
+        final List<OxmEntry> oxm;
+        final Long outPort;
+        final Long outGroup;
+
+        Selection(Object match, List<OxmEntry> oxm, Long outPort, Long outGroup) {
+            this.match = match;
+            this.oxm = oxm;
+            this.outPort = outPort;
+            this.outGroup = outGroup;
+        }
+    }
+
+    private static final class OxmEntry {
+        final int oxmClass;
+        final int field;
+        final byte[] value;
+        // null when the field is not masked
+        final byte[] mask;
+
+        OxmEntry(int oxmClass, int field, byte[] value, byte[] mask) {
+            this.oxmClass = oxmClass;
+            this.field = field;
+            this.value = value;
+            this.mask = mask;
+        }
+
+        boolean covers(OxmEntry flow) {
+            if (oxmClass == OXM_EXPERIMENTER_CLASS) {
+                return Arrays.equals(value, flow.value) && Arrays.equals(mask, flow.mask);
+            }
+            if (value.length != flow.value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                int filterMask = mask == null ? 0xff : mask[i] & 0xff;
+                int flowMask = flow.mask == null ? 0xff : flow.mask[i] & 0xff;
+                if ((filterMask & ~flowMask) != 0 || ((value[i] ^ flow.value[i]) & filterMask) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final FlowTableMirror.MatchFilter MATCH_FILTER = new FlowTableMirror.MatchFilter() {
+        @Override
+        public boolean covers(Object filter, Object match, Object instructions) {
+            Selection selection = (Selection) filter;
+            if (selection.match != null && !matchCovers(selection, match)) {
+                return false;
+            }
+            return selection.outPort == null && selection.outGroup == null
+                    || outputsTo(instructions, selection.outPort, selection.outGroup);
+        }
+    };
+
+    private final ConcurrentMap<Long, FlowTableMirror> mirrors = new ConcurrentHashMap<>();
+
+    public void flowMod(long datapathId, FlowModInput input) {
+        if (input.getCommand() == null) {
+            return;
+        }
+        FlowTableMirror mirror = getOrCreate(datapathId);
+        synchronized (mirror) {
+            if (input.getXid() != null) {
+                mirror.beginCommand(input.getXid());
+            }
+            try {
+                apply(mirror, input);
+            } finally {
+                mirror.endCommand();
+            }
+        }
+    }
+
+    /**
+     * Undoes the flow mod a switch rejected with the error.
+     *
+     * @return whether a flow mod was reverted
+     */
+    public boolean flowModFailed(long datapathId, ErrorMessage error) {
+        FlowTableMirror mirror = mirrors.get(datapathId);
+        if (mirror == null || error.getXid() == null || error.getType() == null) {
+            return false;
+        }
+        int type = error.getType();
+        boolean of10 = error.getVersion() != null && error.getVersion() == OF10_VERSION;
+        boolean flowModError = of10 ? type == ERROR_BAD_ACTION || type == OF10_ERROR_FLOW_MOD_FAILED
+                : type == ERROR_BAD_ACTION || type >= OF13_ERROR_BAD_INSTRUCTION && type <= OF13_ERROR_FLOW_MOD_FAILED;
+        return flowModError && mirror.revert(error.getXid());
+    }
+
+    private static void apply(FlowTableMirror mirror, FlowModInput input) {
+        boolean of10 = input.getVersion() != null && input.getVersion() == OF10_VERSION;
+        short tableId = toTableId(input.getTableId());
+        int priority = input.getPriority() != null ? input.getPriority() : 0;
+        Object match = of10 ? input.getMatchV10() : input.getMatch();
+        Object flowInstructions = of10 ? input.getAction() : input.getInstruction();
+        long cookie = toLong(input.getCookie());
+        long cookieMask = toLong(input.getCookieMask());
+        int idleTimeout = input.getIdleTimeout() != null ? input.getIdleTimeout() : 0;
+        int hardTimeout = input.getHardTimeout() != null ? input.getHardTimeout() : 0;
+        boolean sendFlowRemoved = of10
+                ? input.getFlagsV10() != null && Boolean.TRUE.equals(input.getFlagsV10().isOFPFFSENDFLOWREM())
+                : input.getFlags() != null && Boolean.TRUE.equals(input.getFlags().isOFPFFSENDFLOWREM());
+        // OpenFlow 1.0 has a single table and no table id in its commands
+        short filterTableId = input.getTableId() == null ? FlowTableMirror.ALL_TABLES : tableId;
+        Long outPort = toOutPort(input.getOutPort(), of10);
+        Long outGroup = of10 || input.getOutGroup() == null || input.getOutGroup() == OF13_GROUP_ANY ? null
+                : input.getOutGroup();
+        switch (input.getCommand()) {
+        case OFPFCADD:
+            mirror.add(tableId, priority, match, cookie, idleTimeout, hardTimeout, sendFlowRemoved,
+                    flowInstructions);
+            break;
+        case OFPFCMODIFY:
+            // out_port and out_group only restrict deletes
+            if (mirror.modify(filterTableId, toFilter(match, null, null), cookie, cookieMask,
+                    flowInstructions) == 0 && of10) {
+                // OpenFlow 1.0 adds the flow when nothing matches
+                mirror.add(tableId, priority, match, cookie, idleTimeout, hardTimeout, sendFlowRemoved,
+                        flowInstructions);
+            }
+            break;
+        case OFPFCMODIFYSTRICT:
+            if (!mirror.modifyStrict(tableId, priority, match, cookie, cookieMask, flowInstructions) && of10) {
+                mirror.add(tableId, priority, match, cookie, idleTimeout, hardTimeout, sendFlowRemoved,
+                        flowInstructions);
+            }
+            break;
+        case OFPFCDELETE:
+            mirror.remove(filterTableId, toFilter(match, outPort, outGroup), cookie, cookieMask);
+            break;
+        case OFPFCDELETESTRICT:
+            if (outPort != null || outGroup != null) {
+                FlowEntry flow = mirror.get(tableId, priority, match);
+                if (flow == null || !outputsTo(flow.getInstructions(), outPort, outGroup)) {
+                    break;
+                }
+            }
+            mirror.removeStrict(tableId, priority, match, cookie, cookieMask);
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void flowRemoved(long datapathId, FlowRemovedMessage message) {
+        FlowTableMirror mirror = mirrors.get(datapathId);
+        if (mirror == null) {
+            return;
+        }
+        boolean of10 = message.getVersion() != null && message.getVersion() == OF10_VERSION;
+        Object match = of10 ? message.getMatchV10() : message.getMatch();
+        int priority = message.getPriority() != null ? message.getPriority() : 0;
+        mirror.removeStrict(toTableId(message.getTableId()), priority, match, 0, 0);
+    }
+
+    public FlowTableMirror get(long datapathId) {
+        return mirrors.get(datapathId);
+    }
+
+    public void removeSwitch(long datapathId) {
+        mirrors.remove(datapathId);
+    }
+
+    private FlowTableMirror getOrCreate(long datapathId) {
+        FlowTableMirror mirror = mirrors.get(datapathId);
+        if (mirror == null) {
+            mirror = new FlowTableMirror(datapathId, MATCH_FILTER);
+            FlowTableMirror existing = mirrors.putIfAbsent(datapathId, mirror);
+            if (existing != null) {
+                mirror = existing;
+            }
+        }
+        return mirror;
+    }
+
+    /**
+     * @return the selection of a non strict command, null for all flows
+     */
+    private static Selection toFilter(Object match, Long outPort, Long outGroup) {
+        Object filter = match;
+        List<OxmEntry> oxm = null;
+        if (match instanceof Match) {
+            Match oxmMatch = (Match) match;
+            if (oxmMatch.getMatchEntry() == null || oxmMatch.getMatchEntry().isEmpty()) {
+                filter = null;
+            } else {
+                oxm = toOxm(oxmMatch);
+            }
+        } else if (match instanceof MatchV10 && allWildcarded((MatchV10) match)) {
+            filter = null;
+        }
+        if (filter == null && outPort == null && outGroup == null) {
+            return null;
+        }
+        return new Selection(filter, oxm, outPort, outGroup);
+    }
+
+    private static boolean matchCovers(Selection selection, Object match) {
+        if (selection.match instanceof Match && match instanceof Match) {
+            List<OxmEntry> flow = selection.oxm == null ? null : toOxm((Match) match);
+            if (flow == null) {
+                // not encodable, only the literal entries can be compared
+                return ((Match) match).getMatchEntry() != null
+                        && ((Match) match).getMatchEntry().containsAll(((Match) selection.match).getMatchEntry());
+            }
+            for (OxmEntry filterEntry : selection.oxm) {
+                if (!oxmCovers(filterEntry, flow)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (selection.match instanceof MatchV10 && match instanceof MatchV10) {
+            return v10Covers((MatchV10) selection.match, (MatchV10) match);
+        }
+        return selection.match.equals(match);
+    }
+
+    private static boolean oxmCovers(OxmEntry filterEntry, List<OxmEntry> flow) {
+        for (OxmEntry flowEntry : flow) {
+            if (flowEntry.oxmClass == filterEntry.oxmClass && flowEntry.field == filterEntry.field
+                    && filterEntry.covers(flowEntry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the OXM entries of the match, null if it cannot be encoded
+     */
+    private static List<OxmEntry> toOxm(Match match) {
+        ByteBuf buffer = Unpooled.buffer();
+        try {
+            SwitchCodec.serializeMatch(match, buffer);
+            int end = buffer.readerIndex() + buffer.getUnsignedShort(buffer.readerIndex() + 2);
+            buffer.skipBytes(4);
+            List<OxmEntry> entries = new ArrayList<>();
+            while (buffer.readerIndex() + 4 <= end) {
+                int oxmClass = buffer.readUnsignedShort();
+                int fieldAndMask = buffer.readUnsignedByte();
+                byte[] payload = new byte[buffer.readUnsignedByte()];
+                buffer.readBytes(payload);
+                boolean masked = (fieldAndMask & 1) != 0 && oxmClass != OXM_EXPERIMENTER_CLASS;
+                int half = payload.length / 2;
+                entries.add(new OxmEntry(oxmClass, fieldAndMask >>> 1,
+                        masked ? Arrays.copyOf(payload, half) : payload,
+                        masked ? Arrays.copyOfRange(payload, half, payload.length) : null));
+            }
+            return entries;
+        } catch (RuntimeException e) {
+            LOG.debug("Match {} not encoded, compared literally", match, e);
+            return null;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static boolean v10Covers(MatchV10 filter, MatchV10 flow) {
+        FlowWildcardsV10 wildcards = filter.getWildcards();
+        FlowWildcardsV10 flowWildcards = flow.getWildcards();
+        if (wildcards == null || flowWildcards == null) {
+            return filter.equals(flow);
+        }
+        return fieldCovers(wildcards.isINPORT(), filter.getInPort(), flowWildcards.isINPORT(), flow.getInPort())
+                && fieldCovers(wildcards.isDLVLAN(), filter.getDlVlan(), flowWildcards.isDLVLAN(), flow.getDlVlan())
+                && fieldCovers(wildcards.isDLSRC(), filter.getDlSrc(), flowWildcards.isDLSRC(), flow.getDlSrc())
+                && fieldCovers(wildcards.isDLDST(), filter.getDlDst(), flowWildcards.isDLDST(), flow.getDlDst())
+                && fieldCovers(wildcards.isDLTYPE(), filter.getDlType(), flowWildcards.isDLTYPE(), flow.getDlType())
+                && fieldCovers(wildcards.isNWPROTO(), filter.getNwProto(), flowWildcards.isNWPROTO(),
+                        flow.getNwProto())
+                && fieldCovers(wildcards.isTPSRC(), filter.getTpSrc(), flowWildcards.isTPSRC(), flow.getTpSrc())
+                && fieldCovers(wildcards.isTPDST(), filter.getTpDst(), flowWildcards.isTPDST(), flow.getTpDst())
+                && fieldCovers(wildcards.isDLVLANPCP(), filter.getDlVlanPcp(), flowWildcards.isDLVLANPCP(),
+                        flow.getDlVlanPcp())
+                && fieldCovers(wildcards.isNWTOS(), filter.getNwTos(), flowWildcards.isNWTOS(), flow.getNwTos())
+                && prefixCovers(filter.getNwSrc(), filter.getNwSrcMask(), flow.getNwSrc(), flow.getNwSrcMask())
+                && prefixCovers(filter.getNwDst(), filter.getNwDstMask(), flow.getNwDst(), flow.getNwDstMask());
+    }
+
+    private static boolean fieldCovers(Boolean wildcarded, Object value, Boolean flowWildcarded, Object flowValue) {
+        return Boolean.TRUE.equals(wildcarded)
+                || !Boolean.TRUE.equals(flowWildcarded) && Objects.equals(value, flowValue);
+    }
+
+    private static boolean prefixCovers(Ipv4Address address, Short prefix, Ipv4Address flowAddress,
+            Short flowPrefix) {
+        int bits = prefix == null ? 0 : Math.min(prefix, 32);
+        if (bits == 0) {
+            return true;
+        }
+        if (flowPrefix == null || flowPrefix < bits || address == null || flowAddress == null) {
+            return false;
+        }
+        int mask = -1 << (32 - bits);
+        return (toInt(address) & mask) == (toInt(flowAddress) & mask);
+    }
+
+    private static int toInt(Ipv4Address address) {
+        int value = 0;
+        for (String octet : address.getValue().split("\\.")) {
+            value = value << 8 | Integer.parseInt(octet);
+        }
+        return value;
+    }
+
+    /**
+     * @return whether the actions of the flow output to the port and the group
+     *         given, null for any
+     */
+    private static boolean outputsTo(Object instructions, Long outPort, Long outGroup) {
+        boolean port = outPort == null;
+        boolean group = outGroup == null;
+        if (instructions instanceof List) {
+            for (Object item : (List<?>) instructions) {
+                List<Action> actions = null;
+                if (item instanceof Action) {
+                    actions = Arrays.asList((Action) item);
+                } else if (item instanceof Instruction) {
+                    actions = actionsOf(((Instruction) item).getInstructionChoice());
+                }
+                if (actions == null) {
+                    continue;
+                }
+                for (Action action : actions) {
+                    ActionChoice choice = action.getActionChoice();
+                    if (choice instanceof OutputActionCase) {
+                        OutputActionCase output = (OutputActionCase) choice;
+                        port = port || output.getOutputAction() != null && output.getOutputAction().getPort() != null
+                                && outPort.equals(output.getOutputAction().getPort().getValue());
+                    } else if (choice instanceof GroupCase) {
+                        GroupCase groupAction = (GroupCase) choice;
+                        group = group || groupAction.getGroupAction() != null
+                                && outGroup.equals(groupAction.getGroupAction().getGroupId());
+                    }
+                }
+            }
+        }
+        return port && group;
+    }
+
+    private static List<Action> actionsOf(InstructionChoice choice) {
+        if (choice instanceof ApplyActionsCase && ((ApplyActionsCase) choice).getApplyActions() != null) {
+            return ((ApplyActionsCase) choice).getApplyActions().getAction();
+        }
+        if (choice instanceof WriteActionsCase && ((WriteActionsCase) choice).getWriteActions() != null) {
+            return ((WriteActionsCase) choice).getWriteActions().getAction();
+        }
+        return null;
+    }
+
+    private static Long toOutPort(PortNumber outPort, boolean of10) {
+        if (outPort == null || outPort.getValue() == null) {
+            return null;
+        }
+        long port = outPort.getValue();
+        return port == (of10 ? OF10_PORT_NONE : OF13_PORT_ANY) ? null : port;
+    }
+
+    private static boolean allWildcarded(MatchV10 match) {
+        FlowWildcardsV10 wildcards = match.getWildcards();
+        return wildcards != null && Boolean.TRUE.equals(wildcards.isINPORT())
+                && Boolean.TRUE.equals(wildcards.isDLVLAN()) && Boolean.TRUE.equals(wildcards.isDLSRC())
+                && Boolean.TRUE.equals(wildcards.isDLDST()) && Boolean.TRUE.equals(wildcards.isDLTYPE())
+                && Boolean.TRUE.equals(wildcards.isNWPROTO()) && Boolean.TRUE.equals(wildcards.isTPSRC())
+                && Boolean.TRUE.equals(wildcards.isTPDST()) && Boolean.TRUE.equals(wildcards.isDLVLANPCP())
+                && Boolean.TRUE.equals(wildcards.isNWTOS())
+                && (match.getNwSrcMask() == null || match.getNwSrcMask() == 0)
+                && (match.getNwDstMask() == null || match.getNwDstMask() == 0);
+    }
+
+    private static short toTableId(TableId tableId) {
+        return tableId != null && tableId.getValue() != null ? tableId.getValue().shortValue() : 0;
+    }
+
+    private static long toLong(BigInteger value) {
+        return value != null ? value.longValue() : 0;
+    }
+}
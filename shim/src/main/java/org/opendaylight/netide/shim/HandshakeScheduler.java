@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paces the hello and features handshakes of the switches connecting, so
+ * that a mass reconnect does not request the features of every switch at
+ * once. At most maxConcurrent handshakes run together and two of them start
+ * at least intervalNanos apart, the others wait in arrival order.
+ * <p>
+ * A phase not completed within timeoutNanos, or failing, is repeated after a
+ * backoff doubling on each attempt. After maxAttempts the handshake is given
+ * up and the {@link FailureListener} told. The time spent queued, waiting for
+ * the hello of the switch and waiting for its features is summed per phase.
+ */
+public class HandshakeScheduler<K> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HandshakeScheduler.class);
+
+    public interface FailureListener<K> {
+        void handshakeFailed(K key);
+    }
+
+    private enum Phase {
+        QUEUED, HELLO, FEATURES
+    }
+
+    private static class Handshake {
+        final Runnable hello;
+        Runnable features;
+        Phase phase = Phase.QUEUED;
+        int attempts;
+        long queuedNanos;
+        long startedNanos;
+        long helloNanos;
+        ScheduledFuture<?> timeout;
+
+        Handshake(Runnable hello, long queuedNanos) {
+            this.hello = hello;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxConcurrent;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private FailureListener<K> failureListener;
+    private final Map<K, Handshake> handshakes = new HashMap<>();
+    private final Deque<K> queue = new ArrayDeque<>();
+    private int active;
+    private long lastStartNanos;
+    private boolean startScheduled;
+    private long burstStartNanos = -1;
+    private int burstCompleted;
+    private long completed;
+    private long failed;
+    private long retries;
+    private long queueNanos;
+    private long helloWaitNanos;
+    private long featuresWaitNanos;
+    private long maxHandshakeNanos;
+
+    public HandshakeScheduler(ScheduledExecutorService scheduler, int maxConcurrent, long intervalNanos,
+            long timeoutNanos, int maxAttempts, long backoffNanos) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.scheduler = scheduler;
+        this.maxConcurrent = maxConcurrent;
+        this.intervalNanos = intervalNanos;
+        this.timeoutNanos = timeoutNanos;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffNanos = backoffNanos;
+    }
+
+    public void setFailureListener(FailureListener<K> listener) {
+        this.failureListener = listener;
+    }
+
+    /**
+     * Queues the handshake of a new connection, hello sends our hello.
+     */
+    public void submit(K key, Runnable hello) {
+        synchronized (this) {
+            if (handshakes.containsKey(key)) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (handshakes.isEmpty()) {
+                burstStartNanos = now;
+                burstCompleted = 0;
+            }
+            handshakes.put(key, new Handshake(hello, now));
+            queue.add(key);
+        }
+        startNext();
+    }
+
+    /**
+     * The switch sent its hello, features requests its features now or once
+     * the handshake is started.
+     *
+     * @return false if the connection is not handshaking here, the caller
+     *         then requests the features itself
+     */
+    public boolean helloReceived(K key, Runnable features) {
+        Handshake handshake;
+        synchronized (this) {
+            handshake = handshakes.get(key);
+            if (handshake == null) {
+                return false;
+            }
+            handshake.features = features;
+            if (handshake.phase != Phase.HELLO) {
+                // still queued, or a repeated hello while waiting for features
+                return true;
+            }
+            handshake.phase = Phase.FEATURES;
+            handshake.helloNanos = System.nanoTime();
+            handshake.attempts = 0;
+            armTimeout(key, handshake);
+        }
+        run(features);
+        return true;
+    }
+
+    public void completed(K key) {
+        synchronized (this) {
+            Handshake handshake = handshakes.get(key);
+            if (handshake == null || handshake.phase == Phase.QUEUED) {
+                return;
+            }
+            long now = System.nanoTime();
+            finish(key, handshake);
+            completed++;
+            burstCompleted++;
+            queueNanos += handshake.startedNanos - handshake.queuedNanos;
+            long helloNanos = handshake.phase == Phase.FEATURES ? handshake.helloNanos : now;
+            helloWaitNanos += helloNanos - handshake.startedNanos;
+            featuresWaitNanos += now - helloNanos;
+            maxHandshakeNanos = Math.max(maxHandshakeNanos, now - handshake.queuedNanos);
+            if (handshakes.isEmpty()) {
+                LOG.info("{} switch handshakes completed in {} ms", burstCompleted,
+                        TimeUnit.NANOSECONDS.toMillis(now - burstStartNanos));
+            }
+        }
+        startNext();
+    }
+
+    /**
+     * The current phase failed, it is repeated after a backoff or the
+     * handshake given up.
+     */
+    public void failed(K key) {
+        failed(key, null);
+    }
+
+    private void failed(final K key, Handshake expected) {
+        boolean giveUp = false;
+        synchronized (this) {
+            final Handshake handshake = handshakes.get(key);
+            if (handshake == null || handshake.phase == Phase.QUEUED
+                    || (expected != null && handshake != expected)) {
+                return;
+            }
+            handshake.attempts++;
+            if (handshake.attempts >= maxAttempts) {
+                finish(key, handshake);
+                failed++;
+                giveUp = true;
+            } else {
+                retries++;
+                cancelTimeout(handshake);
+                long delay = backoffNanos << Math.min(handshake.attempts - 1, 16);
+                final Phase phase = handshake.phase;
+                handshake.timeout = schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        retry(key, handshake, phase);
+                    }
+                }, delay);
+            }
+        }
+        if (giveUp) {
+            LOG.warn("Handshake of {} given up after {} attempts", key, maxAttempts);
+            if (failureListener != null) {
+                failureListener.handshakeFailed(key);
+            }
+            startNext();
+        }
+    }
+
+    private void retry(K key, Handshake handshake, Phase phase) {
+        Runnable step;
+        synchronized (this) {
+            if (handshakes.get(key) != handshake || handshake.phase != phase) {
+                return;
+            }
+            step = phase == Phase.HELLO ? handshake.hello : handshake.features;
+            armTimeout(key, handshake);
+        }
+        run(step);
+    }
+
+    /**
+     * Forgets a disconnected switch, queued or handshaking.
+     */
+    public void removed(K key) {
+        synchronized (this) {
+            Handshake handshake = handshakes.get(key);
+            if (handshake == null) {
+                return;
+            }
+            if (handshake.phase == Phase.QUEUED) {
+                handshakes.remove(key);
+                queue.remove(key);
+                return;
+            }
+            finish(key, handshake);
+        }
+        startNext();
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getActive() {
+        return active;
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return the average time in [us] completed handshakes waited for a
+     *         free slot
+     */
+    public synchronized long getAverageQueueMicros() {
+        return averageMicros(queueNanos);
+    }
+
+    /**
+     * @return the average time in [us] from our hello to the one of the
+     *         switch
+     */
+    public synchronized long getAverageHelloMicros() {
+        return averageMicros(helloWaitNanos);
+    }
+
+    /**
+     * @return the average time in [us] from the hello of the switch to its
+     *         features
+     */
+    public synchronized long getAverageFeaturesMicros() {
+        return averageMicros(featuresWaitNanos);
+    }
+
+    public synchronized long getMaxHandshakeMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxHandshakeNanos);
+    }
+
+    private long averageMicros(long nanos) {
+        return completed == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos / completed);
+    }
+
+    private void startNext() {
+        List<Runnable> steps = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (active < maxConcurrent && !queue.isEmpty()) {
+                long wait = lastStartNanos + intervalNanos - now;
+                if (lastStartNanos != 0 && wait > 0) {
+                    if (!startScheduled) {
+                        startScheduled = true;
+                        schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                synchronized (HandshakeScheduler.this) {
+                                    startScheduled = false;
+                                }
+                                startNext();
+                            }
+                        }, wait);
+                    }
+                    break;
+                }
+                K key = queue.poll();
+                Handshake handshake = handshakes.get(key);
+                active++;
+                lastStartNanos = now;
+                handshake.startedNanos = now;
+                steps.add(handshake.hello);
+                if (handshake.features != null) {
+                    // the switch hello came first
+                    handshake.phase = Phase.FEATURES;
+                    handshake.helloNanos = now;
+                    steps.add(handshake.features);
+                } else {
+                    handshake.phase = Phase.HELLO;
+                }
+                armTimeout(key, handshake);
+            }
+        }
+        for (Runnable step : steps) {
+            run(step);
+        }
+    }
+
+    private void finish(K key, Handshake handshake) {
+        handshakes.remove(key);
+        cancelTimeout(handshake);
+        active--;
+    }
+
+    private void armTimeout(final K key, final Handshake handshake) {
+        cancelTimeout(handshake);
+        if (timeoutNanos <= 0) {
+            return;
+        }
+        handshake.timeout = schedule(new Runnable() {
+            @Override
+            public void run() {
+                LOG.debug("Handshake of {} timed out", key);
+                failed(key, handshake);
+            }
+        }, timeoutNanos);
+    }
+
+    private static void cancelTimeout(Handshake handshake) {
+        if (handshake.timeout != null) {
+            handshake.timeout.cancel(false);
+            handshake.timeout = null;
+        }
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        try {
+            return scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Handshake scheduler shut down", e);
+            return null;
+        }
+    }
+
+    private static void run(Runnable step) {
+        try {
+            step.run();
+        } catch (RuntimeException e) {
+            LOG.warn("Handshake step failed", e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.List;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+
+/**
+ * Link of the shim to the core, a single {@link ZeroMQBaseConnector} or
+ * several of them behind a {@link ShardedCoreConnector}.
+ */
+public interface ICoreConnector {
+
+    void setStatistics(ShimStatistics statistics);
+
+    void setMessageCapture(MessageCapture capture);
+
+    void setTrafficRecorder(TrafficLogWriter recorder);
+
+    /**
+     * Sends a heartbeat to the core every interval and reconnects when nothing
+     * has been received from the core for the given number of intervals; 0
+     * disables the check.
+     */
+    void setHeartbeat(long intervalMillis, int missThreshold);
+
+    /**
+     * Sets how many messages to the core are kept while the core link is
+     * down.
+     */
+    void setOutageBufferSize(int size);
+
+    /**
+     * Sets the ZMQ I/O threads of the contexts created by {@link #Start()}.
+     */
+    void setIoThreads(int ioThreads);
+
+    /**
+     * Hands the core messages over to the given workers instead of handling
+     * them on the receive loop.
+     */
+    void setDispatchExecutor(StripedExecutor executor);
+
+    /**
+     * Sets the payload length from which messages to the core are compressed
+     * once the core asked for it; 0 never compresses.
+     */
+    void setCompressionThreshold(int threshold);
+
+    /**
+     * Compresses the larger messages to the core from now on.
+     *
+     * @return false if compression is not configured
+     */
+    boolean enableCompression();
+
+    /**
+     * Sends the messages to the core uncompressed from now on.
+     */
+    void disableCompression();
+
+    boolean isCompressing();
+
+    /**
+     * @return the link to the core whose message is handled on this thread,
+     *         this connector outside of a receive thread or when it links a
+     *         single core
+     */
+    ICoreConnector getOrigin();
+
+    CoreLinkState getCoreLinkState();
+
+    void RegisterCoreListener(ICoreListener listener);
+
+    void Start();
+
+    void Stop();
+
+    boolean SendData(byte[] data);
+
+    /**
+     * Sends several frames, in order.
+     */
+    boolean SendData(List<byte[]> frames);
+}
@@ -18,4 +18,10 @@ public interface ICoreListener {
     void onOpenFlowCoreMessage(Long datapathId, ByteBuf msg, int moduleId);
 
     void onHelloCoreMessage(List<Pair<Protocol, ProtocolVersions>> requiredVersion, int moduleId);
+
+    void onFenceCoreMessage(Long datapathId, int moduleId, int transactionId);
+
+    void onTopologyRequestCoreMessage(int moduleId);
+
+    void onManagementCoreMessage(String payload, int moduleId);
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+public interface ICoreShardListener {
+
+    /**
+     * Called when the set of live core endpoints changed. Switches whose owner
+     * differs between the two rings are now served by another core.
+     */
+    void onCoreShardsChanged(CoreShardRing previous, CoreShardRing current);
+}
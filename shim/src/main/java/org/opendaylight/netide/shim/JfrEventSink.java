@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the relay path events to Java Flight Recorder. The shim is built
+ * for Java 7, so the jdk.jfr API is reached through reflection and the sink is
+ * only available on runtimes that ship it.
+ * <p>
+ * The events are registered disabled. They are recorded when a recording is
+ * started with the netide.jfc profile, e.g.
+ * {@code jcmd <pid> JFR.start settings=netide.jfc}. The sink installs itself
+ * in {@link ShimEvents} only while such a recording is running.
+ */
+public final class JfrEventSink implements ShimEventSink, InvocationHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JfrEventSink.class);
+    private static final String[] FIELDS = { "datapathId", "moduleId", "ofType", "size" };
+    private static final Class<?>[] FIELD_TYPES = { long.class, int.class, int.class, int.class };
+    private static volatile JfrEventSink instance;
+
+    private final Object[] factories = new Object[ShimEventType.values().length];
+    private volatile boolean[] enabled = new boolean[ShimEventType.values().length];
+    private Method newEvent;
+    private Method beginEvent;
+    private Method endEvent;
+    private Method setField;
+    private Method commitEvent;
+    private Method getFlightRecorder;
+    private Method getRecordings;
+    private Method getState;
+    private Method getSettings;
+
+    private JfrEventSink() {
+    }
+
+    /**
+     * Registers the NetIDE event types with the flight recorder.
+     *
+     * @return false if the runtime does not provide jdk.jfr
+     */
+    public static synchronized boolean install() {
+        if (instance != null) {
+            return true;
+        }
+        JfrEventSink sink = new JfrEventSink();
+        try {
+            sink.registerEvents();
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            LOG.info("Flight recorder events not available: {}", e.toString());
+            return false;
+        }
+        instance = sink;
+        return true;
+    }
+
+    private void registerEvents() throws ReflectiveOperationException {
+        ClassLoader loader = JfrEventSink.class.getClassLoader();
+        Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+        Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+        Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", true, loader);
+        Constructor<?> value = valueDescriptor.getConstructor(Class.class, String.class);
+        Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", true, loader);
+        Method create = eventFactory.getMethod("create", List.class, List.class);
+        Method register = eventFactory.getMethod("register");
+        newEvent = eventFactory.getMethod("newEvent");
+
+        Class<?> event = Class.forName("jdk.jfr.Event", true, loader);
+        beginEvent = event.getMethod("begin");
+        endEvent = event.getMethod("end");
+        setField = event.getMethod("set", int.class, Object.class);
+        commitEvent = event.getMethod("commit");
+
+        Object[] fields = new Object[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            fields[i] = value.newInstance(FIELD_TYPES[i], FIELDS[i]);
+        }
+        for (ShimEventType type : ShimEventType.values()) {
+            List<Object> annotations = Arrays.asList(
+                    annotation.newInstance(Class.forName("jdk.jfr.Name", true, loader), type.getEventName()),
+                    annotation.newInstance(Class.forName("jdk.jfr.Label", true, loader), type.getLabel()),
+                    annotation.newInstance(Class.forName("jdk.jfr.Category", true, loader),
+                            new String[] { "NetIDE", "Shim" }),
+                    annotation.newInstance(Class.forName("jdk.jfr.Enabled", true, loader), Boolean.FALSE));
+            Object factory = create.invoke(null, annotations, Arrays.asList(fields));
+            register.invoke(factory);
+            factories[type.ordinal()] = factory;
+        }
+
+        Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder", true, loader);
+        getFlightRecorder = recorder.getMethod("getFlightRecorder");
+        getRecordings = recorder.getMethod("getRecordings");
+        Class<?> recording = Class.forName("jdk.jfr.Recording", true, loader);
+        getState = recording.getMethod("getState");
+        getSettings = recording.getMethod("getSettings");
+        Class<?> listener = Class.forName("jdk.jfr.FlightRecorderListener", true, loader);
+        Object proxy = Proxy.newProxyInstance(loader, new Class<?>[] { listener }, this);
+        recorder.getMethod("addListener", listener).invoke(null, proxy);
+    }
+
+    /**
+     * Called by the flight recorder whenever a recording changes state.
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "recordingStateChanged":
+        case "recorderInitialized":
+            updateEnabled();
+            return null;
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return "NetIDE flight recorder listener";
+        default:
+            return null;
+        }
+    }
+
+    private void updateEnabled() {
+        boolean[] update = new boolean[factories.length];
+        boolean any = false;
+        try {
+            List<?> recordings = (List<?>) getRecordings.invoke(getFlightRecorder.invoke(null));
+            for (Object recording : recordings) {
+                if (!"RUNNING".equals(String.valueOf(getState.invoke(recording)))) {
+                    continue;
+                }
+                Map<?, ?> settings = (Map<?, ?>) getSettings.invoke(recording);
+                for (ShimEventType type : ShimEventType.values()) {
+                    if ("true".equals(settings.get(type.getEventName() + "#enabled"))) {
+                        update[type.ordinal()] = true;
+                        any = true;
+                    }
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Unable to read flight recorder state", e);
+        }
+        enabled = update;
+        ShimEvents.setSink(any ? this : null);
+    }
+
+    @Override
+    public Object begin(ShimEventType type) {
+        if (!enabled[type.ordinal()]) {
+            return null;
+        }
+        try {
+            Object event = newEvent.invoke(factories[type.ordinal()]);
+            beginEvent.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void end(Object event) {
+        try {
+            endEvent.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Unable to end flight recorder event", e);
+        }
+    }
+
+    @Override
+    public void commit(Object event, long datapathId, int moduleId, int ofType, int size) {
+        try {
+            setField.invoke(event, 0, datapathId);
+            setField.invoke(event, 1, moduleId);
+            setField.invoke(event, 2, ofType);
+            setField.invoke(event, 3, size);
+            commitEvent.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            LOG.debug("Unable to commit flight recorder event", e);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opendaylight.netide.netiplib.MessageHeader;
+
+/**
+ * Keeps the last NetIP frames exchanged with the core, either in one global
+ * {@link CaptureRing} or in one ring per datapath, and dumps them to a pcap
+ * file on demand.
+ * <p>
+ * Frames are recorded by the ZeroMQ loop threads; recording is serialized so
+ * that the connectors of several cores can share a capture. Rings of
+ * disconnected datapaths are kept, since their last frames are usually the
+ * interesting ones, but at most {@code maxRings} rings exist: a new datapath
+ * takes the place of the ring that has been idle the longest. Dumps are only
+ * written inside the capture directory. The dump uses link type USER0; every
+ * record starts with a direction byte (0 to core, 1 from core) followed by the
+ * NetIP header and payload.
+ */
+public class MessageCapture {
+
+    static final int LINKTYPE_USER0 = 147;
+    public static final int DEFAULT_MAX_RINGS = 64;
+
+    private final int slots;
+    private final int slotSize;
+    private final boolean perDatapath;
+    private final int maxRings;
+    private final Path directory;
+    private final CaptureRing globalRing;
+    private final ConcurrentMap<Long, CaptureRing> rings = new ConcurrentHashMap<>();
+
+    // lookup table owned by the writer thread so that recording does not box
+    private long[] keys = new long[16];
+    private CaptureRing[] values = new CaptureRing[16];
+    private int size;
+
+    public MessageCapture(int slots, int slotSize, boolean perDatapath, File directory) {
+        this(slots, slotSize, perDatapath, DEFAULT_MAX_RINGS, directory);
+    }
+
+    /**
+     * @param maxRings
+     *            the most rings kept when there is one per datapath
+     * @param directory
+     *            the directory the dumps are written to
+     */
+    public MessageCapture(int slots, int slotSize, boolean perDatapath, int maxRings, File directory) {
+        if (maxRings <= 0) {
+            throw new IllegalArgumentException("Invalid number of capture rings " + maxRings);
+        }
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.perDatapath = perDatapath;
+        this.maxRings = maxRings;
+        this.directory = directory.toPath();
+        this.globalRing = perDatapath ? null : new CaptureRing(slots, slotSize);
+    }
+
+    public boolean isPerDatapath() {
+        return perDatapath;
+    }
+
+    public synchronized void record(int direction, byte[] frame) {
+        long datapathId = MessageHeader.readDatapathId(frame);
+        if (globalRing != null) {
+            globalRing.record(direction, datapathId, frame);
+        } else {
+            ringFor(datapathId).record(direction, datapathId, frame);
+        }
+    }
+
+    /**
+     * Writes the captured frames to a pcap file.
+     *
+     * @param fileName
+     *            the file, relative to the capture directory
+     * @param datapathId
+     *            only frames of this datapath, or null for all of them
+     * @return the number of frames written
+     * @throws IllegalArgumentException
+     *             if the file is not inside the capture directory
+     */
+    public int dump(String fileName, Long datapathId) throws IOException {
+        Path file = resolve(fileName);
+        List<CapturedFrame> frames = new ArrayList<>();
+        if (globalRing != null) {
+            globalRing.snapshot(datapathId, frames);
+        } else if (datapathId != null) {
+            CaptureRing ring = rings.get(datapathId);
+            if (ring != null) {
+                ring.snapshot(datapathId, frames);
+            }
+        } else {
+            for (CaptureRing ring : rings.values()) {
+                ring.snapshot(null, frames);
+            }
+            Collections.sort(frames, new Comparator<CapturedFrame>() {
+                @Override
+                public int compare(CapturedFrame f1, CapturedFrame f2) {
+                    return Long.compare(f1.getTimestamp(), f2.getTimestamp());
+                }
+            });
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+                LinkOption.NOFOLLOW_LINKS)))) {
+            writePcap(out, frames, slotSize - CaptureRing.SLOT_HEADER + 1);
+        }
+        return frames.size();
+    }
+
+    private Path resolve(String fileName) throws IOException {
+        Files.createDirectories(directory);
+        Path root = directory.toRealPath();
+        Path file = root.resolve(fileName).normalize();
+        // the parent is resolved too so that a link cannot lead out of the directory
+        if (file.equals(root) || !file.startsWith(root) || !file.getParent().toRealPath().startsWith(root)) {
+            throw new IllegalArgumentException(fileName + " is outside of the capture directory");
+        }
+        return file;
+    }
+
+    static void writePcap(DataOutputStream out, List<CapturedFrame> frames, int snapLength) throws IOException {
+        out.writeInt(0xa1b2c3d4);
+        out.writeShort(2);
+        out.writeShort(4);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(snapLength);
+        out.writeInt(LINKTYPE_USER0);
+        for (CapturedFrame frame : frames) {
+            out.writeInt((int) (frame.getTimestamp() / 1000));
+            out.writeInt((int) (frame.getTimestamp() % 1000) * 1000);
+            out.writeInt(frame.getData().length + 1);
+            out.writeInt(frame.getOriginalLength() + 1);
+            out.writeByte(frame.getDirection());
+            out.write(frame.getData());
+        }
+    }
+
+    private CaptureRing ringFor(long datapathId) {
+        int index = indexOf(datapathId);
+        if (values[index] != null) {
+            return values[index];
+        }
+        if (size >= maxRings) {
+            releaseIdlestRing();
+            index = indexOf(datapathId);
+        }
+        CaptureRing ring = new CaptureRing(slots, slotSize);
+        keys[index] = datapathId;
+        values[index] = ring;
+        rings.put(datapathId, ring);
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return ring;
+    }
+
+    private int indexOf(long datapathId) {
+        int mask = keys.length - 1;
+        int index = mix(datapathId) & mask;
+        while (values[index] != null && keys[index] != datapathId) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void releaseIdlestRing() {
+        int idlest = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null
+                    && (idlest < 0 || values[i].getLastRecorded() < values[idlest].getLastRecorded())) {
+                idlest = i;
+            }
+        }
+        // the direct buffer is freed once the last snapshot of the ring is done
+        rings.remove(keys[idlest]);
+        values[idlest] = null;
+        size--;
+        rehash(keys.length);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        CaptureRing[] oldValues = values;
+        keys = new long[capacity];
+        values = new CaptureRing[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int index = mix(oldKeys[i]) & mask;
+                while (values[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
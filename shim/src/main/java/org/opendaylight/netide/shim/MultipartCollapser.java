@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInputBuilder;
+
+/**
+ * Collapses identical multipart requests of several modules to a switch into
+ * the one already waiting for its reply. The reply parts are then fanned out
+ * to every requester with its own xid and module id.
+ * <p>
+ * A request joins the pending one only before its first reply part, so each
+ * requester gets the whole reply. Requests the switch never answers are
+ * forgotten after maxAgeNanos. Experimenter requests and table features
+ * requests configuring the tables are never collapsed.
+ */
+public class MultipartCollapser {
+
+    public static final long DEFAULT_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    public static class Requester {
+        private final long xid;
+        private final int moduleId;
+
+        public Requester(long xid, int moduleId) {
+            this.xid = xid;
+            this.moduleId = moduleId;
+        }
+
+        public long getXid() {
+            return xid;
+        }
+
+        public int getModuleId() {
+            return moduleId;
+        }
+    }
+
+    private static class Pending {
+        final MultipartRequestInput key;
+        final long sentNanos;
+        final List<Requester> requesters = new ArrayList<>();
+        boolean replying;
+
+        Pending(MultipartRequestInput key, long sentNanos) {
+            this.key = key;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private static class SwitchRequests {
+        final Map<MultipartRequestInput, Pending> byRequest = new HashMap<>();
+        final Map<Long, Pending> byXid = new HashMap<>();
+    }
+
+    private final long maxAgeNanos;
+    private final ConcurrentMap<Long, SwitchRequests> switches = new ConcurrentHashMap<>();
+
+    public MultipartCollapser(long maxAgeNanos) {
+        this.maxAgeNanos = maxAgeNanos;
+    }
+
+    /**
+     * @return true when the request joined an identical pending one and must
+     *         not be sent, false when it has to be sent to the switch
+     */
+    public boolean join(long datapathId, MultipartRequestInput request, int moduleId) {
+        if (request.getXid() == null || !collapsible(request)) {
+            return false;
+        }
+        // the request without its xid identifies what is asked
+        MultipartRequestInput key = new MultipartRequestInputBuilder(request).setXid(0L).build();
+        long now = System.nanoTime();
+        SwitchRequests requests = getOrCreate(datapathId);
+        synchronized (requests) {
+            expire(requests, now);
+            Pending pending = requests.byRequest.get(key);
+            if (pending != null && !pending.replying) {
+                pending.requesters.add(new Requester(request.getXid(), moduleId));
+                return true;
+            }
+            if (requests.byXid.containsKey(request.getXid())) {
+                // the reply could not be told apart, let it go as before
+                return false;
+            }
+            pending = new Pending(key, now);
+            pending.requesters.add(new Requester(request.getXid(), moduleId));
+            requests.byRequest.put(key, pending);
+            requests.byXid.put(request.getXid(), pending);
+            return false;
+        }
+    }
+
+    /**
+     * @param last
+     *            whether no other part of the reply follows
+     * @return the requesters of the reply, null if its request was not
+     *         tracked
+     */
+    public List<Requester> replyReceived(long datapathId, long xid, boolean last) {
+        SwitchRequests requests = switches.get(datapathId);
+        if (requests == null) {
+            return null;
+        }
+        synchronized (requests) {
+            Pending pending = requests.byXid.get(xid);
+            if (pending == null) {
+                return null;
+            }
+            pending.replying = true;
+            if (last) {
+                requests.byXid.remove(xid);
+                forget(requests, pending);
+            }
+            return Collections.unmodifiableList(new ArrayList<>(pending.requesters));
+        }
+    }
+
+    public void removeSwitch(long datapathId) {
+        switches.remove(datapathId);
+    }
+
+    private static boolean collapsible(MultipartRequestInput request) {
+        return request.getType() != null && request.getType() != MultipartType.OFPMPEXPERIMENTER
+                && !SwitchReplyCache.setsTableFeatures(request);
+    }
+
+    private void expire(SwitchRequests requests, long now) {
+        Iterator<Pending> it = requests.byXid.values().iterator();
+        while (it.hasNext()) {
+            Pending pending = it.next();
+            if (now - pending.sentNanos >= maxAgeNanos) {
+                it.remove();
+                forget(requests, pending);
+            }
+        }
+    }
+
+    private static void forget(SwitchRequests requests, Pending pending) {
+        // a newer identical request may have taken the key over
+        if (requests.byRequest.get(pending.key) == pending) {
+            requests.byRequest.remove(pending.key);
+        }
+    }
+
+    private SwitchRequests getOrCreate(long datapathId) {
+        SwitchRequests requests = switches.get(datapathId);
+        if (requests == null) {
+            requests = new SwitchRequests();
+            SwitchRequests existing = switches.putIfAbsent(datapathId, requests);
+            if (existing != null) {
+                requests = existing;
+            }
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the messages to one switch that arrive within a short window, or
+ * until a size cap, and writes them in one go.
+ * <p>
+ * Writes happen outside of the batcher lock, so that adding to the batch
+ * never waits for the socket. A single thread writes at a time, draining
+ * the batches in order; a flush finding another thread writing hands its
+ * batch over to it, and {@link #flush()} then waits until the batch is out.
+ */
+public class OutboundBatcher<T> {
+
+    public interface Writer<T> {
+        void write(List<T> batch);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Writer<T> writer;
+    private List<T> pending = new ArrayList<>();
+    // flushed, waiting for the writing thread
+    private List<T> ready = new ArrayList<>();
+    private boolean writing;
+    private long flushed;
+    private long written;
+    private ScheduledFuture<?> scheduledFlush;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush(false);
+        }
+    };
+
+    public OutboundBatcher(ScheduledExecutorService scheduler, long windowNanos, int maxBatch, Writer<T> writer) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be positive: " + maxBatch);
+        }
+        this.scheduler = scheduler;
+        this.windowNanos = windowNanos;
+        this.maxBatch = maxBatch;
+        this.writer = writer;
+    }
+
+    public void add(T message) {
+        boolean full;
+        synchronized (this) {
+            pending.add(message);
+            full = pending.size() >= maxBatch;
+            if (!full && pending.size() == 1) {
+                try {
+                    scheduledFlush = scheduler.schedule(flushTask, windowNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    // shutting down, do not hold anything back
+                    full = true;
+                }
+            }
+        }
+        if (full) {
+            flush(false);
+        }
+    }
+
+    /**
+     * Writes the pending messages now, e.g. before a message whose reply is
+     * awaited, and returns once they are written.
+     */
+    public void flush() {
+        flush(true);
+    }
+
+    private void flush(boolean wait) {
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (!pending.isEmpty()) {
+                ready.addAll(pending);
+                flushed += pending.size();
+                pending = new ArrayList<>();
+            }
+            if (writing) {
+                long target = flushed;
+                while (wait && writing && written < target) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (writing || ready.isEmpty()) {
+                    return;
+                }
+            }
+            writing = true;
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            List<T> batch;
+            synchronized (this) {
+                if (ready.isEmpty()) {
+                    writing = false;
+                    notifyAll();
+                    return;
+                }
+                batch = ready;
+                ready = new ArrayList<>();
+            }
+            boolean done = false;
+            try {
+                writer.write(batch);
+                done = true;
+            } finally {
+                synchronized (this) {
+                    written += batch.size();
+                    if (!done) {
+                        // the next flush takes over what is left
+                        writing = false;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the pending messages, the switch went away.
+     *
+     * @return the number of messages dropped
+     */
+    public synchronized int discard() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        int dropped = pending.size() + ready.size();
+        written += ready.size();
+        pending = new ArrayList<>();
+        ready = new ArrayList<>();
+        notifyAll();
+        return dropped;
+    }
+
+    public synchronized int size() {
+        return pending.size() + ready.size();
+    }
+}
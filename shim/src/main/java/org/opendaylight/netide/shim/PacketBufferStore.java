@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Frames of the PACKET_INs the switches sent unbuffered, kept off heap so
+ * that only their first bytes go to the core along with a buffer id of the
+ * shim. A PACKET_OUT or FLOW_MOD of the core naming that buffer id gets the
+ * frame back.
+ * <p>
+ * The ids of the shim are taken above {@link #FIRST_ID}, where switches
+ * seldom put their own buffers; the ids a switch used in its buffered
+ * PACKET_INs are not given out for that switch. An id is only taken for one
+ * of the shim if the shim issued it to that switch. A frame is handed out
+ * once, and evicted oldest first when it is older than the maximum age or
+ * when the store is over its capacity in frames or in bytes.
+ */
+public class PacketBufferStore {
+
+    public static final long NO_BUFFER = 0xFFFFFFFFL;
+    static final long FIRST_ID = 0x80000000L;
+    static final long LAST_ID = NO_BUFFER - 1;
+    static final int SWITCH_IDS = 1024;
+
+    /**
+     * A stored frame, with the port it came in from.
+     */
+    public static class Packet {
+        private final long inPort;
+        private final byte[] data;
+
+        Packet(long inPort, byte[] data) {
+            this.inPort = inPort;
+            this.data = data;
+        }
+
+        public long getInPort() {
+            return inPort;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static class Stored {
+        final long datapathId;
+        final long inPort;
+        final ByteBuf data;
+        final long storedNanos;
+
+        Stored(long datapathId, long inPort, ByteBuf data, long storedNanos) {
+            this.datapathId = datapathId;
+            this.inPort = inPort;
+            this.data = data;
+            this.storedNanos = storedNanos;
+        }
+    }
+
+    private final int capacity;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final int relayBytes;
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    private final Map<Long, Stored> packets = new LinkedHashMap<>();
+    // datapath of the last ids issued, evicted frames included
+    private final Map<Long, Long> issued;
+    // ids in the range of the shim the switches used for their own buffers
+    private final Map<Long, Set<Long>> switchIds = new HashMap<>();
+    private long nextId = FIRST_ID;
+    private long bytes;
+    private long stored;
+    private long resolved;
+    private long evictions;
+
+    /**
+     * @param capacity
+     *            frames kept at most
+     * @param maxBytes
+     *            bytes of frames kept at most
+     * @param maxAgeNanos
+     *            time a frame is kept at most
+     * @param relayBytes
+     *            bytes of a stored frame still sent to the core
+     */
+    public PacketBufferStore(int capacity, long maxBytes, long maxAgeNanos, int relayBytes) {
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = maxAgeNanos;
+        this.relayBytes = relayBytes;
+        final int maxIssued = Math.max(capacity, 1) * 2;
+        this.issued = new LinkedHashMap<Long, Long>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > maxIssued;
+            }
+        };
+    }
+
+    public int getRelayBytes() {
+        return relayBytes;
+    }
+
+    /**
+     * @return whether the shim issued the buffer id to the switch, even if
+     *         its frame was evicted since
+     */
+    public synchronized boolean isShimBufferId(long datapathId, Long bufferId) {
+        if (bufferId == null || bufferId < FIRST_ID || bufferId > LAST_ID) {
+            return false;
+        }
+        Long owner = issued.get(bufferId);
+        return owner != null && owner == datapathId;
+    }
+
+    /**
+     * Notes a buffer id the switch gave its own buffered PACKET_IN, so that
+     * the shim does not issue it for that switch. A frame the shim held for
+     * the switch under that id is dropped, the id now naming the buffer of
+     * the switch.
+     */
+    public synchronized void switchBuffered(long datapathId, long bufferId) {
+        if (bufferId < FIRST_ID || bufferId > LAST_ID) {
+            return;
+        }
+        Set<Long> ids = switchIds.get(datapathId);
+        if (ids == null) {
+            ids = Collections.newSetFromMap(new LinkedHashMap<Long, Boolean>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                    return size() > SWITCH_IDS;
+                }
+            });
+            switchIds.put(datapathId, ids);
+        }
+        ids.add(bufferId);
+        Long owner = issued.get(bufferId);
+        if (owner != null && owner == datapathId) {
+            issued.remove(bufferId);
+            Stored packet = packets.remove(bufferId);
+            if (packet != null) {
+                release(packet);
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Stores a frame, evicting the oldest ones to make room.
+     *
+     * @return the buffer id of the frame, {@link #NO_BUFFER} if it does not
+     *         fit in the store
+     */
+    public synchronized long store(long datapathId, long inPort, byte[] data) {
+        if (capacity <= 0 || data.length > maxBytes) {
+            return NO_BUFFER;
+        }
+        long now = System.nanoTime();
+        expire(now);
+        while (!packets.isEmpty() && (packets.size() >= capacity || bytes + data.length > maxBytes)) {
+            evictOldest();
+        }
+        ByteBuf buffer = allocator.directBuffer(data.length, data.length);
+        buffer.writeBytes(data);
+        Set<Long> used = switchIds.get(datapathId);
+        long bufferId;
+        do {
+            bufferId = nextId;
+            nextId = nextId == LAST_ID ? FIRST_ID : nextId + 1;
+        } while (used != null && used.contains(bufferId));
+        Stored previous = packets.put(bufferId, new Stored(datapathId, inPort, buffer, now));
+        if (previous != null) {
+            release(previous);
+        }
+        issued.remove(bufferId);
+        issued.put(bufferId, datapathId);
+        bytes += data.length;
+        stored++;
+        return bufferId;
+    }
+
+    /**
+     * Hands out a stored frame and forgets it.
+     *
+     * @return the frame, null if the switch has no frame of that id stored
+     *         any more
+     */
+    public synchronized Packet take(long datapathId, long bufferId) {
+        expire(System.nanoTime());
+        Stored packet = packets.get(bufferId);
+        if (packet == null || packet.datapathId != datapathId) {
+            return null;
+        }
+        packets.remove(bufferId);
+        byte[] data = new byte[packet.data.readableBytes()];
+        packet.data.getBytes(packet.data.readerIndex(), data);
+        release(packet);
+        resolved++;
+        return new Packet(packet.inPort, data);
+    }
+
+    public synchronized void removeSwitch(long datapathId) {
+        Iterator<Stored> it = packets.values().iterator();
+        while (it.hasNext()) {
+            Stored packet = it.next();
+            if (packet.datapathId == datapathId) {
+                it.remove();
+                release(packet);
+            }
+        }
+        issued.values().removeAll(Collections.singleton(datapathId));
+        switchIds.remove(datapathId);
+    }
+
+    /**
+     * Releases all the frames.
+     */
+    public synchronized void clear() {
+        for (Stored packet : packets.values()) {
+            release(packet);
+        }
+        packets.clear();
+        issued.clear();
+        switchIds.clear();
+    }
+
+    public synchronized int size() {
+        return packets.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getStored() {
+        return stored;
+    }
+
+    public synchronized long getResolved() {
+        return resolved;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void expire(long now) {
+        Iterator<Stored> it = packets.values().iterator();
+        while (it.hasNext()) {
+            Stored packet = it.next();
+            if (now - packet.storedNanos < maxAgeNanos) {
+                // the frames are in the order they were stored
+                return;
+            }
+            it.remove();
+            release(packet);
+            evictions++;
+        }
+    }
+
+    private void evictOldest() {
+        Iterator<Stored> it = packets.values().iterator();
+        Stored packet = it.next();
+        it.remove();
+        release(packet);
+        evictions++;
+    }
+
+    private void release(Stored packet) {
+        bytes -= packet.data.readableBytes();
+        packet.data.release();
+    }
+}
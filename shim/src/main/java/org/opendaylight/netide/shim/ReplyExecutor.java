@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the tasks waiting for switch replies, each blocked on one outstanding
+ * reply until it is relayed to the core. Without a bound the pool grows with
+ * the outstanding replies. With a bound further replies queue for a free
+ * thread; once the queue is full the caller waits a limited time for room,
+ * then the reply is rejected and counted. The caller never blocks on a reply
+ * itself, it is a dispatch worker or the receive loop of a core.
+ * <p>
+ * With virtual threads there is no pool, each reply starts a thread of its
+ * own and the replies in flight are counted instead.
+ */
+public class ReplyExecutor extends AbstractExecutorService {
+
+    private final ThreadPoolExecutor pool;
+    private final ThreadFactory perTaskFactory;
+    private final AtomicLong rejected = new AtomicLong();
+    private int inFlight;
+    private int largestInFlight;
+    private long completed;
+    private boolean shutdown;
+
+    /**
+     * Starts a thread per task, meant for cheap virtual threads.
+     */
+    public ReplyExecutor(ThreadFactory perTaskFactory) {
+        this.pool = null;
+        this.perTaskFactory = perTaskFactory;
+    }
+
+    /**
+     * @param threads
+     *            the bound of the pool, 0 to grow with the outstanding replies
+     * @param queueCapacity
+     *            replies waiting for a thread of a bounded pool
+     * @param offerTimeoutMillis
+     *            how long the caller waits for room in the full queue
+     */
+    public ReplyExecutor(int threads, int queueCapacity, final long offerTimeoutMillis, ThreadFactory threadFactory) {
+        perTaskFactory = null;
+        if (threads > 0) {
+            pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueCapacity), threadFactory, new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                            waitForRoom(task, executor, offerTimeoutMillis);
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+        } else {
+            pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), threadFactory);
+        }
+    }
+
+    private void waitForRoom(Runnable task, ThreadPoolExecutor executor, long offerTimeoutMillis) {
+        if (!executor.isShutdown()) {
+            try {
+                if (executor.getQueue().offer(task, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    // shut down while waiting, its threads may be gone already
+                    if (!executor.isShutdown() || !executor.remove(task)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        rejected.incrementAndGet();
+        throw new RejectedExecutionException("No room for the reply in " + offerTimeoutMillis + " ms");
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (pool != null) {
+            pool.execute(task);
+            return;
+        }
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Reply executor shut down");
+            }
+            inFlight++;
+            largestInFlight = Math.max(largestInFlight, inFlight);
+        }
+        boolean started = false;
+        try {
+            perTaskFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        finished(true);
+                    }
+                }
+            }).start();
+            started = true;
+        } finally {
+            if (!started) {
+                finished(false);
+            }
+        }
+    }
+
+    private synchronized void finished(boolean ran) {
+        inFlight--;
+        if (ran) {
+            completed++;
+        }
+        if (inFlight == 0) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            return;
+        }
+        synchronized (this) {
+            shutdown = true;
+        }
+    }
+
+    /**
+     * Without a pool the running replies are not interrupted, they end with
+     * their switch futures.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        if (pool != null) {
+            return pool.shutdownNow();
+        }
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        if (pool != null) {
+            return pool.isShutdown();
+        }
+        synchronized (this) {
+            return shutdown;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        if (pool != null) {
+            return pool.isTerminated();
+        }
+        synchronized (this) {
+            return shutdown && inFlight == 0;
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (pool != null) {
+            return pool.awaitTermination(timeout, unit);
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!shutdown || inFlight > 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the replies waiting on a thread or for one
+     */
+    public int getInFlightCount() {
+        if (pool != null) {
+            return pool.getActiveCount() + pool.getQueue().size();
+        }
+        synchronized (this) {
+            return inFlight;
+        }
+    }
+
+    public int getActiveCount() {
+        return pool != null ? pool.getActiveCount() : getInFlightCount();
+    }
+
+    public int getPoolSize() {
+        return pool != null ? pool.getPoolSize() : getInFlightCount();
+    }
+
+    public int getLargestPoolSize() {
+        if (pool != null) {
+            return pool.getLargestPoolSize();
+        }
+        synchronized (this) {
+            return largestInFlight;
+        }
+    }
+
+    public int getQueueSize() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public long getCompletedTaskCount() {
+        if (pool != null) {
+            return pool.getCompletedTaskCount();
+        }
+        synchronized (this) {
+            return completed;
+        }
+    }
+
+    /**
+     * @return the replies rejected because the queue stayed full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.javatuples.Pair;
+import org.opendaylight.netide.netiplib.MessageHeader;
+import org.opendaylight.netide.netiplib.Protocol;
+import org.opendaylight.netide.netiplib.ProtocolVersions;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connector to several cores. Each endpoint has its own
+ * {@link ZeroMQBaseConnector} and receive thread; messages to the core are
+ * routed by consistent hashing on the datapath id of their NetIP header, so
+ * that every switch is handled by exactly one core.
+ * <p>
+ * Messages without a datapath id are answers to a core (e.g. the HELLO
+ * handshake) when sent from a receive thread and go back to that core;
+ * otherwise they are sent to every live core. Endpoints whose link is down
+ * leave the ring until they are reachable again, the switches they owned are
+ * announced to their new core through the {@link ICoreShardListener}.
+ */
+public class ShardedCoreConnector implements ICoreConnector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedCoreConnector.class);
+
+    private final List<ICoreConnector> members = new CopyOnWriteArrayList<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ICoreConnector> origin = new ThreadLocal<>();
+    private final Object announceLock = new Object();
+    private final Queue<CoreShardRing[]> changedRings = new ConcurrentLinkedQueue<>();
+    private volatile CoreShardRing ring = new CoreShardRing(new ArrayList<String>(), new boolean[0]);
+    private ICoreListener coreListener;
+    private volatile ICoreShardListener shardListener;
+    private ShimStatistics statistics;
+    private MessageCapture capture;
+    private TrafficLogWriter recorder;
+    private long heartbeatInterval;
+    private int heartbeatMissThreshold = 3;
+    private int outageBufferSize = 1024;
+    private int ioThreads = 1;
+    private volatile StripedExecutor dispatchExecutor;
+    private int compressionThreshold;
+    private volatile boolean started;
+
+    public void setShardListener(ICoreShardListener listener) {
+        this.shardListener = listener;
+    }
+
+    /**
+     * Adds a core endpoint. When the connector is already running the new
+     * core is started and switches are rebalanced.
+     */
+    public void addEndpoint(String address, int port) {
+        synchronized (this) {
+            String name = address + ":" + port;
+            if (names.contains(name)) {
+                return;
+            }
+            ICoreConnector member = createMember(address, port);
+            configure(member);
+            members.add(member);
+            names.add(name);
+            if (started) {
+                member.Start();
+            }
+            updateRing();
+        }
+        announceRings();
+    }
+
+    /**
+     * Removes a core endpoint, its switches move to the remaining cores.
+     */
+    public void removeEndpoint(String address, int port) {
+        ICoreConnector member;
+        synchronized (this) {
+            int index = names.indexOf(address + ":" + port);
+            if (index < 0) {
+                return;
+            }
+            member = members.remove(index);
+            names.remove(index);
+            updateRing();
+        }
+        announceRings();
+        // outside of the lock, the member thread rebuilds the ring on its way out
+        if (started) {
+            member.Stop();
+        }
+    }
+
+    public List<String> getEndpoints() {
+        return new ArrayList<>(names);
+    }
+
+    public CoreShardRing getRing() {
+        return ring;
+    }
+
+    protected ICoreConnector createMember(String address, int port) {
+        ZeroMQBaseConnector member = new ZeroMQBaseConnector() {
+            @Override
+            protected void coreLinkStateChanged(CoreLinkState state) {
+                // not reported to the statistics, the ring reports them all
+                rebuildRing();
+            }
+        };
+        member.setAddress(address);
+        member.setPort(port);
+        return member;
+    }
+
+    private void configure(ICoreConnector member) {
+        member.setStatistics(statistics);
+        member.setMessageCapture(capture);
+        member.setTrafficRecorder(recorder);
+        member.setHeartbeat(heartbeatInterval, heartbeatMissThreshold);
+        member.setOutageBufferSize(outageBufferSize);
+        member.setIoThreads(ioThreads);
+        member.setDispatchExecutor(dispatchExecutor);
+        member.setCompressionThreshold(compressionThreshold);
+        member.RegisterCoreListener(new MemberListener(member));
+    }
+
+    void rebuildRing() {
+        synchronized (this) {
+            updateRing();
+        }
+        announceRings();
+    }
+
+    /**
+     * Recomputes the ring; the switches it moved are announced by
+     * {@link #announceRings()} once the lock is released.
+     */
+    private void updateRing() {
+        boolean[] live = new boolean[members.size()];
+        for (int i = 0; i < live.length; i++) {
+            live[i] = members.get(i).getCoreLinkState() != CoreLinkState.DOWN;
+        }
+        CoreShardRing previous = ring;
+        CoreShardRing current = new CoreShardRing(names, live);
+        ring = current;
+        LOG.info("Core shards rebalanced, endpoints {}, live {}", names, Arrays.toString(live));
+        if (statistics != null) {
+            // the members leave the link state to the connector of them all
+            statistics.setCoreLinkState(getCoreLinkState());
+        }
+        if (started && shardListener != null && !previous.isEmpty()) {
+            changedRings.add(new CoreShardRing[] { previous, current });
+        }
+    }
+
+    /**
+     * Hands the ring changes to the shard listener in the order they were
+     * made, on the dispatch executor when there is one, so that the receive
+     * thread calling this does not resend features itself.
+     */
+    private void announceRings() {
+        synchronized (announceLock) {
+            CoreShardRing[] change;
+            while ((change = changedRings.poll()) != null) {
+                final CoreShardRing previous = change[0];
+                final CoreShardRing current = change[1];
+                final ICoreShardListener listener = shardListener;
+                Runnable announce = new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCoreShardsChanged(previous, current);
+                    }
+                };
+                StripedExecutor executor = dispatchExecutor;
+                if (executor != null) {
+                    executor.executeOnAll(announce);
+                } else {
+                    announce.run();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean SendData(byte[] data) {
+        long datapathId = MessageHeader.readDatapathId(data);
+        if (datapathId == 0) {
+            ICoreConnector member = origin.get();
+            if (member != null) {
+                return member.SendData(data);
+            }
+            boolean sent = false;
+            for (ICoreConnector live : members) {
+                if (live.getCoreLinkState() != CoreLinkState.DOWN) {
+                    sent |= live.SendData(data);
+                }
+            }
+            return sent;
+        }
+        int owner = ring.owner(datapathId);
+        if (owner < 0 || owner >= members.size()) {
+            // every core is down, let the first one buffer it
+            owner = 0;
+        }
+        return !members.isEmpty() && members.get(owner).SendData(data);
+    }
+
+    @Override
+    public boolean SendData(List<byte[]> frames) {
+        List<ICoreConnector> targets = new ArrayList<>(members);
+        if (targets.isEmpty()) {
+            return false;
+        }
+        CoreShardRing current = ring;
+        List<List<byte[]>> perMember = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            perMember.add(new ArrayList<byte[]>());
+        }
+        boolean sent = true;
+        for (byte[] data : frames) {
+            long datapathId = MessageHeader.readDatapathId(data);
+            if (datapathId == 0) {
+                sent &= SendData(data);
+                continue;
+            }
+            int owner = current.owner(datapathId);
+            if (owner < 0 || owner >= targets.size()) {
+                // every core is down, let the first one buffer it
+                owner = 0;
+            }
+            perMember.get(owner).add(data);
+        }
+        for (int i = 0; i < targets.size(); i++) {
+            if (!perMember.get(i).isEmpty()) {
+                sent &= targets.get(i).SendData(perMember.get(i));
+            }
+        }
+        return sent;
+    }
+
+    @Override
+    public synchronized void Start() {
+        started = true;
+        for (ICoreConnector member : members) {
+            member.Start();
+        }
+    }
+
+    @Override
+    public void Stop() {
+        List<ICoreConnector> running;
+        synchronized (this) {
+            started = false;
+            running = new ArrayList<>(members);
+        }
+        for (ICoreConnector member : running) {
+            member.Stop();
+        }
+    }
+
+    /**
+     * @return UP when every core is up, DOWN when every core is down, UNKNOWN
+     *         otherwise
+     */
+    @Override
+    public CoreLinkState getCoreLinkState() {
+        boolean allUp = true;
+        boolean allDown = true;
+        for (ICoreConnector member : members) {
+            CoreLinkState state = member.getCoreLinkState();
+            allUp &= state == CoreLinkState.UP;
+            allDown &= state == CoreLinkState.DOWN;
+        }
+        if (allDown) {
+            return CoreLinkState.DOWN;
+        }
+        return allUp ? CoreLinkState.UP : CoreLinkState.UNKNOWN;
+    }
+
+    @Override
+    public void RegisterCoreListener(ICoreListener listener) {
+        this.coreListener = listener;
+    }
+
+    @Override
+    public synchronized void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+        for (ICoreConnector member : members) {
+            member.setStatistics(statistics);
+        }
+        if (statistics != null) {
+            statistics.setCoreLinkState(getCoreLinkState());
+        }
+    }
+
+    @Override
+    public synchronized void setMessageCapture(MessageCapture capture) {
+        this.capture = capture;
+        for (ICoreConnector member : members) {
+            member.setMessageCapture(capture);
+        }
+    }
+
+    @Override
+    public synchronized void setTrafficRecorder(TrafficLogWriter recorder) {
+        this.recorder = recorder;
+        for (ICoreConnector member : members) {
+            member.setTrafficRecorder(recorder);
+        }
+    }
+
+    @Override
+    public synchronized void setHeartbeat(long intervalMillis, int missThreshold) {
+        this.heartbeatInterval = intervalMillis;
+        this.heartbeatMissThreshold = missThreshold;
+        for (ICoreConnector member : members) {
+            member.setHeartbeat(intervalMillis, missThreshold);
+        }
+    }
+
+    @Override
+    public synchronized void setOutageBufferSize(int size) {
+        this.outageBufferSize = size;
+        for (ICoreConnector member : members) {
+            member.setOutageBufferSize(size);
+        }
+    }
+
+    @Override
+    public synchronized void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+        for (ICoreConnector member : members) {
+            member.setIoThreads(ioThreads);
+        }
+    }
+
+    @Override
+    public synchronized void setDispatchExecutor(StripedExecutor executor) {
+        this.dispatchExecutor = executor;
+        for (ICoreConnector member : members) {
+            member.setDispatchExecutor(executor);
+        }
+    }
+
+    @Override
+    public synchronized void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+        for (ICoreConnector member : members) {
+            member.setCompressionThreshold(threshold);
+        }
+    }
+
+    /**
+     * Enables compression towards the core whose HELLO is being handled, or
+     * towards every core outside of a receive thread.
+     */
+    @Override
+    public boolean enableCompression() {
+        ICoreConnector member = origin.get();
+        if (member != null) {
+            return member.enableCompression();
+        }
+        boolean enabled = false;
+        for (ICoreConnector live : members) {
+            enabled |= live.enableCompression();
+        }
+        return enabled;
+    }
+
+    /**
+     * Disables compression towards the core whose HELLO is being handled, or
+     * towards every core outside of a receive thread.
+     */
+    @Override
+    public void disableCompression() {
+        ICoreConnector member = origin.get();
+        if (member != null) {
+            member.disableCompression();
+            return;
+        }
+        for (ICoreConnector live : members) {
+            live.disableCompression();
+        }
+    }
+
+    @Override
+    public ICoreConnector getOrigin() {
+        ICoreConnector member = origin.get();
+        return member != null ? member : this;
+    }
+
+    @Override
+    public boolean isCompressing() {
+        for (ICoreConnector member : members) {
+            if (member.isCompressing()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers which core a message came from while it is dispatched, so
+     * that answers without a datapath id go back to it.
+     */
+    private class MemberListener implements ICoreListener {
+        private final ICoreConnector member;
+
+        MemberListener(ICoreConnector member) {
+            this.member = member;
+        }
+
+        @Override
+        public void onOpenFlowCoreMessage(Long datapathId, ByteBuf msg, int moduleId) {
+            if (coreListener == null) {
+                return;
+            }
+            origin.set(member);
+            try {
+                coreListener.onOpenFlowCoreMessage(datapathId, msg, moduleId);
+            } finally {
+                origin.remove();
+            }
+        }
+
+        @Override
+        public void onHelloCoreMessage(List<Pair<Protocol, ProtocolVersions>> requiredVersion, int moduleId) {
+            if (coreListener == null) {
+                return;
+            }
+            origin.set(member);
+            try {
+                coreListener.onHelloCoreMessage(requiredVersion, moduleId);
+            } finally {
+                origin.remove();
+            }
+        }
+
+        @Override
+        public void onFenceCoreMessage(Long datapathId, int moduleId, int transactionId) {
+            if (coreListener == null) {
+                return;
+            }
+            origin.set(member);
+            try {
+                coreListener.onFenceCoreMessage(datapathId, moduleId, transactionId);
+            } finally {
+                origin.remove();
+            }
+        }
+
+        @Override
+        public void onTopologyRequestCoreMessage(int moduleId) {
+            if (coreListener == null) {
+                return;
+            }
+            origin.set(member);
+            try {
+                coreListener.onTopologyRequestCoreMessage(moduleId);
+            } finally {
+                origin.remove();
+            }
+        }
+
+        @Override
+        public void onManagementCoreMessage(String payload, int moduleId) {
+            if (coreListener == null) {
+                return;
+            }
+            origin.set(member);
+            try {
+                coreListener.onManagementCoreMessage(payload, moduleId);
+            } finally {
+                origin.remove();
+            }
+        }
+    }
+}
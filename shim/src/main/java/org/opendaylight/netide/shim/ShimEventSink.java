@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * Receiver of the relay path events gated by {@link ShimEvents}.
+ */
+public interface ShimEventSink {
+
+    /**
+     * Starts timing an operation.
+     *
+     * @return a handle for the event, or null if the type is not recorded
+     */
+    Object begin(ShimEventType type);
+
+    /**
+     * Stops timing an operation whose attributes are only known later.
+     */
+    void end(Object event);
+
+    void commit(Object event, long datapathId, int moduleId, int ofType, int size);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * Operations of the relay path that can be recorded as flight recorder
+ * events. The event names are the ones referenced by the netide.jfc settings
+ * profile.
+ */
+public enum ShimEventType {
+    NETIP_PARSE("NetipParse", "NetIP Parse"),
+    NETIP_ENCODE("NetipEncode", "NetIP Encode"),
+    OF_SERIALIZE("OpenFlowSerialize", "OpenFlow Serialize"),
+    OF_DESERIALIZE("OpenFlowDeserialize", "OpenFlow Deserialize"),
+    ZMQ_SEND("ZmqSend", "ZeroMQ Send"),
+    ZMQ_RECEIVE("ZmqReceive", "ZeroMQ Receive"),
+    SWITCH_DISPATCH("SwitchDispatch", "ConnectionAdapter Dispatch"),
+    NOTIFICATION_OFFER("NotificationOffer", "Notification Offer");
+
+    public static final String NAME_PREFIX = "org.opendaylight.netide.";
+
+    private final String eventName;
+    private final String label;
+
+    ShimEventType(String name, String label) {
+        this.eventName = NAME_PREFIX + name;
+        this.label = label;
+    }
+
+    public String getEventName() {
+        return eventName;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import org.opendaylight.netide.netiplib.MessageHeader;
+import org.opendaylight.netide.netiplib.MessageType;
+
+/**
+ * Static gate in front of the relay path events. While no sink is installed
+ * every call is a single volatile read, so the instrumentation costs nothing
+ * unless a recording asks for it.
+ */
+public final class ShimEvents {
+
+    private static volatile ShimEventSink sink;
+
+    private ShimEvents() {
+    }
+
+    public static void setSink(ShimEventSink eventSink) {
+        sink = eventSink;
+    }
+
+    public static boolean isEnabled() {
+        return sink != null;
+    }
+
+    public static Object begin(ShimEventType type) {
+        ShimEventSink current = sink;
+        return current == null ? null : current.begin(type);
+    }
+
+    public static void end(Object event) {
+        ShimEventSink current = sink;
+        if (event != null && current != null) {
+            current.end(event);
+        }
+    }
+
+    public static void commit(Object event, long datapathId, int moduleId, int ofType, int size) {
+        ShimEventSink current = sink;
+        if (event != null && current != null) {
+            current.commit(event, datapathId, moduleId, ofType, size);
+        }
+    }
+
+    /**
+     * Commits an event taking its attributes from an encoded NetIP message.
+     */
+    public static void commit(Object event, byte[] netipMessage) {
+        if (event == null) {
+            return;
+        }
+        long datapathId = MessageHeader.readDatapathId(netipMessage);
+        int moduleId = 0;
+        int ofType = 0;
+        if (netipMessage.length >= MessageHeader.HEADER_BYTES) {
+            moduleId = ((netipMessage[8] & 0xFF) << 24) | ((netipMessage[9] & 0xFF) << 16)
+                    | ((netipMessage[10] & 0xFF) << 8) | (netipMessage[11] & 0xFF);
+            if (netipMessage[1] == MessageType.OPENFLOW.getValue()
+                    && netipMessage.length > MessageHeader.HEADER_BYTES + 1) {
+                ofType = netipMessage[MessageHeader.HEADER_BYTES + 1] & 0xFF;
+            }
+        }
+        commit(event, datapathId, moduleId, ofType, netipMessage.length);
+    }
+}
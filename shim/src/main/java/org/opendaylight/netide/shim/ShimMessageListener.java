@@ -7,52 +7,45 @@
  */
 package org.opendaylight.netide.shim;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import java.math.BigInteger;
-import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.netide.netiplib.EventSubscription;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionReadyListener;
 import org.opendaylight.openflowplugin.api.OFConstants;
 import org.opendaylight.openflowplugin.api.openflow.md.core.IMDMessageTranslator;
-import org.opendaylight.openflowplugin.api.openflow.md.core.NotificationQueueWrapper;
-import org.opendaylight.openflowplugin.api.openflow.md.core.TranslatorKey;
 import org.opendaylight.openflowplugin.openflow.md.core.session.SessionContextOFImpl;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.ErrorTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.ErrorV10Translator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.ExperimenterTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.FeaturesV10ToNodeConnectorUpdatedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.FlowRemovedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.MultiPartMessageDescToNodeUpdatedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.MultiPartReplyPortToNodeConnectorUpdatedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.MultipartReplyTableFeaturesToTableUpdatedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.MultipartReplyTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.NotificationPlainTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.PacketInTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.PacketInV10Translator;
-import org.opendaylight.openflowplugin.openflow.md.core.translator.PortStatusMessageToNodeConnectorUpdatedTranslator;
-import org.opendaylight.openflowplugin.openflow.md.core.sal.convertor.ConvertorManager;
-import org.opendaylight.openflowplugin.openflow.md.core.sal.convertor.ConvertorManagerFactory;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.TableId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.InPort;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entries.grouping.MatchEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entry.value.grouping.match.entry.value.InPortCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoReplyInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoRequestMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessageBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ExperimenterMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowRemovedMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.HelloMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessageBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.OfHeader;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.OpenflowProtocolListener;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketInMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketInMessageBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortStatusMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.system.rev130927.DisconnectEvent;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.system.rev130927.SwitchIdleEvent;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.system.rev130927.SystemNotificationsListener;
 import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.Notification;
+import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,73 +55,61 @@ public class ShimMessageListener
     private static final Logger LOG = LoggerFactory.getLogger(ShimMessageListener.class);
     private ConnectionAdaptersRegistry connectionRegistry;
     public static final Long DEFAULT_XID = 0x01020304L;
-    private ZeroMQBaseConnector coreConnector;
+    private ICoreConnector coreConnector;
     private ConnectionAdapter switchConnection;
     private IHandshakeListener handshakeListener;
     private ShimRelay shimRelay;
     private ShimSwitchConnectionHandlerImpl connectionHandler;
-    private ConcurrentMap<TranslatorKey, Collection<IMDMessageTranslator<OfHeader, List<DataObject>>>> messageTranslators;
+    private ShimStatistics statistics;
+    private FlowTableMirrors flowTables;
+    private SwitchReplyCache replyCache;
+    private MultipartCollapser multipartCollapser;
+    private StripedExecutor notificationExecutor;
+    private TopologyPublisher topologyPublisher;
+    private SubscriptionRegistry subscriptions;
+    private PacketBufferStore packetBuffers;
+    private boolean mirrorEchoes;
+    private long echoProbeXid = DEFAULT_XID;
+    private final ShimTranslators translators;
     final private int OF10 = OFConstants.OFP_VERSION_1_0;
-    final private int OF13 = OFConstants.OFP_VERSION_1_3;
+    private static final int OFPT_ERROR = 1;
+    private static final int OFPT_EXPERIMENTER = 4;
+    private static final int OFPT_PACKET_IN = 10;
+    private static final int OFPT_FLOW_REMOVED = 11;
+    private static final int OFPT_PORT_STATUS = 12;
+    private static final int OFPT_STATS_REPLY_OF10 = 17;
+    private static final int OFPT_MULTIPART_REPLY = 19;
     SessionContextOFImpl sc;
+    private GetFeaturesOutput sessionFeatures;
     private NotificationPublishService notificationProviderService;
-    final ConvertorManager convertorManager;
 
-    public ShimMessageListener(ZeroMQBaseConnector connector, ConnectionAdapter switchConnection, ShimRelay _shimRelay,
+    public ShimMessageListener(ICoreConnector connector, ConnectionAdapter switchConnection, ShimRelay _shimRelay,
             ShimSwitchConnectionHandlerImpl handler, NotificationPublishService _notificationProviderService) {
         this.coreConnector = connector;
         this.switchConnection = switchConnection;
         this.shimRelay = _shimRelay;
         this.connectionHandler = handler;
         notificationProviderService = _notificationProviderService;
-        convertorManager = ConvertorManagerFactory.createDefaultManager();
-        messageTranslators = new ConcurrentHashMap<>();
-
-        addMessageTranslator(ErrorMessage.class, OF10, new ErrorV10Translator());
-        addMessageTranslator(ErrorMessage.class, OF13, new ErrorTranslator());
-        addMessageTranslator(FlowRemovedMessage.class, OF10, new FlowRemovedTranslator(convertorManager));
-        addMessageTranslator(FlowRemovedMessage.class, OF13, new FlowRemovedTranslator(convertorManager));
-        addMessageTranslator(PacketInMessage.class, OF10, new PacketInV10Translator());
-        addMessageTranslator(PacketInMessage.class, OF13, new PacketInTranslator(convertorManager));
-        addMessageTranslator(PortStatusMessage.class, OF10, new PortStatusMessageToNodeConnectorUpdatedTranslator());
-        addMessageTranslator(PortStatusMessage.class, OF13, new PortStatusMessageToNodeConnectorUpdatedTranslator());
-        addMessageTranslator(MultipartReplyMessage.class, OF13,
-                new MultiPartReplyPortToNodeConnectorUpdatedTranslator());
-        addMessageTranslator(MultipartReplyMessage.class, OF10, new MultiPartMessageDescToNodeUpdatedTranslator());
-        addMessageTranslator(MultipartReplyMessage.class, OF13, new MultiPartMessageDescToNodeUpdatedTranslator());
-        addMessageTranslator(ExperimenterMessage.class, OF10, new ExperimenterTranslator());
-        addMessageTranslator(MultipartReplyMessage.class, OF10, new MultipartReplyTranslator(convertorManager));
-        addMessageTranslator(MultipartReplyMessage.class, OF13, new MultipartReplyTranslator(convertorManager));
-        addMessageTranslator(MultipartReplyMessage.class, OF13,
-                new MultipartReplyTableFeaturesToTableUpdatedTranslator(convertorManager));
-        addMessageTranslator(GetFeaturesOutput.class, OF10, new FeaturesV10ToNodeConnectorUpdatedTranslator());
-        addMessageTranslator(NotificationQueueWrapper.class, OF10, new NotificationPlainTranslator());
-        addMessageTranslator(NotificationQueueWrapper.class, OF13, new NotificationPlainTranslator());
-        sc = new SessionContextOFImpl();
+        translators = ShimTranslators.getInstance();
     }
 
+    /**
+     * Sets up the session the translators see, once per features of the
+     * switch.
+     */
     public void initSession(GetFeaturesOutput featuresOutput) {
-        if (featuresOutput != null) {
+        if (featuresOutput != null && featuresOutput != sessionFeatures) {
+            if (sc == null) {
+                sc = new SessionContextOFImpl();
+            }
             sc.setFeatures(featuresOutput);
             ShimConductor cond = new ShimConductor();
             cond.setVersion(featuresOutput.getVersion());
             sc.setPrimaryConductor(cond);
+            sessionFeatures = featuresOutput;
         }
     }
 
-    public void addMessageTranslator(final Class<? extends DataObject> messageType, final int version,
-            final IMDMessageTranslator<OfHeader, List<DataObject>> translator) {
-        TranslatorKey tKey = new TranslatorKey(version, messageType.getName());
-
-        Collection<IMDMessageTranslator<OfHeader, List<DataObject>>> existingValues = messageTranslators.get(tKey);
-        if (existingValues == null) {
-            existingValues = new LinkedHashSet<>();
-            messageTranslators.put(tKey, existingValues);
-        }
-        existingValues.add(translator);
-        LOG.debug("{} is now translated by {}", messageType, translator);
-    }
-
     public void registerConnectionAdaptersRegistry(ConnectionAdaptersRegistry connectionRegistry) {
         this.connectionRegistry = connectionRegistry;
     }
@@ -137,19 +118,108 @@ public class ShimMessageListener
         this.handshakeListener = listener;
     }
 
-    private void sendNotification(OfHeader message, String messageClass) {
-        TranslatorKey key = new TranslatorKey(message.getVersion(), messageClass);
+    public void registerFlowTableMirrors(FlowTableMirrors flowTables) {
+        this.flowTables = flowTables;
+    }
 
-        if (messageTranslators.containsKey(key)) {
-            for (IMDMessageTranslator<OfHeader, List<DataObject>> translator : messageTranslators.get(key)) {
-                List<DataObject> list = translator.translate(null, sc, message);
-                for (DataObject dataObj : list) {
-                    notificationProviderService.offerNotification((Notification) dataObj);
+    public void registerReplyCache(SwitchReplyCache replyCache) {
+        this.replyCache = replyCache;
+    }
 
-                }
+    public void registerMultipartCollapser(MultipartCollapser collapser) {
+        this.multipartCollapser = collapser;
+    }
+
+    /**
+     * Publishes the notifications on the given workers instead of the switch
+     * I/O thread, in order per switch.
+     */
+    public void registerNotificationExecutor(StripedExecutor executor) {
+        this.notificationExecutor = executor;
+    }
+
+    public void registerStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Relays the echo requests of the switch to the core as well, they are
+     * answered by the shim either way.
+     */
+    public void setMirrorEchoes(boolean mirrorEchoes) {
+        this.mirrorEchoes = mirrorEchoes;
+    }
+
+    public void registerTopologyPublisher(TopologyPublisher publisher) {
+        this.topologyPublisher = publisher;
+    }
+
+    public void registerSubscriptionRegistry(SubscriptionRegistry subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    /**
+     * Keeps the frames of unbuffered PACKET_INs at the shim, the core only
+     * getting their first bytes.
+     */
+    public void registerPacketBufferStore(PacketBufferStore packetBuffers) {
+        this.packetBuffers = packetBuffers;
+    }
+
+    /**
+     * Checks whether an event of the switch is to be sent to the core,
+     * counting it when no module wants it.
+     */
+    private boolean isWanted(long datapathId, int ofType, TableId tableId, Integer reason) {
+        if (subscriptions == null) {
+            return true;
+        }
+        int table = tableId != null && tableId.getValue() != null ? tableId.getValue().intValue()
+                : EventSubscription.ANY;
+        if (subscriptions.isWanted(datapathId, ofType, table, reason != null ? reason : EventSubscription.ANY)) {
+            return true;
+        }
+        if (statistics != null) {
+            statistics.eventFiltered();
+        }
+        return false;
+    }
+
+    private void sendNotification(OfHeader message, String messageClass, int ofType) {
+        for (IMDMessageTranslator<OfHeader, List<DataObject>> translator : translators.get(message.getVersion(),
+                messageClass)) {
+            List<DataObject> list = translator.translate(null, sc, message);
+            for (DataObject dataObj : list) {
+                offerNotification((Notification) dataObj, ofType);
             }
         }
+    }
 
+    private void offerNotification(final Notification notification, final int ofType) {
+        BigInteger datapathId = connectionRegistry.getDatapathID(switchConnection);
+        final long dpid = datapathId == null ? 0 : datapathId.longValue();
+        if (notificationExecutor == null) {
+            publish(notification, dpid, ofType);
+            return;
+        }
+        notificationExecutor.execute(dpid, new Runnable() {
+            @Override
+            public void run() {
+                publish(notification, dpid, ofType);
+            }
+        });
+    }
+
+    private void publish(Notification notification, long datapathId, int ofType) {
+        Object offerEvent = ShimEvents.begin(ShimEventType.NOTIFICATION_OFFER);
+        long start = System.nanoTime();
+        notificationProviderService.offerNotification(notification);
+        if (statistics != null) {
+            statistics.notificationPublished(System.nanoTime() - start);
+        }
+        if (offerEvent != null) {
+            ShimEvents.commit(offerEvent, datapathId, 0, ofType, 0);
+        }
     }
 
     /// OpenflowProtocolListener methods/////
@@ -165,8 +235,19 @@ public class ShimMessageListener
             this.switchConnection.echoReply(builder.build());
             connectionHandler.sendGetFeaturesOuputToCore(arg0.getVersion(), 0, switchConnection);
         } else {
-            shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
-                    datapathId.longValue(), 0);
+            // keepalives do not depend on the core
+            EchoReplyInputBuilder builder = new EchoReplyInputBuilder();
+            builder.setVersion(arg0.getVersion());
+            builder.setXid(arg0.getXid());
+            builder.setData(arg0.getData());
+            this.switchConnection.echoReply(builder.build());
+            if (statistics != null) {
+                statistics.echoAnswered();
+            }
+            if (mirrorEchoes) {
+                shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
+                        datapathId.longValue(), 0);
+            }
         }
     }
 
@@ -175,9 +256,22 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
-            shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
-                    datapathId.longValue(), 0);
+            sendNotification(arg0, arg0.getImplementedInterface().getName(), OFPT_ERROR);
+            if (flowTables != null) {
+                flowTables.flowModFailed(datapathId.longValue(), arg0);
+            }
+            List<MultipartCollapser.Requester> requesters = multipartCollapser == null ? null
+                    : multipartCollapser.replyReceived(datapathId.longValue(), arg0.getXid(), true);
+            if (requesters == null) {
+                shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
+                        datapathId.longValue(), 0);
+                return;
+            }
+            for (MultipartCollapser.Requester requester : requesters) {
+                shimRelay.sendOpenFlowMessageToCore(coreConnector,
+                        new ErrorMessageBuilder(arg0).setXid(requester.getXid()).build(), arg0.getVersion(),
+                        requester.getXid(), datapathId.longValue(), requester.getModuleId());
+            }
         }
     }
 
@@ -186,7 +280,7 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
+            sendNotification(arg0, arg0.getImplementedInterface().getName(), OFPT_EXPERIMENTER);
             shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
                     datapathId.longValue(), 0);
         }
@@ -197,7 +291,14 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
+            if (flowTables != null) {
+                flowTables.flowRemoved(datapathId.longValue(), arg0);
+            }
+            sendNotification(arg0, arg0.getImplementedInterface().getName(), OFPT_FLOW_REMOVED);
+            if (!isWanted(datapathId.longValue(), OFPT_FLOW_REMOVED, arg0.getTableId(),
+                    arg0.getReason() != null ? arg0.getReason().getIntValue() : null)) {
+                return;
+            }
             shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
                     datapathId.longValue(), 0);
         }
@@ -220,9 +321,28 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
-            shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
-                    datapathId.longValue(), 0);
+            if (replyCache != null) {
+                replyCache.multipartReceived(datapathId.longValue(), arg0);
+            }
+            if (topologyPublisher != null) {
+                topologyPublisher.multipartReceived(datapathId.longValue(), arg0);
+            }
+            sendNotification(arg0, arg0.getImplementedInterface().getName(),
+                    arg0.getVersion() == OF10 ? OFPT_STATS_REPLY_OF10 : OFPT_MULTIPART_REPLY);
+            boolean last = arg0.getFlags() == null || !Boolean.TRUE.equals(arg0.getFlags().isOFPMPFREQMORE());
+            List<MultipartCollapser.Requester> requesters = multipartCollapser == null ? null
+                    : multipartCollapser.replyReceived(datapathId.longValue(), arg0.getXid(), last);
+            if (requesters == null) {
+                shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
+                        datapathId.longValue(), 0);
+                return;
+            }
+            for (MultipartCollapser.Requester requester : requesters) {
+                MultipartReplyMessage reply = requester.getXid() == arg0.getXid() ? arg0
+                        : new MultipartReplyMessageBuilder(arg0).setXid(requester.getXid()).build();
+                shimRelay.sendOpenFlowMessageToCore(coreConnector, reply, arg0.getVersion(), requester.getXid(),
+                        datapathId.longValue(), requester.getModuleId());
+            }
         }
     }
 
@@ -231,9 +351,13 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
-            shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
-                    datapathId.longValue(), 0);
+            sendNotification(arg0, arg0.getImplementedInterface().getName(), OFPT_PACKET_IN);
+            if (!isWanted(datapathId.longValue(), OFPT_PACKET_IN, arg0.getTableId(),
+                    arg0.getReason() != null ? arg0.getReason().getIntValue() : null)) {
+                return;
+            }
+            shimRelay.sendOpenFlowMessageToCore(coreConnector, bufferFrame(datapathId.longValue(), arg0),
+                    arg0.getVersion(), arg0.getXid(), datapathId.longValue(), 0);
         }
     }
 
@@ -242,12 +366,67 @@ public class ShimMessageListener
         if (connectionRegistry.getFeaturesOutput(switchConnection) != null) {
             BigInteger datapathId = this.connectionRegistry.getDatapathID(this.switchConnection);
             initSession(connectionRegistry.getFeaturesOutput(switchConnection));
-            sendNotification(arg0, arg0.getImplementedInterface().getName());
+            if (replyCache != null) {
+                replyCache.portStatus(datapathId.longValue(), arg0.getVersion());
+            }
+            if (topologyPublisher != null) {
+                topologyPublisher.portStatus(datapathId.longValue(), arg0);
+            }
+            sendNotification(arg0, arg0.getImplementedInterface().getName(), OFPT_PORT_STATUS);
+            if (!isWanted(datapathId.longValue(), OFPT_PORT_STATUS, null,
+                    arg0.getReason() != null ? arg0.getReason().getIntValue() : null)) {
+                return;
+            }
             shimRelay.sendOpenFlowMessageToCore(coreConnector, arg0, arg0.getVersion(), arg0.getXid(),
                     datapathId.longValue(), 0);
         }
     }
 
+    /**
+     * @return the PACKET_IN to relay, its frame truncated when stored at the
+     *         shim
+     */
+    private PacketInMessage bufferFrame(long datapathId, PacketInMessage packetIn) {
+        byte[] data = packetIn.getData();
+        if (packetBuffers == null) {
+            return packetIn;
+        }
+        if (packetIn.getBufferId() != null && packetIn.getBufferId() != PacketBufferStore.NO_BUFFER) {
+            packetBuffers.switchBuffered(datapathId, packetIn.getBufferId());
+            return packetIn;
+        }
+        if (data == null || data.length <= packetBuffers.getRelayBytes()) {
+            return packetIn;
+        }
+        long bufferId = packetBuffers.store(datapathId, inPort(packetIn), data);
+        if (bufferId == PacketBufferStore.NO_BUFFER) {
+            return packetIn;
+        }
+        PacketInMessageBuilder builder = new PacketInMessageBuilder(packetIn).setBufferId(bufferId)
+                .setData(Arrays.copyOf(data, packetBuffers.getRelayBytes()));
+        if (packetIn.getTotalLen() == null) {
+            builder.setTotalLen(data.length);
+        }
+        return builder.build();
+    }
+
+    private static long inPort(PacketInMessage packetIn) {
+        if (packetIn.getInPort() != null) {
+            return packetIn.getInPort();
+        }
+        if (packetIn.getMatch() != null && packetIn.getMatch().getMatchEntry() != null) {
+            for (MatchEntry entry : packetIn.getMatch().getMatchEntry()) {
+                if (entry.getOxmMatchField() == InPort.class && entry.getMatchEntryValue() instanceof InPortCase) {
+                    InPortCase inPort = (InPortCase) entry.getMatchEntryValue();
+                    if (inPort.getInPort() != null && inPort.getInPort().getPortNumber() != null) {
+                        return inPort.getInPort().getPortNumber().getValue();
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
     //// SystemNotificationsListener methods ////
     @Override
     public void onDisconnectEvent(DisconnectEvent arg0) {
@@ -255,9 +434,48 @@ public class ShimMessageListener
         // this.connectionRegistry.removeConnectionAdapter(this.switchConnection);
     }
 
+    /**
+     * Probes the idle switch with an echo, measuring its round trip time. A
+     * switch not answering is disconnected.
+     */
     @Override
     public void onSwitchIdleEvent(SwitchIdleEvent arg0) {
+        GetFeaturesOutput features = connectionRegistry.getFeaturesOutput(switchConnection);
+        if (features == null || features.getDatapathId() == null) {
+            // still in its handshake
+            return;
+        }
+        final long datapathId = features.getDatapathId().longValue();
+        EchoInputBuilder builder = new EchoInputBuilder();
+        builder.setVersion(features.getVersion());
+        builder.setXid(echoProbeXid++);
+        final long start = System.nanoTime();
+        Futures.addCallback(shimRelay.listenInPoolThread(switchConnection.echo(builder.build())),
+                new FutureCallback<RpcResult<EchoOutput>>() {
+                    @Override
+                    public void onSuccess(RpcResult<EchoOutput> result) {
+                        if (result.isSuccessful()) {
+                            if (statistics != null) {
+                                statistics.echoProbed(datapathId, System.nanoTime() - start);
+                            }
+                        } else {
+                            echoProbeFailed(datapathId);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        echoProbeFailed(datapathId);
+                    }
+                });
+    }
 
+    private void echoProbeFailed(long datapathId) {
+        LOG.info("Switch {} did not answer the echo probe, disconnecting", datapathId);
+        if (statistics != null) {
+            statistics.echoProbeFailed();
+        }
+        switchConnection.disconnect();
     }
 
     //// SystemNotificationsListener methods ////
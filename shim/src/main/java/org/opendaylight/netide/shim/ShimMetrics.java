@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports {@link ShimStatistics}, the number of connected switches and the
+ * saturation of the reply thread pool as a platform MXBean. All values are
+ * read on demand, so the relay pays nothing when nobody is looking.
+ */
+public class ShimMetrics implements ShimMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.opendaylight.netide:type=Shim,name=ShimMetrics";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShimMetrics.class);
+    private final ShimStatistics statistics;
+    private final ShimSwitchConnectionHandlerImpl handler;
+    private final ReplyExecutor replyExecutor;
+    private ObjectName registeredName;
+
+    public ShimMetrics(ShimStatistics statistics, ShimSwitchConnectionHandlerImpl handler,
+            ReplyExecutor replyExecutor) {
+        this.statistics = statistics;
+        this.handler = handler;
+        this.replyExecutor = replyExecutor;
+    }
+
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            registeredName = name;
+            LOG.info("Shim metrics registered as {}", OBJECT_NAME);
+        } catch (JMException e) {
+            LOG.warn("Unable to register shim metrics", e);
+        }
+    }
+
+    public void unregister() {
+        if (registeredName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister shim metrics", e);
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public long getMessagesToCore() {
+        return statistics.getMessagesToCore();
+    }
+
+    @Override
+    public long getBytesToCore() {
+        return statistics.getBytesToCore();
+    }
+
+    @Override
+    public long getMessagesFromCore() {
+        return statistics.getMessagesFromCore();
+    }
+
+    @Override
+    public long getBytesFromCore() {
+        return statistics.getBytesFromCore();
+    }
+
+    @Override
+    public long getCoreQueueDepth() {
+        return statistics.getCoreQueueDepth();
+    }
+
+    @Override
+    public String getCoreLinkState() {
+        return statistics.getCoreLinkState().name();
+    }
+
+    @Override
+    public long getDrops() {
+        return statistics.getDrops();
+    }
+
+    @Override
+    public long getCoalescedBarriers() {
+        return statistics.getCoalescedBarriers();
+    }
+
+    @Override
+    public long getCachedReplies() {
+        return statistics.getCachedReplies();
+    }
+
+    @Override
+    public long getCollapsedMultiparts() {
+        return statistics.getCollapsedMultiparts();
+    }
+
+    @Override
+    public long getSerializationErrors() {
+        return statistics.getSerializationErrors();
+    }
+
+    @Override
+    public long getOutstandingRequests() {
+        return statistics.getOutstandingRequests();
+    }
+
+    @Override
+    public int getConnectedSwitches() {
+        return handler.getNumberOfSwitches();
+    }
+
+    @Override
+    public int getConnectionContexts() {
+        return handler.getConnectionContexts();
+    }
+
+    @Override
+    public int getHandshakesQueued() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getQueued() : 0;
+    }
+
+    @Override
+    public int getHandshakesActive() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getActive() : 0;
+    }
+
+    @Override
+    public long getHandshakesCompleted() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getCompleted() : 0;
+    }
+
+    @Override
+    public long getHandshakeRetries() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getRetries() : 0;
+    }
+
+    @Override
+    public long getHandshakesFailed() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getFailed() : 0;
+    }
+
+    @Override
+    public long getAverageHandshakeQueueMicros() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getAverageQueueMicros() : 0;
+    }
+
+    @Override
+    public long getAverageHandshakeHelloMicros() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getAverageHelloMicros() : 0;
+    }
+
+    @Override
+    public long getAverageHandshakeFeaturesMicros() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getAverageFeaturesMicros() : 0;
+    }
+
+    @Override
+    public long getMaxHandshakeMicros() {
+        HandshakeScheduler<?> scheduler = handler.getHandshakeScheduler();
+        return scheduler != null ? scheduler.getMaxHandshakeMicros() : 0;
+    }
+
+    @Override
+    public int getTopologySyncPending() {
+        TopologySync<?> sync = handler.getTopologySync();
+        return sync != null ? sync.getPending() : 0;
+    }
+
+    @Override
+    public long getTopologySyncSent() {
+        TopologySync<?> sync = handler.getTopologySync();
+        return sync != null ? sync.getSent() : 0;
+    }
+
+    @Override
+    public long getTopologySyncDeferrals() {
+        TopologySync<?> sync = handler.getTopologySync();
+        return sync != null ? sync.getDeferrals() : 0;
+    }
+
+    @Override
+    public long getTopologySequence() {
+        TopologyPublisher publisher = handler.getTopologyPublisher();
+        return publisher != null ? publisher.getSequence() : 0;
+    }
+
+    @Override
+    public int getEventSubscriptions() {
+        SubscriptionRegistry subscriptions = handler.getSubscriptionRegistry();
+        return subscriptions != null ? subscriptions.size() : 0;
+    }
+
+    @Override
+    public long getFilteredEvents() {
+        return statistics.getFilteredEvents();
+    }
+
+    @Override
+    public int getBufferedPackets() {
+        PacketBufferStore packetBuffers = handler.getPacketBufferStore();
+        return packetBuffers != null ? packetBuffers.size() : 0;
+    }
+
+    @Override
+    public long getBufferedPacketBytes() {
+        PacketBufferStore packetBuffers = handler.getPacketBufferStore();
+        return packetBuffers != null ? packetBuffers.getBytes() : 0;
+    }
+
+    @Override
+    public long getBufferedPacketEvictions() {
+        PacketBufferStore packetBuffers = handler.getPacketBufferStore();
+        return packetBuffers != null ? packetBuffers.getEvictions() : 0;
+    }
+
+    @Override
+    public long getCompressedMessages() {
+        return statistics.getCompressedMessages();
+    }
+
+    @Override
+    public long getCompressionSavedBytes() {
+        return statistics.getCompressionSavedBytes();
+    }
+
+    @Override
+    public long getNotificationsPublished() {
+        return statistics.getNotificationsPublished();
+    }
+
+    @Override
+    public long getAverageNotificationPublishMicros() {
+        long count = statistics.getNotificationsPublished();
+        if (count == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(statistics.getNotificationPublishNanos() / count);
+    }
+
+    @Override
+    public long getMaxNotificationPublishMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(statistics.getMaxNotificationPublishNanos());
+    }
+
+    @Override
+    public long getEchoesAnswered() {
+        return statistics.getEchoesAnswered();
+    }
+
+    @Override
+    public long getEchoProbes() {
+        return statistics.getEchoProbes();
+    }
+
+    @Override
+    public long getEchoProbeFailures() {
+        return statistics.getEchoProbeFailures();
+    }
+
+    @Override
+    public long getAverageEchoRttMicros() {
+        long count = statistics.getEchoProbes();
+        if (count == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(statistics.getEchoRttNanos() / count);
+    }
+
+    @Override
+    public long getMaxEchoRttMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(statistics.getMaxEchoRttNanos());
+    }
+
+    @Override
+    public int getReplyPoolActiveThreads() {
+        return replyExecutor.getActiveCount();
+    }
+
+    @Override
+    public int getReplyPoolSize() {
+        return replyExecutor.getPoolSize();
+    }
+
+    @Override
+    public int getReplyPoolLargestSize() {
+        return replyExecutor.getLargestPoolSize();
+    }
+
+    @Override
+    public int getReplyPoolQueueSize() {
+        return replyExecutor.getQueueSize();
+    }
+
+    @Override
+    public long getReplyPoolCompletedTasks() {
+        return replyExecutor.getCompletedTaskCount();
+    }
+
+    @Override
+    public int getReplyPoolInFlightTasks() {
+        return replyExecutor.getInFlightCount();
+    }
+
+    @Override
+    public long getReplyPoolRejectedTasks() {
+        return replyExecutor.getRejectedCount();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+/**
+ * Management view of the shim internals, exported over JMX so that the relay
+ * can be watched with jconsole or any JMX based collector.
+ */
+public interface ShimMetricsMXBean {
+
+    long getMessagesToCore();
+
+    long getBytesToCore();
+
+    long getMessagesFromCore();
+
+    long getBytesFromCore();
+
+    long getCoreQueueDepth();
+
+    String getCoreLinkState();
+
+    long getDrops();
+
+    long getSerializationErrors();
+
+    long getOutstandingRequests();
+
+    long getCoalescedBarriers();
+
+    long getCachedReplies();
+
+    long getCollapsedMultiparts();
+
+    int getConnectedSwitches();
+
+    int getConnectionContexts();
+
+    int getHandshakesQueued();
+
+    int getHandshakesActive();
+
+    long getHandshakesCompleted();
+
+    long getHandshakeRetries();
+
+    long getHandshakesFailed();
+
+    long getAverageHandshakeQueueMicros();
+
+    long getAverageHandshakeHelloMicros();
+
+    long getAverageHandshakeFeaturesMicros();
+
+    long getMaxHandshakeMicros();
+
+    int getTopologySyncPending();
+
+    long getTopologySyncSent();
+
+    long getTopologySyncDeferrals();
+
+    long getTopologySequence();
+
+    int getEventSubscriptions();
+
+    long getFilteredEvents();
+
+    int getBufferedPackets();
+
+    long getBufferedPacketBytes();
+
+    long getBufferedPacketEvictions();
+
+    long getCompressedMessages();
+
+    long getCompressionSavedBytes();
+
+    long getNotificationsPublished();
+
+    long getAverageNotificationPublishMicros();
+
+    long getMaxNotificationPublishMicros();
+
+    long getEchoesAnswered();
+
+    long getEchoProbes();
+
+    long getEchoProbeFailures();
+
+    long getAverageEchoRttMicros();
+
+    long getMaxEchoRttMicros();
+
+    int getReplyPoolActiveThreads();
+
+    int getReplyPoolSize();
+
+    int getReplyPoolLargestSize();
+
+    int getReplyPoolQueueSize();
+
+    long getReplyPoolCompletedTasks();
+
+    int getReplyPoolInFlightTasks();
+
+    long getReplyPoolRejectedTasks();
+}
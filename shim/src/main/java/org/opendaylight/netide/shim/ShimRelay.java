@@ -10,20 +10,35 @@ package org.opendaylight.netide.shim;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import org.opendaylight.netide.netiplib.Message;
 import org.opendaylight.netide.netiplib.MessageType;
 import org.opendaylight.netide.netiplib.NetIPUtils;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
-import org.opendaylight.openflowjava.protocol.api.extensibility.DeserializerRegistry;
-import org.opendaylight.openflowjava.protocol.api.extensibility.SerializerRegistry;
 import org.opendaylight.openflowjava.protocol.impl.deserialization.DeserializationFactory;
-import org.opendaylight.openflowjava.protocol.impl.deserialization.DeserializerRegistryImpl;
 import org.opendaylight.openflowjava.protocol.impl.serialization.SerializationFactory;
-import org.opendaylight.openflowjava.protocol.impl.serialization.SerializerRegistryImpl;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.actions.grouping.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.actions.grouping.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.FlowModCommand;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.PortNumber;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoInputBuilder;
@@ -32,6 +47,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoRequestMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ExperimenterInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetAsyncInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetAsyncOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetConfigInput;
@@ -45,6 +61,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MeterModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketOutInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketOutInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.RoleRequestInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.RoleRequestOutput;
@@ -63,6 +80,160 @@ import org.slf4j.LoggerFactory;
  */
 public class ShimRelay {
     private static final Logger LOG = LoggerFactory.getLogger(ShimRelay.class);
+    // messages the switch does not answer, safe to hold back briefly
+    private static final Set<String> ONE_WAY_MESSAGES = new HashSet<>(Arrays.asList(
+            ExperimenterInput.class.getName(), FlowModInput.class.getName(), GroupModInput.class.getName(),
+            MeterModInput.class.getName(), PacketOutInput.class.getName(), PortModInput.class.getName(),
+            SetAsyncInput.class.getName(), SetConfigInput.class.getName(), TableModInput.class.getName()));
+    // OpenFlow versions up to 1.5
+    private static final int MAX_OF_VERSION = 6;
+    private static final short OF10_VERSION = 1;
+    private static final long OFPP_TABLE_OF10 = 0xfff9L;
+    private static final long OFPP_CONTROLLER_OF10 = 0xfffdL;
+    private static final long OFPP_TABLE = 0xfffffff9L;
+    private static final long OFPP_CONTROLLER = 0xfffffffdL;
+
+    /**
+     * A message held back by an {@link OutboundBatcher}, with what writing
+     * it needs from the core message it came in.
+     */
+    private static final class Outbound {
+        final DataObject msg;
+        final short ofVersion;
+        final ICoreConnector coreConnector;
+        final long datapathId;
+        final int moduleId;
+
+        Outbound(DataObject msg, short ofVersion, ICoreConnector coreConnector, long datapathId, int moduleId) {
+            this.msg = msg;
+            this.ofVersion = ofVersion;
+            this.coreConnector = coreConnector;
+            this.datapathId = datapathId;
+            this.moduleId = moduleId;
+        }
+    }
+
+    private ShimStatistics statistics;
+    private ExecutorService replyExecutor;
+    private ScheduledExecutorService outboundScheduler;
+    private long outboundWindowNanos;
+    private int outboundMaxBatch;
+    private final ConcurrentMap<ConnectionAdapter, OutboundBatcher<Outbound>> outboundBatchers =
+            new ConcurrentHashMap<>();
+    private BarrierCoalescer barrierCoalescer;
+    private FlowTableMirrors flowTables;
+    private SwitchReplyCache replyCache;
+    private MultipartCollapser multipartCollapser;
+    private boolean dropEchoReplies;
+    private PacketBufferStore packetBuffers;
+    private final SwitchCodec[] codecs = new SwitchCodec[MAX_OF_VERSION + 1];
+    private final ConcurrentMap<ConnectionAdapter, Short> negotiatedVersions = new ConcurrentHashMap<>();
+
+    public void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public void setReplyExecutor(ExecutorService executor) {
+        this.replyExecutor = executor;
+    }
+
+    /**
+     * Coalesces the messages to each switch that need no reply, they are
+     * written together after the window or once maxBatch are pending.
+     * Messages awaiting a reply, barriers included, flush the pending ones
+     * first.
+     */
+    public void setOutboundBatching(ScheduledExecutorService scheduler, long windowNanos, int maxBatch) {
+        this.outboundScheduler = scheduler;
+        this.outboundWindowNanos = windowNanos;
+        this.outboundMaxBatch = maxBatch;
+    }
+
+    /**
+     * Lets concurrent barriers of several modules to a switch share one
+     * switch barrier.
+     */
+    public void setBarrierCoalescer(BarrierCoalescer coalescer) {
+        this.barrierCoalescer = coalescer;
+    }
+
+    public void setFlowTableMirrors(FlowTableMirrors flowTables) {
+        this.flowTables = flowTables;
+    }
+
+    /**
+     * Answers the features, DESC, PORT_DESC and TABLE_FEATURES requests of
+     * the core from the replies seen before, see {@link SwitchReplyCache}.
+     */
+    public void setReplyCache(SwitchReplyCache replyCache) {
+        this.replyCache = replyCache;
+    }
+
+    /**
+     * Sends one of the identical multipart requests pending on a switch, see
+     * {@link MultipartCollapser}.
+     */
+    public void setMultipartCollapser(MultipartCollapser collapser) {
+        this.multipartCollapser = collapser;
+    }
+
+    /**
+     * Drops the echo replies of the core, the echo requests of the switches
+     * being answered by the shim and only mirrored to the core.
+     */
+    public void setDropEchoReplies(boolean dropEchoReplies) {
+        this.dropEchoReplies = dropEchoReplies;
+    }
+
+    /**
+     * Puts back the frames stored at the shim into the PACKET_OUTs and
+     * FLOW_MODs of the core naming their buffer id.
+     */
+    public void setPacketBufferStore(PacketBufferStore packetBuffers) {
+        this.packetBuffers = packetBuffers;
+    }
+
+    /**
+     * Records the OpenFlow version negotiated with a switch in its hello.
+     */
+    public void setNegotiatedVersion(ConnectionAdapter connectionAdapter, short ofVersion) {
+        negotiatedVersions.put(connectionAdapter, ofVersion);
+    }
+
+    /**
+     * @return the version negotiated with the switch, 0 before its hello
+     */
+    public short getNegotiatedVersion(ConnectionAdapter connectionAdapter) {
+        Short ofVersion = negotiatedVersions.get(connectionAdapter);
+        return ofVersion != null ? ofVersion : 0;
+    }
+
+    /**
+     * Forgets the outbound batch, barrier and version state of a
+     * disconnected switch.
+     */
+    public void removeSwitch(ConnectionAdapter connectionAdapter) {
+        negotiatedVersions.remove(connectionAdapter);
+        if (barrierCoalescer != null) {
+            barrierCoalescer.removeSwitch(connectionAdapter);
+        }
+        OutboundBatcher<Outbound> batcher = outboundBatchers.remove(connectionAdapter);
+        if (batcher != null) {
+            int dropped = batcher.discard();
+            if (statistics != null) {
+                for (int i = 0; i < dropped; i++) {
+                    statistics.drop();
+                }
+            }
+        }
+    }
+
+    public <V> ListenableFuture<V> listenInPoolThread(Future<V> future) {
+        if (replyExecutor != null) {
+            return JdkFutureAdapters.listenInPoolThread(future, replyExecutor);
+        }
+        return JdkFutureAdapters.listenInPoolThread(future);
+    }
 
     public SerializationFactory createSerializationFactory() {
         return new SerializationFactory();
@@ -72,41 +243,216 @@ public class ShimRelay {
         return new DeserializationFactory();
     }
 
-    public void sendOpenFlowMessageToCore(ZeroMQBaseConnector coreConnector, DataObject msg, short ofVersion, long xId,
+    public void sendOpenFlowMessageToCore(ICoreConnector coreConnector, DataObject msg, short ofVersion, long xId,
             long datapathId, int moduleId) {
+        byte[] data = encodeForCore(msg, ofVersion, xId, datapathId, moduleId);
+        if (data != null) {
+            coreConnector.SendData(data);
+        }
+    }
 
-        SerializationFactory factory = createSerializationFactory();
-        SerializerRegistry registry = new SerializerRegistryImpl();
-        registry.init();
+    /**
+     * @return the NetIP frame relaying the message to the core, null if it
+     *         could not be serialized
+     */
+    public byte[] toCoreFrame(DataObject msg, short ofVersion, long xId, long datapathId, int moduleId) {
+        return encodeForCore(msg, ofVersion, xId, datapathId, moduleId);
+    }
+
+    private byte[] encodeForCore(DataObject msg, short ofVersion, long xId, long datapathId, int moduleId) {
+        SwitchCodec codec = codecFor(ofVersion);
         ByteBuf output = UnpooledByteBufAllocator.DEFAULT.buffer();
-        factory.setSerializerTable(registry);
-        factory.messageToBuffer(ofVersion, output, msg);
+        Object serializeEvent = ShimEvents.begin(ShimEventType.OF_SERIALIZE);
+        try {
+            codec.serialize(msg, output);
+        } catch (RuntimeException e) {
+            LOG.warn("SHIM RELAY: message could not be serialized {}", getImplementedInterface(msg), e);
+            if (statistics != null) {
+                statistics.serializationError();
+            }
+            return null;
+        }
         byte[] bytes = new byte[output.readableBytes()];
         output.readBytes(bytes);
+        ShimEvents.commit(serializeEvent, datapathId, moduleId, bytes.length > 1 ? bytes[1] : 0, bytes.length);
+        if (statistics != null) {
+            statistics.messageFromSwitch(datapathId, bytes.length > 1 ? bytes[1] : 0, bytes.length);
+        }
         Message message = new Message(NetIPUtils.StubHeaderFromPayload(bytes), bytes);
         message.getHeader().setMessageType(MessageType.OPENFLOW);
         message.getHeader().setDatapathId(datapathId);
         message.getHeader().setModuleId(moduleId);
         message.getHeader().setTransactionId((int) xId);
-        coreConnector.SendData(message.toByteRepresentation());
+        Object encodeEvent = ShimEvents.begin(ShimEventType.NETIP_ENCODE);
+        byte[] data = message.toByteRepresentation();
+        ShimEvents.commit(encodeEvent, data);
+        return data;
     }
 
     public void sendToSwitch(ConnectionAdapter connectionAdapter, ByteBuf input, short ofVersion,
-            ZeroMQBaseConnector coreConnector, long datapathId, int moduleId) {
+            ICoreConnector coreConnector, long datapathId, int moduleId) {
 
-        DeserializationFactory factory = createDeserializationFactory();
-        DeserializerRegistry registry = new DeserializerRegistryImpl();
-        registry.init();
-        factory.setRegistry(registry);
-        DataObject msg = factory.deserialize(input, ofVersion);
+        int ofType = input.isReadable() ? input.getUnsignedByte(input.readerIndex()) : 0;
+        int size = input.readableBytes() + 1;
+        DataObject msg = deserialize(input, ofVersion, datapathId, moduleId);
+        if (msg == null) {
+            return;
+        }
+        Object dispatchEvent = ShimEvents.begin(ShimEventType.SWITCH_DISPATCH);
         sendDataObjectToSwitch(connectionAdapter, msg, ofVersion, coreConnector, datapathId, moduleId);
+        ShimEvents.commit(dispatchEvent, datapathId, moduleId, ofType, size);
+    }
+
+    /**
+     * Deserializes an OpenFlow message from the core, the version byte
+     * already read.
+     *
+     * @return the message, or null if it could not be deserialized
+     */
+    public DataObject deserialize(ByteBuf input, short ofVersion, long datapathId, int moduleId) {
+        SwitchCodec codec = codecFor(ofVersion);
+        int ofType = input.isReadable() ? input.getUnsignedByte(input.readerIndex()) : 0;
+        int size = input.readableBytes() + 1;
+        if (statistics != null && input.isReadable()) {
+            statistics.messageToSwitch(datapathId, ofType, size);
+        }
+        Object deserializeEvent = ShimEvents.begin(ShimEventType.OF_DESERIALIZE);
+        DataObject msg = codec.deserialize(input);
+        ShimEvents.commit(deserializeEvent, datapathId, moduleId, ofType, size);
+        if (msg == null) {
+            LOG.warn("SHIM RELAY: message from core could not be deserialized");
+            if (statistics != null) {
+                statistics.serializationError();
+            }
+        }
+        return msg;
+    }
+
+    /**
+     * @return the OpenFlow bytes of a message, null if it could not be
+     *         serialized
+     */
+    public byte[] toBytes(DataObject msg, short ofVersion) {
+        SwitchCodec codec = codecFor(ofVersion);
+        ByteBuf output = UnpooledByteBufAllocator.DEFAULT.buffer();
+        try {
+            codec.serialize(msg, output);
+        } catch (RuntimeException e) {
+            LOG.debug("SHIM RELAY: message could not be serialized {}", getImplementedInterface(msg), e);
+            return null;
+        }
+        byte[] bytes = new byte[output.readableBytes()];
+        output.readBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return the message of the OpenFlow bytes, version byte included, null
+     *         if they could not be deserialized
+     */
+    public DataObject fromBytes(byte[] bytes) {
+        if (bytes.length == 0) {
+            return null;
+        }
+        ByteBuf input = Unpooled.wrappedBuffer(bytes);
+        short ofVersion = input.readUnsignedByte();
+        try {
+            return codecFor(ofVersion).deserialize(input);
+        } catch (RuntimeException e) {
+            LOG.debug("SHIM RELAY: message could not be deserialized", e);
+            return null;
+        }
+    }
+
+    /**
+     * Codecs are kept per OpenFlow version, not per switch: every message
+     * carries its version, and the switches of one version share the codec
+     * as it holds no state of the connection.
+     *
+     * @return the codec of the version, built once per version
+     */
+    private SwitchCodec codecFor(short ofVersion) {
+        if (ofVersion < 0 || ofVersion > MAX_OF_VERSION) {
+            return new SwitchCodec(ofVersion, createSerializationFactory(), createDeserializationFactory());
+        }
+        SwitchCodec codec = codecs[ofVersion];
+        if (codec == null) {
+            // codecs hold no state of their own, a racing duplicate is harmless
+            codec = new SwitchCodec(ofVersion, createSerializationFactory(), createDeserializationFactory());
+            codecs[ofVersion] = codec;
+        }
+        return codec;
+    }
+
+    /**
+     * Sends a barrier to the switch and relays its reply to the core with the
+     * given xid, so that the core can correlate it with a transaction.
+     */
+    public void sendBarrierToSwitch(ConnectionAdapter connectionAdapter, short ofVersion,
+            ICoreConnector coreConnector, long xId, long datapathId, int moduleId) {
+        flushOutbound(connectionAdapter);
+        BarrierInputBuilder builder = new BarrierInputBuilder();
+        builder.setVersion(ofVersion);
+        builder.setXid(xId);
+        writeToSwitch(connectionAdapter, builder.build(), ofVersion, coreConnector, datapathId, moduleId);
     }
 
     public void sendDataObjectToSwitch(ConnectionAdapter connectionAdapter, DataObject msg, short ofVersion,
-            ZeroMQBaseConnector coreConnector, long datapathId, int moduleId) {
+            ICoreConnector coreConnector, long datapathId, int moduleId) {
+        if (outboundScheduler != null) {
+            if (ONE_WAY_MESSAGES.contains(getImplementedInterface(msg))) {
+                outboundBatcher(connectionAdapter)
+                        .add(new Outbound(msg, ofVersion, coreConnector, datapathId, moduleId));
+                return;
+            }
+            flushOutbound(connectionAdapter);
+        }
+        writeToSwitch(connectionAdapter, msg, ofVersion, coreConnector, datapathId, moduleId);
+    }
+
+    private OutboundBatcher<Outbound> outboundBatcher(final ConnectionAdapter connectionAdapter) {
+        OutboundBatcher<Outbound> batcher = outboundBatchers.get(connectionAdapter);
+        if (batcher == null) {
+            batcher = new OutboundBatcher<>(outboundScheduler, outboundWindowNanos, outboundMaxBatch,
+                    new OutboundBatcher.Writer<Outbound>() {
+                        @Override
+                        public void write(List<Outbound> batch) {
+                            for (Outbound outbound : batch) {
+                                writeToSwitch(connectionAdapter, outbound.msg, outbound.ofVersion,
+                                        outbound.coreConnector, outbound.datapathId, outbound.moduleId);
+                            }
+                        }
+                    });
+            OutboundBatcher<Outbound> existing = outboundBatchers.putIfAbsent(connectionAdapter, batcher);
+            if (existing != null) {
+                batcher = existing;
+            }
+        }
+        return batcher;
+    }
+
+    private void flushOutbound(ConnectionAdapter connectionAdapter) {
+        OutboundBatcher<Outbound> batcher = outboundBatchers.get(connectionAdapter);
+        if (batcher != null) {
+            batcher.flush();
+        }
+    }
+
+    private void writeToSwitch(ConnectionAdapter connectionAdapter, DataObject msg, short ofVersion,
+            ICoreConnector coreConnector, long datapathId, int moduleId) {
+        writeMessage(connectionAdapter, msg, ofVersion, coreConnector, datapathId, moduleId);
+        if (barrierCoalescer != null && !getImplementedInterface(msg).equals(BarrierInput.class.getName())) {
+            barrierCoalescer.messageWritten(connectionAdapter);
+        }
+    }
+
+    private void writeMessage(ConnectionAdapter connectionAdapter, DataObject msg, short ofVersion,
+            ICoreConnector coreConnector, long datapathId, int moduleId) {
 
         if (getImplementedInterface(msg).equals(BarrierInput.class.getName())) {
-            Future<RpcResult<BarrierOutput>> reply = connectionAdapter.barrier((BarrierInput) msg);
+            Future<RpcResult<BarrierOutput>> reply = barrierCoalescer != null
+                    ? barrierCoalescer.barrier(connectionAdapter, (BarrierInput) msg)
+                    : connectionAdapter.barrier((BarrierInput) msg);
             sendResponseToCore(reply, coreConnector, ofVersion, ((BarrierInput) msg).getXid(), datapathId, moduleId);
 
         } else if (getImplementedInterface(msg).equals(EchoInput.class.getName())) {
@@ -126,6 +472,9 @@ public class ShimRelay {
 
         } else if (getImplementedInterface(msg).equals(EchoOutput.class.getName())) {
 
+            if (dropEchoReplies) {
+                return;
+            }
             EchoReplyInputBuilder builder = new EchoReplyInputBuilder();
             builder.setVersion(((EchoOutput) msg).getVersion());
             builder.setXid(((EchoOutput) msg).getXid());
@@ -138,7 +487,32 @@ public class ShimRelay {
 
         } else if (getImplementedInterface(msg).equals(FlowModInput.class.getName())) {
 
-            connectionAdapter.flowMod((FlowModInput) msg);
+            FlowModInput flowMod = (FlowModInput) msg;
+            PacketBufferStore.Packet packet = null;
+            if (isDelete(flowMod)) {
+                // the switch ignores the buffer of a delete, the frame stays for a later PACKET_OUT
+                if (packetBuffers != null && packetBuffers.isShimBufferId(datapathId, flowMod.getBufferId())) {
+                    flowMod = new FlowModInputBuilder(flowMod).setBufferId(PacketBufferStore.NO_BUFFER).build();
+                }
+            } else {
+                packet = takeStoredFrame(datapathId, flowMod.getBufferId());
+                if (packet != null) {
+                    flowMod = new FlowModInputBuilder(flowMod).setBufferId(PacketBufferStore.NO_BUFFER).build();
+                }
+            }
+            connectionAdapter.flowMod(flowMod);
+            if (flowTables != null) {
+                flowTables.flowMod(datapathId, flowMod);
+            }
+            if (packet != null) {
+                // the switch would have applied the new flow to its buffered packet, the barrier
+                // makes sure the flow is in the table before the packet goes through it
+                BarrierInputBuilder barrier = new BarrierInputBuilder();
+                barrier.setVersion(flowMod.getVersion());
+                barrier.setXid(flowMod.getXid());
+                connectionAdapter.barrier(barrier.build());
+                connectionAdapter.packetOut(tablePacketOut(flowMod.getVersion(), flowMod.getXid(), packet));
+            }
 
         } else if (getImplementedInterface(msg).equals(GetAsyncInput.class.getName())) {
 
@@ -152,6 +526,10 @@ public class ShimRelay {
 
         } else if (getImplementedInterface(msg).equals(GetFeaturesInput.class.getName())) {
 
+            if (replyFromCache(SwitchReplyCache.Kind.FEATURES, ((GetFeaturesInput) msg).getXid(), ofVersion,
+                    coreConnector, datapathId, moduleId)) {
+                return;
+            }
             Future<RpcResult<GetFeaturesOutput>> reply = connectionAdapter.getFeatures((GetFeaturesInput) msg);
             sendResponseToCore(reply, coreConnector, ofVersion, ((GetFeaturesInput) msg).getXid(), datapathId,
                     moduleId);
@@ -176,15 +554,39 @@ public class ShimRelay {
 
         } else if (getImplementedInterface(msg).equals(MultipartRequestInput.class.getName())) {
 
-            connectionAdapter.multipartRequest((MultipartRequestInput) msg);
+            MultipartRequestInput request = (MultipartRequestInput) msg;
+            SwitchReplyCache.Kind kind = SwitchReplyCache.kindOf(request);
+            if (kind != null && replyFromCache(kind, request.getXid(), ofVersion, coreConnector, datapathId,
+                    moduleId)) {
+                return;
+            }
+            if (replyCache != null && SwitchReplyCache.setsTableFeatures(request)) {
+                replyCache.invalidate(datapathId, SwitchReplyCache.Kind.TABLE_FEATURES);
+            }
+            if (multipartCollapser != null && multipartCollapser.join(datapathId, request, moduleId)) {
+                if (statistics != null) {
+                    statistics.multipartCollapsed();
+                }
+                return;
+            }
+            connectionAdapter.multipartRequest(request);
 
         } else if (getImplementedInterface(msg).equals(PacketOutInput.class.getName())) {
 
-            connectionAdapter.packetOut((PacketOutInput) msg);
+            PacketOutInput packetOut = (PacketOutInput) msg;
+            PacketBufferStore.Packet packet = takeStoredFrame(datapathId, packetOut.getBufferId());
+            if (packet != null) {
+                packetOut = new PacketOutInputBuilder(packetOut).setBufferId(PacketBufferStore.NO_BUFFER)
+                        .setData(packet.getData()).build();
+            }
+            connectionAdapter.packetOut(packetOut);
 
         } else if (getImplementedInterface(msg).equals(PortModInput.class.getName())) {
 
             connectionAdapter.portMod((PortModInput) msg);
+            if (replyCache != null) {
+                replyCache.portStatus(datapathId, ofVersion);
+            }
 
         } else if (getImplementedInterface(msg).equals(SetAsyncInput.class.getName())) {
 
@@ -207,19 +609,96 @@ public class ShimRelay {
 
     }
 
+    private boolean replyFromCache(SwitchReplyCache.Kind kind, Long xId, short ofVersion,
+            ICoreConnector coreConnector, long datapathId, int moduleId) {
+        if (replyCache == null || xId == null) {
+            return false;
+        }
+        List<DataObject> reply = replyCache.get(datapathId, kind, xId);
+        if (reply == null) {
+            return false;
+        }
+        if (statistics != null) {
+            statistics.replyCached();
+        }
+        for (DataObject part : reply) {
+            sendOpenFlowMessageToCore(coreConnector, part, ofVersion, xId, datapathId, moduleId);
+        }
+        return true;
+    }
+
+    /**
+     * @return the frame stored at the shim under the buffer id, null when
+     *         the buffer is not one of the shim, or was evicted in which
+     *         case the switch reports it unknown to the core
+     */
+    private PacketBufferStore.Packet takeStoredFrame(long datapathId, Long bufferId) {
+        if (packetBuffers == null || !packetBuffers.isShimBufferId(datapathId, bufferId)) {
+            return null;
+        }
+        return packetBuffers.take(datapathId, bufferId);
+    }
+
+    private static boolean isDelete(FlowModInput flowMod) {
+        return flowMod.getCommand() == FlowModCommand.OFPFCDELETE
+                || flowMod.getCommand() == FlowModCommand.OFPFCDELETESTRICT;
+    }
+
+    private static PacketOutInput tablePacketOut(Short ofVersion, Long xId, PacketBufferStore.Packet packet) {
+        boolean of10 = ofVersion != null && ofVersion == OF10_VERSION;
+        OutputActionBuilder output = new OutputActionBuilder();
+        output.setPort(new PortNumber(of10 ? OFPP_TABLE_OF10 : OFPP_TABLE));
+        output.setMaxLength(0);
+        ActionBuilder action = new ActionBuilder();
+        action.setActionChoice(new OutputActionCaseBuilder().setOutputAction(output.build()).build());
+        long inPort = packet.getInPort() != 0 ? packet.getInPort() : of10 ? OFPP_CONTROLLER_OF10 : OFPP_CONTROLLER;
+        PacketOutInputBuilder builder = new PacketOutInputBuilder();
+        builder.setVersion(ofVersion);
+        builder.setXid(xId);
+        builder.setBufferId(PacketBufferStore.NO_BUFFER);
+        builder.setInPort(new PortNumber(inPort));
+        builder.setAction(Collections.<Action>singletonList(action.build()));
+        builder.setData(packet.getData());
+        return builder.build();
+    }
+
     public String getImplementedInterface(DataObject message) {
         return message.getImplementedInterface().getName();
     }
 
     public <E extends DataObject> void sendResponseToCore(Future<RpcResult<E>> switchReply,
-            final ZeroMQBaseConnector coreConnector, final short ofVersion, final long xId, final long datapathId,
+            final ICoreConnector coreConnector, final short ofVersion, final long xId, final long datapathId,
             final int moduleId) {
 
-        Futures.addCallback(JdkFutureAdapters.listenInPoolThread(switchReply), new FutureCallback<RpcResult<E>>() {
+        if (statistics != null) {
+            statistics.requestSent(datapathId);
+        }
+        try {
+            addReplyCallback(switchReply, coreConnector, ofVersion, xId, datapathId, moduleId);
+        } catch (RejectedExecutionException e) {
+            // the reply threads are saturated, the module sees no reply as when the switch does not answer
+            LOG.warn("SHIM RELAY: reply from switch {} to xid {} dropped: {}", datapathId, xId, e.getMessage());
+            if (statistics != null) {
+                statistics.requestCompleted(datapathId);
+                statistics.drop(datapathId);
+            }
+        }
+    }
+
+    private <E extends DataObject> void addReplyCallback(Future<RpcResult<E>> switchReply,
+            final ICoreConnector coreConnector, final short ofVersion, final long xId, final long datapathId,
+            final int moduleId) {
+        Futures.addCallback(listenInPoolThread(switchReply), new FutureCallback<RpcResult<E>>() {
             @Override
             public void onSuccess(RpcResult<E> rpcReply) {
+                if (statistics != null) {
+                    statistics.requestCompleted(datapathId);
+                }
                 if (rpcReply.isSuccessful()) {
                     E result = rpcReply.getResult();
+                    if (replyCache != null && result instanceof GetFeaturesOutput) {
+                        replyCache.featuresReceived(datapathId, (GetFeaturesOutput) result);
+                    }
 
                     sendOpenFlowMessageToCore(coreConnector, result, ofVersion, xId, datapathId, moduleId);
                 } else {
@@ -231,6 +710,9 @@ public class ShimRelay {
 
             @Override
             public void onFailure(Throwable t) {
+                if (statistics != null) {
+                    statistics.requestCompleted(datapathId);
+                }
                 LOG.info("SHIM RELAY: failure on communication with switch");
             }
         });
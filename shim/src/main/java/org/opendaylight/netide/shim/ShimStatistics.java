@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of the shim: traffic on the core link, per switch traffic
+ * split by OpenFlow type, drops, serialization errors and outstanding
+ * requests. Counters shared by all switches are striped so that the relay
+ * threads never contend on them.
+ */
+public class ShimStatistics {
+
+    private final StripedCounter messagesToCore = new StripedCounter();
+    private final StripedCounter bytesToCore = new StripedCounter();
+    private final StripedCounter messagesFromCore = new StripedCounter();
+    private final StripedCounter bytesFromCore = new StripedCounter();
+    private final StripedCounter coreQueueDepth = new StripedCounter();
+    private final StripedCounter drops = new StripedCounter();
+    private final StripedCounter serializationErrors = new StripedCounter();
+    private final StripedCounter outstandingRequests = new StripedCounter();
+    private final StripedCounter coalescedBarriers = new StripedCounter();
+    private final StripedCounter cachedReplies = new StripedCounter();
+    private final StripedCounter collapsedMultiparts = new StripedCounter();
+    private final StripedCounter filteredEvents = new StripedCounter();
+    private final StripedCounter compressedMessages = new StripedCounter();
+    private final StripedCounter compressionSavedBytes = new StripedCounter();
+    private final StripedCounter notificationsPublished = new StripedCounter();
+    private final StripedCounter notificationPublishNanos = new StripedCounter();
+    private final AtomicLong maxNotificationPublishNanos = new AtomicLong();
+    private final StripedCounter echoesAnswered = new StripedCounter();
+    private final StripedCounter echoProbes = new StripedCounter();
+    private final StripedCounter echoProbeFailures = new StripedCounter();
+    private final StripedCounter echoRttNanos = new StripedCounter();
+    private final AtomicLong maxEchoRttNanos = new AtomicLong();
+    private final ConcurrentMap<Long, SwitchCounters> switches = new ConcurrentHashMap<>();
+    private volatile CoreLinkState coreLinkState = CoreLinkState.UNKNOWN;
+
+    public void messageToCore(int size) {
+        messagesToCore.increment();
+        bytesToCore.add(size);
+    }
+
+    public void messageFromCore(int size) {
+        messagesFromCore.increment();
+        bytesFromCore.add(size);
+    }
+
+    public void coreMessageQueued() {
+        coreQueueDepth.increment();
+    }
+
+    public void coreMessageDequeued() {
+        coreQueueDepth.decrement();
+    }
+
+    public void messageToSwitch(long datapathId, int ofType, int size) {
+        getSwitchCounters(datapathId).record(SwitchCounters.TO_SWITCH, ofType, size);
+    }
+
+    public void messageFromSwitch(long datapathId, int ofType, int size) {
+        getSwitchCounters(datapathId).record(SwitchCounters.FROM_SWITCH, ofType, size);
+    }
+
+    public void drop() {
+        drops.increment();
+    }
+
+    public void drop(long datapathId) {
+        drops.increment();
+        getSwitchCounters(datapathId).drop();
+    }
+
+    public void serializationError() {
+        serializationErrors.increment();
+    }
+
+    public void requestSent(long datapathId) {
+        outstandingRequests.increment();
+        getSwitchCounters(datapathId).requestSent();
+    }
+
+    public void requestCompleted(long datapathId) {
+        outstandingRequests.decrement();
+        // a reply may come after the switch is removed, its counters stay gone
+        SwitchCounters counters = switches.get(datapathId);
+        if (counters != null) {
+            counters.requestCompleted();
+        }
+    }
+
+    public void barrierCoalesced() {
+        coalescedBarriers.increment();
+    }
+
+    public void replyCached() {
+        cachedReplies.increment();
+    }
+
+    public void multipartCollapsed() {
+        collapsedMultiparts.increment();
+    }
+
+    /**
+     * An event of a switch no module subscribed to, not sent to the core.
+     */
+    public void eventFiltered() {
+        filteredEvents.increment();
+    }
+
+    /**
+     * A message to the core sent with its payload compressed.
+     */
+    public void messageCompressed(int savedBytes) {
+        compressedMessages.increment();
+        compressionSavedBytes.add(savedBytes);
+    }
+
+    public void notificationPublished(long nanos) {
+        notificationsPublished.increment();
+        notificationPublishNanos.add(nanos);
+        long max = maxNotificationPublishNanos.get();
+        while (nanos > max && !maxNotificationPublishNanos.compareAndSet(max, nanos)) {
+            max = maxNotificationPublishNanos.get();
+        }
+    }
+
+    /**
+     * An echo request of a switch answered by the shim.
+     */
+    public void echoAnswered() {
+        echoesAnswered.increment();
+    }
+
+    /**
+     * An echo probe sent to an idle switch was answered.
+     */
+    public void echoProbed(long datapathId, long rttNanos) {
+        echoProbes.increment();
+        echoRttNanos.add(rttNanos);
+        long max = maxEchoRttNanos.get();
+        while (rttNanos > max && !maxEchoRttNanos.compareAndSet(max, rttNanos)) {
+            max = maxEchoRttNanos.get();
+        }
+        getSwitchCounters(datapathId).echoProbed(rttNanos);
+    }
+
+    public void echoProbeFailed() {
+        echoProbeFailures.increment();
+    }
+
+    public void setCoreLinkState(CoreLinkState state) {
+        coreLinkState = state;
+    }
+
+    public CoreLinkState getCoreLinkState() {
+        return coreLinkState;
+    }
+
+    public long getMessagesToCore() {
+        return messagesToCore.sum();
+    }
+
+    public long getBytesToCore() {
+        return bytesToCore.sum();
+    }
+
+    public long getMessagesFromCore() {
+        return messagesFromCore.sum();
+    }
+
+    public long getBytesFromCore() {
+        return bytesFromCore.sum();
+    }
+
+    public long getCoreQueueDepth() {
+        return coreQueueDepth.sum();
+    }
+
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    public long getSerializationErrors() {
+        return serializationErrors.sum();
+    }
+
+    public long getOutstandingRequests() {
+        return outstandingRequests.sum();
+    }
+
+    public long getCoalescedBarriers() {
+        return coalescedBarriers.sum();
+    }
+
+    public long getCachedReplies() {
+        return cachedReplies.sum();
+    }
+
+    public long getCollapsedMultiparts() {
+        return collapsedMultiparts.sum();
+    }
+
+    public long getFilteredEvents() {
+        return filteredEvents.sum();
+    }
+
+    public long getCompressedMessages() {
+        return compressedMessages.sum();
+    }
+
+    public long getCompressionSavedBytes() {
+        return compressionSavedBytes.sum();
+    }
+
+    public long getNotificationsPublished() {
+        return notificationsPublished.sum();
+    }
+
+    public long getNotificationPublishNanos() {
+        return notificationPublishNanos.sum();
+    }
+
+    public long getMaxNotificationPublishNanos() {
+        return maxNotificationPublishNanos.get();
+    }
+
+    public long getEchoesAnswered() {
+        return echoesAnswered.sum();
+    }
+
+    public long getEchoProbes() {
+        return echoProbes.sum();
+    }
+
+    public long getEchoProbeFailures() {
+        return echoProbeFailures.sum();
+    }
+
+    public long getEchoRttNanos() {
+        return echoRttNanos.sum();
+    }
+
+    public long getMaxEchoRttNanos() {
+        return maxEchoRttNanos.get();
+    }
+
+    public SwitchCounters getSwitchCounters(long datapathId) {
+        SwitchCounters counters = switches.get(datapathId);
+        if (counters == null) {
+            counters = new SwitchCounters(datapathId);
+            SwitchCounters existing = switches.putIfAbsent(datapathId, counters);
+            if (existing != null) {
+                counters = existing;
+            }
+        }
+        return counters;
+    }
+
+    public Collection<SwitchCounters> getSwitchCounters() {
+        return Collections.unmodifiableCollection(switches.values());
+    }
+
+    public void removeSwitch(long datapathId) {
+        switches.remove(datapathId);
+    }
+}
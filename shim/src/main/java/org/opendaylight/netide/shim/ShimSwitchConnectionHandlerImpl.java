@@ -10,6 +10,7 @@ package org.opendaylight.netide.shim;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.netty.buffer.ByteBuf;
 import java.math.BigInteger;
 import java.net.Inet4Address;
@@ -17,11 +18,20 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import org.javatuples.Pair;
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.netide.netiplib.EventSubscription;
 import org.opendaylight.netide.netiplib.HelloMessage;
 import org.opendaylight.netide.netiplib.Protocol;
 import org.opendaylight.netide.netiplib.ProtocolVersions;
@@ -42,10 +52,19 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeUpd
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GroupModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.HelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MeterModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketOutInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.hello.Elements;
+import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier.InstanceIdentifierBuilder;
 import org.opendaylight.yangtools.yang.common.RpcError;
@@ -53,27 +72,44 @@ import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler, ICoreListener, IHandshakeListener {
+public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler, ICoreListener, IHandshakeListener,
+        ICoreShardListener {
     public static final Long DEFAULT_XID = 0x01L;
     private static final Logger LOG = LoggerFactory.getLogger(ShimSwitchConnectionHandlerImpl.class);
+    private static final Pair<Protocol, ProtocolVersions> DEFLATE = new Pair<>(Protocol.COMPRESSION,
+            ProtocolVersions.COMPRESSION_DEFLATE);
 
-    private static ZeroMQBaseConnector coreConnector;
+    private static ICoreConnector coreConnector;
     private ConnectionAdaptersRegistry connectionRegistry;
     private Pair<Protocol, ProtocolVersions> supportedProtocol;
     List<Pair<Protocol, ProtocolVersions>> supportedProtocols;
     private ShimRelay shimRelay;
     private NotificationPublishService notificationProviderService;
-    HashMap<InetSocketAddress, ShimMessageListener> mapListeners;
-    HashMap<InetSocketAddress, GetFeaturesOutput> mapFeatures;
+    private final ConcurrentMap<ConnectionAdapter, SwitchConnectionContext> contexts = new ConcurrentHashMap<>();
     SwitchFeaturesUtil swFeaturesUtil;
-
-    public ShimSwitchConnectionHandlerImpl(ZeroMQBaseConnector connector,
+    private ShimStatistics statistics;
+    private ExecutorService replyExecutor;
+    private FenceBuffer<Pair<Short, DataObject>> fenceBuffer;
+    private FlowTableMirrors flowTables;
+    private SwitchReplyCache replyCache;
+    private MultipartCollapser multipartCollapser;
+    private StripedExecutor notificationExecutor;
+    private HandshakeScheduler<ConnectionAdapter> handshakeScheduler;
+    private SwitchStateSnapshot snapshot;
+    private TopologySync<ConnectionAdapter> topologySync;
+    private TopologyPublisher topologyPublisher;
+    private SubscriptionRegistry subscriptions;
+    private PacketBufferStore packetBuffers;
+    private boolean mirrorEchoes;
+    private ScheduledExecutorService outboundScheduler;
+    private long outboundWindowNanos;
+    private int outboundMaxBatch;
+
+    public ShimSwitchConnectionHandlerImpl(ICoreConnector connector,
             NotificationPublishService _notificationProviderService) {
         coreConnector = connector;
         supportedProtocol = null;
         supportedProtocols = new ArrayList<>();
-        mapListeners = new HashMap<>();
-        mapFeatures = new HashMap<>();
         notificationProviderService = _notificationProviderService;
         swFeaturesUtil = SwitchFeaturesUtil.getInstance();
     }
@@ -82,12 +118,241 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
         swFeaturesUtil = featureUtil;
     }
 
+    public void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    public ShimStatistics getStatistics() {
+        return statistics;
+    }
+
+    public FlowTableMirrors getFlowTableMirrors() {
+        return flowTables;
+    }
+
+    public void setReplyExecutor(ExecutorService executor) {
+        this.replyExecutor = executor;
+    }
+
+    public void setNotificationExecutor(StripedExecutor executor) {
+        this.notificationExecutor = executor;
+    }
+
+    /**
+     * Paces the handshakes of the connecting switches, a switch whose
+     * handshake is given up is disconnected. Without a scheduler every
+     * switch is handshaked as soon as it connects.
+     */
+    public void setHandshakeScheduler(HandshakeScheduler<ConnectionAdapter> scheduler) {
+        this.handshakeScheduler = scheduler;
+        if (scheduler != null) {
+            scheduler.setFailureListener(new HandshakeScheduler.FailureListener<ConnectionAdapter>() {
+                @Override
+                public void handshakeFailed(ConnectionAdapter connectionAdapter) {
+                    connectionAdapter.disconnect();
+                }
+            });
+        }
+    }
+
+    public HandshakeScheduler<ConnectionAdapter> getHandshakeScheduler() {
+        return handshakeScheduler;
+    }
+
+    /**
+     * Sends the features of the switches to a core module saying hello in
+     * paced batches on the scheduler, instead of all of them on the receive
+     * loop.
+     */
+    public void setTopologySync(ScheduledExecutorService scheduler, int batchSize, long intervalNanos,
+            long maxQueueDepth) {
+        topologySync = new TopologySync<>(scheduler, coreConnector, new TopologySync.Encoder<ConnectionAdapter>() {
+            @Override
+            public byte[] encode(ConnectionAdapter connectionAdapter, int moduleId) {
+                return featuresFrameForCore(moduleId, connectionAdapter);
+            }
+        }, batchSize, intervalNanos, maxQueueDepth);
+        topologySync.setStatistics(statistics);
+    }
+
+    public TopologySync<ConnectionAdapter> getTopologySync() {
+        return topologySync;
+    }
+
+    /**
+     * Relays the echo requests of the switches to the core besides answering
+     * them, the replies of the core are dropped.
+     */
+    public void setMirrorEchoes(boolean mirrorEchoes) {
+        this.mirrorEchoes = mirrorEchoes;
+    }
+
+    /**
+     * Pushes the changes of the topology to the cores as TOPOLOGY_UPDATE
+     * deltas.
+     */
+    public void setTopologyPublisher(TopologyPublisher publisher) {
+        this.topologyPublisher = publisher;
+    }
+
+    public TopologyPublisher getTopologyPublisher() {
+        return topologyPublisher;
+    }
+
+    /**
+     * Sends to the core only the switch events some module subscribed to,
+     * once every module that said HELLO subscribed.
+     */
+    public void setSubscriptionRegistry(SubscriptionRegistry subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    public SubscriptionRegistry getSubscriptionRegistry() {
+        return subscriptions;
+    }
+
+    /**
+     * Relays only the first bytes of the frames of unbuffered PACKET_INs,
+     * the frames staying at the shim until a PACKET_OUT or FLOW_MOD names
+     * their buffer id.
+     */
+    public void setPacketBufferStore(PacketBufferStore packetBuffers) {
+        this.packetBuffers = packetBuffers;
+    }
+
+    public PacketBufferStore getPacketBufferStore() {
+        return packetBuffers;
+    }
+
+    /**
+     * State saved by a previous run. The cached replies of a switch are
+     * restored when it reconnects with the same features.
+     */
+    public void setSnapshot(SwitchStateSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @return the features and the cached DESC and TABLE_FEATURES replies of
+     *         the connected switches. PORT_DESC is left out: the features
+     *         reply of OF1.3 has no ports to tell whether they changed.
+     */
+    public SwitchStateSnapshot createSnapshot() {
+        SwitchStateSnapshot result = new SwitchStateSnapshot();
+        List<ConnectionAdapter> connections;
+        synchronized (connectionRegistry) {
+            connections = new ArrayList<>(connectionRegistry.getConnectionAdapters());
+        }
+        for (ConnectionAdapter connectionAdapter : connections) {
+            GetFeaturesOutput features = connectionRegistry.getFeaturesOutput(connectionAdapter);
+            if (features == null || features.getDatapathId() == null || features.getVersion() == null) {
+                continue;
+            }
+            long datapathId = features.getDatapathId().longValue();
+            byte[] featuresBytes = featuresToBytes(features);
+            if (featuresBytes == null) {
+                continue;
+            }
+            List<byte[]> messages = new ArrayList<>();
+            messages.add(featuresBytes);
+            for (SwitchReplyCache.Kind kind : Arrays.asList(SwitchReplyCache.Kind.DESC,
+                    SwitchReplyCache.Kind.TABLE_FEATURES)) {
+                List<DataObject> reply = replyCache.get(datapathId, kind, 0L);
+                if (reply == null) {
+                    continue;
+                }
+                List<byte[]> parts = new ArrayList<>(reply.size());
+                for (DataObject part : reply) {
+                    byte[] bytes = shimRelay.toBytes(part, features.getVersion());
+                    if (bytes == null) {
+                        parts = null;
+                        break;
+                    }
+                    parts.add(bytes);
+                }
+                if (parts != null) {
+                    messages.addAll(parts);
+                }
+            }
+            result.put(datapathId, messages);
+        }
+        return result;
+    }
+
+    private byte[] featuresToBytes(GetFeaturesOutput features) {
+        return shimRelay.toBytes(new GetFeaturesOutputBuilder(features).setXid(0L).build(), features.getVersion());
+    }
+
+    private void restoreFromSnapshot(long datapathId, GetFeaturesOutput features) {
+        if (snapshot == null) {
+            return;
+        }
+        List<byte[]> messages = snapshot.remove(datapathId);
+        if (messages == null || messages.isEmpty() || features.getVersion() == null) {
+            return;
+        }
+        if (!Arrays.equals(messages.get(0), featuresToBytes(features))) {
+            LOG.info("Switch {} changed since the snapshot, its replies are not restored", datapathId);
+            return;
+        }
+        int restored = 0;
+        for (byte[] message : messages.subList(1, messages.size())) {
+            DataObject reply = shimRelay.fromBytes(message);
+            // the ports may have changed with the features still equal, they are asked again
+            if (reply instanceof MultipartReplyMessage
+                    && ((MultipartReplyMessage) reply).getType() != MultipartType.OFPMPPORTDESC) {
+                replyCache.multipartReceived(datapathId, (MultipartReplyMessage) reply);
+                restored++;
+            }
+        }
+        LOG.info("Restored {} cached replies of switch {} from the snapshot", restored, datapathId);
+    }
+
+    /**
+     * Must be called before {@link #init()}, see
+     * {@link ShimRelay#setOutboundBatching(ScheduledExecutorService, long, int)}.
+     */
+    public void setOutboundBatching(ScheduledExecutorService scheduler, long windowNanos, int maxBatch) {
+        this.outboundScheduler = scheduler;
+        this.outboundWindowNanos = windowNanos;
+        this.outboundMaxBatch = maxBatch;
+    }
+
+    /**
+     * Holds the commands of each module until its FENCE, then sends them in
+     * a row followed by one barrier whose reply carries the FENCE
+     * transaction id. Any other command of the module sends its held
+     * commands to the switch first.
+     *
+     * @param maxPending
+     *            commands per switch and module sent early when reached
+     */
+    public void setFenceBatching(int maxPending) {
+        this.fenceBuffer = new FenceBuffer<>(maxPending);
+    }
+
     public void init() {
         supportedProtocols.add(new Pair<Protocol, ProtocolVersions>(Protocol.OPENFLOW, ProtocolVersions.OPENFLOW_1_0));
         supportedProtocols.add(new Pair<Protocol, ProtocolVersions>(Protocol.OPENFLOW, ProtocolVersions.OPENFLOW_1_3));
         connectionRegistry = createConnectionAdaptersRegistry();
         connectionRegistry.init();
         shimRelay = createShimRelay();
+        shimRelay.setStatistics(statistics);
+        shimRelay.setReplyExecutor(replyExecutor);
+        BarrierCoalescer barrierCoalescer = new BarrierCoalescer(shimRelay);
+        barrierCoalescer.setStatistics(statistics);
+        shimRelay.setBarrierCoalescer(barrierCoalescer);
+        flowTables = new FlowTableMirrors();
+        shimRelay.setFlowTableMirrors(flowTables);
+        replyCache = new SwitchReplyCache();
+        shimRelay.setReplyCache(replyCache);
+        multipartCollapser = new MultipartCollapser(MultipartCollapser.DEFAULT_MAX_AGE_NANOS);
+        shimRelay.setMultipartCollapser(multipartCollapser);
+        shimRelay.setDropEchoReplies(mirrorEchoes);
+        shimRelay.setPacketBufferStore(packetBuffers);
+        if (outboundScheduler != null) {
+            shimRelay.setOutboundBatching(outboundScheduler, outboundWindowNanos, outboundMaxBatch);
+        }
     }
 
     public ShimRelay createShimRelay() {
@@ -109,14 +374,33 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
         ShimMessageListener listener = new ShimMessageListener(coreConnector, connectionAdapter, shimRelay, this,
                 notificationProviderService);
 
-        mapListeners.put(connectionAdapter.getRemoteAddress(), listener);
+        contexts.put(connectionAdapter, new SwitchConnectionContext(connectionAdapter, listener));
         listener.registerConnectionAdaptersRegistry(connectionRegistry);
         listener.registerHandshakeListener(this);
+        listener.registerStatistics(statistics);
+        listener.registerFlowTableMirrors(flowTables);
+        listener.registerReplyCache(replyCache);
+        listener.registerMultipartCollapser(multipartCollapser);
+        listener.registerNotificationExecutor(notificationExecutor);
+        listener.registerTopologyPublisher(topologyPublisher);
+        listener.registerSubscriptionRegistry(subscriptions);
+        listener.registerPacketBufferStore(packetBuffers);
+        listener.setMirrorEchoes(mirrorEchoes);
         connectionRegistry.registerConnectionAdapter(connectionAdapter, null);
         connectionAdapter.setMessageListener(listener);
         connectionAdapter.setSystemListener(listener);
         connectionAdapter.setConnectionReadyListener(listener);
-        handshake(connectionAdapter);
+        if (handshakeScheduler != null) {
+            final ConnectionAdapter conn = connectionAdapter;
+            handshakeScheduler.submit(connectionAdapter, new Runnable() {
+                @Override
+                public void run() {
+                    handshake(conn);
+                }
+            });
+        } else {
+            handshake(connectionAdapter);
+        }
     }
 
     public void handshake(ConnectionAdapter connectionAdapter) {
@@ -129,17 +413,23 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
     }
 
     @Override
-    public void onSwitchHelloMessage(long xid, Short version, ConnectionAdapter connectionAdapter) {
+    public void onSwitchHelloMessage(final long xid, final Short version,
+            final ConnectionAdapter connectionAdapter) {
         byte received = version.byteValue();
+        byte negotiated = received <= getMaxOFSupportedProtocol() ? received : getMaxOFSupportedProtocol();
         if (xid >= DEFAULT_XID) {
-            if (received <= getMaxOFSupportedProtocol()) {
-                setSupportedProtocol(received);
-
-            } else {
-                setSupportedProtocol(getMaxOFSupportedProtocol());
+            setSupportedProtocol(negotiated);
+        }
+        shimRelay.setNegotiatedVersion(connectionAdapter, negotiated);
+        Runnable features = new Runnable() {
+            @Override
+            public void run() {
+                sendGetFeaturesToSwitch(version, (xid + 1), connectionAdapter);
             }
+        };
+        if (handshakeScheduler == null || !handshakeScheduler.helloReceived(connectionAdapter, features)) {
+            features.run();
         }
-        sendGetFeaturesToSwitch(version, (xid + 1), connectionAdapter);
     }
 
     public NodeUpdated nodeAdded(ConnectionAdapter connectionAdapter) {
@@ -220,10 +510,26 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
         return results;
     }
 
+    /**
+     * @return the context of a connected switch, null once disconnected
+     */
+    public SwitchConnectionContext getConnectionContext(ConnectionAdapter connectionAdapter) {
+        return contexts.get(connectionAdapter);
+    }
+
+    public int getConnectionContexts() {
+        return contexts.size();
+    }
+
     public int getNumberOfSwitches() {
-        return this.connectionRegistry.getConnectionAdapters().size();
+        return this.connectionRegistry.size();
     }
 
+    /**
+     * @return the protocol announced to the cores, the version negotiated
+     *         with the last switch saying hello; each switch keeps its own
+     *         version, see {@link ShimRelay#getNegotiatedVersion(ConnectionAdapter)}
+     */
     public Pair<Protocol, ProtocolVersions> getSupportedProtocol() {
         return this.supportedProtocol;
     }
@@ -239,34 +545,161 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
 
         if (conn != null) {
             short ofVersion = msg.readUnsignedByte();
-            shimRelay.sendToSwitch(conn, msg, ofVersion, coreConnector, datapathId, moduleId);
+            if (fenceBuffer != null) {
+                DataObject command = shimRelay.deserialize(msg, ofVersion, datapathId, moduleId);
+                if (command != null && !isHeldUntilFence(command)) {
+                    // the module may wait for the reply before it fences, the commands it sent before go
+                    // first so that the switch sees them in the order of the module
+                    List<Pair<Short, DataObject>> held = fenceBuffer.drain(datapathId, moduleId).get(datapathId);
+                    if (held != null) {
+                        sendBatchToSwitch(conn, held, datapathId, moduleId);
+                    }
+                    shimRelay.sendDataObjectToSwitch(conn, command, ofVersion, coreConnector, datapathId, moduleId);
+                } else if (command != null) {
+                    List<Pair<Short, DataObject>> full = fenceBuffer.add(datapathId, moduleId,
+                            new Pair<Short, DataObject>(ofVersion, command));
+                    if (full != null) {
+                        sendBatchToSwitch(conn, full, datapathId, moduleId);
+                    }
+                }
+            } else {
+                shimRelay.sendToSwitch(conn, msg, ofVersion, coreConnector, datapathId, moduleId);
+            }
+        } else if (statistics != null) {
+            statistics.drop();
         }
     }
 
     @Override
     public void onHelloCoreMessage(List<Pair<Protocol, ProtocolVersions>> requestedProtocols, int moduleId) {
+        if (subscriptions != null) {
+            subscriptions.announce(coreConnector.getOrigin(), moduleId);
+        }
         for (Pair<Protocol, ProtocolVersions> requested : requestedProtocols) {
             if (getSupportedProtocol() != null) {
                 if (requested.getValue0().getValue() == getSupportedProtocol().getValue0().getValue()
                         && requested.getValue1().getValue() == getSupportedProtocol().getValue1().getValue()) {
                     HelloMessage msg = new HelloMessage();
                     msg.getSupportedProtocols().add(getSupportedProtocol());
-                    msg.getHeader().setPayloadLength((short) 2);
+                    // every HELLO of the core says whether it still takes compressed messages
+                    if (requestedProtocols.contains(DEFLATE) && coreConnector.enableCompression()) {
+                        msg.getSupportedProtocols().add(DEFLATE);
+                    } else {
+                        coreConnector.disableCompression();
+                    }
+                    msg.getHeader().setPayloadLength((short) (2 * msg.getSupportedProtocols().size()));
                     msg.getHeader().setModuleId(moduleId);
                     coreConnector.SendData(msg.toByteRepresentation());
-                    for (ConnectionAdapter conn : connectionRegistry.getConnectionAdapters()) {
-                        sendGetFeaturesOuputToCore((short) getSupportedProtocol().getValue1().getValue(), moduleId,
-                                conn);
-
+                    if (topologySync != null) {
+                        List<ConnectionAdapter> connections;
+                        synchronized (connectionRegistry) {
+                            connections = new ArrayList<>(connectionRegistry.getConnectionAdapters());
+                        }
+                        topologySync.start(coreConnector.getOrigin(), moduleId, connections);
+                    } else {
+                        for (ConnectionAdapter conn : connectionRegistry.getConnectionAdapters()) {
+                            sendGetFeaturesOuputToCore(negotiatedVersion(conn), moduleId, conn);
+                        }
                     }
                 }
             }
         }
     }
 
+    @Override
+    public void onTopologyRequestCoreMessage(int moduleId) {
+        if (topologyPublisher != null) {
+            topologyPublisher.resync(moduleId);
+        }
+    }
+
+    @Override
+    public void onManagementCoreMessage(String payload, int moduleId) {
+        if (subscriptions == null || !EventSubscription.isSubscription(payload)) {
+            return;
+        }
+        try {
+            subscriptions.subscribe(coreConnector.getOrigin(), moduleId, EventSubscription.parse(payload));
+            LOG.info("Module {} subscribed to {}", moduleId, payload);
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Subscription of module {} ignored", moduleId, e);
+        }
+    }
+
+    @Override
+    public void onFenceCoreMessage(Long datapathId, int moduleId, int transactionId) {
+        Map<Long, List<Pair<Short, DataObject>>> batches = fenceBuffer != null
+                ? fenceBuffer.drain(datapathId, moduleId)
+                : new HashMap<Long, List<Pair<Short, DataObject>>>();
+        // every fenced switch gets the barrier, also when its commands were
+        // already flushed at max-pending or none were sent
+        Set<Long> fenced = new LinkedHashSet<>(batches.keySet());
+        if (datapathId != 0) {
+            fenced.add(datapathId);
+        } else {
+            for (ConnectionAdapter conn : new ArrayList<>(connectionRegistry.getConnectionAdapters())) {
+                BigInteger connected = connectionRegistry.getDatapathID(conn);
+                if (connected != null) {
+                    fenced.add(connected.longValue());
+                }
+            }
+        }
+        for (Long fencedId : fenced) {
+            List<Pair<Short, DataObject>> batch = batches.get(fencedId);
+            ConnectionAdapter conn = connectionRegistry.getConnectionAdapter(fencedId);
+            if (conn == null) {
+                if (statistics != null) {
+                    statistics.drop();
+                }
+                continue;
+            }
+            short version;
+            if (batch != null) {
+                sendBatchToSwitch(conn, batch, fencedId, moduleId);
+                version = batch.get(0).getValue0();
+            } else {
+                version = negotiatedVersion(conn);
+            }
+            shimRelay.sendBarrierToSwitch(conn, version, coreConnector, transactionId & 0xFFFFFFFFL, fencedId,
+                    moduleId);
+        }
+    }
+
+    /**
+     * @return whether the command changes the switch without a reply, the
+     *         only commands held until the FENCE of their module
+     */
+    private static boolean isHeldUntilFence(DataObject command) {
+        return command instanceof FlowModInput || command instanceof GroupModInput
+                || command instanceof MeterModInput || command instanceof PortModInput
+                || command instanceof PacketOutInput;
+    }
+
+    private void sendBatchToSwitch(ConnectionAdapter conn, List<Pair<Short, DataObject>> batch, long datapathId,
+            int moduleId) {
+        for (Pair<Short, DataObject> command : batch) {
+            shimRelay.sendDataObjectToSwitch(conn, command.getValue1(), command.getValue0(), coreConnector,
+                    datapathId, moduleId);
+        }
+    }
+
+    @Override
+    public void onCoreShardsChanged(CoreShardRing previous, CoreShardRing current) {
+        if (getSupportedProtocol() == null) {
+            return;
+        }
+        for (ConnectionAdapter conn : new ArrayList<>(connectionRegistry.getConnectionAdapters())) {
+            BigInteger datapathId = connectionRegistry.getDatapathID(conn);
+            if (datapathId != null && previous.owner(datapathId.longValue()) != current.owner(datapathId.longValue())) {
+                // announce the switch to the core now owning it
+                sendGetFeaturesOuputToCore(negotiatedVersion(conn), 0, conn);
+            }
+        }
+    }
+
     public void collectGetFeaturesOuput(Future<RpcResult<GetFeaturesOutput>> switchReply,
             final ConnectionAdapter connectionAdapter) {
-        Futures.addCallback(JdkFutureAdapters.listenInPoolThread(switchReply),
+        Futures.addCallback(listenInPoolThread(switchReply),
                 new FutureCallback<RpcResult<GetFeaturesOutput>>() {
                     @Override
                     public void onSuccess(RpcResult<GetFeaturesOutput> rpcFeatures) {
@@ -274,8 +707,22 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
                             GetFeaturesOutput featureOutput = rpcFeatures.getResult();
                             // Register Switch connection/DatapathId to registry
                             connectionRegistry.registerConnectionAdapter(connectionAdapter, featureOutput);
+                            if (replyCache != null && featureOutput.getDatapathId() != null) {
+                                // a reconnecting switch starts from a clean cache
+                                replyCache.removeSwitch(featureOutput.getDatapathId().longValue());
+                                replyCache.featuresReceived(featureOutput.getDatapathId().longValue(),
+                                        featureOutput);
+                                restoreFromSnapshot(featureOutput.getDatapathId().longValue(), featureOutput);
+                            }
                             NodeUpdated nodeUpdated = nodeAdded(connectionAdapter);
                             notificationProviderService.offerNotification(nodeUpdated);
+                            if (topologyPublisher != null && featureOutput.getDatapathId() != null) {
+                                topologyPublisher.switchAdded(featureOutput.getDatapathId().longValue(),
+                                        featureOutput);
+                            }
+                            if (handshakeScheduler != null) {
+                                handshakeScheduler.completed(connectionAdapter);
+                            }
 
                         } else {
                             // Handshake failed
@@ -283,6 +730,9 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
                                 LOG.info("handshake - features failure [{}]: i:{} | m:{} | s:{}", rpcError.getInfo(),
                                         rpcError.getMessage(), rpcError.getSeverity(), rpcError.getCause());
                             }
+                            if (handshakeScheduler != null) {
+                                handshakeScheduler.failed(connectionAdapter);
+                            }
                         }
                     }
 
@@ -290,16 +740,48 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
                     public void onFailure(Throwable t) {
                         LOG.info("getting feature failed seriously [addr:{}]: {}", connectionAdapter.getRemoteAddress(),
                                 t.getMessage());
+                        if (handshakeScheduler != null) {
+                            handshakeScheduler.failed(connectionAdapter);
+                        }
                     }
                 });
     }
 
+    private <V> ListenableFuture<V> listenInPoolThread(Future<V> future) {
+        if (replyExecutor != null) {
+            return JdkFutureAdapters.listenInPoolThread(future, replyExecutor);
+        }
+        return JdkFutureAdapters.listenInPoolThread(future);
+    }
+
     public void sendGetFeaturesOuputToCore(final Short proposedVersion, final int moduleId,
             final ConnectionAdapter connectionAdapter) {
 
         GetFeaturesOutput featureOutput = getFeaturesFromRegistry(connectionAdapter);
         shimRelay.sendOpenFlowMessageToCore(ShimSwitchConnectionHandlerImpl.coreConnector, featureOutput,
-                proposedVersion, featureOutput.getXid(), featureOutput.getDatapathId().shortValue(), moduleId);
+                proposedVersion, featureOutput.getXid(), featureOutput.getDatapathId().longValue(), moduleId);
+    }
+
+    private byte[] featuresFrameForCore(int moduleId, ConnectionAdapter connectionAdapter) {
+        GetFeaturesOutput featureOutput = getFeaturesFromRegistry(connectionAdapter);
+        if (featureOutput == null || featureOutput.getDatapathId() == null || getSupportedProtocol() == null) {
+            // disconnected since the sync started
+            return null;
+        }
+        return shimRelay.toCoreFrame(featureOutput, negotiatedVersion(connectionAdapter), featureOutput.getXid(),
+                featureOutput.getDatapathId().longValue(), moduleId);
+    }
+
+    /**
+     * @return the OpenFlow version negotiated with the switch, the last one
+     *         negotiated with any switch before its hello
+     */
+    private short negotiatedVersion(ConnectionAdapter connectionAdapter) {
+        short version = shimRelay.getNegotiatedVersion(connectionAdapter);
+        if (version != 0) {
+            return version;
+        }
+        return (short) getSupportedProtocol().getValue1().getValue();
     }
 
     public void sendGetFeaturesToSwitch(final Short proposedVersion, final Long xid,
@@ -320,6 +802,10 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
 
     @Override
     public void onSwitchDisconnected(ConnectionAdapter connectionAdapter) {
+        contexts.remove(connectionAdapter);
+        if (handshakeScheduler != null) {
+            handshakeScheduler.removed(connectionAdapter);
+        }
         BigInteger datapathId = connectionRegistry.getDatapathID(connectionAdapter);
         InstanceIdentifier<Node> identifier = identifierFromDatapathId(datapathId);
         NodeRef nodeRef = new NodeRef(identifier);
@@ -327,6 +813,24 @@ public class ShimSwitchConnectionHandlerImpl implements SwitchConnectionHandler,
         notificationProviderService.offerNotification(nodeRemoved);
 
         connectionRegistry.removeConnectionAdapter(connectionAdapter);
+        shimRelay.removeSwitch(connectionAdapter);
+        if (statistics != null && datapathId != null) {
+            statistics.removeSwitch(datapathId.longValue());
+        }
+        if (datapathId != null) {
+            flowTables.removeSwitch(datapathId.longValue());
+            replyCache.removeSwitch(datapathId.longValue());
+            multipartCollapser.removeSwitch(datapathId.longValue());
+        }
+        if (fenceBuffer != null && datapathId != null) {
+            fenceBuffer.removeDatapath(datapathId.longValue());
+        }
+        if (topologyPublisher != null && datapathId != null) {
+            topologyPublisher.switchRemoved(datapathId.longValue());
+        }
+        if (packetBuffers != null && datapathId != null) {
+            packetBuffers.removeSwitch(datapathId.longValue());
+        }
     }
 
     public GetFeaturesOutput getFeaturesFromRegistry(ConnectionAdapter conn) {
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Threads of the shim besides the switch I/O threads of openflowjava:
+ * <ul>
+ * <li>ZMQ I/O threads, sending and receiving the frames of the core links.
+ * One receive loop thread per core then parses the NetIP messages.</li>
+ * <li>Dispatch workers, handling the core messages. Messages of one datapath
+ * stay in order on the same worker, those for every datapath wait for all of
+ * them. With none, the receive loop handles them itself. A full worker queue
+ * holds the receive loop up.</li>
+ * <li>Notification workers, publishing the MD-SAL notifications of each
+ * switch in order. With none, the switch I/O thread publishes them. Either
+ * way the switch I/O thread is held up when the queue is full.</li>
+ * <li>Reply threads, each blocked on one outstanding switch reply until it
+ * is relayed to the core. With none configured the pool grows with the
+ * outstanding replies; a bound makes further replies wait for a free
+ * thread, and once the queue is full the caller waits a moment for room
+ * before the reply is rejected, see {@link ReplyExecutor}.
+ * They can be virtual threads on a JVM providing them, one per reply, see
+ * {@link #setVirtualReplyThreads(boolean)}.</li>
+ * </ul>
+ * Threads are daemons named prefix-role-n, for instance netide-dispatch-0, so
+ * they can be told apart in thread dumps and pinned to CPUs from outside the
+ * JVM.
+ */
+public class ShimThreadModel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShimThreadModel.class);
+
+    public static final String DEFAULT_NAME_PREFIX = "netide";
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    public static final long REPLY_OFFER_TIMEOUT_MILLIS = 1000;
+
+    private int zmqIoThreads = 1;
+    private int dispatchWorkers;
+    private int notificationWorkers;
+    private int replyThreads;
+    private boolean virtualReplyThreads;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private String namePrefix = DEFAULT_NAME_PREFIX;
+
+    public int getZmqIoThreads() {
+        return zmqIoThreads;
+    }
+
+    public void setZmqIoThreads(int zmqIoThreads) {
+        this.zmqIoThreads = Math.max(1, zmqIoThreads);
+    }
+
+    public int getDispatchWorkers() {
+        return dispatchWorkers;
+    }
+
+    public void setDispatchWorkers(int dispatchWorkers) {
+        this.dispatchWorkers = Math.max(0, dispatchWorkers);
+    }
+
+    public int getNotificationWorkers() {
+        return notificationWorkers;
+    }
+
+    public void setNotificationWorkers(int notificationWorkers) {
+        this.notificationWorkers = Math.max(0, notificationWorkers);
+    }
+
+    public int getReplyThreads() {
+        return replyThreads;
+    }
+
+    public void setReplyThreads(int replyThreads) {
+        this.replyThreads = Math.max(0, replyThreads);
+    }
+
+    public boolean isVirtualReplyThreads() {
+        return virtualReplyThreads;
+    }
+
+    /**
+     * Waits for each switch reply on its own virtual thread, which only
+     * takes a small heap allocated stack while blocked. The reply threads
+     * bound and the queue capacity do not apply then. The platform thread
+     * pool is used when the JVM has no virtual threads.
+     */
+    public void setVirtualReplyThreads(boolean virtualReplyThreads) {
+        this.virtualReplyThreads = virtualReplyThreads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the tasks queued per dispatch or notification worker, and for the
+     * bounded reply threads.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public void setNamePrefix(String namePrefix) {
+        this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? DEFAULT_NAME_PREFIX : namePrefix;
+    }
+
+    public ThreadFactory threadFactory(String role) {
+        return new ThreadFactoryBuilder().setNameFormat(namePrefix + "-" + role + "-%d").setDaemon(true).build();
+    }
+
+    /**
+     * @return the dispatch workers, null to dispatch on the receive loop
+     */
+    public StripedExecutor createDispatchExecutor() {
+        return dispatchWorkers > 0 ? new StripedExecutor(dispatchWorkers, queueCapacity, threadFactory("dispatch"))
+                : null;
+    }
+
+    /**
+     * @return the notification workers, null to publish on the switch I/O
+     *         threads
+     */
+    public StripedExecutor createNotificationExecutor() {
+        return notificationWorkers > 0
+                ? new StripedExecutor(notificationWorkers, queueCapacity, threadFactory("notify")) : null;
+    }
+
+    public ReplyExecutor createReplyExecutor() {
+        if (virtualReplyThreads) {
+            ThreadFactory virtualFactory = virtualThreadFactory(namePrefix + "-reply-");
+            if (virtualFactory != null) {
+                return new ReplyExecutor(virtualFactory);
+            }
+        }
+        return new ReplyExecutor(replyThreads, queueCapacity, REPLY_OFFER_TIMEOUT_MILLIS, threadFactory("reply"));
+    }
+
+    /**
+     * Looks the virtual thread builder up by reflection, the shim is built
+     * for older JVMs.
+     *
+     * @return a factory of virtual threads, null if the JVM has none
+     */
+    static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            LOG.info("Virtual threads not available on Java {}, using platform threads",
+                    System.getProperty("java.version"));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // preview feature not enabled
+            LOG.info("Virtual threads not usable, using platform threads", e);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ShimThreadModel [zmqIoThreads=" + zmqIoThreads + ", dispatchWorkers=" + dispatchWorkers
+                + ", notificationWorkers=" + notificationWorkers + ", replyThreads=" + replyThreads
+                + ", virtualReplyThreads=" + virtualReplyThreads + ", queueCapacity=" + queueCapacity + "]";
+    }
+}
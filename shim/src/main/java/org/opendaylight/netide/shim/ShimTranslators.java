@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.opendaylight.openflowplugin.api.OFConstants;
+import org.opendaylight.openflowplugin.api.openflow.md.core.IMDMessageTranslator;
+import org.opendaylight.openflowplugin.api.openflow.md.core.NotificationQueueWrapper;
+import org.opendaylight.openflowplugin.api.openflow.md.core.TranslatorKey;
+import org.opendaylight.openflowplugin.openflow.md.core.sal.convertor.ConvertorManager;
+import org.opendaylight.openflowplugin.openflow.md.core.sal.convertor.ConvertorManagerFactory;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.ErrorTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.ErrorV10Translator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.ExperimenterTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.FeaturesV10ToNodeConnectorUpdatedTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.FlowRemovedTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.MultiPartMessageDescToNodeUpdatedTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.MultiPartReplyPortToNodeConnectorUpdatedTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.MultipartReplyTableFeaturesToTableUpdatedTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.MultipartReplyTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.NotificationPlainTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.PacketInTranslator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.PacketInV10Translator;
+import org.opendaylight.openflowplugin.openflow.md.core.translator.PortStatusMessageToNodeConnectorUpdatedTranslator;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ExperimenterMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowRemovedMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.OfHeader;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketInMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortStatusMessage;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * The translators of switch messages to MD-SAL notifications. They keep no
+ * state between messages, the switch comes with the session context, so one
+ * set built at first use serves every switch connection.
+ */
+public final class ShimTranslators {
+
+    private static final int OF10 = OFConstants.OFP_VERSION_1_0;
+    private static final int OF13 = OFConstants.OFP_VERSION_1_3;
+    private static ShimTranslators instance;
+
+    private final Map<TranslatorKey, Collection<IMDMessageTranslator<OfHeader, List<DataObject>>>> messageTranslators =
+            new HashMap<>();
+
+    private ShimTranslators() {
+        ConvertorManager convertorManager = ConvertorManagerFactory.createDefaultManager();
+        add(ErrorMessage.class, OF10, new ErrorV10Translator());
+        add(ErrorMessage.class, OF13, new ErrorTranslator());
+        add(FlowRemovedMessage.class, OF10, new FlowRemovedTranslator(convertorManager));
+        add(FlowRemovedMessage.class, OF13, new FlowRemovedTranslator(convertorManager));
+        add(PacketInMessage.class, OF10, new PacketInV10Translator());
+        add(PacketInMessage.class, OF13, new PacketInTranslator(convertorManager));
+        add(PortStatusMessage.class, OF10, new PortStatusMessageToNodeConnectorUpdatedTranslator());
+        add(PortStatusMessage.class, OF13, new PortStatusMessageToNodeConnectorUpdatedTranslator());
+        add(MultipartReplyMessage.class, OF13, new MultiPartReplyPortToNodeConnectorUpdatedTranslator());
+        add(MultipartReplyMessage.class, OF10, new MultiPartMessageDescToNodeUpdatedTranslator());
+        add(MultipartReplyMessage.class, OF13, new MultiPartMessageDescToNodeUpdatedTranslator());
+        add(ExperimenterMessage.class, OF10, new ExperimenterTranslator());
+        add(MultipartReplyMessage.class, OF10, new MultipartReplyTranslator(convertorManager));
+        add(MultipartReplyMessage.class, OF13, new MultipartReplyTranslator(convertorManager));
+        add(MultipartReplyMessage.class, OF13, new MultipartReplyTableFeaturesToTableUpdatedTranslator(
+                convertorManager));
+        add(GetFeaturesOutput.class, OF10, new FeaturesV10ToNodeConnectorUpdatedTranslator());
+        add(NotificationQueueWrapper.class, OF10, new NotificationPlainTranslator());
+        add(NotificationQueueWrapper.class, OF13, new NotificationPlainTranslator());
+    }
+
+    public static synchronized ShimTranslators getInstance() {
+        if (instance == null) {
+            instance = new ShimTranslators();
+        }
+        return instance;
+    }
+
+    /**
+     * @return the translators of the message, in the order they were added
+     */
+    public Collection<IMDMessageTranslator<OfHeader, List<DataObject>>> get(short version, String messageClass) {
+        Collection<IMDMessageTranslator<OfHeader, List<DataObject>>> translators = messageTranslators
+                .get(new TranslatorKey(version, messageClass));
+        if (translators == null) {
+            return Collections.emptyList();
+        }
+        return translators;
+    }
+
+    private void add(Class<? extends DataObject> messageType, int version,
+            IMDMessageTranslator<OfHeader, List<DataObject>> translator) {
+        TranslatorKey key = new TranslatorKey(version, messageType.getName());
+        Collection<IMDMessageTranslator<OfHeader, List<DataObject>>> existingValues = messageTranslators.get(key);
+        if (existingValues == null) {
+            existingValues = new LinkedHashSet<>();
+            messageTranslators.put(key, existingValues);
+        }
+        existingValues.add(translator);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks on a fixed set of single threaded stripes chosen by key, so
+ * that the tasks of one datapath keep their order while different datapaths
+ * run in parallel. A task for every datapath runs once all the tasks
+ * submitted before it are done, and before the ones submitted after it.
+ * <p>
+ * Each stripe queues a bounded number of tasks. Submitting to a full stripe
+ * blocks the caller until the stripe has room, which keeps the order of the
+ * tasks and holds the producer back; tasks must not submit to their own
+ * stripe.
+ */
+public class StripedExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private static final RejectedExecutionHandler BLOCK = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor stripe) {
+            if (stripe.isShutdown()) {
+                throw new RejectedExecutionException("Stripe shut down");
+            }
+            try {
+                stripe.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted waiting for the stripe", e);
+            }
+            // shut down while waiting, its thread may be gone already
+            if (stripe.isShutdown() && stripe.remove(task)) {
+                throw new RejectedExecutionException("Stripe shut down");
+            }
+        }
+    };
+
+    private final ExecutorService[] stripes;
+
+    /**
+     * @param threads
+     *            the stripes
+     * @param queueCapacity
+     *            the tasks each stripe queues before holding the caller up
+     */
+    public StripedExecutor(int threads, int queueCapacity, ThreadFactory threadFactory) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        stripes = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueCapacity), threadFactory, BLOCK);
+        }
+    }
+
+    public int getThreads() {
+        return stripes.length;
+    }
+
+    public void execute(long key, Runnable task) {
+        int stripe = (int) ((key ^ (key >>> 32)) & 0x7FFFFFFF) % stripes.length;
+        try {
+            stripes[stripe].execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Task dropped, executor is shut down or interrupted", e);
+        }
+    }
+
+    /**
+     * Runs the task on the first stripe while every other stripe waits for
+     * it. Calls are serialized so that the waits of two of them queue in the
+     * same order on every stripe.
+     */
+    public synchronized void executeOnAll(final Runnable task) {
+        if (stripes.length == 1) {
+            execute(0, task);
+            return;
+        }
+        final CountDownLatch arrived = new CountDownLatch(stripes.length);
+        final CountDownLatch done = new CountDownLatch(1);
+        try {
+            stripes[0].execute(new Runnable() {
+                @Override
+                public void run() {
+                    arrived.countDown();
+                    try {
+                        arrived.await();
+                        task.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Task dropped, executor is shut down", e);
+            return;
+        }
+        for (int i = 1; i < stripes.length; i++) {
+            try {
+                stripes[i].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        arrived.countDown();
+                        try {
+                            done.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // nothing to wait for on a stripe shut down
+                arrived.countDown();
+            }
+        }
+    }
+
+    public void shutdown() {
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService stripe : stripes) {
+            if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
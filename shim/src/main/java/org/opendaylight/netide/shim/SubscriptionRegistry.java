@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.javatuples.Pair;
+import org.opendaylight.netide.netiplib.EventSubscription;
+
+/**
+ * The {@link EventSubscription}s of the core modules, each module known by
+ * the core it is behind and its module id, the ids being given by each core.
+ * <p>
+ * Subscribing is an opt in of all the modules: as long as a module announced
+ * by a HELLO has not subscribed every event goes to the core, afterwards only
+ * the events some module subscribed to do, the others are dropped before
+ * being serialized. A module withdrawing its subscriptions gets every event
+ * again.
+ * <p>
+ * Lookups read an immutable snapshot of all subscriptions, rebuilt on each
+ * change, so the switch threads never lock.
+ */
+public class SubscriptionRegistry {
+
+    private final Map<Pair<Object, Integer>, List<EventSubscription>> subscriptions = new HashMap<>();
+    private final Set<Pair<Object, Integer>> announced = new HashSet<>();
+    // null while every event is wanted
+    private volatile List<EventSubscription> snapshot;
+    private volatile int size;
+
+    /**
+     * Notes a module of a core, that gets every event until it subscribes.
+     *
+     * @param core the core the module is behind
+     * @param moduleId the module
+     */
+    public synchronized void announce(Object core, int moduleId) {
+        if (announced.add(Pair.with(core, moduleId))) {
+            update();
+        }
+    }
+
+    /**
+     * Replaces the subscriptions of a module.
+     *
+     * @param core the core the module is behind
+     * @param moduleId the module
+     * @param moduleSubscriptions the subscriptions, none to unsubscribe
+     */
+    public synchronized void subscribe(Object core, int moduleId, List<EventSubscription> moduleSubscriptions) {
+        Pair<Object, Integer> module = Pair.with(core, moduleId);
+        announced.add(module);
+        if (moduleSubscriptions.isEmpty()) {
+            subscriptions.remove(module);
+        } else {
+            subscriptions.put(module, new ArrayList<>(moduleSubscriptions));
+        }
+        update();
+    }
+
+    private void update() {
+        List<EventSubscription> all = new ArrayList<>();
+        for (List<EventSubscription> list : subscriptions.values()) {
+            all.addAll(list);
+        }
+        size = all.size();
+        snapshot = all.isEmpty() || !subscriptions.keySet().containsAll(announced) ? null
+                : Collections.unmodifiableList(all);
+    }
+
+    /**
+     * @param datapathId the switch
+     * @param ofType the OpenFlow message type
+     * @param tableId the table id, {@link EventSubscription#ANY} when the
+     *            event has none
+     * @param reason the reason, {@link EventSubscription#ANY} when the event
+     *            has none
+     * @return whether the event is to be sent to the core
+     */
+    public boolean isWanted(long datapathId, int ofType, int tableId, int reason) {
+        List<EventSubscription> current = snapshot;
+        if (current == null) {
+            return true;
+        }
+        for (EventSubscription subscription : current) {
+            if (subscription.matches(datapathId, ofType, tableId, reason)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int getModuleCount() {
+        return subscriptions.size();
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import io.netty.buffer.ByteBuf;
+import org.opendaylight.openflowjava.protocol.api.extensibility.DeserializerRegistry;
+import org.opendaylight.openflowjava.protocol.api.extensibility.OFSerializer;
+import org.opendaylight.openflowjava.protocol.api.extensibility.SerializerRegistry;
+import org.opendaylight.openflowjava.protocol.api.keys.MessageTypeKey;
+import org.opendaylight.openflowjava.protocol.api.util.EncodeConstants;
+import org.opendaylight.openflowjava.protocol.impl.deserialization.DeserializationFactory;
+import org.opendaylight.openflowjava.protocol.impl.deserialization.DeserializerRegistryImpl;
+import org.opendaylight.openflowjava.protocol.impl.serialization.SerializationFactory;
+import org.opendaylight.openflowjava.protocol.impl.serialization.SerializerRegistryImpl;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.grouping.Match;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Serializer and deserializer of one OpenFlow version, bound once to the
+ * registries shared by all codecs. The registries are only read once
+ * initialized, so a codec is used by any number of threads and switches.
+ */
+public class SwitchCodec {
+
+    private static SerializerRegistry serializerRegistry;
+    private static DeserializerRegistry deserializerRegistry;
+
+    private final short version;
+    private final SerializationFactory serializationFactory;
+    private final DeserializationFactory deserializationFactory;
+
+    public SwitchCodec(short version, SerializationFactory serializationFactory,
+            DeserializationFactory deserializationFactory) {
+        this.version = version;
+        this.serializationFactory = serializationFactory;
+        this.deserializationFactory = deserializationFactory;
+        serializationFactory.setSerializerTable(serializerRegistry());
+        deserializationFactory.setRegistry(deserializerRegistry());
+    }
+
+    public short getVersion() {
+        return version;
+    }
+
+    /**
+     * @throws RuntimeException
+     *             if the message has no serializer for the version
+     */
+    public void serialize(DataObject msg, ByteBuf output) {
+        serializationFactory.messageToBuffer(version, output, msg);
+    }
+
+    /**
+     * @param input
+     *            the message, version byte already read
+     * @return the message, null if it could not be deserialized
+     */
+    public DataObject deserialize(ByteBuf input) {
+        return deserializationFactory.deserialize(input, version);
+    }
+
+    /**
+     * Writes an OpenFlow 1.3 match as on the wire: type, length, OXM entries
+     * and padding.
+     *
+     * @throws RuntimeException
+     *             if an entry of the match has no serializer
+     */
+    public static void serializeMatch(Match match, ByteBuf output) {
+        OFSerializer<Match> serializer = serializerRegistry()
+                .getSerializer(new MessageTypeKey<>(EncodeConstants.OF13_VERSION_ID, Match.class));
+        serializer.serialize(match, output);
+    }
+
+    private static synchronized SerializerRegistry serializerRegistry() {
+        if (serializerRegistry == null) {
+            SerializerRegistry registry = new SerializerRegistryImpl();
+            registry.init();
+            serializerRegistry = registry;
+        }
+        return serializerRegistry;
+    }
+
+    private static synchronized DeserializerRegistry deserializerRegistry() {
+        if (deserializerRegistry == null) {
+            DeserializerRegistry registry = new DeserializerRegistryImpl();
+            registry.init();
+            deserializerRegistry = registry;
+        }
+        return deserializerRegistry;
+    }
+
+    @Override
+    public String toString() {
+        return "SwitchCodec [version=" + version + "]";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.TimeUnit;
+import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
+
+/**
+ * What the shim keeps for a switch from its connection to its
+ * disconnection. The state shared by all switches, the translators and the
+ * codecs, is referenced rather than copied, so an idle switch only costs its
+ * listener and session.
+ */
+public class SwitchConnectionContext {
+
+    private final ConnectionAdapter connectionAdapter;
+    private final ShimMessageListener listener;
+    private final long connectedNanos = System.nanoTime();
+
+    public SwitchConnectionContext(ConnectionAdapter connectionAdapter, ShimMessageListener listener) {
+        this.connectionAdapter = connectionAdapter;
+        this.listener = listener;
+    }
+
+    public ConnectionAdapter getConnectionAdapter() {
+        return connectionAdapter;
+    }
+
+    public ShimMessageListener getListener() {
+        return listener;
+    }
+
+    public long getConnectedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "SwitchConnectionContext [remote=" + connectionAdapter.getRemoteAddress() + ", connected="
+                + getConnectedMillis() + " ms]";
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Message and byte counters of a single switch, split by direction and
+ * OpenFlow message type.
+ * <p>
+ * Updates for one switch come from its own channel thread and from the core
+ * receive loop, so plain atomic slots are used here instead of striped cells
+ * to keep the footprint per switch small.
+ */
+public class SwitchCounters {
+
+    /**
+     * Number of OpenFlow message types tracked per direction.
+     */
+    public static final int OF_TYPES = 64;
+
+    public static final int TO_SWITCH = 0;
+    public static final int FROM_SWITCH = 1;
+
+    private final long datapathId;
+    private final AtomicLongArray messages = new AtomicLongArray(2 * OF_TYPES);
+    private final AtomicLongArray bytes = new AtomicLongArray(2 * OF_TYPES);
+    private final AtomicLong drops = new AtomicLong();
+    private final AtomicLong outstandingRequests = new AtomicLong();
+    private volatile long lastEchoRttNanos;
+
+    public SwitchCounters(long datapathId) {
+        this.datapathId = datapathId;
+    }
+
+    public long getDatapathId() {
+        return datapathId;
+    }
+
+    public void record(int direction, int ofType, int size) {
+        int slot = slot(direction, ofType);
+        messages.incrementAndGet(slot);
+        bytes.addAndGet(slot, size);
+    }
+
+    public long getMessages(int direction, int ofType) {
+        return messages.get(slot(direction, ofType));
+    }
+
+    public long getBytes(int direction, int ofType) {
+        return bytes.get(slot(direction, ofType));
+    }
+
+    public void drop() {
+        drops.incrementAndGet();
+    }
+
+    public long getDrops() {
+        return drops.get();
+    }
+
+    public void requestSent() {
+        outstandingRequests.incrementAndGet();
+    }
+
+    public void requestCompleted() {
+        outstandingRequests.decrementAndGet();
+    }
+
+    public long getOutstandingRequests() {
+        return outstandingRequests.get();
+    }
+
+    public void echoProbed(long rttNanos) {
+        lastEchoRttNanos = rttNanos;
+    }
+
+    /**
+     * @return the round trip time of the last echo probe answered by the
+     *         switch, 0 before the first one
+     */
+    public long getLastEchoRttNanos() {
+        return lastEchoRttNanos;
+    }
+
+    private static int slot(int direction, int ofType) {
+        return direction * OF_TYPES + (ofType & (OF_TYPES - 1));
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessageBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.multipart.request.multipart.request.body.MultipartRequestTableFeaturesCase;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+/**
+ * Replies of each switch that only change with its ports or its tables: the
+ * features, and the DESC, PORT_DESC and TABLE_FEATURES multiparts. Requests
+ * of the core for them are answered locally once a reply was seen.
+ * <p>
+ * A multipart reply is cached once its last part arrived, unless the entry
+ * was invalidated while the parts were coming in. Port status messages
+ * invalidate PORT_DESC, and the features of OpenFlow 1.0 switches which
+ * carry the ports. A table features request setting the tables invalidates
+ * TABLE_FEATURES.
+ */
+public class SwitchReplyCache {
+
+    private static final short OF10_VERSION = 1;
+
+    public enum Kind {
+        FEATURES, DESC, PORT_DESC, TABLE_FEATURES
+    }
+
+    private static class InProgress {
+        final Kind kind;
+        final long generation;
+        final List<MultipartReplyMessage> parts = new ArrayList<>();
+
+        InProgress(Kind kind, long generation) {
+            this.kind = kind;
+            this.generation = generation;
+        }
+    }
+
+    private static class SwitchReplies {
+        final Map<Kind, List<? extends DataObject>> replies = new EnumMap<>(Kind.class);
+        final Map<Kind, Long> generations = new EnumMap<>(Kind.class);
+        final Map<Long, InProgress> inProgress = new HashMap<>();
+
+        long generation(Kind kind) {
+            Long generation = generations.get(kind);
+            return generation == null ? 0 : generation;
+        }
+
+        void invalidate(Kind kind) {
+            replies.remove(kind);
+            generations.put(kind, generation(kind) + 1);
+        }
+    }
+
+    private final ConcurrentMap<Long, SwitchReplies> switches = new ConcurrentHashMap<>();
+
+    /**
+     * @return the kind of a cacheable request, null when the switch must
+     *         answer it
+     */
+    public static Kind kindOf(MultipartRequestInput request) {
+        if (request.getType() == null) {
+            return null;
+        }
+        switch (request.getType()) {
+        case OFPMPDESC:
+            return Kind.DESC;
+        case OFPMPPORTDESC:
+            return Kind.PORT_DESC;
+        case OFPMPTABLEFEATURES:
+            return setsTableFeatures(request) ? null : Kind.TABLE_FEATURES;
+        default:
+            return null;
+        }
+    }
+
+    private static Kind kindOf(MultipartType type) {
+        if (type == MultipartType.OFPMPDESC) {
+            return Kind.DESC;
+        } else if (type == MultipartType.OFPMPPORTDESC) {
+            return Kind.PORT_DESC;
+        } else if (type == MultipartType.OFPMPTABLEFEATURES) {
+            return Kind.TABLE_FEATURES;
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the request carries tables to configure, an empty one
+     *         only reads them
+     */
+    public static boolean setsTableFeatures(MultipartRequestInput request) {
+        if (request.getType() != MultipartType.OFPMPTABLEFEATURES
+                || !(request.getMultipartRequestBody() instanceof MultipartRequestTableFeaturesCase)) {
+            return false;
+        }
+        MultipartRequestTableFeaturesCase body = (MultipartRequestTableFeaturesCase) request
+                .getMultipartRequestBody();
+        return body.getMultipartRequestTableFeatures() != null
+                && body.getMultipartRequestTableFeatures().getTableFeatures() != null
+                && !body.getMultipartRequestTableFeatures().getTableFeatures().isEmpty();
+    }
+
+    /**
+     * @return the cached reply rewritten with the xid of the request, null
+     *         if none
+     */
+    public List<DataObject> get(long datapathId, Kind kind, long xid) {
+        SwitchReplies replies = switches.get(datapathId);
+        if (replies == null) {
+            return null;
+        }
+        List<? extends DataObject> cached;
+        synchronized (replies) {
+            cached = replies.replies.get(kind);
+        }
+        if (cached == null) {
+            return null;
+        }
+        List<DataObject> reply = new ArrayList<>(cached.size());
+        for (DataObject part : cached) {
+            if (part instanceof GetFeaturesOutput) {
+                reply.add(new GetFeaturesOutputBuilder((GetFeaturesOutput) part).setXid(xid).build());
+            } else {
+                reply.add(new MultipartReplyMessageBuilder((MultipartReplyMessage) part).setXid(xid).build());
+            }
+        }
+        return reply;
+    }
+
+    public void featuresReceived(long datapathId, GetFeaturesOutput features) {
+        SwitchReplies replies = getOrCreate(datapathId);
+        synchronized (replies) {
+            replies.replies.put(Kind.FEATURES, Collections.singletonList(features));
+        }
+    }
+
+    /**
+     * Collects the parts of a cacheable multipart reply, the reply is cached
+     * with its last part.
+     */
+    public void multipartReceived(long datapathId, MultipartReplyMessage part) {
+        Kind kind = kindOf(part.getType());
+        if (kind == null || part.getXid() == null) {
+            return;
+        }
+        SwitchReplies replies = getOrCreate(datapathId);
+        synchronized (replies) {
+            InProgress reply = replies.inProgress.get(part.getXid());
+            if (reply == null || reply.kind != kind) {
+                reply = new InProgress(kind, replies.generation(kind));
+                replies.inProgress.put(part.getXid(), reply);
+            }
+            reply.parts.add(part);
+            if (part.getFlags() != null && Boolean.TRUE.equals(part.getFlags().isOFPMPFREQMORE())) {
+                return;
+            }
+            replies.inProgress.remove(part.getXid());
+            if (reply.generation == replies.generation(kind)) {
+                replies.replies.put(kind, reply.parts);
+            }
+        }
+    }
+
+    /**
+     * Forgets the replies describing the ports, on a PORT_STATUS of the
+     * switch or a PORT_MOD sent to it. Up to OF1.0 the ports are in the
+     * features reply.
+     */
+    public void portStatus(long datapathId, short ofVersion) {
+        SwitchReplies replies = switches.get(datapathId);
+        if (replies == null) {
+            return;
+        }
+        synchronized (replies) {
+            replies.invalidate(Kind.PORT_DESC);
+            if (ofVersion == OF10_VERSION) {
+                replies.invalidate(Kind.FEATURES);
+            }
+        }
+    }
+
+    public void invalidate(long datapathId, Kind kind) {
+        SwitchReplies replies = switches.get(datapathId);
+        if (replies == null) {
+            return;
+        }
+        synchronized (replies) {
+            replies.invalidate(kind);
+        }
+    }
+
+    public void removeSwitch(long datapathId) {
+        switches.remove(datapathId);
+    }
+
+    private SwitchReplies getOrCreate(long datapathId) {
+        SwitchReplies replies = switches.get(datapathId);
+        if (replies == null) {
+            replies = new SwitchReplies();
+            SwitchReplies existing = switches.putIfAbsent(datapathId, replies);
+            if (existing != null) {
+                replies = existing;
+            }
+        }
+        return replies;
+    }
+}
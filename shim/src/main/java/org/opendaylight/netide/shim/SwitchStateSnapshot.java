@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State of the switches kept across a restart of the shim: per datapath, the
+ * serialized OpenFlow replies describing it, the features reply first.
+ * <p>
+ * The file starts with a magic number, a version and the number of
+ * datapaths, then per datapath its id (8), the number of messages (2) and
+ * each message as its length (4) and bytes. It is written to a temporary file
+ * renamed over the previous one, so a crash while writing leaves the previous
+ * snapshot. The file is read and written whole through a channel rather than
+ * mapped, as a mapping lives until it is collected and keeps Windows from
+ * renaming over the file.
+ */
+public class SwitchStateSnapshot {
+
+    static final int MAGIC = 0x4e495353;
+    static final int VERSION = 1;
+    static final int HEADER = 12;
+
+    private final Map<Long, List<byte[]>> switches = new LinkedHashMap<>();
+
+    public synchronized void put(long datapathId, List<byte[]> messages) {
+        switches.put(datapathId, new ArrayList<>(messages));
+    }
+
+    /**
+     * @return the messages of the datapath, null if none; they are only used
+     *         once
+     */
+    public synchronized List<byte[]> remove(long datapathId) {
+        return switches.remove(datapathId);
+    }
+
+    public synchronized int size() {
+        return switches.size();
+    }
+
+    public synchronized void write(File file) throws IOException {
+        long size = HEADER;
+        for (List<byte[]> messages : switches.values()) {
+            size += 10;
+            for (byte[] message : messages) {
+                size += 4 + message.length;
+            }
+        }
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(switches.size());
+        for (Map.Entry<Long, List<byte[]>> entry : switches.entrySet()) {
+            buffer.putLong(entry.getKey());
+            buffer.putShort((short) entry.getValue().size());
+            for (byte[] message : entry.getValue()) {
+                buffer.putInt(message.length);
+                buffer.put(message);
+            }
+        }
+        buffer.flip();
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        if (!temp.renameTo(file)) {
+            // not atomic on every platform
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+    }
+
+    /**
+     * @return the snapshot in the file, empty if there is none
+     * @throws IOException
+     *             if the file cannot be read or is not a valid snapshot
+     */
+    public static SwitchStateSnapshot read(File file) throws IOException {
+        SwitchStateSnapshot snapshot = new SwitchStateSnapshot();
+        if (!file.isFile()) {
+            return snapshot;
+        }
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large: " + file);
+            }
+            buffer = ByteBuffer.allocate((int) raf.length());
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // until the whole file is read
+            }
+            buffer.flip();
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a switch state snapshot: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                long datapathId = buffer.getLong();
+                int messages = buffer.getShort() & 0xFFFF;
+                List<byte[]> list = new ArrayList<>(messages);
+                for (int j = 0; j < messages; j++) {
+                    int length = buffer.getInt();
+                    if (length < 0 || length > buffer.remaining()) {
+                        throw new IOException("Truncated snapshot " + file);
+                    }
+                    byte[] message = new byte[length];
+                    buffer.get(message);
+                    list.add(message);
+                }
+                snapshot.switches.put(datapathId, Collections.unmodifiableList(list));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot " + file, e);
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.opendaylight.netide.netiplib.TopologyDelta;
+import org.opendaylight.netide.netiplib.TopologyModel;
+import org.opendaylight.netide.netiplib.TopologyUpdateMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.PortReason;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortGrouping;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortStatusMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.multipart.reply.multipart.reply.body.MultipartReplyPortDescCase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link TopologyModel} of the connected switches from their
+ * handshakes, port descriptions, port status messages and disconnections, and
+ * pushes each change to the cores as a TOPOLOGY_UPDATE delta. A core asks for
+ * the whole topology by sending a TOPOLOGY_UPDATE, for instance after a gap in
+ * the sequence numbers.
+ * <p>
+ * Deltas are sent without datapath id so that every core gets all of them in
+ * order.
+ */
+public class TopologyPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologyPublisher.class);
+    private static final short OF10_VERSION = 1;
+
+    private final ICoreConnector coreConnector;
+    private final TopologyModel model = new TopologyModel();
+    private final Map<Long, Map<Long, Boolean>> portDescParts = new HashMap<>();
+
+    public TopologyPublisher(ICoreConnector coreConnector) {
+        this.coreConnector = coreConnector;
+    }
+
+    public long getSequence() {
+        return model.getSequence();
+    }
+
+    public synchronized void switchAdded(long datapathId, GetFeaturesOutput features) {
+        publish(model.switchAdded(datapathId), 0);
+        if (features.getVersion() != null && features.getVersion() == OF10_VERSION && features.getPhyPort() != null) {
+            // the ports of OpenFlow 1.0 switches come with their features
+            Map<Long, Boolean> ports = new TreeMap<>();
+            for (PortGrouping port : features.getPhyPort()) {
+                if (port.getPortNo() != null) {
+                    ports.put(port.getPortNo(), isUp(port));
+                }
+            }
+            publish(model.portsDescribed(datapathId, ports), 0);
+        }
+    }
+
+    /**
+     * Takes the ports of the PORT_DESC replies, once their last part
+     * arrived.
+     */
+    public synchronized void multipartReceived(long datapathId, MultipartReplyMessage reply) {
+        if (reply.getType() != MultipartType.OFPMPPORTDESC
+                || !(reply.getMultipartReplyBody() instanceof MultipartReplyPortDescCase)) {
+            return;
+        }
+        MultipartReplyPortDescCase body = (MultipartReplyPortDescCase) reply.getMultipartReplyBody();
+        Map<Long, Boolean> ports = portDescParts.get(datapathId);
+        if (ports == null) {
+            ports = new TreeMap<>();
+            portDescParts.put(datapathId, ports);
+        }
+        if (body.getMultipartReplyPortDesc() != null && body.getMultipartReplyPortDesc().getPorts() != null) {
+            for (PortGrouping port : body.getMultipartReplyPortDesc().getPorts()) {
+                if (port.getPortNo() != null) {
+                    ports.put(port.getPortNo(), isUp(port));
+                }
+            }
+        }
+        if (reply.getFlags() != null && Boolean.TRUE.equals(reply.getFlags().isOFPMPFREQMORE())) {
+            return;
+        }
+        portDescParts.remove(datapathId);
+        publish(model.portsDescribed(datapathId, ports), 0);
+    }
+
+    public synchronized void portStatus(long datapathId, PortStatusMessage status) {
+        if (status.getPortNo() == null) {
+            return;
+        }
+        if (status.getReason() == PortReason.OFPPRDELETE) {
+            publish(model.portRemoved(datapathId, status.getPortNo()), 0);
+        } else {
+            publish(model.portChanged(datapathId, status.getPortNo(), isUp(status)), 0);
+        }
+    }
+
+    public synchronized void switchRemoved(long datapathId) {
+        portDescParts.remove(datapathId);
+        publish(model.switchRemoved(datapathId), 0);
+    }
+
+    /**
+     * Sends the whole topology to a core module.
+     */
+    public synchronized void resync(int moduleId) {
+        List<TopologyDelta> parts = model.fullSync();
+        LOG.info("Topology of {} switches sent to module {} at sequence {}", model.size(), moduleId,
+                model.getSequence());
+        for (TopologyDelta part : parts) {
+            publish(part, moduleId);
+        }
+    }
+
+    private void publish(TopologyDelta delta, int moduleId) {
+        if (delta == null) {
+            return;
+        }
+        TopologyUpdateMessage msg = new TopologyUpdateMessage();
+        msg.setDelta(delta);
+        msg.getHeader().setModuleId(moduleId);
+        coreConnector.SendData(msg.toByteRepresentation());
+    }
+
+    /**
+     * @return whether the link of the port is up and the port not disabled
+     */
+    static boolean isUp(PortGrouping port) {
+        if (port.getState() != null && Boolean.TRUE.equals(port.getState().isLinkDown())) {
+            return false;
+        }
+        if (port.getStateV10() != null && Boolean.TRUE.equals(port.getStateV10().isLinkDown())) {
+            return false;
+        }
+        if (port.getConfig() != null && Boolean.TRUE.equals(port.getConfig().isPortDown())) {
+            return false;
+        }
+        return port.getConfigV10() == null || !Boolean.TRUE.equals(port.getConfigV10().isPortDown());
+    }
+}
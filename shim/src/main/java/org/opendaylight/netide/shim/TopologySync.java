@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.javatuples.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the description of every connected switch to a core module that
+ * said hello, in the background so that the receive loop keeps relaying.
+ * <p>
+ * Switches are sent in batches of batchSize, each batch through one socket,
+ * every intervalNanos. A batch is held back while the core link is down or
+ * more than maxQueueDepth messages wait to be sent to the core. A new hello of
+ * a module restarts its sync; modules are told apart by their core too, as in
+ * {@link SubscriptionRegistry}.
+ *
+ * @param <K>
+ *            the switch connections
+ */
+public class TopologySync<K> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopologySync.class);
+
+    public interface Encoder<K> {
+        /**
+         * @return the frame describing the switch to the module, null if
+         *         there is nothing to send for it any more
+         */
+        byte[] encode(K connection, int moduleId);
+    }
+
+    private class Run implements Runnable {
+        final Pair<Object, Integer> module;
+        final int moduleId;
+        final Deque<K> pending;
+        final long startNanos = System.nanoTime();
+        int sent;
+
+        Run(Object core, int moduleId, Collection<K> connections) {
+            this.module = Pair.with(core, moduleId);
+            this.moduleId = moduleId;
+            this.pending = new ArrayDeque<>(connections);
+        }
+
+        @Override
+        public void run() {
+            if (!step(this)) {
+                schedule(this);
+            }
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final ICoreConnector coreConnector;
+    private final Encoder<K> encoder;
+    private final int batchSize;
+    private final long intervalNanos;
+    private final long maxQueueDepth;
+    private ShimStatistics statistics;
+    private final Map<Pair<Object, Integer>, Run> runs = new HashMap<>();
+    private long sent;
+    private long deferrals;
+
+    public TopologySync(ScheduledExecutorService scheduler, ICoreConnector coreConnector, Encoder<K> encoder,
+            int batchSize, long intervalNanos, long maxQueueDepth) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.scheduler = scheduler;
+        this.coreConnector = coreConnector;
+        this.encoder = encoder;
+        this.batchSize = batchSize;
+        this.intervalNanos = intervalNanos;
+        this.maxQueueDepth = maxQueueDepth;
+    }
+
+    /**
+     * Enables the flow control on the depth of the queue to the core.
+     */
+    public void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param core
+     *            the core of the module, see {@link ICoreConnector#getOrigin()}
+     */
+    public void start(Object core, int moduleId, Collection<K> connections) {
+        Run run = new Run(core, moduleId, connections);
+        synchronized (this) {
+            if (runs.put(run.module, run) != null) {
+                LOG.info("Topology sync to module {} restarted", moduleId);
+            }
+        }
+        try {
+            scheduler.execute(run);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Topology sync scheduler shut down", e);
+        }
+    }
+
+    /**
+     * @return switches not sent yet to the modules being synchronized
+     */
+    public synchronized int getPending() {
+        int pending = 0;
+        for (Run run : runs.values()) {
+            pending += run.pending.size();
+        }
+        return pending;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return batches held back by the flow control
+     */
+    public synchronized long getDeferrals() {
+        return deferrals;
+    }
+
+    /**
+     * @return whether the run is over
+     */
+    private boolean step(Run run) {
+        List<K> batch = new ArrayList<>(batchSize);
+        synchronized (this) {
+            if (runs.get(run.module) != run) {
+                // restarted by a new hello
+                return true;
+            }
+            if (coreConnector.getCoreLinkState() == CoreLinkState.DOWN
+                    || (statistics != null && maxQueueDepth > 0 && statistics.getCoreQueueDepth() > maxQueueDepth)) {
+                deferrals++;
+                return false;
+            }
+            while (batch.size() < batchSize && !run.pending.isEmpty()) {
+                batch.add(run.pending.poll());
+            }
+        }
+        List<byte[]> frames = new ArrayList<>(batch.size());
+        for (K connection : batch) {
+            try {
+                byte[] frame = encoder.encode(connection, run.moduleId);
+                if (frame != null) {
+                    frames.add(frame);
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Topology sync to module {}: switch {} skipped", run.moduleId, connection, e);
+            }
+        }
+        coreConnector.SendData(frames);
+        synchronized (this) {
+            run.sent += frames.size();
+            sent += frames.size();
+            if (!run.pending.isEmpty()) {
+                LOG.debug("Topology sync to module {}: {} switches sent, {} pending", run.moduleId, run.sent,
+                        run.pending.size());
+                return false;
+            }
+            if (runs.get(run.module) == run) {
+                runs.remove(run.module);
+            }
+        }
+        LOG.info("Topology sync to module {}: {} switches sent in {} ms", run.moduleId, run.sent,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - run.startNanos));
+        return true;
+    }
+
+    private void schedule(Run run) {
+        try {
+            scheduler.schedule(run, intervalNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Topology sync scheduler shut down", e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.opendaylight.netide.netiplib.TrafficLogReader;
+import org.opendaylight.netide.netiplib.TrafficRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+
+/**
+ * Replays a traffic log recorded by the shim, either impersonating the core
+ * towards a running shim or impersonating the shim towards a core. Frames are
+ * sent in the recorded order, at the recorded pace or as fast as possible;
+ * whatever the other side answers is read and discarded.
+ * <p>
+ * Usage: {@code TrafficReplay core|shim <endpoint> <log directory> [max]}
+ */
+public class TrafficReplay {
+
+    public enum Role {
+        /**
+         * Bind a ROUTER socket and send the frames the core sent to the shim.
+         */
+        CORE,
+        /**
+         * Connect a DEALER socket and send the frames the shim sent to the
+         * core.
+         */
+        SHIM
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrafficReplay.class);
+    private static final byte[] SHIM_IDENTITY = "shim".getBytes();
+    private static final long CONNECT_TIMEOUT_MILLIS = 60000;
+
+    private final ZMQ.Context context;
+    private final Role role;
+    private final String endpoint;
+    private boolean maxSpeed;
+
+    public TrafficReplay(ZMQ.Context context, Role role, String endpoint) {
+        this.context = context;
+        this.role = role;
+        this.endpoint = endpoint;
+    }
+
+    public void setMaxSpeed(boolean maxSpeed) {
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Replays the log.
+     *
+     * @return the number of frames sent
+     */
+    public int replay(TrafficLogReader reader) throws IOException, InterruptedException {
+        byte direction = role == Role.CORE ? TrafficRecord.FROM_CORE : TrafficRecord.TO_CORE;
+        ZMQ.Socket socket = createSocket();
+        try {
+            int sent = 0;
+            long firstTimestamp = 0;
+            long start = 0;
+            TrafficRecord record;
+            while ((record = reader.next()) != null) {
+                if (record.getDirection() != direction) {
+                    continue;
+                }
+                if (sent == 0) {
+                    firstTimestamp = record.getTimestamp();
+                    start = System.nanoTime();
+                } else if (!maxSpeed) {
+                    long delay = (record.getTimestamp() - firstTimestamp) - (System.nanoTime() - start);
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                }
+                send(socket, record.getFrame(), sent == 0);
+                sent++;
+                drain(socket);
+            }
+            return sent;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private ZMQ.Socket createSocket() {
+        ZMQ.Socket socket;
+        if (role == Role.CORE) {
+            socket = context.socket(ZMQ.ROUTER);
+            socket.setRouterMandatory(true);
+            socket.bind(endpoint);
+        } else {
+            socket = context.socket(ZMQ.DEALER);
+            socket.setIdentity(SHIM_IDENTITY);
+            socket.connect(endpoint);
+        }
+        socket.setLinger(1000);
+        return socket;
+    }
+
+    private void send(ZMQ.Socket socket, byte[] frame, boolean first) throws InterruptedException {
+        if (role == Role.SHIM) {
+            socket.send(frame);
+            return;
+        }
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                socket.sendMore(SHIM_IDENTITY);
+                socket.send(frame);
+                return;
+            } catch (ZMQException e) {
+                // the shim is not connected yet
+                if (!first || System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static void drain(ZMQ.Socket socket) {
+        while (socket.recv(ZMQ.DONTWAIT) != null) {
+            // replies are not part of the replay
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            LOG.error("Usage: TrafficReplay core|shim <endpoint> <log directory> [max]");
+            return;
+        }
+        Role role;
+        try {
+            role = Role.valueOf(args[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unknown role {}, expected core or shim", args[0]);
+            return;
+        }
+        ZMQ.Context context = ZMQ.context(1);
+        try {
+            TrafficReplay replay = new TrafficReplay(context, role, args[1]);
+            replay.setMaxSpeed(args.length > 3 && "max".equals(args[3]));
+            TrafficLogReader reader = new TrafficLogReader(new File(args[2]));
+            try {
+                long start = System.nanoTime();
+                int sent = replay.replay(reader);
+                LOG.info("Replayed {} frames in {} ms", sent,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            context.term();
+        }
+    }
+}
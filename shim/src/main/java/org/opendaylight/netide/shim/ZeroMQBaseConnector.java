@@ -8,19 +8,31 @@
 package org.opendaylight.netide.shim;
 
 import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import org.opendaylight.netide.netiplib.FenceMessage;
+import org.opendaylight.netide.netiplib.HeartbeatMessage;
 import org.opendaylight.netide.netiplib.HelloMessage;
+import org.opendaylight.netide.netiplib.ManagementMessage;
 import org.opendaylight.netide.netiplib.Message;
+import org.opendaylight.netide.netiplib.NetIPCompression;
 import org.opendaylight.netide.netiplib.NetIPConverter;
 import org.opendaylight.netide.netiplib.OpenFlowMessage;
+import org.opendaylight.netide.netiplib.TopologyUpdateMessage;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+import org.opendaylight.netide.netiplib.TrafficRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMsg;
 
-public class ZeroMQBaseConnector implements Runnable {
+public class ZeroMQBaseConnector implements ICoreConnector, Runnable {
 
     private static final String STOP_COMMAND = "Control.STOP";
     private static final String CONTROL_ADDRESS = "inproc://ShimControllerQueue";
+    private static final byte[] HEARTBEAT = new HeartbeatMessage().toByteRepresentation();
 
     private static final Logger LOG = LoggerFactory.getLogger(ZeroMQBaseConnector.class);
     private String address;
@@ -29,22 +41,143 @@ public class ZeroMQBaseConnector implements Runnable {
     private Thread thread;
 
     private ICoreListener coreListener;
+    private ShimStatistics statistics;
+    private MessageCapture capture;
+    private TrafficLogWriter recorder;
+    private long heartbeatInterval;
+    private int heartbeatMissThreshold = 3;
+    private int outageBufferSize = 1024;
+    private final Queue<byte[]> outageBuffer = new ArrayDeque<>();
+    private volatile CoreLinkState linkState = CoreLinkState.UNKNOWN;
+    private int ioThreads = 1;
+    private StripedExecutor dispatchExecutor;
+    private int compressionThreshold;
+    private volatile boolean compressing;
 
     public ZeroMQBaseConnector() {
 
     }
 
+    @Override
+    public void setStatistics(ShimStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void setMessageCapture(MessageCapture capture) {
+        this.capture = capture;
+    }
+
+    @Override
+    public void setTrafficRecorder(TrafficLogWriter recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Sends a heartbeat to the core every interval and reconnects when nothing
+     * has been received from the core for the given number of intervals. The
+     * core must answer or send heartbeats itself; 0 disables the check.
+     */
+    @Override
+    public void setHeartbeat(long intervalMillis, int missThreshold) {
+        this.heartbeatInterval = intervalMillis;
+        this.heartbeatMissThreshold = missThreshold;
+    }
+
+    /**
+     * Sets how many messages to the core are kept while the core link is
+     * down. They are sent once the link is back; the oldest are dropped first.
+     */
+    @Override
+    public void setOutageBufferSize(int size) {
+        this.outageBufferSize = size;
+    }
+
+    /**
+     * Sets the ZMQ I/O threads of the context created by {@link #Start()}.
+     */
+    @Override
+    public void setIoThreads(int ioThreads) {
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Hands the core messages over to the given workers instead of handling
+     * them on the receive loop, see {@link StripedExecutor}.
+     */
+    @Override
+    public void setDispatchExecutor(StripedExecutor executor) {
+        this.dispatchExecutor = executor;
+    }
+
+    /**
+     * Sets the payload length from which messages to the core are compressed,
+     * once the core asked for it, see {@link #enableCompression()}; 0 never
+     * compresses.
+     */
+    @Override
+    public void setCompressionThreshold(int threshold) {
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Compresses the larger messages to the core from now on, until the link
+     * goes down or the core says otherwise. Called when the HELLO of the core
+     * announces deflate compression, see {@link NetIPCompression}.
+     *
+     * @return false if compression is not configured
+     */
+    @Override
+    public boolean enableCompression() {
+        if (compressionThreshold <= 0) {
+            return false;
+        }
+        if (!compressing) {
+            LOG.info("Compressing payloads of {} bytes and more to the core", compressionThreshold);
+        }
+        compressing = true;
+        return true;
+    }
+
+    /**
+     * Called when a HELLO of the core does not announce compression.
+     */
+    @Override
+    public void disableCompression() {
+        if (compressing) {
+            LOG.info("No more compression to the core");
+        }
+        compressing = false;
+    }
+
+    @Override
+    public ICoreConnector getOrigin() {
+        return this;
+    }
+
+    @Override
+    public boolean isCompressing() {
+        return compressing;
+    }
+
+    @Override
+    public CoreLinkState getCoreLinkState() {
+        return linkState;
+    }
+
     public void setContext(ZMQ.Context cont) {
         context = cont;
     }
 
+    @Override
     public void Start() {
-        context = ZMQ.context(1);
+        context = ZMQ.context(ioThreads);
         thread = new Thread(this);
         thread.setName("ZeroMQBasedConnector Receive Loop");
         thread.start();
     }
 
+    @Override
     public void Stop() {
         if (thread != null) {
             ZMQ.Socket stopSocket = context.socket(ZMQ.PUSH);
@@ -73,11 +206,17 @@ public class ZeroMQBaseConnector implements Runnable {
         return true;
     }
 
+    @Override
     public void RegisterCoreListener(ICoreListener listener) {
         this.coreListener = listener;
     }
 
+    @Override
     public boolean SendData(byte[] data) {
+        if (statistics != null) {
+            statistics.messageToCore(data.length);
+            statistics.coreMessageQueued();
+        }
         ZMsg msg = new ZMsg();
         msg.add(data);
         ZMQ.Socket sendSocket = context.socket(ZMQ.PUSH);
@@ -88,40 +227,83 @@ public class ZeroMQBaseConnector implements Runnable {
         return true;
     }
 
+    /**
+     * Sends several frames through one control socket, in order.
+     */
     @Override
-    public void run() {
-        ZMQ.Socket socket = context.socket(ZMQ.DEALER);
-        socket.setIdentity("shim".getBytes());
-        socket.connect("tcp://" + getAddress() + ":" + getPort());
-        LOG.info("Trying to connect to core on address tcp://" + getAddress() + ":" + getPort());
+    public boolean SendData(List<byte[]> frames) {
+        if (frames.isEmpty()) {
+            return true;
+        }
+        ZMQ.Socket sendSocket = context.socket(ZMQ.PUSH);
+        sendSocket.setIdentity("shim".getBytes());
+        sendSocket.connect(CONTROL_ADDRESS);
+        for (byte[] data : frames) {
+            if (statistics != null) {
+                statistics.messageToCore(data.length);
+                statistics.coreMessageQueued();
+            }
+            ZMsg msg = new ZMsg();
+            msg.add(data);
+            send(msg, sendSocket);
+        }
+        sendSocket.close();
+        return true;
+    }
 
+    @Override
+    public void run() {
+        ZMQ.Socket socket = connectToCore();
         ZMQ.Socket controlSocket = context.socket(ZMQ.PULL);
         controlSocket.bind(CONTROL_ADDRESS);
+        ZMQ.Poller poller = createPoller(socket, controlSocket);
 
-        ZMQ.Poller poller = new ZMQ.Poller(2);
-        poller.register(socket, ZMQ.Poller.POLLIN);
-        poller.register(controlSocket, ZMQ.Poller.POLLIN);
-
+        long lastHeartbeat = System.currentTimeMillis();
+        long lastAlive = lastHeartbeat;
         while (!Thread.currentThread().isInterrupted()) {
             poller.poll(10);
             if (poller.pollin(0)) {
+                Object receiveEvent = ShimEvents.begin(ShimEventType.ZMQ_RECEIVE);
                 ZMsg message = ZMsg.recvMsg(socket);
                 byte[] data = message.getLast().getData();
+                ShimEvents.commit(receiveEvent, data);
+                if (capture != null) {
+                    capture.record(CaptureRing.FROM_CORE, data);
+                }
+                record(TrafficRecord.FROM_CORE, data);
+                if (statistics != null) {
+                    statistics.messageFromCore(data.length);
+                }
+                lastAlive = System.currentTimeMillis();
+                if (linkState != CoreLinkState.UP) {
+                    coreLinkUp(socket);
+                }
                 if (coreListener != null) {
-                    Message msg = NetIPConverter.parseConcreteMessage(data);
-                    if (msg instanceof HelloMessage) {
-
-                        coreListener.onHelloCoreMessage(((HelloMessage) msg).getSupportedProtocols(),
-                                ((HelloMessage) msg).getHeader().getModuleId());
-                    } else if (msg instanceof OpenFlowMessage) {
-
-                        byte[] payload = msg.getPayload();
-                        coreListener.onOpenFlowCoreMessage(msg.getHeader().getDatapathId(),
-                                Unpooled.wrappedBuffer(payload), msg.getHeader().getModuleId());
+                    Message msg;
+                    Object parseEvent = ShimEvents.begin(ShimEventType.NETIP_PARSE);
+                    try {
+                        msg = NetIPConverter.parseConcreteMessage(data);
+                        ShimEvents.commit(parseEvent, data);
+                    } catch (IllegalArgumentException e) {
+                        LOG.warn("Core message could not be parsed", e);
+                        if (statistics != null) {
+                            statistics.serializationError();
+                        }
+                        continue;
+                    }
+                    if (msg instanceof HelloMessage || msg instanceof OpenFlowMessage
+                            || msg instanceof FenceMessage || msg instanceof TopologyUpdateMessage
+                            || msg instanceof ManagementMessage) {
+                        dispatch(msg);
+                    } else if (msg instanceof HeartbeatMessage) {
+                        // only used for liveness
                     } else {
                         // LOG.info("Core Unrecognized Message received class
                         // {}, header: {}", msg.getClass(),
                         // msg.getHeader().getMessageType());
+                        if (statistics != null) {
+                            statistics.drop();
+                        }
                     }
                 }
             }
@@ -129,13 +311,195 @@ public class ZeroMQBaseConnector implements Runnable {
                 ZMsg message = ZMsg.recvMsg(controlSocket);
                 if (message.getFirst().toString().equals(STOP_COMMAND)) {
                     break;
+                } else if (linkState == CoreLinkState.DOWN) {
+                    bufferDuringOutage(message.getLast().getData());
                 } else {
-                    message.send(socket);
+                    sendToCore(socket, message.getLast().getData());
+                }
+            }
+            if (heartbeatInterval > 0) {
+                long now = System.currentTimeMillis();
+                if (now - lastHeartbeat >= heartbeatInterval) {
+                    socket.send(HEARTBEAT);
+                    lastHeartbeat = now;
+                }
+                if (now - lastAlive > heartbeatInterval * heartbeatMissThreshold) {
+                    if (linkState != CoreLinkState.DOWN) {
+                        LOG.warn("No message from core for {} ms, reconnecting", now - lastAlive);
+                        setLinkState(CoreLinkState.DOWN);
+                    }
+                    socket.setLinger(0);
+                    socket.close();
+                    socket = connectToCore();
+                    poller = createPoller(socket, controlSocket);
+                    // give the new connection a full period before trying again
+                    lastAlive = now;
                 }
             }
         }
+        setLinkState(CoreLinkState.DOWN);
         socket.close();
         controlSocket.close();
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close traffic recording", e);
+            }
+        }
+    }
+
+    private void dispatch(final Message msg) {
+        if (dispatchExecutor == null) {
+            deliver(msg);
+            return;
+        }
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                deliver(msg);
+            }
+        };
+        long datapathId = msg.getHeader().getDatapathId();
+        if (msg instanceof HelloMessage || datapathId == 0) {
+            dispatchExecutor.executeOnAll(task);
+        } else {
+            dispatchExecutor.execute(datapathId, task);
+        }
+    }
+
+    private void deliver(Message msg) {
+        if (msg instanceof HelloMessage) {
+
+            coreListener.onHelloCoreMessage(((HelloMessage) msg).getSupportedProtocols(),
+                    ((HelloMessage) msg).getHeader().getModuleId());
+        } else if (msg instanceof OpenFlowMessage) {
+
+            byte[] payload = msg.getPayload();
+            coreListener.onOpenFlowCoreMessage(msg.getHeader().getDatapathId(), Unpooled.wrappedBuffer(payload),
+                    msg.getHeader().getModuleId());
+        } else if (msg instanceof FenceMessage) {
+
+            coreListener.onFenceCoreMessage(msg.getHeader().getDatapathId(), msg.getHeader().getModuleId(),
+                    msg.getHeader().getTransactionId());
+        } else if (msg instanceof TopologyUpdateMessage) {
+
+            coreListener.onTopologyRequestCoreMessage(msg.getHeader().getModuleId());
+        } else if (msg instanceof ManagementMessage) {
+
+            coreListener.onManagementCoreMessage(((ManagementMessage) msg).getPayloadString(),
+                    msg.getHeader().getModuleId());
+        }
+    }
+
+    private ZMQ.Socket connectToCore() {
+        ZMQ.Socket socket = context.socket(ZMQ.DEALER);
+        socket.setIdentity("shim".getBytes());
+        socket.connect("tcp://" + getAddress() + ":" + getPort());
+        LOG.info("Trying to connect to core on address tcp://" + getAddress() + ":" + getPort());
+        return socket;
+    }
+
+    private static ZMQ.Poller createPoller(ZMQ.Socket socket, ZMQ.Socket controlSocket) {
+        ZMQ.Poller poller = new ZMQ.Poller(2);
+        poller.register(socket, ZMQ.Poller.POLLIN);
+        poller.register(controlSocket, ZMQ.Poller.POLLIN);
+        return poller;
+    }
+
+    private void sendToCore(ZMQ.Socket socket, byte[] data) {
+        Object sendEvent = ShimEvents.begin(ShimEventType.ZMQ_SEND);
+        if (capture != null) {
+            capture.record(CaptureRing.TO_CORE, data);
+        }
+        record(TrafficRecord.TO_CORE, data);
+        socket.send(compressing ? compress(data) : data);
+        ShimEvents.commit(sendEvent, data);
+        if (statistics != null) {
+            statistics.coreMessageDequeued();
+        }
+    }
+
+    private byte[] compress(byte[] data) {
+        byte[] compressed = NetIPCompression.compress(data, compressionThreshold);
+        if (compressed != data && statistics != null) {
+            statistics.messageCompressed(data.length - compressed.length);
+        }
+        return compressed;
+    }
+
+    private void bufferDuringOutage(byte[] data) {
+        if (outageBufferSize <= 0) {
+            dropQueued();
+            return;
+        }
+        if (outageBuffer.size() >= outageBufferSize) {
+            outageBuffer.poll();
+            dropQueued();
+        }
+        outageBuffer.add(data);
+    }
+
+    private void dropQueued() {
+        if (statistics != null) {
+            statistics.coreMessageDequeued();
+            statistics.drop();
+        }
+    }
+
+    private void coreLinkUp(ZMQ.Socket socket) {
+        if (linkState == CoreLinkState.DOWN) {
+            LOG.info("Core link is back, replaying {} buffered messages", outageBuffer.size());
+        }
+        setLinkState(CoreLinkState.UP);
+        byte[] data;
+        while ((data = outageBuffer.poll()) != null) {
+            sendToCore(socket, data);
+        }
+    }
+
+    private void setLinkState(CoreLinkState state) {
+        CoreLinkState previous = linkState;
+        linkState = state;
+        if (state == CoreLinkState.DOWN) {
+            // the core may come back without compression, it says so again in its HELLO
+            compressing = false;
+        }
+        if (previous != state) {
+            coreLinkStateChanged(state);
+        }
+    }
+
+    /**
+     * Called from the receive loop whenever the core link changes state,
+     * reports the state to the statistics. A connector that is one of
+     * several reports their combined state instead.
+     */
+    protected void coreLinkStateChanged(CoreLinkState state) {
+        if (statistics != null) {
+            statistics.setCoreLinkState(state);
+        }
+    }
+
+    private void record(byte direction, byte[] data) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.append(direction, data);
+        } catch (IllegalArgumentException e) {
+            // larger than a segment, the recording goes on without it
+            LOG.debug("Frame of {} bytes not recorded", data.length, e);
+        } catch (IOException e) {
+            LOG.warn("Traffic recording stopped", e);
+            TrafficLogWriter failed = recorder;
+            recorder = null;
+            try {
+                failed.close();
+            } catch (IOException closeFailure) {
+                LOG.warn("Unable to close traffic recording", closeFailure);
+            }
+        }
     }
 
     public void setPort(int port) {
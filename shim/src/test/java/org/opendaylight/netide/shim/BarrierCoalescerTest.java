@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutputBuilder;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+
+public class BarrierCoalescerTest {
+
+    @Mock
+    ConnectionAdapter connectionAdapter;
+
+    BarrierCoalescer coalescer;
+    ShimStatistics statistics;
+    SettableFuture<RpcResult<BarrierOutput>> switchReply;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        statistics = new ShimStatistics();
+        coalescer = new BarrierCoalescer(new ShimRelay());
+        coalescer.setStatistics(statistics);
+        switchReply = SettableFuture.create();
+        Mockito.when(connectionAdapter.barrier(Matchers.any(BarrierInput.class))).thenReturn(switchReply);
+    }
+
+    private static BarrierInput barrier(long xid) {
+        return new BarrierInputBuilder().setVersion((short) 4).setXid(xid).build();
+    }
+
+    @Test
+    public void testConcurrentBarriersShareSwitchBarrier() throws Exception {
+        ListenableFuture<RpcResult<BarrierOutput>> first = coalescer.barrier(connectionAdapter, barrier(1L));
+        ListenableFuture<RpcResult<BarrierOutput>> second = coalescer.barrier(connectionAdapter, barrier(2L));
+        Mockito.verify(connectionAdapter, Mockito.times(1)).barrier(Matchers.any(BarrierInput.class));
+        Assert.assertEquals(1, statistics.getCoalescedBarriers());
+
+        switchReply.set(RpcResultBuilder.success(new BarrierOutputBuilder().setXid(1L).build()).build());
+        Assert.assertEquals(Long.valueOf(1L), first.get().getResult().getXid());
+        Assert.assertEquals(Long.valueOf(2L), second.get().getResult().getXid());
+    }
+
+    @Test
+    public void testWriteAfterBarrierNeedsNewBarrier() {
+        coalescer.barrier(connectionAdapter, barrier(1L));
+        coalescer.messageWritten(connectionAdapter);
+        coalescer.barrier(connectionAdapter, barrier(2L));
+        Mockito.verify(connectionAdapter, Mockito.times(2)).barrier(Matchers.any(BarrierInput.class));
+        Assert.assertEquals(0, statistics.getCoalescedBarriers());
+    }
+
+    @Test
+    public void testWriteWhileBarrierIsSentNeedsNewBarrier() {
+        Mockito.when(connectionAdapter.barrier(Matchers.any(BarrierInput.class))).thenAnswer(
+                new Answer<SettableFuture<RpcResult<BarrierOutput>>>() {
+                    @Override
+                    public SettableFuture<RpcResult<BarrierOutput>> answer(InvocationOnMock invocation) {
+                        // another stripe writes while the barrier goes out
+                        coalescer.messageWritten(connectionAdapter);
+                        return switchReply;
+                    }
+                });
+        coalescer.barrier(connectionAdapter, barrier(1L));
+        coalescer.barrier(connectionAdapter, barrier(2L));
+        Mockito.verify(connectionAdapter, Mockito.times(2)).barrier(Matchers.any(BarrierInput.class));
+    }
+
+    @Test
+    public void testCompletedBarrierIsNotShared() {
+        coalescer.barrier(connectionAdapter, barrier(1L));
+        switchReply.set(RpcResultBuilder.success(new BarrierOutputBuilder().setXid(1L).build()).build());
+        coalescer.barrier(connectionAdapter, barrier(2L));
+        Mockito.verify(connectionAdapter, Mockito.times(2)).barrier(Matchers.any(BarrierInput.class));
+    }
+}
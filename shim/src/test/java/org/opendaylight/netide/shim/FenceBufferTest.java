@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FenceBufferTest {
+
+    FenceBuffer<String> buffer;
+
+    @Before
+    public void setUp() {
+        buffer = new FenceBuffer<>(3);
+    }
+
+    @Test
+    public void testDrainModuleOfDatapath() {
+        Assert.assertNull(buffer.add(1L, 0, "a"));
+        Assert.assertNull(buffer.add(1L, 0, "b"));
+        Assert.assertNull(buffer.add(1L, 1, "c"));
+        Assert.assertNull(buffer.add(2L, 0, "d"));
+        Map<Long, List<String>> batches = buffer.drain(1L, 0);
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(Arrays.asList("a", "b"), batches.get(1L));
+        Assert.assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void testDrainModuleOfEveryDatapath() {
+        buffer.add(2L, 0, "a");
+        buffer.add(1L, 0, "b");
+        buffer.add(1L, 1, "c");
+        Map<Long, List<String>> batches = buffer.drain(0L, 0);
+        Assert.assertEquals(Arrays.asList(2L, 1L), Arrays.asList(batches.keySet().toArray()));
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertTrue(buffer.drain(0L, 0).isEmpty());
+    }
+
+    @Test
+    public void testFullBatchIsHandedBack() {
+        buffer.add(1L, 0, "a");
+        buffer.add(1L, 0, "b");
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), buffer.add(1L, 0, "c"));
+        Assert.assertEquals(0, buffer.size());
+        Assert.assertNull(buffer.add(1L, 0, "d"));
+    }
+
+    @Test
+    public void testRemoveDatapath() {
+        buffer.add(1L, 0, "a");
+        buffer.add(1L, 1, "b");
+        buffer.add(2L, 0, "c");
+        Assert.assertEquals(2, buffer.removeDatapath(1L));
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertTrue(buffer.drain(1L, 0).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimit() {
+        new FenceBuffer<String>(0);
+    }
+}
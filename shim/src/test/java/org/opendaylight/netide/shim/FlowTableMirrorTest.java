@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowTableMirrorTest {
+
+    FlowTableMirror mirror;
+
+    @Before
+    public void setUp() {
+        // a filter covers every match it is a prefix of
+        mirror = new FlowTableMirror(1L, new FlowTableMirror.MatchFilter() {
+            @Override
+            public boolean covers(Object filter, Object match, Object instructions) {
+                return ((String) match).startsWith((String) filter);
+            }
+        });
+    }
+
+    @Test
+    public void testAddReplacesSameKey() {
+        mirror.add((short) 0, 10, "ip", 1L, 30, 0, "drop");
+        mirror.add((short) 0, 10, "ip", 2L, 60, 120, "output:1");
+        mirror.add((short) 0, 20, "ip", 3L, 0, 0, "output:2");
+        mirror.add((short) 1, 10, "ip", 4L, 0, 0, "output:3");
+        Assert.assertEquals(3, mirror.size());
+        FlowEntry flow = mirror.get((short) 0, 10, "ip");
+        Assert.assertEquals(2L, flow.getCookie());
+        Assert.assertEquals(60, flow.getIdleTimeout());
+        Assert.assertEquals(120, flow.getHardTimeout());
+        Assert.assertEquals("output:1", flow.getInstructions());
+        Assert.assertEquals(2, mirror.getFlows((short) 0).size());
+        Assert.assertEquals(3, mirror.getFlows(FlowTableMirror.ALL_TABLES).size());
+    }
+
+    @Test
+    public void testStrictCommands() {
+        mirror.add((short) 0, 10, "ip,tcp", 0x12L, 0, 0, "drop");
+        Assert.assertFalse(mirror.modifyStrict((short) 0, 11, "ip,tcp", 0, 0, "output:1"));
+        Assert.assertFalse(mirror.modifyStrict((short) 0, 10, "ip,tcp", 0x10L, -1L, "output:1"));
+        Assert.assertTrue(mirror.modifyStrict((short) 0, 10, "ip,tcp", 0x10L, 0xF0L, "output:1"));
+        Assert.assertEquals("output:1", mirror.get((short) 0, 10, "ip,tcp").getInstructions());
+        Assert.assertFalse(mirror.removeStrict((short) 0, 10, "ip", 0, 0));
+        Assert.assertTrue(mirror.removeStrict((short) 0, 10, "ip,tcp", 0, 0));
+        Assert.assertEquals(0, mirror.size());
+    }
+
+    @Test
+    public void testNonStrictCommands() {
+        mirror.add((short) 0, 10, "ip,tcp", 1L, 0, 0, "drop");
+        mirror.add((short) 0, 20, "ip,udp", 2L, 0, 0, "drop");
+        mirror.add((short) 1, 10, "ip,tcp", 1L, 0, 0, "drop");
+        mirror.add((short) 0, 10, "arp", 1L, 0, 0, "drop");
+        Assert.assertEquals(2, mirror.modify((short) 0, "ip", 0, 0, "output:1"));
+        Assert.assertEquals(2, mirror.remove(FlowTableMirror.ALL_TABLES, "ip,tcp", 0, 0));
+        Assert.assertEquals(1, mirror.remove((short) 0, null, 2L, -1L));
+        Assert.assertEquals(1, mirror.size());
+        Assert.assertNotNull(mirror.get((short) 0, 10, "arp"));
+        mirror.clear();
+        Assert.assertEquals(0, mirror.size());
+        Assert.assertNull(mirror.get((short) 0, 10, "arp"));
+    }
+
+    @Test
+    public void testFlowsAgedOut() {
+        mirror.add((short) 0, 10, "ip", 1L, 5, 0, false, "drop");
+        mirror.add((short) 0, 20, "ip", 1L, 30, 10, false, "drop");
+        mirror.add((short) 0, 30, "ip", 1L, 5, 0, true, "drop");
+        mirror.add((short) 0, 40, "ip", 1L, 0, 0, false, "drop");
+        long first = mirror.get((short) 0, 10, "ip").getInstalledMillis();
+        long second = mirror.get((short) 0, 20, "ip").getInstalledMillis();
+        Assert.assertEquals(0, mirror.expire(first + 4999));
+        Assert.assertEquals(1, mirror.expire(first + 5000));
+        Assert.assertNull(mirror.get((short) 0, 10, "ip"));
+        Assert.assertEquals(1, mirror.expire(second + 10000));
+        Assert.assertEquals(0, mirror.expire(second + 3600000));
+        Assert.assertEquals(2, mirror.size());
+    }
+
+    @Test
+    public void testRevert() {
+        mirror.add((short) 0, 10, "ip,tcp", 1L, 0, 0, "drop");
+        mirror.beginCommand(7L);
+        mirror.add((short) 0, 10, "ip,tcp", 2L, 0, 0, "output:1");
+        mirror.add((short) 0, 20, "arp", 2L, 0, 0, "output:1");
+        mirror.endCommand();
+        mirror.beginCommand(8L);
+        Assert.assertEquals(1, mirror.remove(FlowTableMirror.ALL_TABLES, "ip", 0, 0));
+        mirror.endCommand();
+        mirror.beginCommand(9L);
+        Assert.assertFalse(mirror.modifyStrict((short) 0, 30, "ip", 0, 0, "drop"));
+        mirror.endCommand();
+
+        Assert.assertFalse(mirror.revert(9L));
+        Assert.assertTrue(mirror.revert(8L));
+        Assert.assertEquals(2L, mirror.get((short) 0, 10, "ip,tcp").getCookie());
+        Assert.assertTrue(mirror.revert(7L));
+        Assert.assertFalse(mirror.revert(7L));
+        Assert.assertEquals(1, mirror.size());
+        FlowEntry flow = mirror.get((short) 0, 10, "ip,tcp");
+        Assert.assertEquals(1L, flow.getCookie());
+        Assert.assertEquals("drop", flow.getInstructions());
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        Map<String, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            short table = (short) random.nextInt(3);
+            int priority = random.nextInt(4);
+            String match = "m" + random.nextInt(300);
+            String key = table + "/" + priority + "/" + match;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(key) != null, mirror.removeStrict(table, priority, match, 0, 0));
+            } else {
+                mirror.add(table, priority, match, i, 0, 0, null);
+                expected.put(key, (long) i);
+            }
+            Assert.assertEquals(expected.size(), mirror.size());
+        }
+        for (Map.Entry<String, Long> flow : expected.entrySet()) {
+            String[] key = flow.getKey().split("/");
+            FlowEntry entry = mirror.get(Short.parseShort(key[0]), Integer.parseInt(key[1]), key[2]);
+            Assert.assertEquals(flow.getValue().longValue(), entry.getCookie());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Ipv4Address;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.action.grouping.action.choice.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.actions.grouping.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.action.rev150203.actions.grouping.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instruction.grouping.instruction.choice.ApplyActionsCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instruction.grouping.instruction.choice.apply.actions._case.ApplyActionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instructions.grouping.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.instruction.rev130731.instructions.grouping.InstructionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.FlowModCommand;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.PortNumber;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.TableId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.Ipv4Src;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.OpenflowBasicClass;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entries.grouping.MatchEntry;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entries.grouping.MatchEntryBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entry.value.grouping.match.entry.value.Ipv4SrcCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.entry.value.grouping.match.entry.value.ipv4.src._case.Ipv4SrcBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.grouping.Match;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.oxm.rev150225.match.grouping.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessageBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowRemovedMessageBuilder;
+
+public class FlowTableMirrorsTest {
+
+    FlowTableMirrors flowTables;
+    Match match;
+
+    @Before
+    public void setUp() {
+        flowTables = new FlowTableMirrors();
+        match = new MatchBuilder().setMatchEntry(new ArrayList<MatchEntry>()).build();
+    }
+
+    private FlowModInput flowMod(FlowModCommand command, long tableId, int priority) {
+        return flowModBuilder(command, tableId, priority).build();
+    }
+
+    private FlowModInputBuilder flowModBuilder(FlowModCommand command, long tableId, int priority) {
+        FlowModInputBuilder builder = new FlowModInputBuilder();
+        builder.setVersion((short) 4);
+        builder.setXid(1L);
+        builder.setCommand(command);
+        builder.setTableId(new TableId(tableId));
+        builder.setPriority(priority);
+        builder.setCookie(BigInteger.ONE);
+        builder.setCookieMask(BigInteger.ZERO);
+        builder.setIdleTimeout(10);
+        builder.setHardTimeout(20);
+        builder.setMatch(match);
+        return builder;
+    }
+
+    private static Match ipv4Source(String address, byte[] mask) {
+        Ipv4SrcBuilder source = new Ipv4SrcBuilder();
+        source.setIpv4Address(new Ipv4Address(address));
+        source.setMask(mask);
+        MatchEntryBuilder entry = new MatchEntryBuilder();
+        entry.setOxmClass(OpenflowBasicClass.class);
+        entry.setOxmMatchField(Ipv4Src.class);
+        entry.setHasMask(mask != null);
+        entry.setMatchEntryValue(new Ipv4SrcCaseBuilder().setIpv4Src(source.build()).build());
+        List<MatchEntry> entries = new ArrayList<>();
+        entries.add(entry.build());
+        return new MatchBuilder().setMatchEntry(entries).build();
+    }
+
+    private static List<Instruction> output(long port) {
+        OutputActionCaseBuilder output = new OutputActionCaseBuilder();
+        output.setOutputAction(new OutputActionBuilder().setPort(new PortNumber(port)).setMaxLength(0).build());
+        List<Action> actions = new ArrayList<>();
+        actions.add(new ActionBuilder().setActionChoice(output.build()).build());
+        ApplyActionsCaseBuilder applyActions = new ApplyActionsCaseBuilder();
+        applyActions.setApplyActions(new ApplyActionsBuilder().setAction(actions).build());
+        List<Instruction> instructions = new ArrayList<>();
+        instructions.add(new InstructionBuilder().setInstructionChoice(applyActions.build()).build());
+        return instructions;
+    }
+
+    @Test
+    public void testFlowModAndFlowRemoved() {
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCADD, 0, 100));
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCADD, 1, 100));
+        Assert.assertEquals(2, flowTables.get(1L).size());
+        FlowEntry flow = flowTables.get(1L).get((short) 0, 100, match);
+        Assert.assertEquals(1L, flow.getCookie());
+        Assert.assertEquals(10, flow.getIdleTimeout());
+
+        FlowRemovedMessageBuilder removed = new FlowRemovedMessageBuilder();
+        removed.setVersion((short) 4);
+        removed.setTableId(new TableId(0L));
+        removed.setPriority(100);
+        removed.setMatch(match);
+        flowTables.flowRemoved(1L, removed.build());
+        Assert.assertEquals(1, flowTables.get(1L).size());
+    }
+
+    @Test
+    public void testDeleteAllFlows() {
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCADD, 0, 100));
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCADD, 1, 200));
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCDELETE, FlowTableMirror.ALL_TABLES, 0));
+        Assert.assertEquals(0, flowTables.get(1L).size());
+        flowTables.removeSwitch(1L);
+        Assert.assertNull(flowTables.get(1L));
+    }
+
+    @Test
+    public void testNonStrictDeleteCoversMoreSpecificFlows() {
+        byte[] slash8 = new byte[] { (byte) 255, 0, 0, 0 };
+        byte[] slash16 = new byte[] { (byte) 255, (byte) 255, 0, 0 };
+        byte[] slash24 = new byte[] { (byte) 255, (byte) 255, (byte) 255, 0 };
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 100)
+                .setMatch(ipv4Source("10.0.1.0", slash24)).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 200)
+                .setMatch(ipv4Source("10.0.2.5", null)).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 300)
+                .setMatch(ipv4Source("10.1.0.0", slash16)).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 400)
+                .setMatch(ipv4Source("10.0.0.0", slash8)).build());
+
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCDELETE, FlowTableMirror.ALL_TABLES, 0)
+                .setMatch(ipv4Source("10.0.0.0", slash16)).build());
+        Assert.assertEquals(2, flowTables.get(1L).size());
+        Assert.assertNotNull(flowTables.get(1L).get((short) 0, 300, ipv4Source("10.1.0.0", slash16)));
+        Assert.assertNotNull(flowTables.get(1L).get((short) 0, 400, ipv4Source("10.0.0.0", slash8)));
+    }
+
+    @Test
+    public void testDeleteHonoursOutPort() {
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 100).setInstruction(output(1L)).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 200).setInstruction(output(2L)).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCDELETE, FlowTableMirror.ALL_TABLES, 0)
+                .setOutPort(new PortNumber(2L)).build());
+        Assert.assertEquals(1, flowTables.get(1L).size());
+        Assert.assertNotNull(flowTables.get(1L).get((short) 0, 100, match));
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCDELETESTRICT, 0, 100)
+                .setOutPort(new PortNumber(3L)).build());
+        Assert.assertEquals(1, flowTables.get(1L).size());
+    }
+
+    @Test
+    public void testRejectedFlowModReverted() {
+        flowTables.flowMod(1L, flowMod(FlowModCommand.OFPFCADD, 0, 100));
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCADD, 0, 200).setXid(2L).build());
+        flowTables.flowMod(1L, flowModBuilder(FlowModCommand.OFPFCDELETE, FlowTableMirror.ALL_TABLES, 0)
+                .setXid(3L).build());
+        Assert.assertEquals(0, flowTables.get(1L).size());
+
+        ErrorMessageBuilder error = new ErrorMessageBuilder();
+        error.setVersion((short) 4);
+        error.setXid(3L);
+        // BAD_REQUEST, not a flow mod error
+        error.setType(1);
+        Assert.assertFalse(flowTables.flowModFailed(1L, error.build()));
+        // FLOW_MOD_FAILED
+        error.setType(5);
+        Assert.assertTrue(flowTables.flowModFailed(1L, error.build()));
+        Assert.assertEquals(2, flowTables.get(1L).size());
+        error.setXid(2L);
+        Assert.assertTrue(flowTables.flowModFailed(1L, error.build()));
+        Assert.assertEquals(1, flowTables.get(1L).size());
+        Assert.assertNull(flowTables.get(1L).get((short) 0, 200, match));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandshakeSchedulerTest {
+
+    ScheduledExecutorService executor;
+    List<String> steps;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ShimThreadModel().threadFactory("test"));
+        steps = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private Runnable step(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                steps.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void testConcurrencyLimit() {
+        HandshakeScheduler<String> scheduler = new HandshakeScheduler<>(executor, 2, 0,
+                TimeUnit.SECONDS.toNanos(10), 3, 0);
+        scheduler.submit("a", step("hello-a"));
+        scheduler.submit("b", step("hello-b"));
+        scheduler.submit("c", step("hello-c"));
+        Assert.assertEquals(2, scheduler.getActive());
+        Assert.assertEquals(1, scheduler.getQueued());
+        // c sent its hello before ours went out
+        Assert.assertTrue(scheduler.helloReceived("c", step("features-c")));
+        Assert.assertTrue(scheduler.helloReceived("a", step("features-a")));
+        Assert.assertFalse(scheduler.helloReceived("unknown", step("features-unknown")));
+        Assert.assertEquals(3, steps.size());
+
+        scheduler.completed("a");
+        Assert.assertEquals(2, scheduler.getActive());
+        Assert.assertEquals(0, scheduler.getQueued());
+        Assert.assertEquals(5, steps.size());
+        Assert.assertEquals("hello-c", steps.get(3));
+        Assert.assertEquals("features-c", steps.get(4));
+
+        scheduler.removed("b");
+        scheduler.completed("c");
+        Assert.assertEquals(0, scheduler.getActive());
+        Assert.assertEquals(2, scheduler.getCompleted());
+    }
+
+    @Test
+    public void testRetryThenGiveUp() throws Exception {
+        final CountDownLatch gaveUp = new CountDownLatch(1);
+        HandshakeScheduler<String> scheduler = new HandshakeScheduler<>(executor, 1, 0,
+                TimeUnit.SECONDS.toNanos(10), 2, TimeUnit.MILLISECONDS.toNanos(1));
+        scheduler.setFailureListener(new HandshakeScheduler.FailureListener<String>() {
+            @Override
+            public void handshakeFailed(String key) {
+                gaveUp.countDown();
+            }
+        });
+        scheduler.submit("a", step("hello-a"));
+        scheduler.submit("b", step("hello-b"));
+        scheduler.helloReceived("a", step("features-a"));
+        scheduler.failed("a");
+        Assert.assertEquals(1, scheduler.getRetries());
+        for (int i = 0; i < 100 && steps.size() < 3; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("features-a", steps.get(2));
+
+        scheduler.failed("a");
+        Assert.assertTrue(gaveUp.await(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, scheduler.getFailed());
+        Assert.assertEquals("hello-b", steps.get(3));
+    }
+
+    @Test
+    public void testTimeoutRetriesPhase() throws Exception {
+        HandshakeScheduler<String> scheduler = new HandshakeScheduler<>(executor, 1, 0,
+                TimeUnit.MILLISECONDS.toNanos(20), 3, 0);
+        scheduler.submit("a", step("hello-a"));
+        for (int i = 0; i < 100 && steps.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("hello-a", steps.get(1));
+        scheduler.helloReceived("a", step("features-a"));
+        scheduler.completed("a");
+        Assert.assertEquals(1, scheduler.getCompleted());
+        Assert.assertTrue(scheduler.getRetries() >= 1);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.Message;
+import org.opendaylight.netide.netiplib.MessageType;
+import org.opendaylight.netide.netiplib.NetIPUtils;
+
+public class MessageCaptureTest {
+
+    private static byte[] frame(long datapathId, int payloadLength) {
+        byte[] payload = new byte[payloadLength];
+        for (int i = 0; i < payloadLength; i++) {
+            payload[i] = (byte) i;
+        }
+        Message message = new Message(NetIPUtils.StubHeaderFromPayload(payload), payload);
+        message.getHeader().setMessageType(MessageType.OPENFLOW);
+        message.getHeader().setDatapathId(datapathId);
+        return message.toByteRepresentation();
+    }
+
+    @Test
+    public void testRingKeepsLastFrames() {
+        CaptureRing ring = new CaptureRing(4, 64);
+        for (int i = 0; i < 6; i++) {
+            ring.record(CaptureRing.TO_CORE, i, frame(i, 8));
+        }
+        List<CapturedFrame> frames = new ArrayList<>();
+        ring.snapshot(null, frames);
+        Assert.assertEquals(4, frames.size());
+        Assert.assertEquals(2L, frames.get(0).getDatapathId());
+        Assert.assertEquals(5L, frames.get(3).getDatapathId());
+    }
+
+    @Test
+    public void testRingTruncatesLongFrames() {
+        CaptureRing ring = new CaptureRing(2, 64);
+        byte[] data = frame(1L, 100);
+        ring.record(CaptureRing.FROM_CORE, 1L, data);
+        List<CapturedFrame> frames = new ArrayList<>();
+        ring.snapshot(1L, frames);
+        Assert.assertEquals(1, frames.size());
+        Assert.assertEquals(ring.getSnapLength(), frames.get(0).getData().length);
+        Assert.assertEquals(data.length, frames.get(0).getOriginalLength());
+        Assert.assertEquals(CaptureRing.FROM_CORE, frames.get(0).getDirection());
+    }
+
+    @Test
+    public void testPerDatapathDump() throws Exception {
+        File directory = Files.createTempDirectory("capture").toFile();
+        MessageCapture capture = new MessageCapture(8, 128, true, directory);
+        capture.record(CaptureRing.TO_CORE, frame(1L, 4));
+        capture.record(CaptureRing.FROM_CORE, frame(2L, 4));
+        capture.record(CaptureRing.TO_CORE, frame(1L, 4));
+
+        File file = new File(directory, "netide.pcap");
+        file.deleteOnExit();
+        Assert.assertEquals(2, capture.dump(file.getName(), 1L));
+        Assert.assertEquals(3, capture.dump(file.getName(), null));
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            Assert.assertEquals(0xa1b2c3d4, in.readInt());
+            in.skipBytes(16);
+            Assert.assertEquals(MessageCapture.LINKTYPE_USER0, in.readInt());
+            in.skipBytes(8);
+            int captured = in.readInt();
+            Assert.assertEquals(frame(1L, 4).length + 1, captured);
+            Assert.assertEquals(captured, in.readInt());
+            Assert.assertEquals(CaptureRing.TO_CORE, in.readByte());
+        }
+    }
+
+    @Test
+    public void testIdlestRingReleased() throws Exception {
+        MessageCapture capture = new MessageCapture(8, 128, true, 2, Files.createTempDirectory("capture").toFile());
+        capture.record(CaptureRing.TO_CORE, frame(1L, 4));
+        Thread.sleep(5);
+        capture.record(CaptureRing.TO_CORE, frame(2L, 4));
+        Thread.sleep(5);
+        capture.record(CaptureRing.FROM_CORE, frame(1L, 4));
+        Thread.sleep(5);
+        capture.record(CaptureRing.TO_CORE, frame(3L, 4));
+
+        Assert.assertEquals(0, capture.dump("idle.pcap", 2L));
+        Assert.assertEquals(2, capture.dump("idle.pcap", 1L));
+        Assert.assertEquals(1, capture.dump("idle.pcap", 3L));
+        Assert.assertEquals(3, capture.dump("idle.pcap", null));
+    }
+
+    @Test
+    public void testDumpOutsideDirectoryRejected() throws Exception {
+        File parent = Files.createTempDirectory("netide").toFile();
+        File directory = new File(parent, "capture");
+        MessageCapture capture = new MessageCapture(8, 128, false, directory);
+        capture.record(CaptureRing.TO_CORE, frame(1L, 4));
+
+        Assert.assertEquals(1, capture.dump("inside.pcap", null));
+        Assert.assertTrue(new File(directory, "inside.pcap").isFile());
+        for (String fileName : new String[] { "../outside.pcap", new File(parent, "outside.pcap").getPath(), "." }) {
+            try {
+                capture.dump(fileName, null);
+                Assert.fail(fileName);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        Assert.assertFalse(new File(parent, "outside.pcap").exists());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartRequestFlags;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInputBuilder;
+
+public class MultipartCollapserTest {
+
+    MultipartCollapser collapser;
+
+    @Before
+    public void setUp() {
+        collapser = new MultipartCollapser(TimeUnit.SECONDS.toNanos(10));
+    }
+
+    private MultipartRequestInput request(MultipartType type, long xid) {
+        return new MultipartRequestInputBuilder().setVersion((short) 4).setXid(xid).setType(type)
+                .setFlags(new MultipartRequestFlags(false)).build();
+    }
+
+    @Test
+    public void testIdenticalRequestsCollapsed() {
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPPORTSTATS, 10L), 1));
+        Assert.assertTrue(collapser.join(1L, request(MultipartType.OFPMPPORTSTATS, 20L), 2));
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPTABLE, 30L), 3));
+        Assert.assertFalse(collapser.join(2L, request(MultipartType.OFPMPPORTSTATS, 40L), 4));
+
+        List<MultipartCollapser.Requester> requesters = collapser.replyReceived(1L, 10L, false);
+        Assert.assertEquals(2, requesters.size());
+        Assert.assertEquals(20L, requesters.get(1).getXid());
+        Assert.assertEquals(2, requesters.get(1).getModuleId());
+        // the reply already started, a new request gets its own
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPPORTSTATS, 50L), 5));
+        Assert.assertEquals(2, collapser.replyReceived(1L, 10L, true).size());
+        Assert.assertNull(collapser.replyReceived(1L, 10L, true));
+        Assert.assertTrue(collapser.join(1L, request(MultipartType.OFPMPPORTSTATS, 60L), 6));
+        Assert.assertEquals(2, collapser.replyReceived(1L, 50L, true).size());
+    }
+
+    @Test
+    public void testUnansweredRequestExpires() {
+        collapser = new MultipartCollapser(0);
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPFLOW, 10L), 1));
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPFLOW, 20L), 2));
+        Assert.assertNull(collapser.replyReceived(1L, 10L, true));
+        Assert.assertFalse(collapser.join(1L, request(MultipartType.OFPMPEXPERIMENTER, 30L), 3));
+        Assert.assertNull(collapser.replyReceived(1L, 30L, true));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OutboundBatcherTest {
+
+    ScheduledExecutorService scheduler;
+    List<List<String>> written;
+    CountDownLatch writes;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        written = new ArrayList<>();
+        writes = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private OutboundBatcher<String> createBatcher(long windowNanos, int maxBatch) {
+        return new OutboundBatcher<>(scheduler, windowNanos, maxBatch, new OutboundBatcher.Writer<String>() {
+            @Override
+            public void write(List<String> batch) {
+                written.add(batch);
+                writes.countDown();
+            }
+        });
+    }
+
+    @Test
+    public void testFullBatchIsWrittenAtOnce() {
+        OutboundBatcher<String> batcher = createBatcher(TimeUnit.SECONDS.toNanos(10), 3);
+        batcher.add("a");
+        batcher.add("b");
+        Assert.assertTrue(written.isEmpty());
+        batcher.add("c");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), written);
+        Assert.assertEquals(0, batcher.size());
+    }
+
+    @Test(timeout = 5000)
+    public void testWindowFlushesBatch() throws InterruptedException {
+        OutboundBatcher<String> batcher = createBatcher(TimeUnit.MILLISECONDS.toNanos(10), 64);
+        batcher.add("a");
+        batcher.add("b");
+        writes.await();
+        synchronized (batcher) {
+            Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b")), written);
+        }
+    }
+
+    @Test
+    public void testFlushAndDiscard() {
+        OutboundBatcher<String> batcher = createBatcher(TimeUnit.SECONDS.toNanos(10), 64);
+        batcher.flush();
+        Assert.assertTrue(written.isEmpty());
+        batcher.add("a");
+        batcher.flush();
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a")), written);
+        batcher.add("b");
+        batcher.add("c");
+        Assert.assertEquals(2, batcher.discard());
+        batcher.flush();
+        Assert.assertEquals(1, written.size());
+    }
+
+    @Test
+    public void testStoppedSchedulerWritesRightAway() {
+        scheduler.shutdown();
+        OutboundBatcher<String> batcher = createBatcher(TimeUnit.SECONDS.toNanos(10), 64);
+        batcher.add("a");
+        Assert.assertEquals(Arrays.asList(Arrays.asList("a")), written);
+    }
+
+    @Test(timeout = 10000)
+    public void testFlushWaitsForTheWritingThread() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final OutboundBatcher<String> batcher = new OutboundBatcher<>(scheduler, TimeUnit.SECONDS.toNanos(10), 64,
+                new OutboundBatcher.Writer<String>() {
+                    @Override
+                    public void write(List<String> batch) {
+                        if (batch.contains("a")) {
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                        synchronized (written) {
+                            written.add(batch);
+                        }
+                    }
+                });
+        batcher.add("a");
+        Thread first = new Thread() {
+            @Override
+            public void run() {
+                batcher.flush();
+            }
+        };
+        first.start();
+        while (batcher.size() > 0) {
+            Thread.sleep(1);
+        }
+        // the batch is taken, the first flush is writing it
+        batcher.add("b");
+        final CountDownLatch flushed = new CountDownLatch(1);
+        Thread second = new Thread() {
+            @Override
+            public void run() {
+                batcher.flush();
+                flushed.countDown();
+            }
+        };
+        second.start();
+        Assert.assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        flushed.await();
+        first.join();
+        synchronized (written) {
+            Assert.assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), written);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PacketBufferStoreTest {
+
+    private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Test
+    public void testFrameHandedOutOnce() {
+        PacketBufferStore store = new PacketBufferStore(4, 1024, MAX_AGE_NANOS, 2);
+        long bufferId = store.store(1L, 3L, new byte[] { 1, 2, 3 });
+        Assert.assertTrue(store.isShimBufferId(1L, bufferId));
+        Assert.assertFalse(store.isShimBufferId(2L, bufferId));
+        Assert.assertFalse(store.isShimBufferId(1L, bufferId + 1));
+        Assert.assertFalse(store.isShimBufferId(1L, 256L));
+        Assert.assertFalse(store.isShimBufferId(1L, PacketBufferStore.NO_BUFFER));
+        Assert.assertEquals(3, store.getBytes());
+        // another switch cannot take it
+        Assert.assertNull(store.take(2L, bufferId));
+        PacketBufferStore.Packet packet = store.take(1L, bufferId);
+        Assert.assertEquals(3L, packet.getInPort());
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3 }, packet.getData());
+        Assert.assertNull(store.take(1L, bufferId));
+        Assert.assertEquals(0, store.getBytes());
+        Assert.assertEquals(1, store.getResolved());
+    }
+
+    @Test
+    public void testOldestEvictedOverCapacity() {
+        PacketBufferStore store = new PacketBufferStore(2, 1024, MAX_AGE_NANOS, 2);
+        long first = store.store(1L, 1L, new byte[10]);
+        long second = store.store(1L, 1L, new byte[10]);
+        long third = store.store(1L, 1L, new byte[10]);
+        Assert.assertEquals(2, store.size());
+        Assert.assertEquals(1, store.getEvictions());
+        Assert.assertNull(store.take(1L, first));
+        // still known as an id of the shim
+        Assert.assertTrue(store.isShimBufferId(1L, first));
+        Assert.assertNotNull(store.take(1L, second));
+        Assert.assertNotNull(store.take(1L, third));
+    }
+
+    @Test
+    public void testOldestEvictedOverBytes() {
+        PacketBufferStore store = new PacketBufferStore(10, 25, MAX_AGE_NANOS, 2);
+        long first = store.store(1L, 1L, new byte[10]);
+        store.store(1L, 1L, new byte[10]);
+        store.store(1L, 1L, new byte[10]);
+        Assert.assertEquals(20, store.getBytes());
+        Assert.assertNull(store.take(1L, first));
+        Assert.assertEquals(PacketBufferStore.NO_BUFFER, store.store(1L, 1L, new byte[30]));
+    }
+
+    @Test
+    public void testExpiredFramesEvicted() {
+        PacketBufferStore store = new PacketBufferStore(10, 1024, 0, 2);
+        long bufferId = store.store(1L, 1L, new byte[10]);
+        Assert.assertNull(store.take(1L, bufferId));
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(1, store.getEvictions());
+    }
+
+    @Test
+    public void testRemoveSwitch() {
+        PacketBufferStore store = new PacketBufferStore(10, 1024, MAX_AGE_NANOS, 2);
+        store.store(1L, 1L, new byte[10]);
+        long other = store.store(2L, 1L, new byte[10]);
+        store.removeSwitch(1L);
+        Assert.assertEquals(1, store.size());
+        Assert.assertEquals(10, store.getBytes());
+        Assert.assertNotNull(store.take(2L, other));
+    }
+
+    @Test
+    public void testIdsOfTheSwitchNotIssued() {
+        PacketBufferStore store = new PacketBufferStore(10, 1024, MAX_AGE_NANOS, 2);
+        store.switchBuffered(1L, PacketBufferStore.FIRST_ID);
+        store.switchBuffered(1L, PacketBufferStore.FIRST_ID + 1);
+        Assert.assertEquals(PacketBufferStore.FIRST_ID + 2, store.store(1L, 1L, new byte[10]));
+        Assert.assertFalse(store.isShimBufferId(1L, PacketBufferStore.FIRST_ID));
+        // the ids are free for another switch
+        Assert.assertEquals(PacketBufferStore.FIRST_ID + 3, store.store(2L, 1L, new byte[10]));
+    }
+
+    @Test
+    public void testIdReusedBySwitchDropsFrame() {
+        PacketBufferStore store = new PacketBufferStore(10, 1024, MAX_AGE_NANOS, 2);
+        long bufferId = store.store(1L, 1L, new byte[10]);
+        store.switchBuffered(1L, bufferId);
+        Assert.assertFalse(store.isShimBufferId(1L, bufferId));
+        Assert.assertEquals(0, store.size());
+        Assert.assertEquals(0, store.getBytes());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplyExecutorTest {
+
+    @Test
+    public void testFullQueueRejectsWithoutRunningOnCaller() throws Exception {
+        ReplyExecutor executor = new ReplyExecutor(1, 1, 10, Executors.defaultThreadFactory());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            executor.execute(blocked);
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            executor.execute(blocked);
+
+            final Thread caller = Thread.currentThread();
+            final AtomicBoolean ranOnCaller = new AtomicBoolean();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ranOnCaller.set(Thread.currentThread() == caller);
+                    }
+                });
+                Assert.fail("queue full");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            Assert.assertFalse(ranOnCaller.get());
+            Assert.assertEquals(1, executor.getRejectedCount());
+            Assert.assertEquals(1, executor.getQueueSize());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(2, executor.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testThreadPerTask() throws Exception {
+        ReplyExecutor executor = new ReplyExecutor(Executors.defaultThreadFactory());
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        // every task got a thread, none queued
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, executor.getInFlightCount());
+        Assert.assertEquals(0, executor.getQueueSize());
+
+        executor.shutdown();
+        Assert.assertFalse(executor.isTerminated());
+        release.countDown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getInFlightCount());
+        Assert.assertEquals(3, executor.getLargestPoolSize());
+        Assert.assertEquals(3, executor.getCompletedTaskCount());
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            Assert.fail("shut down");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.HeartbeatMessage;
+import org.opendaylight.netide.netiplib.Message;
+
+public class ShardedCoreConnectorTest {
+
+    ShardedCoreConnector connector;
+    List<RecordingConnector> members;
+
+    @Before
+    public void setUp() {
+        members = new ArrayList<>();
+        connector = new ShardedCoreConnector() {
+            @Override
+            protected ICoreConnector createMember(String address, int port) {
+                RecordingConnector member = new RecordingConnector();
+                members.add(member);
+                return member;
+            }
+        };
+        connector.addEndpoint("10.0.0.1", 5555);
+        connector.addEndpoint("10.0.0.2", 5555);
+        connector.addEndpoint("10.0.0.3", 5555);
+    }
+
+    @Test
+    public void testRingSpreadsSwitches() {
+        CoreShardRing ring = connector.getRing();
+        int[] owned = new int[3];
+        for (long dpid = 1; dpid <= 3000; dpid++) {
+            owned[ring.owner(dpid)]++;
+        }
+        for (int count : owned) {
+            Assert.assertTrue(Arrays.toString(owned), count > 500);
+        }
+    }
+
+    @Test
+    public void testRemovingEndpointOnlyMovesItsSwitches() {
+        CoreShardRing before = connector.getRing();
+        connector.removeEndpoint("10.0.0.2", 5555);
+        CoreShardRing after = connector.getRing();
+        for (long dpid = 1; dpid <= 1000; dpid++) {
+            int owner = before.owner(dpid);
+            if (owner == 0) {
+                Assert.assertEquals(0, after.owner(dpid));
+            } else if (owner == 2) {
+                Assert.assertEquals(1, after.owner(dpid));
+            }
+        }
+    }
+
+    @Test
+    public void testDownEndpointLeavesRing() {
+        members.get(1).state = CoreLinkState.DOWN;
+        connector.rebuildRing();
+        CoreShardRing ring = connector.getRing();
+        for (long dpid = 1; dpid <= 1000; dpid++) {
+            Assert.assertNotEquals(1, ring.owner(dpid));
+        }
+    }
+
+    @Test
+    public void testShardsAnnouncedOutsideTheLock() {
+        final List<CoreShardRing> announced = new ArrayList<>();
+        connector.setShardListener(new ICoreShardListener() {
+            @Override
+            public void onCoreShardsChanged(CoreShardRing previous, CoreShardRing current) {
+                Assert.assertFalse(Thread.holdsLock(connector));
+                announced.add(current);
+            }
+        });
+        connector.Start();
+        members.get(1).state = CoreLinkState.DOWN;
+        connector.rebuildRing();
+        Assert.assertEquals(1, announced.size());
+        Assert.assertSame(connector.getRing(), announced.get(0));
+    }
+
+    @Test
+    public void testCombinedLinkState() {
+        ShimStatistics statistics = new ShimStatistics();
+        connector.setStatistics(statistics);
+        Assert.assertEquals(CoreLinkState.UP, statistics.getCoreLinkState());
+
+        members.get(1).state = CoreLinkState.DOWN;
+        connector.rebuildRing();
+        Assert.assertEquals(CoreLinkState.UNKNOWN, connector.getCoreLinkState());
+        Assert.assertEquals(CoreLinkState.UNKNOWN, statistics.getCoreLinkState());
+
+        for (RecordingConnector member : members) {
+            member.state = CoreLinkState.DOWN;
+        }
+        connector.rebuildRing();
+        Assert.assertEquals(CoreLinkState.DOWN, statistics.getCoreLinkState());
+    }
+
+    @Test
+    public void testSendDataRoutesByDatapath() {
+        long dpid = 42L;
+        int owner = connector.getRing().owner(dpid);
+        Assert.assertTrue(connector.SendData(message(dpid)));
+        for (int i = 0; i < members.size(); i++) {
+            Assert.assertEquals(i == owner ? 1 : 0, members.get(i).sent.size());
+        }
+    }
+
+    @Test
+    public void testSendDataWithoutDatapathGoesToLiveCores() {
+        members.get(2).state = CoreLinkState.DOWN;
+        Assert.assertTrue(connector.SendData(message(0)));
+        Assert.assertEquals(1, members.get(0).sent.size());
+        Assert.assertEquals(1, members.get(1).sent.size());
+        Assert.assertEquals(0, members.get(2).sent.size());
+    }
+
+    @Test
+    public void testBatchSplitByOwner() {
+        List<byte[]> frames = new ArrayList<>();
+        for (long dpid = 1; dpid <= 30; dpid++) {
+            frames.add(message(dpid));
+        }
+        frames.add(message(0));
+        Assert.assertTrue(connector.SendData(frames));
+        int total = 0;
+        for (RecordingConnector member : members) {
+            Assert.assertTrue(member.batches <= 1);
+            total += member.sent.size();
+        }
+        // the frame without a datapath went to every core
+        Assert.assertEquals(30 + members.size(), total);
+    }
+
+    private static byte[] message(long datapathId) {
+        Message message = new HeartbeatMessage();
+        message.getHeader().setDatapathId(datapathId);
+        return message.toByteRepresentation();
+    }
+
+    static class RecordingConnector extends ZeroMQBaseConnector {
+        final List<byte[]> sent = new ArrayList<>();
+        int batches;
+        volatile CoreLinkState state = CoreLinkState.UP;
+
+        @Override
+        public synchronized boolean SendData(byte[] data) {
+            sent.add(data);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean SendData(List<byte[]> frames) {
+            batches++;
+            sent.addAll(frames);
+            return true;
+        }
+
+        @Override
+        public CoreLinkState getCoreLinkState() {
+            return state;
+        }
+
+        @Override
+        public void Start() {
+        }
+
+        @Override
+        public void Stop() {
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.Message;
+import org.opendaylight.netide.netiplib.MessageType;
+import org.opendaylight.netide.netiplib.NetIPUtils;
+
+public class ShimEventsTest {
+
+    static class RecordingSink implements ShimEventSink {
+        long datapathId;
+        int moduleId;
+        int ofType;
+        int size;
+        int committed;
+
+        @Override
+        public Object begin(ShimEventType type) {
+            return type;
+        }
+
+        @Override
+        public void end(Object event) {
+        }
+
+        @Override
+        public void commit(Object event, long datapathId, int moduleId, int ofType, int size) {
+            this.datapathId = datapathId;
+            this.moduleId = moduleId;
+            this.ofType = ofType;
+            this.size = size;
+            committed++;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        ShimEvents.setSink(null);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        Assert.assertFalse(ShimEvents.isEnabled());
+        Assert.assertNull(ShimEvents.begin(ShimEventType.ZMQ_SEND));
+    }
+
+    @Test
+    public void testCommitFromNetIPMessage() {
+        RecordingSink sink = new RecordingSink();
+        ShimEvents.setSink(sink);
+        byte[] payload = new byte[] { 0x04, 0x0e, 0x00, 0x02 };
+        Message message = new Message(NetIPUtils.StubHeaderFromPayload(payload), payload);
+        message.getHeader().setMessageType(MessageType.OPENFLOW);
+        message.getHeader().setDatapathId(0x1122334455667788L);
+        message.getHeader().setModuleId(7);
+        byte[] data = message.toByteRepresentation();
+
+        Object event = ShimEvents.begin(ShimEventType.ZMQ_SEND);
+        Assert.assertEquals(ShimEventType.ZMQ_SEND, event);
+        ShimEvents.commit(event, data);
+        Assert.assertEquals(1, sink.committed);
+        Assert.assertEquals(0x1122334455667788L, sink.datapathId);
+        Assert.assertEquals(7, sink.moduleId);
+        Assert.assertEquals(14, sink.ofType);
+        Assert.assertEquals(data.length, sink.size);
+    }
+
+    @Test
+    public void testNullEventIsIgnored() {
+        RecordingSink sink = new RecordingSink();
+        ShimEvents.setSink(sink);
+        ShimEvents.commit(null, 1L, 1, 1, 1);
+        Assert.assertEquals(0, sink.committed);
+    }
+}
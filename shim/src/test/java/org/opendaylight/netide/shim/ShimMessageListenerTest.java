@@ -7,15 +7,25 @@
  */
 package org.opendaylight.netide.shim;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.netide.netiplib.EventSubscription;
 import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoReplyInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoRequestMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ErrorMessage;
@@ -27,6 +37,9 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketInMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortStatusMessage;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.system.rev130927.DisconnectEvent;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.system.rev130927.SwitchIdleEvent;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 
 /**
  * @author giuseppex.petralia@intel.com
@@ -43,7 +56,7 @@ public class ShimMessageListenerTest {
     ConnectionAdapter switchConnection2;
 
     @Mock
-    ZeroMQBaseConnector connector;
+    ICoreConnector connector;
 
     @Mock
     ShimSwitchConnectionHandlerImpl handshakeListener;
@@ -78,6 +91,9 @@ public class ShimMessageListenerTest {
     @Mock
     DisconnectEvent disconnectEvent;
 
+    @Mock
+    SwitchIdleEvent idleEvent;
+
     ConnectionAdaptersRegistry registry;
 
     @Mock
@@ -113,9 +129,47 @@ public class ShimMessageListenerTest {
     public void testOnEchoRequestMessage2() {
         registry.registerConnectionAdapter(switchConnection, features);
         messageListener.onEchoRequestMessage(echo);
+        Mockito.verify(switchConnection).echoReply(Matchers.any(EchoReplyInput.class));
+        Mockito.verify(shimRelay, Mockito.never()).sendOpenFlowMessageToCore(connector, echo, echo.getVersion(),
+                echo.getXid(), 1L, 0);
+    }
+
+    @Test
+    public void testOnEchoRequestMessageMirrored() {
+        registry.registerConnectionAdapter(switchConnection, features);
+        messageListener.setMirrorEchoes(true);
+        messageListener.onEchoRequestMessage(echo);
+        Mockito.verify(switchConnection).echoReply(Matchers.any(EchoReplyInput.class));
         Mockito.verify(shimRelay).sendOpenFlowMessageToCore(connector, echo, echo.getVersion(), echo.getXid(), 1L, 0);
     }
 
+    @Test
+    public void testOnSwitchIdleEventProbesEcho() {
+        registry.registerConnectionAdapter(switchConnection, features);
+        ListenableFuture<RpcResult<EchoOutput>> reply = Futures
+                .immediateFuture(RpcResultBuilder.success(new EchoOutputBuilder().build()).build());
+        Mockito.when(switchConnection.echo(Matchers.any(EchoInput.class))).thenReturn(reply);
+        Mockito.doReturn(reply).when(shimRelay).listenInPoolThread(reply);
+        ShimStatistics statistics = new ShimStatistics();
+        messageListener.registerStatistics(statistics);
+        messageListener.onSwitchIdleEvent(idleEvent);
+        Assert.assertEquals(1, statistics.getEchoProbes());
+        Mockito.verify(switchConnection, Mockito.never()).disconnect();
+    }
+
+    @Test
+    public void testOnSwitchIdleEventDisconnectsSilentSwitch() {
+        registry.registerConnectionAdapter(switchConnection, features);
+        ListenableFuture<RpcResult<EchoOutput>> reply = Futures.immediateFailedFuture(new TimeoutException());
+        Mockito.when(switchConnection.echo(Matchers.any(EchoInput.class))).thenReturn(reply);
+        Mockito.doReturn(reply).when(shimRelay).listenInPoolThread(reply);
+        ShimStatistics statistics = new ShimStatistics();
+        messageListener.registerStatistics(statistics);
+        messageListener.onSwitchIdleEvent(idleEvent);
+        Assert.assertEquals(1, statistics.getEchoProbeFailures());
+        Mockito.verify(switchConnection).disconnect();
+    }
+
     @Test
     public void testOnErrorMessage() {
         Class clazz = ErrorMessage.class;
@@ -180,6 +234,73 @@ public class ShimMessageListenerTest {
                 packetIn.getXid(), 1L, 0);
     }
 
+    @Test
+    public void testOnPacketInMessageNotSubscribed() {
+        Class clazz = PacketInMessage.class;
+        Mockito.when(packetIn.getImplementedInterface()).thenReturn(clazz);
+        registry.registerConnectionAdapter(switchConnection, features);
+        SubscriptionRegistry subscriptions = new SubscriptionRegistry();
+        subscriptions.announce("core", 1);
+        subscriptions.announce("core", 2);
+        ShimStatistics statistics = new ShimStatistics();
+        messageListener.registerSubscriptionRegistry(subscriptions);
+        messageListener.registerStatistics(statistics);
+
+        // module 2 has not subscribed yet, it still gets every event
+        subscriptions.subscribe("core", 1, EventSubscription.parse("subscribe type=10 dpid=2"));
+        messageListener.onPacketInMessage(packetIn);
+        Mockito.verify(shimRelay).sendOpenFlowMessageToCore(connector, packetIn, packetIn.getVersion(),
+                packetIn.getXid(), 1L, 0);
+        Assert.assertEquals(0, statistics.getFilteredEvents());
+
+        subscriptions.subscribe("core", 2, EventSubscription.parse("subscribe type=10 dpid=3"));
+        messageListener.onPacketInMessage(packetIn);
+        Mockito.verify(shimRelay, Mockito.times(1)).sendOpenFlowMessageToCore(connector, packetIn,
+                packetIn.getVersion(), packetIn.getXid(), 1L, 0);
+        Assert.assertEquals(1, statistics.getFilteredEvents());
+
+        subscriptions.subscribe("core", 2, EventSubscription.parse("subscribe type=10 dpid=1"));
+        messageListener.onPacketInMessage(packetIn);
+        Mockito.verify(shimRelay, Mockito.times(2)).sendOpenFlowMessageToCore(connector, packetIn,
+                packetIn.getVersion(), packetIn.getXid(), 1L, 0);
+    }
+
+    @Test
+    public void testOnPacketInMessageStoresFrame() {
+        Class clazz = PacketInMessage.class;
+        Mockito.when(packetIn.getImplementedInterface()).thenReturn(clazz);
+        Mockito.when(packetIn.getBufferId()).thenReturn(PacketBufferStore.NO_BUFFER);
+        Mockito.when(packetIn.getInPort()).thenReturn(3);
+        Mockito.when(packetIn.getData()).thenReturn(new byte[] { 1, 2, 3, 4, 5, 6 });
+        registry.registerConnectionAdapter(switchConnection, features);
+        PacketBufferStore packetBuffers = new PacketBufferStore(4, 4096, TimeUnit.SECONDS.toNanos(10), 2);
+        messageListener.registerPacketBufferStore(packetBuffers);
+        messageListener.onPacketInMessage(packetIn);
+        ArgumentCaptor<PacketInMessage> relayed = ArgumentCaptor.forClass(PacketInMessage.class);
+        Mockito.verify(shimRelay).sendOpenFlowMessageToCore(Matchers.eq(connector), relayed.capture(),
+                Matchers.anyShort(), Matchers.anyLong(), Matchers.eq(1L), Matchers.eq(0));
+        Assert.assertArrayEquals(new byte[] { 1, 2 }, relayed.getValue().getData());
+        Assert.assertTrue(packetBuffers.isShimBufferId(1L, relayed.getValue().getBufferId()));
+        Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 6 },
+                packetBuffers.take(1L, relayed.getValue().getBufferId()).getData());
+    }
+
+    @Test
+    public void testOnPacketInMessageNotesBufferOfSwitch() {
+        Class clazz = PacketInMessage.class;
+        Mockito.when(packetIn.getImplementedInterface()).thenReturn(clazz);
+        Mockito.when(packetIn.getBufferId()).thenReturn(PacketBufferStore.FIRST_ID);
+        Mockito.when(packetIn.getData()).thenReturn(new byte[] { 1, 2, 3, 4, 5, 6 });
+        registry.registerConnectionAdapter(switchConnection, features);
+        PacketBufferStore packetBuffers = new PacketBufferStore(4, 4096, TimeUnit.SECONDS.toNanos(10), 2);
+        messageListener.registerPacketBufferStore(packetBuffers);
+        messageListener.onPacketInMessage(packetIn);
+        Mockito.verify(shimRelay).sendOpenFlowMessageToCore(connector, packetIn, packetIn.getVersion(),
+                packetIn.getXid(), 1L, 0);
+        // the id of the switch is not given out by the shim
+        Assert.assertNotEquals(PacketBufferStore.FIRST_ID, packetBuffers.store(1L, 3L, new byte[10]));
+    }
+
     @Test
     public void testOnPortStatusMessage() {
         Class clazz = PortStatusMessage.class;
@@ -12,11 +12,16 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.UnpooledByteBufAllocator;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -26,6 +31,7 @@ import org.opendaylight.openflowjava.protocol.api.connection.ConnectionAdapter;
 import org.opendaylight.openflowjava.protocol.api.util.EncodeConstants;
 import org.opendaylight.openflowjava.protocol.impl.deserialization.DeserializationFactory;
 import org.opendaylight.openflowjava.protocol.impl.serialization.SerializationFactory;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.FlowModCommand;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.HelloElementType;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierOutput;
@@ -36,6 +42,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.EchoReplyInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.ExperimenterInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetAsyncInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetAsyncOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetAsyncOutputBuilder;
@@ -43,6 +50,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetConfigOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetConfigOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetQueueConfigInput;
@@ -53,7 +61,9 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.HelloInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MeterModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketOutInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PacketOutInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortModInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.PortModInputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.SetAsyncInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.SetConfigInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.TableModInput;
@@ -72,7 +82,7 @@ import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
 public class ShimRelayTest {
 
     @Mock
-    ZeroMQBaseConnector coreConnector;
+    ICoreConnector coreConnector;
 
     @Mock
     SerializationFactory factory;
@@ -115,8 +125,10 @@ public class ShimRelayTest {
 
     @Test
     public void testSendOpenFlowMessageToCore() {
-        Mockito.doCallRealMethod().when(shimRelay).sendOpenFlowMessageToCore(coreConnector, msg, ofVersion, 1L, 1, 1);
-        shimRelay.sendOpenFlowMessageToCore(coreConnector, msg, ofVersion, 1L, 1, 1);
+        ShimRelay relay = Mockito.spy(new ShimRelay());
+        Mockito.doReturn(factory).when(relay).createSerializationFactory();
+        Mockito.doReturn(deserializationFactory).when(relay).createDeserializationFactory();
+        relay.sendOpenFlowMessageToCore(coreConnector, msg, ofVersion, 1L, 1, 1);
         Mockito.verify(factory).messageToBuffer(Mockito.eq(ofVersion), Matchers.any(ByteBuf.class), Mockito.eq(msg));
         Mockito.verify(coreConnector).SendData(Matchers.any(byte[].class));
     }
@@ -124,10 +136,13 @@ public class ShimRelayTest {
     @Test
     public void testSendToSwitch() {
         ByteBuf input = UnpooledByteBufAllocator.DEFAULT.buffer();
-        Mockito.doCallRealMethod().when(shimRelay).sendToSwitch(connectionAdapter, input, ofVersion, coreConnector, 1L,
+        ShimRelay relay = Mockito.spy(new ShimRelay());
+        Mockito.doReturn(factory).when(relay).createSerializationFactory();
+        Mockito.doReturn(deserializationFactory).when(relay).createDeserializationFactory();
+        Mockito.doNothing().when(relay).sendDataObjectToSwitch(connectionAdapter, msg, ofVersion, coreConnector, 1L,
                 1);
-        shimRelay.sendToSwitch(connectionAdapter, input, ofVersion, coreConnector, 1L, 1);
-        Mockito.verify(shimRelay).sendDataObjectToSwitch(connectionAdapter, msg, ofVersion, coreConnector, 1L, 1);
+        relay.sendToSwitch(connectionAdapter, input, ofVersion, coreConnector, 1L, 1);
+        Mockito.verify(relay).sendDataObjectToSwitch(connectionAdapter, msg, ofVersion, coreConnector, 1L, 1);
     }
 
     @Test
@@ -358,6 +373,55 @@ public class ShimRelayTest {
         Mockito.verify(connectionAdapter).packetOut(Matchers.any(PacketOutInput.class));
     }
 
+    @Test
+    public void testStoredFramesPutBackForTheSwitch() {
+        ShimRelay relay = new ShimRelay();
+        PacketBufferStore packetBuffers = new PacketBufferStore(4, 4096, TimeUnit.SECONDS.toNanos(10), 2);
+        relay.setPacketBufferStore(packetBuffers);
+        byte[] frame = new byte[] { 1, 2, 3, 4 };
+        PacketOutInput packetOut = new PacketOutInputBuilder().setVersion(ofVersion).setXid(1L)
+                .setBufferId(packetBuffers.store(1L, 3L, frame)).build();
+        relay.sendDataObjectToSwitch(connectionAdapter, packetOut, ofVersion, coreConnector, 1L, 1);
+        FlowModInput flowMod = new FlowModInputBuilder().setVersion(ofVersion).setXid(2L)
+                .setBufferId(packetBuffers.store(1L, 3L, frame)).build();
+        relay.sendDataObjectToSwitch(connectionAdapter, flowMod, ofVersion, coreConnector, 1L, 1);
+
+        ArgumentCaptor<PacketOutInput> packetOuts = ArgumentCaptor.forClass(PacketOutInput.class);
+        Mockito.verify(connectionAdapter, Mockito.times(2)).packetOut(packetOuts.capture());
+        ArgumentCaptor<FlowModInput> flowMods = ArgumentCaptor.forClass(FlowModInput.class);
+        Mockito.verify(connectionAdapter).flowMod(flowMods.capture());
+        Assert.assertEquals(PacketBufferStore.NO_BUFFER, flowMods.getValue().getBufferId().longValue());
+        for (PacketOutInput sent : packetOuts.getAllValues()) {
+            Assert.assertEquals(PacketBufferStore.NO_BUFFER, sent.getBufferId().longValue());
+            Assert.assertArrayEquals(frame, sent.getData());
+        }
+        // the packet of the flow mod goes through the tables from its port
+        Assert.assertEquals(3L, packetOuts.getAllValues().get(1).getInPort().getValue().longValue());
+        Assert.assertEquals(0, packetBuffers.size());
+        // once the flow is in the table
+        InOrder inOrder = Mockito.inOrder(connectionAdapter);
+        inOrder.verify(connectionAdapter).flowMod(Matchers.any(FlowModInput.class));
+        inOrder.verify(connectionAdapter).barrier(Matchers.any(BarrierInput.class));
+        inOrder.verify(connectionAdapter).packetOut(Matchers.any(PacketOutInput.class));
+    }
+
+    @Test
+    public void testStoredFrameKeptOnFlowDelete() {
+        ShimRelay relay = new ShimRelay();
+        PacketBufferStore packetBuffers = new PacketBufferStore(4, 4096, TimeUnit.SECONDS.toNanos(10), 2);
+        relay.setPacketBufferStore(packetBuffers);
+        long bufferId = packetBuffers.store(1L, 3L, new byte[] { 1, 2, 3, 4 });
+        FlowModInput flowMod = new FlowModInputBuilder().setVersion(ofVersion).setXid(2L)
+                .setCommand(FlowModCommand.OFPFCDELETE).setBufferId(bufferId).build();
+        relay.sendDataObjectToSwitch(connectionAdapter, flowMod, ofVersion, coreConnector, 1L, 1);
+
+        ArgumentCaptor<FlowModInput> flowMods = ArgumentCaptor.forClass(FlowModInput.class);
+        Mockito.verify(connectionAdapter).flowMod(flowMods.capture());
+        Assert.assertEquals(PacketBufferStore.NO_BUFFER, flowMods.getValue().getBufferId().longValue());
+        Mockito.verify(connectionAdapter, Mockito.never()).packetOut(Matchers.any(PacketOutInput.class));
+        Assert.assertEquals(1, packetBuffers.size());
+    }
+
     @Test
     public void testSendPortModInputToSwitch() {
         PortModInput message = Mockito.mock(PortModInput.class);
@@ -414,6 +478,75 @@ public class ShimRelayTest {
         Assert.assertEquals(TableModInput.class.getName(), shimRelay.getImplementedInterface(message));
     }
 
+    @Test
+    public void testOutboundBatching() {
+        Future<RpcResult<BarrierOutput>> reply = Futures
+                .immediateFuture(RpcResultBuilder.success(new BarrierOutputBuilder().build()).build());
+        Mockito.when(connectionAdapter.barrier(Matchers.any(BarrierInput.class))).thenReturn(reply);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ShimRelay relay = new ShimRelay();
+            relay.setOutboundBatching(scheduler, TimeUnit.SECONDS.toNanos(10), 64);
+            TableModInput message = new TableModInputBuilder().setVersion(ofVersion).setXid(1L).build();
+            relay.sendDataObjectToSwitch(connectionAdapter, message, ofVersion, coreConnector, 1L, 1);
+            relay.sendDataObjectToSwitch(connectionAdapter, message, ofVersion, coreConnector, 1L, 1);
+            Mockito.verify(connectionAdapter, Mockito.never()).tableMod(Matchers.any(TableModInput.class));
+
+            relay.sendBarrierToSwitch(connectionAdapter, ofVersion, coreConnector, 2L, 1L, 1);
+            InOrder inOrder = Mockito.inOrder(connectionAdapter);
+            inOrder.verify(connectionAdapter, Mockito.times(2)).tableMod(message);
+            inOrder.verify(connectionAdapter).barrier(Matchers.any(BarrierInput.class));
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetFeaturesFromReplyCache() {
+        ShimRelay relay = Mockito.spy(new ShimRelay());
+        SwitchReplyCache replyCache = new SwitchReplyCache();
+        replyCache.featuresReceived(1L, new GetFeaturesOutputBuilder().setVersion(ofVersion).setXid(9L).build());
+        relay.setReplyCache(replyCache);
+        Mockito.doNothing().when(relay).sendOpenFlowMessageToCore(Matchers.eq(coreConnector),
+                Matchers.any(DataObject.class), Matchers.anyShort(), Matchers.anyLong(), Matchers.anyLong(),
+                Matchers.anyInt());
+
+        GetFeaturesInput message = new GetFeaturesInputBuilder().setVersion(ofVersion).setXid(5L).build();
+        relay.sendDataObjectToSwitch(connectionAdapter, message, ofVersion, coreConnector, 1L, 2);
+        Mockito.verify(connectionAdapter, Mockito.never()).getFeatures(Matchers.any(GetFeaturesInput.class));
+        Mockito.verify(relay).sendOpenFlowMessageToCore(Matchers.eq(coreConnector), Matchers.any(DataObject.class),
+                Matchers.eq(ofVersion), Matchers.eq(5L), Matchers.eq(1L), Matchers.eq(2));
+    }
+
+    @Test
+    public void testPortModInvalidatesPortDesc() {
+        short of10 = (short) EncodeConstants.OF10_VERSION_ID;
+        ShimRelay relay = new ShimRelay();
+        SwitchReplyCache replyCache = new SwitchReplyCache();
+        replyCache.featuresReceived(1L, new GetFeaturesOutputBuilder().setVersion(of10).setXid(9L).build());
+        relay.setReplyCache(replyCache);
+        Assert.assertNotNull(replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 6L));
+
+        PortModInput message = new PortModInputBuilder().setVersion(of10).setXid(5L).build();
+        relay.sendDataObjectToSwitch(connectionAdapter, message, of10, coreConnector, 1L, 2);
+        Mockito.verify(connectionAdapter).portMod(message);
+        // the features of OF1.0 list the ports
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 6L));
+    }
+
+    @Test
+    public void testNegotiatedVersionPerConnection() {
+        ShimRelay relay = new ShimRelay();
+        ConnectionAdapter other = Mockito.mock(ConnectionAdapter.class);
+        Assert.assertEquals(0, relay.getNegotiatedVersion(connectionAdapter));
+        relay.setNegotiatedVersion(connectionAdapter, (short) EncodeConstants.OF10_VERSION_ID);
+        relay.setNegotiatedVersion(other, ofVersion);
+        Assert.assertEquals(EncodeConstants.OF10_VERSION_ID, relay.getNegotiatedVersion(connectionAdapter));
+        Assert.assertEquals(ofVersion, relay.getNegotiatedVersion(other));
+        relay.removeSwitch(other);
+        Assert.assertEquals(0, relay.getNegotiatedVersion(other));
+    }
+
     @Test
     public void testCreateSerializationFactory() {
         Mockito.doCallRealMethod().when(shimRelay).createSerializationFactory();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShimStatisticsTest {
+
+    ShimStatistics statistics;
+
+    @Before
+    public void setUp() {
+        statistics = new ShimStatistics();
+    }
+
+    @Test
+    public void testCoreCounters() {
+        statistics.messageToCore(10);
+        statistics.messageToCore(20);
+        statistics.messageFromCore(5);
+        Assert.assertEquals(2, statistics.getMessagesToCore());
+        Assert.assertEquals(30, statistics.getBytesToCore());
+        Assert.assertEquals(1, statistics.getMessagesFromCore());
+        Assert.assertEquals(5, statistics.getBytesFromCore());
+    }
+
+    @Test
+    public void testCoreQueueDepth() {
+        statistics.coreMessageQueued();
+        statistics.coreMessageQueued();
+        statistics.coreMessageDequeued();
+        Assert.assertEquals(1, statistics.getCoreQueueDepth());
+    }
+
+    @Test
+    public void testSwitchCounters() {
+        statistics.messageToSwitch(1L, 14, 80);
+        statistics.messageToSwitch(1L, 14, 72);
+        statistics.messageFromSwitch(1L, 10, 100);
+        SwitchCounters counters = statistics.getSwitchCounters(1L);
+        Assert.assertEquals(2, counters.getMessages(SwitchCounters.TO_SWITCH, 14));
+        Assert.assertEquals(152, counters.getBytes(SwitchCounters.TO_SWITCH, 14));
+        Assert.assertEquals(1, counters.getMessages(SwitchCounters.FROM_SWITCH, 10));
+        Assert.assertEquals(0, counters.getMessages(SwitchCounters.FROM_SWITCH, 14));
+        Assert.assertEquals(1, statistics.getSwitchCounters().size());
+    }
+
+    @Test
+    public void testOutstandingRequests() {
+        statistics.requestSent(1L);
+        statistics.requestSent(2L);
+        statistics.requestCompleted(1L);
+        Assert.assertEquals(1, statistics.getOutstandingRequests());
+        Assert.assertEquals(0, statistics.getSwitchCounters(1L).getOutstandingRequests());
+        Assert.assertEquals(1, statistics.getSwitchCounters(2L).getOutstandingRequests());
+    }
+
+    @Test
+    public void testDrops() {
+        statistics.drop();
+        statistics.drop(1L);
+        Assert.assertEquals(2, statistics.getDrops());
+        Assert.assertEquals(1, statistics.getSwitchCounters(1L).getDrops());
+    }
+
+    @Test
+    public void testRemoveSwitch() {
+        statistics.messageFromSwitch(1L, 10, 100);
+        statistics.removeSwitch(1L);
+        Assert.assertTrue(statistics.getSwitchCounters().isEmpty());
+    }
+
+    @Test
+    public void testRequestCompletedAfterRemoveSwitch() {
+        statistics.requestSent(1L);
+        statistics.removeSwitch(1L);
+        statistics.requestCompleted(1L);
+        Assert.assertEquals(0, statistics.getOutstandingRequests());
+        Assert.assertTrue(statistics.getSwitchCounters().isEmpty());
+    }
+
+    @Test
+    public void testNotificationPublishLatency() {
+        statistics.notificationPublished(300L);
+        statistics.notificationPublished(1200L);
+        statistics.notificationPublished(500L);
+        Assert.assertEquals(3, statistics.getNotificationsPublished());
+        Assert.assertEquals(2000, statistics.getNotificationPublishNanos());
+        Assert.assertEquals(1200, statistics.getMaxNotificationPublishNanos());
+    }
+
+    @Test
+    public void testEchoProbes() {
+        statistics.echoAnswered();
+        statistics.echoProbed(1L, 400L);
+        statistics.echoProbed(1L, 200L);
+        statistics.echoProbeFailed();
+        Assert.assertEquals(1, statistics.getEchoesAnswered());
+        Assert.assertEquals(2, statistics.getEchoProbes());
+        Assert.assertEquals(1, statistics.getEchoProbeFailures());
+        Assert.assertEquals(600, statistics.getEchoRttNanos());
+        Assert.assertEquals(400, statistics.getMaxEchoRttNanos());
+        Assert.assertEquals(200, statistics.getSwitchCounters(1L).getLastEchoRttNanos());
+    }
+
+    @Test
+    public void testStripedCounterFromManyThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(8000, counter.sum());
+    }
+}
@@ -26,6 +26,7 @@ import org.javatuples.Pair;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -49,13 +50,17 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeUpdated;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeUpdatedBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.BarrierInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.FlowModInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutputBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.HelloInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInput;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.hello.Elements;
 import org.opendaylight.yangtools.yang.binding.Augmentation;
 import org.opendaylight.yangtools.yang.binding.DataContainer;
+import org.opendaylight.yangtools.yang.binding.DataObject;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
@@ -72,7 +77,7 @@ public class ShimSwitchConnectionHandlerImplTest {
     NodeUpdated nodeUpdated;
 
     @Mock
-    ZeroMQBaseConnector coreConnector;
+    ICoreConnector coreConnector;
 
     @Mock
     InetAddress address;
@@ -122,6 +127,19 @@ public class ShimSwitchConnectionHandlerImplTest {
         Mockito.verify(connectionHandler).handshake(connectionAdapter);
     }
 
+    @Test
+    public void testSwitchFlapsLeaveNoContext() {
+        Mockito.doNothing().when(connectionHandler).handshake(Matchers.any(ConnectionAdapter.class));
+        for (int i = 0; i < 100; i++) {
+            ConnectionAdapter flapping = Mockito.mock(ConnectionAdapter.class);
+            connectionHandler.onSwitchConnected(flapping);
+            Assert.assertNotNull(connectionHandler.getConnectionContext(flapping));
+            connectionHandler.onSwitchDisconnected(flapping);
+            Assert.assertNull(connectionHandler.getConnectionContext(flapping));
+        }
+        Assert.assertEquals(0, connectionHandler.getConnectionContexts());
+    }
+
     @Test
     public void testHandshake() {
         Mockito.stub(connectionHandler.getMaxOFSupportedProtocol()).toReturn(EncodeConstants.OF13_VERSION_ID);
@@ -183,6 +201,75 @@ public class ShimSwitchConnectionHandlerImplTest {
                 1L, 0);
     }
 
+    @Test
+    public void testOnFenceCoreMessage() {
+        short version = EncodeConstants.OF13_VERSION_ID;
+        FlowModInput command = Mockito.mock(FlowModInput.class);
+        connectionHandler.setFenceBatching(16);
+        Mockito.doReturn(connectionAdapter).when(registry).getConnectionAdapter(1L);
+        Mockito.doReturn(version).when(msg).readUnsignedByte();
+        Mockito.doReturn(command).when(shimRelay).deserialize(msg, version, 1L, 0);
+
+        connectionHandler.onOpenFlowCoreMessage(1L, msg, 0);
+        Mockito.verify(shimRelay, Mockito.never()).sendDataObjectToSwitch(Matchers.any(ConnectionAdapter.class),
+                Matchers.any(DataObject.class), Matchers.anyShort(), Matchers.any(ICoreConnector.class),
+                Matchers.anyLong(), Matchers.anyInt());
+
+        connectionHandler.onFenceCoreMessage(1L, 0, 7);
+        Mockito.verify(shimRelay).sendDataObjectToSwitch(connectionAdapter, command, version, coreConnector, 1L, 0);
+        Mockito.verify(shimRelay).sendBarrierToSwitch(connectionAdapter, version, coreConnector, 7L, 1L, 0);
+    }
+
+    @Test
+    public void testOnFenceCoreMessageWithNothingHeld() {
+        short version = EncodeConstants.OF13_VERSION_ID;
+        connectionHandler.setFenceBatching(16);
+        Mockito.doReturn(connectionAdapter).when(registry).getConnectionAdapter(1L);
+        Mockito.stub(connectionHandler.getSupportedProtocol()).toReturn(new Pair<Protocol, ProtocolVersions>(
+                Protocol.OPENFLOW, ProtocolVersions.parse(Protocol.OPENFLOW, (byte) version)));
+
+        connectionHandler.onFenceCoreMessage(1L, 0, 7);
+        Mockito.verify(shimRelay).sendBarrierToSwitch(connectionAdapter, version, coreConnector, 7L, 1L, 0);
+    }
+
+    @Test
+    public void testRequestNotHeldUntilFence() {
+        short version = EncodeConstants.OF13_VERSION_ID;
+        MultipartRequestInput request = Mockito.mock(MultipartRequestInput.class);
+        connectionHandler.setFenceBatching(16);
+        Mockito.doReturn(connectionAdapter).when(registry).getConnectionAdapter(1L);
+        Mockito.doReturn(version).when(msg).readUnsignedByte();
+        Mockito.doReturn(request).when(shimRelay).deserialize(msg, version, 1L, 0);
+
+        connectionHandler.onOpenFlowCoreMessage(1L, msg, 0);
+        Mockito.verify(shimRelay).sendDataObjectToSwitch(connectionAdapter, request, version, coreConnector, 1L, 0);
+    }
+
+    @Test
+    public void testHeldCommandsSentBeforeRequest() {
+        short version = EncodeConstants.OF13_VERSION_ID;
+        FlowModInput command = Mockito.mock(FlowModInput.class);
+        BarrierInput barrier = Mockito.mock(BarrierInput.class);
+        connectionHandler.setFenceBatching(16);
+        Mockito.doReturn(connectionAdapter).when(registry).getConnectionAdapter(1L);
+        Mockito.doReturn(version).when(msg).readUnsignedByte();
+        Mockito.doReturn(command).when(shimRelay).deserialize(msg, version, 1L, 0);
+        connectionHandler.onOpenFlowCoreMessage(1L, msg, 0);
+        Mockito.doReturn(barrier).when(shimRelay).deserialize(msg, version, 1L, 0);
+        connectionHandler.onOpenFlowCoreMessage(1L, msg, 0);
+
+        InOrder inOrder = Mockito.inOrder(shimRelay);
+        inOrder.verify(shimRelay).sendDataObjectToSwitch(connectionAdapter, command, version, coreConnector, 1L, 0);
+        inOrder.verify(shimRelay).sendDataObjectToSwitch(connectionAdapter, barrier, version, coreConnector, 1L, 0);
+
+        // nothing left for the FENCE but its barrier
+        Mockito.stub(connectionHandler.getSupportedProtocol()).toReturn(new Pair<Protocol, ProtocolVersions>(
+                Protocol.OPENFLOW, ProtocolVersions.parse(Protocol.OPENFLOW, (byte) version)));
+        connectionHandler.onFenceCoreMessage(1L, 0, 7);
+        Mockito.verify(shimRelay, Mockito.times(1)).sendDataObjectToSwitch(connectionAdapter, command, version,
+                coreConnector, 1L, 0);
+    }
+
     @Test
     public void testOnHelloCoreMessage() {
         Mockito.doNothing().when(connectionHandler).sendGetFeaturesOuputToCore((short) EncodeConstants.OF13_VERSION_ID,
@@ -204,6 +291,34 @@ public class ShimSwitchConnectionHandlerImplTest {
         Mockito.verify(coreConnector).SendData(msg.toByteRepresentation());
         Mockito.verify(connectionHandler).sendGetFeaturesOuputToCore((short) EncodeConstants.OF13_VERSION_ID, 0,
                 connectionAdapter);
+        // a core that does not ask for compression gets none
+        Mockito.verify(coreConnector).disableCompression();
+    }
+
+    @Test
+    public void testOnHelloCoreMessageWithCompression() {
+        Mockito.doNothing().when(connectionHandler).sendGetFeaturesOuputToCore((short) EncodeConstants.OF13_VERSION_ID,
+                0, connectionAdapter);
+
+        Pair<Protocol, ProtocolVersions> supportedProtocol = new Pair<Protocol, ProtocolVersions>(Protocol.OPENFLOW,
+                ProtocolVersions.parse(Protocol.OPENFLOW, EncodeConstants.OF13_VERSION_ID));
+        Pair<Protocol, ProtocolVersions> compression = new Pair<Protocol, ProtocolVersions>(Protocol.COMPRESSION,
+                ProtocolVersions.COMPRESSION_DEFLATE);
+        Mockito.stub(connectionHandler.getSupportedProtocol()).toReturn(supportedProtocol);
+        Mockito.stub(registry.getConnectionAdapters()).toReturn(new HashSet<ConnectionAdapter>());
+        Mockito.stub(coreConnector.enableCompression()).toReturn(true);
+        List<Pair<Protocol, ProtocolVersions>> requestedProtocols = new ArrayList<>();
+        requestedProtocols.add(supportedProtocol);
+        requestedProtocols.add(compression);
+        HelloMessage msg = new HelloMessage();
+        msg.getSupportedProtocols().add(supportedProtocol);
+        msg.getSupportedProtocols().add(compression);
+        msg.getHeader().setPayloadLength((short) 4);
+        msg.getHeader().setModuleId(0);
+        connectionHandler.onHelloCoreMessage(requestedProtocols, 0);
+        Mockito.verify(coreConnector).enableCompression();
+        Mockito.verify(coreConnector, Mockito.never()).disableCompression();
+        Mockito.verify(coreConnector).SendData(msg.toByteRepresentation());
     }
 
     @Test
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShimThreadModelTest {
+
+    private static String replyThreadName(ShimThreadModel threadModel) throws Exception {
+        ReplyExecutor executor = threadModel.createReplyExecutor();
+        try {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return Thread.currentThread().getName();
+                }
+            }).get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNamedReplyThreads() throws Exception {
+        ShimThreadModel threadModel = new ShimThreadModel();
+        threadModel.setNamePrefix("shim");
+        threadModel.setReplyThreads(2);
+        Assert.assertEquals("shim-reply-0", replyThreadName(threadModel));
+        Assert.assertNull(threadModel.createDispatchExecutor());
+    }
+
+    @Test
+    public void testVirtualReplyThreadsFallBack() throws Exception {
+        ShimThreadModel threadModel = new ShimThreadModel();
+        threadModel.setVirtualReplyThreads(true);
+        // virtual threads where the JVM has them, platform threads otherwise
+        Assert.assertEquals("netide-reply-0", replyThreadName(threadModel));
+    }
+}
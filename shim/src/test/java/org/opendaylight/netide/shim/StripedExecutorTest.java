@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StripedExecutorTest {
+
+    StripedExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new StripedExecutor(4, 100, new ShimThreadModel().threadFactory("test"));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testOrderPerKey() throws Exception {
+        final List<List<Integer>> seen = new ArrayList<>();
+        for (int key = 0; key < 8; key++) {
+            seen.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        for (int i = 0; i < 1000; i++) {
+            final int key = i % 8;
+            final int value = i;
+            executor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    seen.get(key).add(value);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        for (int key = 0; key < 8; key++) {
+            List<Integer> values = seen.get(key);
+            Assert.assertEquals(125, values.size());
+            for (int i = 1; i < values.size(); i++) {
+                Assert.assertTrue(values.get(i - 1) < values.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testExecuteOnAllWaitsForEveryStripe() throws Exception {
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger doneBeforeAll = new AtomicInteger(-1);
+        final AtomicInteger doneAfterAll = new AtomicInteger();
+        for (int key = 0; key < 40; key++) {
+            executor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    done.incrementAndGet();
+                }
+            });
+        }
+        executor.executeOnAll(new Runnable() {
+            @Override
+            public void run() {
+                doneBeforeAll.set(done.get());
+            }
+        });
+        for (int key = 0; key < 40; key++) {
+            executor.execute(key, new Runnable() {
+                @Override
+                public void run() {
+                    if (doneBeforeAll.get() >= 0) {
+                        doneAfterAll.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(40, doneBeforeAll.get());
+        Assert.assertEquals(40, doneAfterAll.get());
+    }
+
+    @Test
+    public void testFullStripeHoldsCallerUp() throws Exception {
+        final StripedExecutor bounded = new StripedExecutor(1, 1, new ShimThreadModel().threadFactory("bounded"));
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch queued = new CountDownLatch(1);
+        final AtomicInteger ran = new AtomicInteger();
+        try {
+            bounded.execute(0, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    ran.incrementAndGet();
+                }
+            });
+            final Runnable count = new Runnable() {
+                @Override
+                public void run() {
+                    ran.incrementAndGet();
+                }
+            };
+            bounded.execute(0, count);
+            Thread producer = new Thread() {
+                @Override
+                public void run() {
+                    bounded.execute(0, count);
+                    queued.countDown();
+                }
+            };
+            producer.start();
+            Assert.assertFalse(queued.await(200, TimeUnit.MILLISECONDS));
+            release.countDown();
+            Assert.assertTrue(queued.await(10, TimeUnit.SECONDS));
+            bounded.shutdown();
+            Assert.assertTrue(bounded.awaitTermination(10, TimeUnit.SECONDS));
+            Assert.assertEquals(3, ran.get());
+        } finally {
+            release.countDown();
+            bounded.shutdown();
+        }
+    }
+}
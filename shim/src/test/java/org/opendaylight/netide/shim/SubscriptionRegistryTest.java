@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.EventSubscription;
+
+public class SubscriptionRegistryTest {
+
+    SubscriptionRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new SubscriptionRegistry();
+    }
+
+    @Test
+    public void testEverythingWantedWithoutSubscriptions() {
+        Assert.assertTrue(registry.isWanted(1L, 10, 0, 0));
+        Assert.assertTrue(registry.isWanted(2L, 12, EventSubscription.ANY, 2));
+    }
+
+    @Test
+    public void testOnlySubscribedEventsWanted() {
+        registry.subscribe("core", 1, EventSubscription.parse("subscribe type=10 dpid=1"));
+        registry.subscribe("core", 2, EventSubscription.parse("subscribe type=12\nsubscribe type=11 reason=2"));
+        Assert.assertEquals(2, registry.getModuleCount());
+        Assert.assertEquals(3, registry.size());
+        Assert.assertTrue(registry.isWanted(1L, 10, 0, 0));
+        Assert.assertFalse(registry.isWanted(2L, 10, 0, 0));
+        Assert.assertTrue(registry.isWanted(2L, 12, EventSubscription.ANY, 0));
+        Assert.assertTrue(registry.isWanted(2L, 11, 0, 2));
+        Assert.assertFalse(registry.isWanted(2L, 11, 0, 0));
+    }
+
+    @Test
+    public void testSubscriptionsReplacedAndWithdrawn() {
+        registry.subscribe("core", 1, EventSubscription.parse("subscribe type=10 dpid=1"));
+        registry.subscribe("core", 1, EventSubscription.parse("subscribe type=10 dpid=2"));
+        Assert.assertFalse(registry.isWanted(1L, 10, 0, 0));
+        Assert.assertTrue(registry.isWanted(2L, 10, 0, 0));
+        registry.subscribe("core", 1, Collections.<EventSubscription>emptyList());
+        Assert.assertEquals(0, registry.getModuleCount());
+        Assert.assertTrue(registry.isWanted(1L, 10, 0, 0));
+    }
+
+    @Test
+    public void testModulesKeyedByCore() {
+        registry.subscribe("core1", 1, EventSubscription.parse("subscribe type=10"));
+        registry.subscribe("core2", 1, EventSubscription.parse("subscribe type=12"));
+        Assert.assertEquals(2, registry.getModuleCount());
+        Assert.assertTrue(registry.isWanted(1L, 10, 0, 0));
+        Assert.assertTrue(registry.isWanted(1L, 12, EventSubscription.ANY, 0));
+        Assert.assertFalse(registry.isWanted(1L, 11, 0, 0));
+    }
+
+    @Test
+    public void testEverythingWantedUntilAnnouncedModulesSubscribe() {
+        registry.announce("core", 1);
+        registry.announce("core", 2);
+        registry.subscribe("core", 1, EventSubscription.parse("subscribe type=10"));
+        Assert.assertTrue(registry.isWanted(1L, 11, 0, 0));
+        registry.subscribe("core", 2, EventSubscription.parse("subscribe type=12"));
+        Assert.assertFalse(registry.isWanted(1L, 11, 0, 0));
+        registry.announce("core", 3);
+        Assert.assertTrue(registry.isWanted(1L, 11, 0, 0));
+        Assert.assertEquals(2, registry.size());
+    }
+}
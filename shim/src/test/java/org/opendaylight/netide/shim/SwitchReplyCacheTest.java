@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartRequestFlags;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.common.types.rev130731.MultipartType;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.GetFeaturesOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessage;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartReplyMessageBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.openflow.protocol.rev130731.MultipartRequestInputBuilder;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+
+public class SwitchReplyCacheTest {
+
+    SwitchReplyCache replyCache;
+
+    @Before
+    public void setUp() {
+        replyCache = new SwitchReplyCache();
+    }
+
+    private MultipartReplyMessage part(MultipartType type, long xid, boolean more) {
+        return new MultipartReplyMessageBuilder().setVersion((short) 4).setXid(xid).setType(type)
+                .setFlags(new MultipartRequestFlags(more)).build();
+    }
+
+    @Test
+    public void testFeaturesRewrittenWithRequestXid() {
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 5L));
+        replyCache.featuresReceived(1L, new GetFeaturesOutputBuilder().setVersion((short) 4).setXid(1L).build());
+        List<DataObject> reply = replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 5L);
+        Assert.assertEquals(1, reply.size());
+        Assert.assertEquals(5L, ((GetFeaturesOutput) reply.get(0)).getXid().longValue());
+
+        replyCache.portStatus(1L, (short) 4);
+        Assert.assertNotNull(replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 5L));
+        replyCache.portStatus(1L, (short) 1);
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.FEATURES, 5L));
+    }
+
+    @Test
+    public void testMultipartCachedWithLastPart() {
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPTABLEFEATURES, 7L, true));
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.TABLE_FEATURES, 8L));
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPTABLEFEATURES, 7L, false));
+        List<DataObject> reply = replyCache.get(1L, SwitchReplyCache.Kind.TABLE_FEATURES, 8L);
+        Assert.assertEquals(2, reply.size());
+        Assert.assertEquals(8L, ((MultipartReplyMessage) reply.get(1)).getXid().longValue());
+
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPFLOW, 9L, false));
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.DESC, 8L));
+    }
+
+    @Test
+    public void testPortStatusInvalidatesPortDesc() {
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPPORTDESC, 7L, true));
+        // a port changed while the reply was coming in, it may be stale
+        replyCache.portStatus(1L, (short) 4);
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPPORTDESC, 7L, false));
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.PORT_DESC, 8L));
+
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPPORTDESC, 10L, false));
+        Assert.assertNotNull(replyCache.get(1L, SwitchReplyCache.Kind.PORT_DESC, 8L));
+        replyCache.portStatus(1L, (short) 4);
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.PORT_DESC, 8L));
+        replyCache.multipartReceived(1L, part(MultipartType.OFPMPDESC, 11L, false));
+        replyCache.removeSwitch(1L);
+        Assert.assertNull(replyCache.get(1L, SwitchReplyCache.Kind.DESC, 8L));
+    }
+
+    @Test
+    public void testKindOf() {
+        MultipartRequestInputBuilder request = new MultipartRequestInputBuilder().setVersion((short) 4).setXid(1L);
+        Assert.assertEquals(SwitchReplyCache.Kind.DESC,
+                SwitchReplyCache.kindOf(request.setType(MultipartType.OFPMPDESC).build()));
+        Assert.assertEquals(SwitchReplyCache.Kind.TABLE_FEATURES,
+                SwitchReplyCache.kindOf(request.setType(MultipartType.OFPMPTABLEFEATURES).build()));
+        Assert.assertNull(SwitchReplyCache.kindOf(request.setType(MultipartType.OFPMPFLOW).build()));
+    }
+}
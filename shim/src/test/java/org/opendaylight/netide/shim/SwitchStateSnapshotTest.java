@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SwitchStateSnapshotTest {
+
+    File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("netide", "snapshot");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        SwitchStateSnapshot snapshot = new SwitchStateSnapshot();
+        snapshot.put(1L, Arrays.asList(new byte[] { 4, 6, 0, 8 }, new byte[] { 4, 19, 0, 9, 1 }));
+        snapshot.put(2L, Arrays.asList(new byte[] { 1, 6 }));
+        snapshot.write(file);
+
+        SwitchStateSnapshot read = SwitchStateSnapshot.read(file);
+        Assert.assertEquals(2, read.size());
+        List<byte[]> messages = read.remove(1L);
+        Assert.assertEquals(2, messages.size());
+        Assert.assertArrayEquals(new byte[] { 4, 19, 0, 9, 1 }, messages.get(1));
+        Assert.assertNull(read.remove(1L));
+        Assert.assertArrayEquals(new byte[] { 1, 6 }, read.remove(2L).get(0));
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() throws IOException {
+        Assert.assertEquals(0, SwitchStateSnapshot.read(file).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFileRejected() throws IOException {
+        SwitchStateSnapshot snapshot = new SwitchStateSnapshot();
+        snapshot.put(1L, Arrays.asList(new byte[] { 4, 6, 0, 8 }));
+        snapshot.write(file);
+        byte[] valid = Files.readAllBytes(file.toPath());
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(valid, 0, valid.length - 2);
+        }
+        SwitchStateSnapshot.read(file);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TopologySyncTest {
+
+    ScheduledExecutorService executor;
+    ShardedCoreConnectorTest.RecordingConnector connector;
+    TopologySync<String> sync;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ShimThreadModel().threadFactory("test"));
+        connector = new ShardedCoreConnectorTest.RecordingConnector();
+        sync = new TopologySync<>(executor, connector, new TopologySync.Encoder<String>() {
+            @Override
+            public byte[] encode(String connection, int moduleId) {
+                return connection.equals("gone") ? null : new byte[] { (byte) moduleId };
+            }
+        }, 2, TimeUnit.MILLISECONDS.toNanos(1), 0);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void awaitPending(int pending) throws InterruptedException {
+        for (int i = 0; i < 200 && sync.getPending() != pending; i++) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(pending, sync.getPending());
+    }
+
+    @Test
+    public void testSentInBatches() throws Exception {
+        sync.start(connector, 3, Arrays.asList("a", "b", "gone", "c", "d"));
+        awaitPending(0);
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        Assert.assertEquals(3, connector.batches);
+        Assert.assertEquals(4, connector.sent.size());
+        Assert.assertEquals(4, sync.getSent());
+        Assert.assertEquals(3, connector.sent.get(0)[0]);
+    }
+
+    @Test
+    public void testHeldWhileCoreDown() throws Exception {
+        connector.state = CoreLinkState.DOWN;
+        sync.start(connector, 1, Arrays.asList("a", "b", "c"));
+        for (int i = 0; i < 200 && sync.getDeferrals() < 3; i++) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(sync.getDeferrals() >= 3);
+        Assert.assertEquals(3, sync.getPending());
+        connector.state = CoreLinkState.UP;
+        awaitPending(0);
+        Assert.assertEquals(3, sync.getSent());
+    }
+
+    @Test
+    public void testSameModuleIdOfTwoCores() throws Exception {
+        connector.state = CoreLinkState.DOWN;
+        sync.start("core1", 1, Arrays.asList("a", "b"));
+        sync.start("core2", 1, Arrays.asList("c"));
+        // a hello of the module on the second core does not restart the first one
+        awaitPending(3);
+        sync.start("core1", 1, Arrays.asList("d"));
+        awaitPending(2);
+        connector.state = CoreLinkState.UP;
+        awaitPending(0);
+        Assert.assertEquals(2, sync.getSent());
+    }
+}
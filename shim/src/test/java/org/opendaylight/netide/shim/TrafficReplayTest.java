@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 NetIDE Consortium and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.netide.shim;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.opendaylight.netide.netiplib.HelloMessage;
+import org.opendaylight.netide.netiplib.NetIPConverter;
+import org.opendaylight.netide.netiplib.TrafficLogReader;
+import org.opendaylight.netide.netiplib.TrafficLogWriter;
+import org.opendaylight.netide.netiplib.TrafficRecord;
+import org.zeromq.ZMQ;
+
+public class TrafficReplayTest {
+
+    File directory;
+    ZMQ.Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("netip", "log");
+        directory.delete();
+        context = ZMQ.context(1);
+    }
+
+    @After
+    public void tearDown() {
+        context.term();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testReplayAsShim() throws Exception {
+        try (TrafficLogWriter writer = new TrafficLogWriter(directory, 4096)) {
+            for (int i = 0; i < 3; i++) {
+                HelloMessage hello = new HelloMessage();
+                hello.getHeader().setModuleId(i);
+                writer.append(TrafficRecord.TO_CORE, hello.toByteRepresentation());
+                writer.append(TrafficRecord.FROM_CORE, hello.toByteRepresentation());
+            }
+        }
+        ZMQ.Socket core = context.socket(ZMQ.ROUTER);
+        core.bind("inproc://replay");
+
+        TrafficReplay replay = new TrafficReplay(context, TrafficReplay.Role.SHIM, "inproc://replay");
+        replay.setMaxSpeed(true);
+        TrafficLogReader reader = new TrafficLogReader(directory);
+        Assert.assertEquals(3, replay.replay(reader));
+        reader.close();
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertArrayEquals("shim".getBytes(), core.recv());
+            byte[] frame = core.recv();
+            Assert.assertEquals(i, NetIPConverter.parseConcreteMessage(frame).getHeader().getModuleId());
+        }
+        core.close();
+    }
+}